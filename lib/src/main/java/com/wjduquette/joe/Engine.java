@@ -1,5 +1,7 @@
 package com.wjduquette.joe;
 
+import com.wjduquette.joe.parser.ParsedScript;
+
 /**
  * An Engine is a parsing and execution engine for the Joe language.
  * It provides a clean interface between the parsing and execution
@@ -33,6 +35,21 @@ public interface Engine {
      */
     Object run(String filename, String source) throws SyntaxError, JoeError;
 
+    /**
+     * Executes a script that has already been parsed, e.g., by the
+     * {@link PackageRegistry}'s pre-parser, throwing an appropriate error
+     * on failure.  By default, the engine parses the script's source
+     * again.
+     * @param script The parsed script
+     * @return The script's result
+     * @throws SyntaxError if the script could not be compiled.
+     * @throws JoeError on all runtime errors.
+     */
+    default Object run(ParsedScript script) throws SyntaxError, JoeError {
+        var buffer = script.buffer();
+        return run(buffer.filename(), buffer.source());
+    }
+
     /**
      * Compiles the script and returns a compilation dump,
      * throwing an appropriate error on failure.
@@ -13,6 +13,12 @@ public class Environment {
     /** The map from variable names to values. */
     protected final Map<String, Object> values = new HashMap<>();
 
+    /**
+     * The environment's base, a read-only map of variables shared with
+     * other environments; see {@link #setBase(Map)}.
+     */
+    protected Map<String, Object> base = Map.of();
+
     //-------------------------------------------------------------------------
     // Constructor
 
@@ -42,7 +48,7 @@ public class Environment {
      */
     @SuppressWarnings("unused")
     public boolean hasVariable(String name) {
-        return values.containsKey(name);
+        return values.containsKey(name) || base.containsKey(name);
     }
 
     /**
@@ -51,7 +57,9 @@ public class Environment {
      * @return The value
      */
     public Object getVariable(String name) {
-        return values.get(name);
+        var value = values.get(name);
+        if (value != null || values.containsKey(name)) return value;
+        return base.get(name);
     }
 
     /**
@@ -68,7 +76,13 @@ public class Environment {
      * @return The set.
      */
     public Set<String> getVariableNames() {
-        return Collections.unmodifiableSet(values.keySet());
+        if (base.isEmpty()) {
+            return Collections.unmodifiableSet(values.keySet());
+        }
+
+        var result = new HashSet<>(base.keySet());
+        result.addAll(values.keySet());
+        return Collections.unmodifiableSet(result);
     }
 
     /**
@@ -79,12 +93,39 @@ public class Environment {
         values.putAll(map);
     }
 
+    /**
+     * Sets the environment's base: a map of variables that the environment
+     * shares with other environments, e.g., the standard library, rather
+     * than copying them.  The environment never modifies the base;
+     * setting a base variable's value in the environment shadows it.
+     * The map must not change while the environment is in use.
+     * @param base The map
+     */
+    public void setBase(Map<String, Object> base) {
+        this.base = Collections.unmodifiableMap(base);
+    }
+
+    /**
+     * Gets a read-only copy of the environment's variables, for use as
+     * the base of other environments.
+     * @return The map
+     */
+    public Map<String, Object> snapshot() {
+        var result = new HashMap<String, Object>();
+        for (var name : getVariableNames()) {
+            result.put(name, getVariable(name));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
     /**
      * Merges another environment into this one.
      * @param other The other environment.
      */
     public void merge(Environment other) {
-        values.putAll(other.values);
+        for (var name : other.getVariableNames()) {
+            setVariable(name, other.getVariable(name));
+        }
     }
 
     /**
@@ -94,10 +135,9 @@ public class Environment {
     public String dump() {
         var buff = new StringBuilder();
         buff.append(this);
-        var map = new TreeMap<>(values);
-        for (var key : map.keySet()) {
+        for (var key : new TreeSet<>(getVariableNames())) {
             buff.append(String.format(
-                "  %-20s %s\n", key, map.get(key).toString()));
+                "  %-20s %s\n", key, getVariable(key)));
         }
         return buff.toString().stripTrailing();
     }
@@ -74,6 +74,10 @@ public class Joe {
     private final Map<Class<?>, ProxyType<?>> proxyTable = new HashMap<>();
     private final Set<Class<?>> cachedTypes = new HashSet<>();
 
+    // The standard library's shared snapshot, whose proxy types back up
+    // the proxyTable, or null if this instance loaded the library itself.
+    private final StandardLibrary.Snapshot library;
+
     // The handler for all script-generated output
     private Consumer<String> outputHandler = this::systemOutHandler;
 
@@ -98,8 +102,21 @@ public class Joe {
      * @param engineType CLARK or WALKER
      */
     public Joe(String engineType) {
+        this(engineType, StandardLibrary.snapshot());
+    }
+
+    /**
+     * Creates an instance whose global environment and proxy table
+     * are overlays on the standard library's shared snapshot, so that
+     * nothing is copied until it is used; or that loads the standard
+     * library itself, if the snapshot is null.
+     * @param engineType CLARK or WALKER
+     * @param library The snapshot, or null
+     */
+    Joe(String engineType, StandardLibrary.Snapshot library) {
         this.engineName = engineType;
         this.engine = makeEngine(engineName);
+        this.library = library;
         this.packageRegistry = new PackageRegistry(this);
         packageRegistry.loadStandardLibrary();
     }
@@ -123,11 +140,34 @@ public class Joe {
      */
     Engine getVanillaEngine() {
         var eng = makeEngine(engineName);
-        eng.getEnvironment()
-            .merge(packageRegistry.getExports(StandardLibrary.PACKAGE.name()));
+        if (library != null) {
+            eng.getEnvironment().setBase(library.globals());
+        } else {
+            eng.getEnvironment().merge(
+                packageRegistry.getExports(StandardLibrary.PACKAGE.name()));
+        }
         return eng;
     }
 
+    /**
+     * Gets the standard library's shared snapshot.
+     * @return The snapshot, or null if this instance loaded the
+     * library itself.
+     */
+    StandardLibrary.Snapshot library() {
+        return library;
+    }
+
+    /**
+     * Gets a read-only copy of the proxy table's registered types.
+     * @return The map
+     */
+    Map<Class<?>, ProxyType<?>> typeSnapshot() {
+        var result = new HashMap<>(proxyTable);
+        cachedTypes.forEach(result::remove);
+        return Collections.unmodifiableMap(result);
+    }
+
     //-------------------------------------------------------------------------
     // Configuration and Embedding
 
@@ -432,7 +472,7 @@ public class Joe {
      */
     ProxyType<?> lookupProxy(Class<?> cls) {
         // FIRST, do have a known proxy?
-        var proxy = proxyTable.get(cls);
+        var proxy = registeredProxy(cls);
         if (proxy != null) {
             return proxy;
         }
@@ -441,7 +481,7 @@ public class Joe {
         var c = cls.getSuperclass();
 
         do {
-            proxy = proxyTable.get(c);
+            proxy = registeredProxy(c);
 
             if (proxy != null) {
                 // If we could only find a proxy for a supertype,
@@ -461,7 +501,7 @@ public class Joe {
 
         do {
             for (var type : c.getInterfaces()) {
-                proxy = proxyTable.get(type);
+                proxy = registeredProxy(type);
 
                 if (proxy != null) {
                     proxyTable.put(cls, proxy);
@@ -481,6 +521,30 @@ public class Joe {
         return opaque;
     }
 
+    // Gets the proxy registered or cached for the class, falling back on
+    // the standard library's types.
+    private ProxyType<?> registeredProxy(Class<?> cls) {
+        var proxy = proxyTable.get(cls);
+        if (proxy == null && library != null) {
+            proxy = library.types().get(cls);
+        }
+        return proxy;
+    }
+
+    /**
+     * Looks up the named instance method for values of the given class
+     * in the class's proxy type, so that the engine can call it directly.
+     * The class must not be a {@link JoeValue} or {@link JoeInstance},
+     * which have no proxies.
+     * @param cls The class
+     * @param name The method name
+     * @return The method's callable, or null if there is no such method.
+     */
+    @SuppressWarnings("unchecked")
+    public JoeValueLambda<Object> lookupMethod(Class<?> cls, String name) {
+        return (JoeValueLambda<Object>)lookupProxy(cls).findMethod(name);
+    }
+
     /**
      * Given a value, gets it as a JoeValue.  If the value implements
      * the JoeValue interface, it is returned immediately; otherwise
@@ -4,6 +4,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 import com.wjduquette.joe.SourceBuffer.Span;
 
@@ -16,15 +17,25 @@ public class JoeError extends RuntimeException {
     //-------------------------------------------------------------------------
     // Instance Variables
 
-    /** The stack trace and information messages included in the error. */
-    private final List<Trace> traces = new ArrayList<>();
+    /**
+     * The stack trace and information messages included in the error,
+     * some of which might not have been rendered yet.  Set to null
+     * when the traces are rendered by `getTraces()`.
+     */
+    private List<Supplier<Trace>> entries = new ArrayList<>();
+
+    /** The rendered traces, or null if they haven't been rendered. */
+    private List<Trace> traces = null;
 
     /**
      * The context of the error.  This is initially set by `RuntimeError`,
      * and is reset as the error is passed up the call chain so that it
      * has the correct value as the caller adds it to the stack trace.
+     * If the context hasn't been computed yet, `pendingSource` computes
+     * it on demand.
      */
     private SourceBuffer.Span pendingContext = null;
+    private Supplier<Span> pendingSource = null;
 
     //-------------------------------------------------------------------------
     // Constructor
@@ -56,6 +67,27 @@ public class JoeError extends RuntimeException {
      */
     void setPendingContext(Span pendingContext) {
         this.pendingContext = pendingContext;
+        this.pendingSource = null;
+    }
+
+    /**
+     * Sets the error's context for use by the next catcher of this
+     * exception, to be computed only when it is needed.  For internal
+     * use only.
+     * @param pendingSource The source of the context
+     */
+    void setPendingSource(Supplier<Span> pendingSource) {
+        this.pendingContext = null;
+        this.pendingSource = pendingSource;
+    }
+
+    // Gets the pending context, computing it if need be.
+    private Span pendingContext() {
+        if (pendingSource != null) {
+            pendingContext = pendingSource.get();
+            pendingSource = null;
+        }
+        return pendingContext;
     }
 
     //-------------------------------------------------------------------------
@@ -76,8 +108,28 @@ public class JoeError extends RuntimeException {
      */
     @SuppressWarnings("UnusedReturnValue")
     public final JoeError addFrame(Span newContext, String message) {
-        traces.add(new Trace(newContext, message));
-        pendingContext = newContext;
+        add(new Trace(newContext, message));
+        setPendingContext(newContext);
+        return this;
+    }
+
+    /**
+     * Adds a call frame trace to the error, to be computed only when the
+     * traces are rendered, and uses the frame's context as the pending
+     * context.  Engines use this so that errors that are caught and
+     * handled by a script needn't format their stack traces.
+     * @param frame The source of the trace
+     * @return this
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public final JoeError addFrame(Supplier<Trace> frame) {
+        var lazy = new LazyTrace(frame);
+        if (traces != null) {
+            traces.add(lazy.get());
+        } else {
+            entries.add(lazy);
+        }
+        setPendingSource(() -> lazy.get().context());
         return this;
     }
 
@@ -91,8 +143,8 @@ public class JoeError extends RuntimeException {
      * @return this
      */
     public final JoeError addPendingFrame(Span newContext, String message) {
-        traces.add(new Trace(pendingContext, message));
-        pendingContext = newContext;
+        add(new Trace(pendingContext(), message));
+        setPendingContext(newContext);
         return this;
     }
 
@@ -103,7 +155,7 @@ public class JoeError extends RuntimeException {
      * @return this
      */
     public final JoeError addFrame(String message) {
-        traces.add(new Trace(pendingContext, message));
+        add(new Trace(pendingContext(), message));
         return this;
     }
 
@@ -113,7 +165,7 @@ public class JoeError extends RuntimeException {
      * @return this
      */
     public final JoeError addInfo(String message) {
-        traces.add(new Trace(null, message));
+        add(new Trace(null, message));
         return this;
     }
 
@@ -125,11 +177,19 @@ public class JoeError extends RuntimeException {
      * @return this
      */
     public final JoeError addInfo(Span context, String message) {
-        traces.add(new Trace(null, message));
-        pendingContext = context;
+        add(new Trace(null, message));
+        setPendingContext(context);
         return this;
     }
 
+    private void add(Trace trace) {
+        if (traces != null) {
+            traces.add(trace);
+        } else {
+            entries.add(() -> trace);
+        }
+    }
+
     /**
      * Returns the list of accumulated trace records.
      * Traces can be stack frames or informational.  Stack frames proper
@@ -138,6 +198,13 @@ public class JoeError extends RuntimeException {
      * @return The list
      */
     public final List<Trace> getTraces() {
+        if (traces == null) {
+            traces = new ArrayList<>(entries.size());
+            for (var entry : entries) {
+                traces.add(entry.get());
+            }
+            entries = null;
+        }
         return traces;
     }
 
@@ -150,7 +217,7 @@ public class JoeError extends RuntimeException {
     public String getTraceReport() {
         var list = new ArrayList<String>();
         var includedSourceContext = false;
-        for (var trace : traces) {
+        for (var trace : getTraces()) {
             if (trace.hasContext()) {
                 list.add(trace.message() + " " + location(trace.context()));
                 if (!includedSourceContext) {
@@ -197,7 +264,7 @@ public class JoeError extends RuntimeException {
      * @return The stack trace
      */
     public String getJoeStackTrace() {
-        if (traces.isEmpty()) {
+        if (getTraces().isEmpty()) {
             return getMessage();
         } else {
             return getMessage() + "\n" + getTraceReport().indent(2);
@@ -224,6 +291,29 @@ public class JoeError extends RuntimeException {
      * @return The line number
      */
     public int line() {
-        return pendingContext != null ? pendingContext.startLine() : -1;
+        var context = pendingContext();
+        return context != null ? context.startLine() : -1;
+    }
+
+    //-------------------------------------------------------------------------
+    // Helper Classes
+
+    // A trace that is computed on first use.
+    private static class LazyTrace implements Supplier<Trace> {
+        private Supplier<Trace> source;
+        private Trace trace = null;
+
+        LazyTrace(Supplier<Trace> source) {
+            this.source = source;
+        }
+
+        @Override
+        public Trace get() {
+            if (source != null) {
+                trace = source.get();
+                source = null;
+            }
+            return trace;
+        }
     }
 }
@@ -25,6 +25,9 @@ public class PackageRegistry {
     // Package loading stack: used to detect recursive loads.
     private final Stack<String> loadingStack = new Stack<>();
 
+    // Whether scripted packages are pre-parsed on registration.
+    private boolean preParsing = false;
+
     //-------------------------------------------------------------------------
     // Constructor
 
@@ -39,6 +42,9 @@ public class PackageRegistry {
 
     /**
      * Registers and loads the `joe` package into Joe's global environment.
+     * If Joe has the standard library's shared snapshot, the snapshot's
+     * variables become the base of the global environment and of the
+     * package's exports, and nothing is copied.
      */
     void loadStandardLibrary() {
         var pkg = StandardLibrary.PACKAGE;
@@ -50,13 +56,23 @@ public class PackageRegistry {
         // FIRST, register the package
         registry.put(pkg.name(), pkg);
 
-        // NEXT, load it into the global environment, which will be empty.
-        pkg.load(joe, joe.engine());
-
-        // NEXT, everything is exported, so copy the entire global environment
-        // as the package's exports.
-        exportsMap.put(StandardLibrary.PACKAGE.name(),
-            new Environment(joe.engine().getEnvironment()));
+        var library = joe.library();
+        if (library != null) {
+            // NEXT, share the snapshot's variables.  Joe gets the
+            // snapshot's types from the snapshot directly.
+            joe.engine().getEnvironment().setBase(library.globals());
+            var exports = new Environment();
+            exports.setBase(library.globals());
+            exportsMap.put(pkg.name(), exports);
+        } else {
+            // NEXT, load it into the global environment, which will be empty.
+            pkg.load(joe, joe.engine());
+
+            // NEXT, everything is exported, so copy the entire global
+            // environment as the package's exports.
+            exportsMap.put(pkg.name(),
+                new Environment(joe.engine().getEnvironment()));
+        }
 
         // NEXT, register standard packages
         joe.registerPackage(JoeTextPackage.PACKAGE);
@@ -81,6 +97,44 @@ public class PackageRegistry {
      */
     public void register(JoePackage pkg) {
         registry.put(pkg.name(), pkg);
+        if (preParsing) preParse(pkg);
+    }
+
+    /**
+     * Sets whether scripted packages are pre-parsed on registration.
+     * Pre-parsing a {@link ScriptedPackage} parses its script files in
+     * parallel on a worker pool, so that loading the package on import
+     * need only execute them; packages are still loaded in import order.
+     * Parsed scripts are cached by path and modification time, and
+     * reused by every Joe instance in the JVM.  Enabling pre-parsing
+     * pre-parses the scripted packages already registered and not yet
+     * loaded.  Defaults to false.
+     * @param flag true or false
+     */
+    public void setPreParsing(boolean flag) {
+        this.preParsing = flag;
+        if (preParsing) {
+            registry.values().stream()
+                .filter(pkg -> !isLoaded(pkg.name()))
+                .forEach(this::preParse);
+        }
+    }
+
+    /**
+     * Clears the JVM-wide cache of parsed package scripts.  Cached scripts
+     * are replaced when their files change, but are otherwise retained
+     * for the life of the JVM; a long-running host can call this to
+     * release them, e.g., after its Joe instances have loaded their
+     * packages.  Scripts are parsed again as needed.
+     */
+    public static void clearParseCache() {
+        ScriptCache.clear();
+    }
+
+    private void preParse(JoePackage pkg) {
+        if (pkg instanceof ScriptedPackage sp && !sp.isPreParsed()) {
+            sp.preParse();
+        }
     }
 
     /**
@@ -117,6 +171,14 @@ public class PackageRegistry {
     //-------------------------------------------------------------------------
     // Queries
 
+    /**
+     * Gets whether scripted packages are pre-parsed on registration.
+     * @return true or false
+     */
+    public boolean isPreParsing() {
+        return preParsing;
+    }
+
     /**
      * Gets the known package names.
      * @return the names
@@ -512,6 +512,26 @@ public class ProxyType<V>
         }
     }
 
+    /**
+     * Gets the callable for the named instance method, looking in the
+     * super proxy if need be.  This allows an engine to call the method
+     * directly on a value of the proxied type, rather than first binding
+     * it to the value.
+     * @param name The method name
+     * @return The callable, or null if there is no such method.
+     */
+    public JoeValueLambda<? super V> findMethod(String name) {
+        var method = methods.get(name);
+
+        if (method != null) {
+            return method;
+        } else if (superProxy != null) {
+            return superProxy.findMethod(name);
+        } else {
+            return null;
+        }
+    }
+
     //-------------------------------------------------------------------------
     // Public Methods
 
@@ -2,6 +2,8 @@ package com.wjduquette.joe;
 
 import com.wjduquette.joe.SourceBuffer.Span;
 
+import java.util.function.Supplier;
+
 /**
  * A runtime error found during script execution by Joe's core
  * interpreter.
@@ -19,4 +21,18 @@ public class RuntimeError extends JoeError {
         super(message);
         setPendingContext(context);
     }
+
+    /**
+     * Creates a RuntimeError whose source context is computed only
+     * when it is needed, e.g., when the error's stack trace is rendered.
+     * Engines use this so that errors that are caught and handled by a
+     * script needn't look up the source location.
+     *
+     * @param context The source of the context
+     * @param message The error message
+     */
+    public RuntimeError(Supplier<Span> context, String message) {
+        super(message);
+        setPendingSource(context);
+    }
 }
@@ -0,0 +1,112 @@
+package com.wjduquette.joe;
+
+import com.wjduquette.joe.parser.ParsedScript;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A JVM-wide cache of parsed script files, keyed by path and
+ * modification time, shared by all Joe instances.  Scripts are parsed on
+ * the common fork/join pool; parsing has no side effects, and the
+ * parsed AST is immutable, so a parsed script can be executed by any
+ * number of engines.  See {@link PackageRegistry#setPreParsing(boolean)}.
+ */
+final class ScriptCache {
+    private ScriptCache() {} // Not instantiable
+
+    //-------------------------------------------------------------------------
+    // Static Variables
+
+    // A script file's parse, and the file attributes it was parsed from.
+    private record Entry(
+        FileTime modified,
+        long size,
+        CompletableFuture<ParsedScript> script
+    ) {
+        boolean isCurrent(BasicFileAttributes attrs) {
+            return modified.equals(attrs.lastModifiedTime())
+                && size == attrs.size();
+        }
+    }
+
+    private static final ConcurrentHashMap<Path, Entry> cache =
+        new ConcurrentHashMap<>();
+
+    //-------------------------------------------------------------------------
+    // Operations
+
+    /**
+     * Begins parsing the script file in the background, unless the cache
+     * already has a current parse of it.  Errors are reported by
+     * {@link #get(Path)}.
+     * @param path The script file
+     */
+    static void preParse(Path path) {
+        try {
+            entry(path);
+        } catch (IOException ex) {
+            // Reported by get() when the script is loaded.
+        }
+    }
+
+    /**
+     * Gets the parsed script file, waiting for it to be parsed if need be.
+     * @param path The script file
+     * @return The parsed script
+     * @throws SyntaxError if the script could not be parsed.
+     * @throws IOException if the script could not be read.
+     */
+    static ParsedScript get(Path path) throws IOException {
+        try {
+            return entry(path).script().join();
+        } catch (CompletionException ex) {
+            switch (ex.getCause()) {
+                // The same error can be thrown to any number of callers;
+                // give each its own, as the error's trace report is
+                // consumed when read.
+                case SyntaxError e -> throw new SyntaxError(e.getMessage(),
+                    e.getTraces(), e.isComplete());
+                case UncheckedIOException e -> throw e.getCause();
+                case RuntimeException e -> throw e;
+                default -> throw ex;
+            }
+        }
+    }
+
+    /**
+     * Clears the cache.
+     */
+    static void clear() {
+        cache.clear();
+    }
+
+    // Gets the file's current entry, replacing any stale entry with a
+    // new parse.
+    private static Entry entry(Path path) throws IOException {
+        var key = path.toAbsolutePath().normalize();
+        var attrs = Files.readAttributes(key, BasicFileAttributes.class);
+
+        return cache.compute(key, (p, old) ->
+            old != null && old.isCurrent(attrs)
+                ? old
+                : new Entry(attrs.lastModifiedTime(), attrs.size(),
+                    CompletableFuture.supplyAsync(() -> parse(path))));
+    }
+
+    private static ParsedScript parse(Path path) {
+        try {
+            var source = Files.readString(path);
+            return ParsedScript.parse(path.getFileName().toString(), source);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
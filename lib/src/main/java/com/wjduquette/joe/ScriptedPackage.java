@@ -18,6 +18,9 @@ public class ScriptedPackage extends JoePackage {
     private final Path folder;
     private final List<Path> scriptFiles = new ArrayList<>();
 
+    // Whether the script files are loaded from the ScriptCache.
+    private boolean preParsed = false;
+
     //-------------------------------------------------------------------------
     // Constructor
 
@@ -55,9 +58,29 @@ public class ScriptedPackage extends JoePackage {
         return Collections.unmodifiableList(scriptFiles);
     }
 
+    /**
+     * Returns true if the package's script files have been pre-parsed,
+     * and false otherwise.
+     * @return true or false
+     */
+    public boolean isPreParsed() {
+        return preParsed;
+    }
+
     //-------------------------------------------------------------------------
     // Operations
 
+    /**
+     * Begins parsing the package's script files in the background, so
+     * that {@link #load(Joe, Engine)} need only execute them.  Parsed
+     * scripts are cached by path and modification time, and shared with
+     * every Joe instance in the JVM.
+     */
+    public void preParse() {
+        preParsed = true;
+        scriptFiles.forEach(ScriptCache::preParse);
+    }
+
     /**
      * Loads the package's content into the engine, marking exports as exports.
      * @param joe The overall interpreter
@@ -70,11 +93,13 @@ public class ScriptedPackage extends JoePackage {
     }
 
     private void loadScriptFile(Engine engine, Path path) {
-        String script;
-
         try {
-            script = Files.readString(path);
-            engine.run(path.getFileName().toString(), script);
+            if (preParsed) {
+                engine.run(ScriptCache.get(path));
+            } else {
+                var script = Files.readString(path);
+                engine.run(path.getFileName().toString(), script);
+            }
         } catch (SyntaxError ex) {
             throw new JoeError("Could not compile package script '" +
                 path + "' into package '" + name() + "':\n" +
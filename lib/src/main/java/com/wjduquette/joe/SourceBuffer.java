@@ -1,7 +1,6 @@
 package com.wjduquette.joe;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * A buffer containing a source script, and the script's name.  The buffer
@@ -20,8 +19,9 @@ public class SourceBuffer {
     private final String source;
 
     // The character index in source of the first character in each line.
-    // lines.get(0) returns the start of Line 1.
-    private final List<Integer> lines = new ArrayList<>();
+    // lines[0] is the start of Line 1.  The indices are in increasing
+    // order, so index2line() can binary search them.
+    private final int[] lines;
 
     //-------------------------------------------------------------------------
     // Constructor
@@ -37,14 +37,19 @@ public class SourceBuffer {
 
         // FIRST, scan for lines.
         var len = source.length();
-        lines.add(0);
+        var starts = new int[16];
+        var count = 1;
         var newLine = false;
         for (int i = 0; i < len; i++) {
             if (newLine) {
-                lines.add(i);
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, 2*count);
+                }
+                starts[count++] = i;
             }
             newLine = source.charAt(i) == '\n';
         }
+        this.lines = Arrays.copyOf(starts, count);
     }
 
     //-------------------------------------------------------------------------
@@ -71,7 +76,7 @@ public class SourceBuffer {
      * @return the count
      */
     public int lineCount() {
-        return lines.size();
+        return lines.length;
     }
 
     /**
@@ -81,8 +86,8 @@ public class SourceBuffer {
      * @return The text.
      */
     public String line(int line) {
-        if (0 < line && line <= lines.size()) {
-            var start = lines.get(line - 1);
+        if (0 < line && line <= lines.length) {
+            var start = lines[line - 1];
             var end = endOfLine(line);
             return source.substring(start, end).stripTrailing();
         } else {
@@ -99,26 +104,22 @@ public class SourceBuffer {
         // FIRST, allow the character position just after the end
         // of the string as a valid index to the last line.
         if (index == source.length()) {
-            return lines.size();
+            return lines.length;
         }
-
-        // NEXT, find the line that contains this index.
-        for (var line = 1; line <= lines.size(); line++) {
-            var start = lines.get(line - 1);
-            var end = endOfLine(line);
-
-            if (start <= index && index < end) {
-                return line;
-            }
+        if (index < 0 || index > source.length()) {
+            return -1;
         }
-        return -1;
+
+        // NEXT, find the last line that starts at or before this index.
+        var i = Arrays.binarySearch(lines, index);
+        return i >= 0 ? i + 1 : -(i + 1);
     }
 
     private int endOfLine(int line) {
         // NOTE: lines is indexed 0 to n-1, but line is an index
         // 1 to n.
-        return line < lines.size()
-            ? lines.get(line)  // Beginning of the next line
+        return line < lines.length
+            ? lines[line]      // Beginning of the next line
             : source.length(); // End of the string
     }
 
@@ -130,7 +131,7 @@ public class SourceBuffer {
      */
     public Position index2position(int index) {
         var line = index2line(index);
-        var start = lines.get(line - 1);
+        var start = lines[line - 1];
         var column = (index - start) + 1;
         return new Position(line, column);
     }
@@ -159,8 +160,8 @@ public class SourceBuffer {
      * @return The span
      */
     public Span lineSpan(int line) {
-        if (0 < line && line <= lines.size()) {
-            var start = lines.get(line - 1);
+        if (0 < line && line <= lines.length) {
+            var start = lines[line - 1];
             var end = endOfLine(line);
             return span(start, end);
         } else {
@@ -2,9 +2,44 @@ package com.wjduquette.joe;
 
 import com.wjduquette.joe.types.*;
 
+import java.util.Map;
+
 class StandardLibrary extends NativePackage {
     public static final StandardLibrary PACKAGE = new StandardLibrary();
 
+    /**
+     * The loaded standard library: the global variables and proxy types
+     * it defines.  The library's functions and types don't depend on the
+     * Joe instance that loads them, so a single snapshot is shared by
+     * every Joe instance as the base of its global environment and
+     * proxy table.
+     * @param globals The global variables
+     * @param types The proxy types, by proxied class
+     */
+    record Snapshot(
+        Map<String, Object> globals,
+        Map<Class<?>, ProxyType<?>> types
+    ) {}
+
+    // Builds the snapshot on first use.
+    private static class SnapshotHolder {
+        static final Snapshot SNAPSHOT = build();
+
+        private static Snapshot build() {
+            var joe = new Joe(Joe.WALKER, null);
+            return new Snapshot(joe.engine().getEnvironment().snapshot(),
+                joe.typeSnapshot());
+        }
+    }
+
+    /**
+     * Gets the shared snapshot of the loaded standard library.
+     * @return The snapshot
+     */
+    static Snapshot snapshot() {
+        return SnapshotHolder.SNAPSHOT;
+    }
+
     public StandardLibrary() {
         super("joe");
 
@@ -33,6 +68,7 @@ class StandardLibrary extends NativePackage {
         type(NeroPipelineType.TYPE);
         type(NumberType.TYPE);
         type(PathType.TYPE);
+        type(RangeType.TYPE);
         type(RuleSetType.TYPE);
         type(SetType.TYPE);
         type(StringType.TYPE);
@@ -2,6 +2,8 @@ package com.wjduquette.joe.app;
 
 import com.wjduquette.joe.Joe;
 import com.wjduquette.joe.SyntaxError;
+import com.wjduquette.joe.clark.ClarkEngine;
+import com.wjduquette.joe.clark.OpcodeStats;
 import com.wjduquette.joe.parser.Parser;
 import com.wjduquette.joe.tools.Tool;
 import com.wjduquette.joe.tools.ToolInfo;
@@ -11,6 +13,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -22,15 +25,21 @@ public class DumpTool implements Tool {
      */
     public static final ToolInfo INFO = ToolInfo.define()
         .name("dump")
-        .argsig("[options...] file.joe")
+        .argsig("[options...] file.joe...")
         .oneLiner("Dumps information about the Joe script.")
         .launcher(DumpTool::main)
         .help("""
             Dumps compilation details for the script.  The options
             are as follows:
             
-            --code, -c   Dump the compiled byte-code (default)
-            --ast,  -a   Dump the Abstract Syntax Tree (AST)
+            --code, -c     Dump the compiled byte-code (default)
+            --ast,  -a     Dump the Abstract Syntax Tree (AST)
+            --opstats, -s  Count the opcode pairs and triples in the
+                           compiled byte-code of one or more scripts,
+                           and list the most common.
+            --unoptimized, -u
+                           Dump or count the byte-code as compiled,
+                           without peephole optimization.
             """)
         .build();
 
@@ -53,6 +62,10 @@ public class DumpTool implements Tool {
         return INFO;
     }
 
+    // The maximum number of sequences to list for --opstats.
+    private static final int MAX_OPSTATS = 25;
+
+    private boolean optimizing = true;
     private String path = null;
     private String source = null;
 
@@ -65,12 +78,15 @@ public class DumpTool implements Tool {
         }
 
         var dumps = new ArrayList<Runnable>();
+        var opstats = false;
 
         while (!argq.isEmpty() && argq.peek().startsWith("-")) {
             var opt = argq.poll();
             switch (opt) {
                 case "--code", "-c" -> dumps.add(this::dumpCode);
                 case "--ast",  "-a" -> dumps.add(this::dumpAST);
+                case "--opstats", "-s" -> opstats = true;
+                case "--unoptimized", "-u" -> optimizing = false;
                 default -> {
                     System.err.println("Unknown option: '" + opt + "'.");
                     System.exit(64);
@@ -78,6 +94,11 @@ public class DumpTool implements Tool {
             }
         }
 
+        if (opstats) {
+            dumpOpstats(argq);
+            return;
+        }
+
         // Default to --code
         if (dumps.isEmpty()) dumps.add(this::dumpCode);
 
@@ -100,8 +121,27 @@ public class DumpTool implements Tool {
 
     private void dumpCode() {
         println("Byte-code: " + path + "\n");
+        println(joe().dump(path, source));
+    }
+
+    private void dumpOpstats(Collection<String> paths) {
+        var stats = new OpcodeStats(joe());
+
+        for (var path : paths) {
+            try {
+                stats.add(path, readFile(path));
+            } catch (SyntaxError ex) {
+                System.err.println("Skipping " + path + ": " + ex.getMessage());
+            }
+        }
+        println(stats.report(MAX_OPSTATS));
+    }
+
+    // Gets a Clark interpreter with the requested optimization.
+    private Joe joe() {
         var joe = new Joe(Joe.CLARK);
-        println(joe.dump(path, source));
+        ((ClarkEngine)joe.engine()).setOptimizing(optimizing);
+        return joe;
     }
 
     private void dumpAST() {
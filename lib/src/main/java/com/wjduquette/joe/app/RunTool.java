@@ -1,10 +1,16 @@
 package com.wjduquette.joe.app;
 
 import com.wjduquette.joe.Joe;
+import com.wjduquette.joe.clark.ClarkEngine;
+import com.wjduquette.joe.clark.Profiler;
 import com.wjduquette.joe.runner.JoeRunner;
 import com.wjduquette.joe.tools.Tool;
 import com.wjduquette.joe.tools.ToolInfo;
+import com.wjduquette.joe.walker.WalkerEngine;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.List;
 
@@ -36,6 +42,23 @@ public class RunTool implements Tool {
             Use the "Clark" byte-engine (default)
         --walker, -w
             Use the "Walker" AST-walker engine.
+        --nodes, -n
+            Use the "Walker" engine, compiling the script to a tree of
+            executable nodes rather than walking its AST.
+        --profile, -p
+            Profiles the script's execution, and outputs a report of the
+            most expensive functions, the most frequent opcodes, and the
+            most frequent allocation sites on completion.  Requires
+            the "Clark" engine.
+        --flamegraph file, -f file
+            Profiles the script's execution, and writes the time spent
+            in each call stack to the file in the "collapsed stack"
+            format used by flame graph tools.  Requires the "Clark"
+            engine.
+        --jit calls, -j calls
+            Compiles each function to JVM byte-code after the given
+            number of calls; 0 compiles every function, and -1 none.
+            Requires the "Clark" engine.
         --debug, -d
             Enable debugging output.  This is mostly of use to
             the Joe maintainer.
@@ -43,6 +66,9 @@ public class RunTool implements Tool {
         .launcher(RunTool::main)
         .build();
 
+    // The number of entries in each section of the profile report.
+    private static final int PROFILE_LIMIT = 20;
+
     //-------------------------------------------------------------------------
     // Constructor
 
@@ -74,6 +100,10 @@ public class RunTool implements Tool {
         String libPath = null;
         var debug = false;
         var measureRuntime = false;
+        var profile = false;
+        String flameGraph = null;
+        Integer jitThreshold = null;
+        var nodes = false;
 
         while (!argq.isEmpty() && argq.peek().startsWith("-")) {
             var opt = argq.poll();
@@ -81,7 +111,14 @@ public class RunTool implements Tool {
                 case "--libpath", "-l" -> libPath = toOptArg(opt, argq);
                 case "--clark", "-c" -> engineType = Joe.CLARK;
                 case "--walker", "-w" -> engineType = Joe.WALKER;
+                case "--nodes", "-n" -> {
+                    engineType = Joe.WALKER;
+                    nodes = true;
+                }
                 case "--time", "-t" -> measureRuntime = true;
+                case "--profile", "-p" -> profile = true;
+                case "--flamegraph", "-f" -> flameGraph = toOptArg(opt, argq);
+                case "--jit", "-j" -> jitThreshold = toInt(opt, argq);
                 case "--debug", "-d" -> debug = true;
                 default -> {
                     System.err.println("Unknown option: '" + opt + "'.");
@@ -90,6 +127,18 @@ public class RunTool implements Tool {
             }
         }
 
+        var profiler = (profile || flameGraph != null) ? new Profiler() : null;
+        if (profiler != null && !engineType.equals(Joe.CLARK)) {
+            System.err.println("Profiling requires the Clark engine.");
+            System.exit(64);
+        }
+        if (jitThreshold != null && !engineType.equals(Joe.CLARK)) {
+            System.err.println("--jit requires the Clark engine.");
+            System.exit(64);
+        }
+        var jit = jitThreshold;
+        var compiling = nodes;
+
         var runner = JoeRunner.define()
             .appName("Joe " + App.getVersion())
             .engineType(engineType)
@@ -97,6 +146,17 @@ public class RunTool implements Tool {
             .scriptPath(argq.poll())
             .scriptArgs(argq)
             .libPath(libPath != null ? libPath : System.getenv(Joe.JOE_LIB_PATH))
+            .onConfigure(joe -> {
+                if (profiler != null) {
+                    ((ClarkEngine)joe.engine()).setProfiler(profiler);
+                }
+                if (jit != null) {
+                    ((ClarkEngine)joe.engine()).setJitThreshold(jit);
+                }
+                if (compiling) {
+                    ((WalkerEngine)joe.engine()).setCompiling(true);
+                }
+            })
             .build();
         runner.run();
 
@@ -104,6 +164,22 @@ public class RunTool implements Tool {
             var runTime = runner.getRunTime().toMillis() / 1000.0;
             System.out.printf("Run-time: %.3f seconds\n", runTime);
         }
+
+        if (profile) {
+            System.out.println();
+            System.out.print(profiler.report(PROFILE_LIMIT));
+        }
+
+        if (flameGraph != null) {
+            try {
+                Files.writeString(Path.of(flameGraph),
+                    profiler.collapsedStacks());
+            } catch (IOException ex) {
+                System.err.println("Could not write flame graph data: " +
+                    flameGraph + "\n*** " + ex.getMessage());
+                System.exit(1);
+            }
+        }
     }
 
 
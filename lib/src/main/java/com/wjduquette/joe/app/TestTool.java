@@ -1,9 +1,11 @@
 package com.wjduquette.joe.app;
 
 import com.wjduquette.joe.*;
+import com.wjduquette.joe.clark.ClarkEngine;
 import com.wjduquette.joe.runner.TestRunner;
 import com.wjduquette.joe.tools.Tool;
 import com.wjduquette.joe.tools.ToolInfo;
+import com.wjduquette.joe.walker.WalkerEngine;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -37,6 +39,13 @@ public class TestTool implements Tool {
             Use the "Clark" byte-engine (default)
         --walker, -w
             Use the "Walker" AST-walker engine.
+        --nodes, -n
+            Use the "Walker" engine, compiling each script to a tree of
+            executable nodes rather than walking its AST.
+        --jit calls, -j calls
+            Compiles each function to JVM byte-code after the given
+            number of calls; 0 compiles every function, and -1 none.
+            Requires the "Clark" engine.
         
         Test Scripts
         
@@ -65,6 +74,8 @@ public class TestTool implements Tool {
     private String testName = null;
     private String libPath = null;
     private boolean verbose = false;
+    private Integer jitThreshold = null;
+    private boolean nodes = false;
     private final List<String> testScripts = new ArrayList<>();
 
     //-------------------------------------------------------------------------
@@ -101,6 +112,11 @@ public class TestTool implements Tool {
                 case "--libpath", "-l" -> libPath = toOptArg(arg, argq);
                 case "--clark", "-c" -> engineType = Joe.CLARK;
                 case "--walker", "-w" -> engineType = Joe.WALKER;
+                case "--nodes", "-n" -> {
+                    engineType = Joe.WALKER;
+                    nodes = true;
+                }
+                case "--jit", "-j" -> jitThreshold = toInt(arg, argq);
                 case "-v", "--verbose" -> verbose = true;
                 default -> testScripts.add(arg);
             }
@@ -113,6 +129,16 @@ public class TestTool implements Tool {
             .testScripts(testScripts)
             .verbose(verbose)
             .testName(testName)
+            .onConfigure(joe -> {
+                if (jitThreshold != null &&
+                    joe.engine() instanceof ClarkEngine engine
+                ) {
+                    engine.setJitThreshold(jitThreshold);
+                }
+                if (nodes && joe.engine() instanceof WalkerEngine engine) {
+                    engine.setCompiling(true);
+                }
+            })
             .build();
         runner.run();
     }
@@ -0,0 +1,647 @@
+package com.wjduquette.joe.clark;
+
+import com.wjduquette.joe.Keyword;
+import com.wjduquette.joe.SourceBuffer;
+import com.wjduquette.joe.Trace;
+import com.wjduquette.joe.nero.*;
+import com.wjduquette.joe.parser.FunctionType;
+import com.wjduquette.joe.patterns.Pattern;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A directory of compiled scripts, so that a script needn't be
+ * re-parsed and re-compiled each time it is loaded.  Each script's
+ * compiled {@link Function} is saved in a {@code .joec} file whose
+ * name is a hash of the script's source, the compiler's optimization
+ * setting, the compiler's code generation version, and the instruction
+ * set; thus, a change to any of them simply results in a new file.  The cache is best-effort: a file that
+ * can't be written is skipped, and a file that can't be read is
+ * ignored, and the script is compiled as usual.  Stale files are
+ * never deleted; clear the directory as needed.
+ *
+ * <p>A {@code .joec} file contains the function's code, constants,
+ * globals table, run-length-encoded line numbers, and upvalue count,
+ * along with those of the functions it defines, which appear among
+ * its constants.  Source spans are saved as offsets into the source,
+ * which is provided again on load; the source itself is not saved.</p>
+ *
+ * <p>When changing the encoding, or the operands of any instruction,
+ * increment {@code FORMAT_VERSION}.  When changing the code the compiler
+ * generates, increment {@code Compiler.CODEGEN_VERSION}.</p>
+ *
+ * <p>The reader checks each length in the file against the file's
+ * size, so that a corrupt file is rejected rather than causing a huge
+ * allocation.</p>
+ */
+final class BytecodeCache {
+    /** The file extension for cached functions. */
+    static final String EXTENSION = ".joec";
+
+    // The file format version.
+    private static final int FORMAT_VERSION = 1;
+
+    // The magic number at the beginning of each file: "JOEC"
+    private static final int MAGIC = 0x4A4F4543;
+
+    // Constant tags
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte STRING = 4;
+    private static final byte KEYWORD = 5;
+    private static final byte FUNCTION = 6;
+    private static final byte TRACE = 7;
+    private static final byte IMPORT = 8;
+    private static final byte LIST = 9;
+    private static final byte PATTERN = 10;
+    private static final byte RULESET = 11;
+    private static final byte TEMPLATE = 12;
+
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    private final Path dir;
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    /**
+     * Creates a cache in the given directory, which will be created
+     * on demand.
+     * @param dir The directory
+     */
+    BytecodeCache(Path dir) {
+        this.dir = dir;
+    }
+
+    //-------------------------------------------------------------------------
+    // API
+
+    /**
+     * Gets the cache directory.
+     * @return The directory
+     */
+    Path dir() {
+        return dir;
+    }
+
+    /**
+     * Loads the compiled script from the cache.
+     * @param scriptName The script's name, e.g., the file name
+     * @param source The script's source.
+     * @param optimizing Whether the compiler is optimizing
+     * @return The function, or null if it isn't cached or can't be read.
+     */
+    Function load(String scriptName, String source, boolean optimizing) {
+        var file = file(source, optimizing);
+        if (!Files.isRegularFile(file)) return null;
+
+        try (var in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(file)))
+        ) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            return new Reader(in, new SourceBuffer(scriptName, source),
+                Files.size(file)).readFunction();
+        } catch (IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the compiled script to the cache, if possible.
+     * @param source The script's source.
+     * @param optimizing Whether the compiler was optimizing
+     * @param function The compiled script
+     */
+    void save(String source, boolean optimizing, Function function) {
+        var file = file(source, optimizing);
+        Path temp = null;
+
+        try {
+            Files.createDirectories(dir);
+            temp = Files.createTempFile(dir, "joec", ".tmp");
+            try (var out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp)))
+            ) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                new Writer(out).writeFunction(function);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException ex) {
+            // E.g., a constant that can't be written.  The cache is
+            // best-effort; the script will simply be compiled again
+            // next time.
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+    // Gets the cache file for the given source.
+    private Path file(String source, boolean optimizing) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update((FORMAT_VERSION + ":" + optimizing + ":" +
+                Compiler.CODEGEN_VERSION + ":" + Opcode.signature() + ":")
+                .getBytes(StandardCharsets.UTF_8));
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            var hash = HexFormat.of().formatHex(digest.digest());
+            return dir.resolve(hash + EXTENSION);
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JVM is required to support SHA-256.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Writer
+
+    // Writes a function to a stream.  Throws IllegalArgumentException
+    // if it contains a constant that can't be written.
+    private static class Writer {
+        private final DataOutputStream out;
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeFunction(Function f) throws IOException {
+            writeString(f.name());
+            writeString(f.type().name());
+            writeStrings(f.parameters);
+            writeSpan(f.span());
+            out.writeInt(f.upvalueCount);
+            out.writeInt(f.caches.length);
+            writeStrings(List.of(f.globals));
+
+            out.writeInt(f.code.length);
+            for (var c : f.code) out.writeChar(c);
+
+            out.writeInt(f.lineRuns.length);
+            for (var n : f.lineRuns) out.writeInt(n);
+
+            out.writeInt(f.constants.length);
+            for (var constant : f.constants) writeConstant(constant);
+        }
+
+        private void writeConstant(Object value) throws IOException {
+            switch (value) {
+                case Function f -> {
+                    out.writeByte(FUNCTION);
+                    writeFunction(f);
+                }
+                case Trace t -> {
+                    out.writeByte(TRACE);
+                    writeSpan(t.context());
+                    writeString(t.message());
+                }
+                case ImportSpec spec -> {
+                    out.writeByte(IMPORT);
+                    writeString(spec.pkgName());
+                    writeString(spec.symbol());
+                }
+                case List<?> list -> {
+                    out.writeByte(LIST);
+                    out.writeInt(list.size());
+                    for (var item : list) writeString((String)item);
+                }
+                case Pattern p -> {
+                    out.writeByte(PATTERN);
+                    writePattern(p);
+                }
+                case NeroRuleSet rs -> {
+                    out.writeByte(RULESET);
+                    writeRuleSet(rs);
+                }
+                case LiteralTemplate t -> {
+                    out.writeByte(TEMPLATE);
+                    out.writeByte(t.kind().ordinal());
+                    out.writeInt(t.items().length);
+                    for (var item : t.items()) writeValue(item);
+                }
+                case null, default -> writeValue(value);
+            }
+        }
+
+        // Writes a simple value: null, boolean, number, string, keyword.
+        private void writeValue(Object value) throws IOException {
+            switch (value) {
+                case null -> out.writeByte(NULL);
+                case Boolean b -> out.writeByte(b ? TRUE : FALSE);
+                case Double d -> {
+                    out.writeByte(DOUBLE);
+                    out.writeDouble(d);
+                }
+                case String s -> {
+                    out.writeByte(STRING);
+                    writeString(s);
+                }
+                case Keyword k -> {
+                    out.writeByte(KEYWORD);
+                    writeString(k.name());
+                }
+                default -> throw new IllegalArgumentException(
+                    "Can't serialize value: " + value);
+            }
+        }
+
+        private void writePattern(Pattern pattern) throws IOException {
+            // The record type's simple name serves as the tag.
+            writeString(pattern.getClass().getSimpleName());
+            switch (pattern) {
+                case Pattern.Constant p -> writeValue(p.value());
+                case Pattern.Expression p -> out.writeInt(p.id());
+                case Pattern.ListPattern p -> {
+                    writePatterns(p.patterns());
+                    writeNullableString(p.tailVar());
+                }
+                case Pattern.MapPattern p -> {
+                    out.writeInt(p.patterns().size());
+                    for (var e : p.patterns().entrySet()) {
+                        writePattern(e.getKey());
+                        writePattern(e.getValue());
+                    }
+                }
+                case Pattern.NamedField p -> {
+                    writeString(p.typeName());
+                    out.writeInt(p.fieldMap().size());
+                    for (var e : p.fieldMap().entrySet()) {
+                        writeString(e.getKey());
+                        writePattern(e.getValue());
+                    }
+                }
+                case Pattern.OrderedField p -> {
+                    writeString(p.typeName());
+                    writePatterns(p.patterns());
+                }
+                case Pattern.Subpattern p -> {
+                    writeString(p.name());
+                    writePattern(p.subpattern());
+                }
+                case Pattern.TypeName p -> writeString(p.typeName());
+                case Pattern.Variable p -> writeString(p.name());
+                case Pattern.Wildcard p -> writeString(p.name());
+            }
+        }
+
+        private void writePatterns(List<Pattern> patterns) throws IOException {
+            out.writeInt(patterns.size());
+            for (var p : patterns) writePattern(p);
+        }
+
+        private void writeRuleSet(NeroRuleSet ruleSet) throws IOException {
+            var schema = ruleSet.schema();
+            out.writeInt(schema.getRelations().size());
+            for (var relation : schema.getRelations()) {
+                var shape = schema.get(relation);
+                writeString(shape.relation());
+                writeStrings(shape.names());
+            }
+            writeStrings(List.copyOf(schema.getTransients()));
+
+            out.writeInt(ruleSet.axioms().size());
+            for (var atom : ruleSet.axioms()) writeAtom(atom);
+
+            out.writeInt(ruleSet.rules().size());
+            for (var rule : ruleSet.rules()) {
+                writeAtom(rule.head());
+                out.writeInt(rule.bodyAtoms().size());
+                for (var atom : rule.bodyAtoms()) writeAtom(atom);
+                out.writeInt(rule.constraints().size());
+                for (var c : rule.constraints()) {
+                    writeString(c.a().name());
+                    writeString(c.op().name());
+                    writeTerm(c.b());
+                }
+            }
+        }
+
+        private void writeAtom(Atom atom) throws IOException {
+            out.writeBoolean(atom.isNegated());
+            writeString(atom.relation());
+            switch (atom) {
+                case ListAtom a -> {
+                    out.writeBoolean(true);
+                    writeTerms(a.terms());
+                }
+                case MapAtom a -> {
+                    out.writeBoolean(false);
+                    out.writeInt(a.termMap().size());
+                    for (var e : a.termMap().entrySet()) {
+                        writeString(e.getKey());
+                        writeTerm(e.getValue());
+                    }
+                }
+            }
+        }
+
+        private void writeTerm(Term term) throws IOException {
+            // The record type's simple name serves as the tag.
+            writeString(term.getClass().getSimpleName());
+            switch (term) {
+                case Aggregate t -> {
+                    writeString(t.aggregator().name());
+                    writeTerms(t.terms());
+                }
+                case Constant t -> writeValue(t.value());
+                case ListTerm t -> writeTerms(t.terms());
+                case MapTerm t -> writeTerms(t.pairs());
+                case PatternTerm t -> writePattern(t.pattern());
+                case SetTerm t -> writeTerms(t.terms());
+                case Variable t -> writeString(t.name());
+                case VariableWithDefault t -> {
+                    writeString(t.variable().name());
+                    writeTerm(t.value());
+                }
+                case Wildcard t -> writeString(t.name());
+            }
+        }
+
+        private void writeTerms(List<Term> terms) throws IOException {
+            out.writeInt(terms.size());
+            for (var t : terms) writeTerm(t);
+        }
+
+        private void writeSpan(SourceBuffer.Span span) throws IOException {
+            if (span == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(span.start());
+                out.writeInt(span.end());
+            }
+        }
+
+        private void writeStrings(List<String> strings) throws IOException {
+            out.writeInt(strings.size());
+            for (var s : strings) writeString(s);
+        }
+
+        private void writeNullableString(String s) throws IOException {
+            out.writeBoolean(s != null);
+            if (s != null) writeString(s);
+        }
+
+        // DataOutput.writeUTF is limited to 64K bytes.
+        private void writeString(String s) throws IOException {
+            var bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Reader
+
+    // Reads a function from a stream, associating it with the given
+    // source buffer.  Throws IOException on a length greater than the
+    // file's size, as every counted item takes at least one byte.
+    private static class Reader {
+        private final DataInputStream in;
+        private final SourceBuffer buffer;
+        private final long fileSize;
+
+        Reader(DataInputStream in, SourceBuffer buffer, long fileSize) {
+            this.in = in;
+            this.buffer = buffer;
+            this.fileSize = fileSize;
+        }
+
+        // Reads a length or count.
+        private int readLength() throws IOException {
+            var n = in.readInt();
+            if (n < 0 || n > fileSize) {
+                throw new IOException("Invalid length: " + n);
+            }
+            return n;
+        }
+
+        Function readFunction() throws IOException {
+            var name = readString();
+            var type = FunctionType.valueOf(readString());
+            var parameters = readStrings();
+            var span = readSpan();
+            var upvalueCount = readLength();
+            var numCaches = readLength();
+            var globals = readStrings().toArray(new String[0]);
+
+            var code = new char[readLength()];
+            for (var i = 0; i < code.length; i++) code[i] = in.readChar();
+
+            var lineRuns = new int[readLength()];
+            for (var i = 0; i < lineRuns.length; i++) lineRuns[i] = in.readInt();
+
+            var constants = new Object[readLength()];
+            for (var i = 0; i < constants.length; i++) {
+                constants[i] = readConstant();
+            }
+
+            return new Function(name, type, parameters, buffer, span,
+                constants, globals, code, numCaches, lineRuns, upvalueCount);
+        }
+
+        private Object readConstant() throws IOException {
+            var tag = in.readByte();
+            return switch (tag) {
+                case FUNCTION -> readFunction();
+                case TRACE -> {
+                    var span = readSpan();
+                    yield new Trace(span, readString());
+                }
+                case IMPORT -> new ImportSpec(readString(), readString());
+                case LIST -> readStrings();
+                case PATTERN -> readPattern();
+                case RULESET -> readRuleSet();
+                case TEMPLATE -> {
+                    var kind = LiteralTemplate.Kind.values()[in.readByte()];
+                    var items = new Object[readLength()];
+                    for (var i = 0; i < items.length; i++) {
+                        items[i] = readValue();
+                    }
+                    yield new LiteralTemplate(kind, items);
+                }
+                default -> readValue(tag);
+            };
+        }
+
+        private Object readValue() throws IOException {
+            return readValue(in.readByte());
+        }
+
+        private Object readValue(byte tag) throws IOException {
+            return switch (tag) {
+                case NULL -> null;
+                case FALSE -> false;
+                case TRUE -> true;
+                case DOUBLE -> in.readDouble();
+                case STRING -> readString();
+                case KEYWORD -> new Keyword(readString());
+                default -> throw new IOException("Unknown tag: " + tag);
+            };
+        }
+
+        private Pattern readPattern() throws IOException {
+            var kind = readString();
+            return switch (kind) {
+                case "Constant" -> new Pattern.Constant(readValue());
+                case "Expression" -> new Pattern.Expression(in.readInt());
+                case "ListPattern" -> {
+                    var patterns = readPatterns();
+                    yield new Pattern.ListPattern(patterns,
+                        readNullableString());
+                }
+                case "MapPattern" -> {
+                    var map = new LinkedHashMap<Pattern, Pattern>();
+                    var n = readLength();
+                    for (var i = 0; i < n; i++) {
+                        map.put(readPattern(), readPattern());
+                    }
+                    yield new Pattern.MapPattern(map);
+                }
+                case "NamedField" -> {
+                    var typeName = readString();
+                    var map = new LinkedHashMap<String, Pattern>();
+                    var n = readLength();
+                    for (var i = 0; i < n; i++) {
+                        map.put(readString(), readPattern());
+                    }
+                    yield new Pattern.NamedField(typeName, map);
+                }
+                case "OrderedField" -> {
+                    var typeName = readString();
+                    yield new Pattern.OrderedField(typeName, readPatterns());
+                }
+                case "Subpattern" -> {
+                    var name = readString();
+                    yield new Pattern.Subpattern(name, readPattern());
+                }
+                case "TypeName" -> new Pattern.TypeName(readString());
+                case "Variable" -> new Pattern.Variable(readString());
+                case "Wildcard" -> new Pattern.Wildcard(readString());
+                default -> throw new IOException("Unknown pattern: " + kind);
+            };
+        }
+
+        private List<Pattern> readPatterns() throws IOException {
+            var n = readLength();
+            var list = new ArrayList<Pattern>(n);
+            for (var i = 0; i < n; i++) list.add(readPattern());
+            return list;
+        }
+
+        private NeroRuleSet readRuleSet() throws IOException {
+            var schema = new Schema();
+            var numShapes = readLength();
+            for (var i = 0; i < numShapes; i++) {
+                var relation = readString();
+                schema.add(new Shape(relation, readStrings()));
+            }
+            for (var relation : readStrings()) {
+                schema.setTransient(relation, true);
+            }
+
+            var axioms = new HashSet<Atom>();
+            var numAxioms = readLength();
+            for (var i = 0; i < numAxioms; i++) axioms.add(readAtom());
+
+            var rules = new HashSet<Rule>();
+            var numRules = readLength();
+            for (var i = 0; i < numRules; i++) {
+                var head = readAtom();
+                var body = new ArrayList<Atom>();
+                var numBody = readLength();
+                for (var j = 0; j < numBody; j++) body.add(readAtom());
+                var constraints = new ArrayList<Constraint>();
+                var numConstraints = readLength();
+                for (var j = 0; j < numConstraints; j++) {
+                    var a = new Variable(readString());
+                    var op = Constraint.Op.valueOf(readString());
+                    constraints.add(new Constraint(a, op, readTerm()));
+                }
+                rules.add(new Rule(head, body, constraints));
+            }
+
+            return new NeroRuleSet(schema, axioms, rules);
+        }
+
+        private Atom readAtom() throws IOException {
+            var negated = in.readBoolean();
+            var relation = readString();
+            if (in.readBoolean()) {
+                return new ListAtom(negated, relation, readTerms());
+            } else {
+                var map = new HashMap<String, Term>();
+                var n = readLength();
+                for (var i = 0; i < n; i++) {
+                    map.put(readString(), readTerm());
+                }
+                return new MapAtom(negated, relation, map);
+            }
+        }
+
+        private Term readTerm() throws IOException {
+            var kind = readString();
+            return switch (kind) {
+                case "Aggregate" -> {
+                    var aggregator = Aggregator.valueOf(readString());
+                    yield new Aggregate(aggregator, readTerms());
+                }
+                case "Constant" -> new Constant(readValue());
+                case "ListTerm" -> new ListTerm(readTerms());
+                case "MapTerm" -> new MapTerm(readTerms());
+                case "PatternTerm" -> new PatternTerm(readPattern());
+                case "SetTerm" -> new SetTerm(readTerms());
+                case "Variable" -> new Variable(readString());
+                case "VariableWithDefault" -> {
+                    var variable = new Variable(readString());
+                    yield new VariableWithDefault(variable, readTerm());
+                }
+                case "Wildcard" -> new Wildcard(readString());
+                default -> throw new IOException("Unknown term: " + kind);
+            };
+        }
+
+        private List<Term> readTerms() throws IOException {
+            var n = readLength();
+            var list = new ArrayList<Term>(n);
+            for (var i = 0; i < n; i++) list.add(readTerm());
+            return list;
+        }
+
+        private SourceBuffer.Span readSpan() throws IOException {
+            var start = in.readInt();
+            if (start == -1) return null;
+            return buffer.span(start, in.readInt());
+        }
+
+        private List<String> readStrings() throws IOException {
+            var n = readLength();
+            var list = new ArrayList<String>(n);
+            for (var i = 0; i < n; i++) list.add(readString());
+            return List.copyOf(list);
+        }
+
+        private String readNullableString() throws IOException {
+            return in.readBoolean() ? readString() : null;
+        }
+
+        private String readString() throws IOException {
+            var bytes = new byte[readLength()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
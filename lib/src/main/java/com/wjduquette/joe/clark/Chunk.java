@@ -3,8 +3,10 @@ package com.wjduquette.joe.clark;
 import com.wjduquette.joe.SourceBuffer;
 import com.wjduquette.joe.parser.FunctionType;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -69,6 +71,14 @@ class Chunk implements CodeChunk {
     char numConstants = 0;
     private final Map<Object,Character> cache = new HashMap<>();
 
+    // The names of the global variables referenced by the code, by
+    // global index.
+    final List<String> globals = new ArrayList<>();
+    private final Map<String,Character> globalCache = new HashMap<>();
+
+    // The number of inline caches used by the code.
+    char numCaches = 0;
+
     //-------------------------------------------------------------------------
     // Constructor
 
@@ -123,6 +133,36 @@ class Chunk implements CodeChunk {
         return index;
     }
 
+    /**
+     * Adds a global variable name to the chunk's globals table, and
+     * returns its global index.  If the name had already been added,
+     * returns the existing index.  The {@code GLO*} instructions refer
+     * to globals by this index; the {@link VirtualMachine} resolves it
+     * to a slot in the global environment.
+     * @param name The global variable name
+     * @return the index
+     */
+    char addGlobal(String name) {
+        var index = globalCache.get(name);
+
+        if (index == null) {
+            index = (char)globals.size();
+            globals.add(name);
+            globalCache.put(name, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Allocates an {@link InlineCache} for a property access instruction,
+     * and returns its index.
+     * @return the index
+     */
+    char addCache() {
+        return numCaches++;
+    }
+
     /**
      * Sets the value of the particular location in the code[] array.
      * This is used when patching previously compiled code, e.g.,
@@ -146,5 +186,7 @@ class Chunk implements CodeChunk {
     @Override public int line(int index) { return lines[index]; }
     @Override public int numConstants() { return numConstants; }
     @Override public Object getConstant(int index) { return constants[index]; }
+    @Override public int numGlobals() { return globals.size(); }
+    @Override public String getGlobal(int index) { return globals.get(index); }
     @Override public int[] lines() { return lines; }
 }
@@ -4,6 +4,7 @@ import com.wjduquette.joe.*;
 import com.wjduquette.joe.types.TypeType;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,6 +14,17 @@ import java.util.Map;
  */
 public class ClarkClass implements JoeClass, JoeValue, ClarkType, ClarkCallable {
     private final static String TO_STRING = "toString";
+    private final static JoeValueLambda<Object> DEFAULT_TO_STRING =
+        (objc, joe, args) -> objc.toString();
+
+    //-------------------------------------------------------------------------
+    // Static Variables
+
+    // The method version, a global invalidation counter.  The VM's
+    // method caches record the version, and are valid only while it is
+    // unchanged.  It changes when a method name is added to a class
+    // after the VM has looked up a method in the class.
+    private static volatile int version = 0;
 
     //-------------------------------------------------------------------------
     // Instance Variables
@@ -32,8 +44,21 @@ public class ClarkClass implements JoeClass, JoeValue, ClarkType, ClarkCallable
     final Map<String, Closure> staticMethods = new HashMap<>();
     private final Map<String, Object> fields = new HashMap<>();
 
-    // The class's methods.
-    final Map<String, Closure> methods = new HashMap<>();
+    // The class's methods, by vtable slot.  A subclass's vtable begins
+    // with a copy of its superclass's, so that an inherited method has
+    // the same slot in both.
+    private final Map<String, Integer> slots = new HashMap<>();
+    private Closure[] vtable = new Closure[0];
+
+    // The class's initializer, if any.
+    private Closure initializer = null;
+
+    // Whether the VM has looked up a method slot in this class.  Once it
+    // has, the vtable may only grow.
+    private boolean sealed = false;
+
+    // The root shape for instances of this class.
+    private final InstanceShape shape = new InstanceShape(this);
 
     //-------------------------------------------------------------------------
     // Constructor and building methods
@@ -65,7 +90,9 @@ public class ClarkClass implements JoeClass, JoeValue, ClarkType, ClarkCallable
         this.superclass = superclass;
 
         if (superclass instanceof ClarkClass clarkClass) {
-            methods.putAll(clarkClass.methods);
+            slots.putAll(clarkClass.slots);
+            vtable = clarkClass.vtable.clone();
+            initializer = clarkClass.initializer;
             nativeAncestor = clarkClass.nativeAncestor;
         } else {
             nativeAncestor = superclass;
@@ -73,13 +100,93 @@ public class ClarkClass implements JoeClass, JoeValue, ClarkType, ClarkCallable
     }
 
     public void addMethod(String name, Closure closure) {
-        methods.put(name, closure);
+        var slot = slots.get(name);
+        if (slot != null) {
+            // Cached slots remain valid.
+            vtable[slot] = closure;
+        } else {
+            slots.put(name, vtable.length);
+            vtable = Arrays.copyOf(vtable, vtable.length + 1);
+            vtable[vtable.length - 1] = closure;
+
+            // Cached failures to find the name are now invalid.
+            if (sealed) bumpVersion();
+        }
+
+        if (name.equals(INIT)) {
+            initializer = closure;
+        }
     }
 
     public void addStaticMethod(String name, Closure closure) {
         staticMethods.put(name, closure);
     }
 
+    /**
+     * Gets the root shape for instances of this class.
+     * @return The shape
+     */
+    InstanceShape shape() {
+        return shape;
+    }
+
+    //-------------------------------------------------------------------------
+    // Method Lookup
+
+    /**
+     * Gets the current method version.  A method slot looked up via
+     * {@code slot()} is valid for as long as the version is unchanged.
+     * @return The version
+     */
+    static int version() {
+        return version;
+    }
+
+    private static synchronized void bumpVersion() {
+        version++;
+    }
+
+    /**
+     * Gets the vtable slot of the named method, for use with
+     * {@code method(int)}.  A slot, once assigned, never changes, and
+     * subclasses inherit their superclass's slots; but a name that isn't
+     * found might be added later, changing the version.
+     * @param name The method name
+     * @return The slot, or -1 if the class has no such method.
+     */
+    int slot(String name) {
+        sealed = true;
+        var slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * Gets the method in the given vtable slot.
+     * @param slot The slot
+     * @return The method
+     */
+    Closure method(int slot) {
+        return vtable[slot];
+    }
+
+    /**
+     * Gets the named method.
+     * @param name The name
+     * @return The method, or null if the class has no such method.
+     */
+    Closure method(String name) {
+        var slot = slots.get(name);
+        return slot != null ? vtable[slot] : null;
+    }
+
+    /**
+     * Gets the class's initializer.
+     * @return The initializer, or null if none.
+     */
+    Closure initializer() {
+        return initializer;
+    }
+
     //-------------------------------------------------------------------------
     // JoeType API
 
@@ -98,7 +205,7 @@ public class ClarkClass implements JoeClass, JoeValue, ClarkType, ClarkCallable
 
     @Override
     public JoeCallable bind(Object value, String name) {
-        var method = methods.get(name);
+        var method = method(name);
 
         if (method != null) {
             return new BoundMethod(value, method);
@@ -109,8 +216,7 @@ public class ClarkClass implements JoeClass, JoeValue, ClarkType, ClarkCallable
         }
 
         if (name.equals(TO_STRING)) {
-            return new NativeMethod<>(value, "toString",
-                (objc, joe, args) -> objc.toString());
+            return new NativeMethod<>(value, TO_STRING, DEFAULT_TO_STRING);
         }
 
         return null;
@@ -125,6 +231,8 @@ public class ClarkClass implements JoeClass, JoeValue, ClarkType, ClarkCallable
     public Object make(Joe joe, JoeClass joeClass) {
         if (superclass != null) {
             return superclass.make(joe, joeClass);
+        } else if (joeClass instanceof ClarkClass klass) {
+            return new ClarkInstance(klass);
         } else {
             return new Instance(joeClass, new HashMap<>());
         }
@@ -181,9 +289,8 @@ public class ClarkClass implements JoeClass, JoeValue, ClarkType, ClarkCallable
 
     @Override
     public String signature() {
-        var init = methods.get(INIT);
-        if (init != null) {
-            return name + init.signature().substring(4);
+        if (initializer != null) {
+            return name + initializer.signature().substring(4);
         } else {
             return name + "()";
         }
@@ -1,6 +1,10 @@
 package com.wjduquette.joe.clark;
 
 import com.wjduquette.joe.*;
+import com.wjduquette.joe.parser.ParsedScript;
+
+import java.nio.file.Path;
+import java.util.List;
 
 /**
  * The Bert byte-code engine.
@@ -24,6 +28,173 @@ public class ClarkEngine implements Engine {
         this.vm = new VirtualMachine(joe);
     }
 
+    //-------------------------------------------------------------------------
+    // Configuration
+
+    /**
+     * Gets the maximum call depth, i.e., the maximum number of nested
+     * function and method calls.
+     * @return The depth
+     */
+    public int getMaxCallDepth() {
+        return vm.getMaxFrames();
+    }
+
+    /**
+     * Sets the maximum call depth, i.e., the maximum number of nested
+     * function and method calls.  Exceeding it is a "Call stack overflow"
+     * error.  Defaults to {@code VirtualMachine.DEFAULT_MAX_FRAMES}.
+     * @param depth The depth
+     */
+    public void setMaxCallDepth(int depth) {
+        vm.setMaxFrames(depth);
+    }
+
+    /**
+     * Gets the maximum size of the VM's value stack, in slots.
+     * @return The size
+     */
+    public int getMaxStackSize() {
+        return vm.getMaxStackSize();
+    }
+
+    /**
+     * Sets the maximum size of the VM's value stack, in slots.  Exceeding
+     * it is a "Value stack overflow" error.  Defaults to
+     * {@code VirtualMachine.DEFAULT_MAX_STACK_SIZE}.
+     * @param size The size
+     */
+    public void setMaxStackSize(int size) {
+        vm.setMaxStackSize(size);
+    }
+
+    /**
+     * Gets whether the engine's compiler optimizes the compiled code.
+     * @return true or false
+     */
+    public boolean isOptimizing() {
+        return vm.isOptimizing();
+    }
+
+    /**
+     * Sets whether the engine's compiler optimizes the compiled code
+     * with its peephole optimizer: threading jumps, removing dead code
+     * and redundant loads and stores, and substituting superinstructions.
+     * Defaults to true.  Scripts compiled afterwards are affected; scripts
+     * already compiled are not.
+     * @param flag true or false
+     */
+    public void setOptimizing(boolean flag) {
+        vm.setOptimizing(flag);
+    }
+
+    /**
+     * Gets the number of calls after which the engine compiles a
+     * function to JVM byte-code.
+     * @return The threshold, or -1 if functions are never compiled.
+     */
+    public int getJitThreshold() {
+        return vm.getJitThreshold();
+    }
+
+    /**
+     * Sets the number of calls after which the engine compiles a
+     * function to JVM byte-code, so that HotSpot can compile it
+     * further.  A function's compiled code runs its subsequent calls,
+     * falling back to the interpreter as needed; it isn't used while
+     * tracing or profiling.  0 compiles each function before its first
+     * call, and -1 disables compilation.  Defaults to
+     * {@code VirtualMachine.DEFAULT_JIT_THRESHOLD}.
+     * @param calls The threshold
+     */
+    public void setJitThreshold(int calls) {
+        vm.setJitThreshold(calls);
+    }
+
+    /**
+     * Gets the engine's failures to compile functions to JVM byte-code.
+     * A function that can't be compiled runs in the interpreter, with
+     * the same results; a failure indicates a bug in the compiler.
+     * Failures are also written to the trace sink, if any.
+     * @return The failures, in order of occurrence.
+     */
+    public List<Throwable> getJitFailures() {
+        return vm.getJitFailures();
+    }
+
+    /**
+     * Gets the directory in which the engine caches compiled scripts.
+     * @return The directory, or null if scripts aren't cached.
+     */
+    public Path getCacheDirectory() {
+        var cache = vm.getCache();
+        return cache != null ? cache.dir() : null;
+    }
+
+    /**
+     * Sets the directory in which the engine caches compiled scripts,
+     * creating it on demand.  Before compiling a script, e.g., via
+     * {@code Joe::runFile} or when loading a scripted package, the
+     * engine looks in the directory for a {@code .joec} file compiled
+     * from the same source text, and loads that instead.  Defaults to
+     * null, in which case scripts aren't cached.
+     * @param dir The directory, or null.
+     */
+    public void setCacheDirectory(Path dir) {
+        vm.setCache(dir != null ? new BytecodeCache(dir) : null);
+    }
+
+    /**
+     * Gets the sink for the VM's execution trace.
+     * @return The sink, or null if none.
+     */
+    public TraceSink getTraceSink() {
+        return vm.getTraceSink();
+    }
+
+    /**
+     * Sets the sink for the VM's execution trace, e.g.,
+     * {@code System.err::println} or a {@link TraceBuffer}.  When a
+     * sink is set, or when {@code Joe::isDebug} is true, the VM executes
+     * code in an instrumented loop that traces each instruction;
+     * otherwise it uses a loop with no instrumentation at all.  The
+     * loop is chosen when a script or a call from Java begins, so
+     * tracing can be enabled for a single call:
+     *
+     * <pre>{@code
+     * engine.setTraceSink(buffer);
+     * try {
+     *     joe.call(callee, args);
+     * } finally {
+     *     engine.setTraceSink(null);
+     * }
+     * }</pre>
+     * @param sink The sink, or null for none.
+     */
+    public void setTraceSink(TraceSink sink) {
+        vm.setTraceSink(sink);
+    }
+
+    /**
+     * Gets the VM's profiler.
+     * @return The profiler, or null if none.
+     */
+    public Profiler getProfiler() {
+        return vm.getProfiler();
+    }
+
+    /**
+     * Sets the VM's profiler.  When a profiler is set, the VM executes
+     * code in an instrumented loop that accumulates the profile; as
+     * for the trace sink, the loop is chosen when a script or a call
+     * from Java begins.  The trace sink takes precedence over the
+     * profiler.
+     * @param profiler The profiler, or null for none.
+     */
+    public void setProfiler(Profiler profiler) {
+        vm.setProfiler(profiler);
+    }
+
     //-------------------------------------------------------------------------
     // Engine API
 
@@ -44,6 +215,11 @@ public class ClarkEngine implements Engine {
         return vm.interpret(scriptName, source);
     }
 
+    @Override
+    public Object run(ParsedScript script) throws JoeError {
+        return vm.interpret(script);
+    }
+
     @Override
     public Object call(Object callee, Object... args) {
         return vm.callFromJava(callee, args);
@@ -58,6 +234,7 @@ public class ClarkEngine implements Engine {
     @Override
     public String dump(String filename, String source) throws SyntaxError {
         var compiler = new Compiler(joe);
+        compiler.setOptimizing(vm.isOptimizing());
         return compiler.dump(filename, source);
     }
 }
@@ -0,0 +1,188 @@
+package com.wjduquette.joe.clark;
+
+import com.wjduquette.joe.Instance;
+
+import java.util.*;
+
+/**
+ * An instance of a scripted {@link ClarkClass} with no native ancestor.
+ * Its fields are stored according to an {@link InstanceShape} rather
+ * than in a hash table, so that the {@link VirtualMachine} can cache
+ * field indices and methods at each property access.  The fields are
+ * also visible to the {@link Instance} API as a {@code Map}.
+ */
+class ClarkInstance extends Instance {
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    // The instance's fields
+    final Fields fields;
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    /**
+     * Creates an instance of the class, with no fields.
+     * @param klass The class
+     */
+    ClarkInstance(ClarkClass klass) {
+        this(klass, new Fields(klass.shape()));
+    }
+
+    private ClarkInstance(ClarkClass klass, Fields fields) {
+        super(klass, fields);
+        this.fields = fields;
+    }
+
+    //-------------------------------------------------------------------------
+    // Fields
+
+    /**
+     * An instance's fields: a shape and an array of values.  The class
+     * implements {@code Map} for the benefit of the {@link Instance} API;
+     * entries are in the order the fields were added.
+     */
+    static final class Fields extends AbstractMap<String, Object> {
+        private InstanceShape shape;
+        private Object[] values;
+
+        Fields(InstanceShape shape) {
+            this.shape = shape;
+            this.values = new Object[4];
+        }
+
+        /**
+         * Gets the instance's current shape.
+         * @return The shape
+         */
+        InstanceShape shape() {
+            return shape;
+        }
+
+        /**
+         * Gets the value of the field with the given index in the
+         * current shape.
+         * @param index The index
+         * @return The value
+         */
+        Object get(int index) {
+            return values[index];
+        }
+
+        /**
+         * Sets the value of the field with the given index in the
+         * given shape, which must be the current shape or its successor
+         * for the field.
+         * @param shape The new shape
+         * @param index The index
+         * @param value The value
+         */
+        void set(InstanceShape shape, int index, Object value) {
+            if (index >= values.length) {
+                values = Arrays.copyOf(values, 2*values.length);
+            }
+            this.shape = shape;
+            values[index] = value;
+        }
+
+        //---------------------------------------------------------------------
+        // Map API
+
+        @Override
+        public int size() {
+            return shape.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String name && shape.indexOf(name) >= 0;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (key instanceof String name) {
+                var index = shape.indexOf(name);
+                if (index >= 0) return values[index];
+            }
+            return null;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            var index = shape.indexOf(key);
+            if (index >= 0) {
+                var old = values[index];
+                values[index] = value;
+                return old;
+            }
+
+            var next = shape.with(key);
+            set(next, next.indexOf(key), value);
+            return null;
+        }
+
+        @Override
+        public Object remove(Object key) {
+            if (!(key instanceof String name)) return null;
+            var index = shape.indexOf(name);
+            if (index < 0) return null;
+
+            var old = values[index];
+            var next = shape.without(name);
+            var newValues = new Object[Math.max(4, next.size())];
+            for (var i = 0; i < shape.size(); i++) {
+                if (i != index) {
+                    newValues[next.indexOf(shape.name(i))] = values[i];
+                }
+            }
+            shape = next;
+            values = newValues;
+            return old;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return shape.size();
+                }
+
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<>() {
+                        private int next = 0;
+                        private int last = -1;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < shape.size();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            last = next++;
+                            var name = shape.name(last);
+                            return new SimpleEntry<>(name, values[last]) {
+                                @Override
+                                public Object setValue(Object value) {
+                                    super.setValue(value);
+                                    return Fields.this.put(name, value);
+                                }
+                            };
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (last < 0) throw new IllegalStateException();
+                            Fields.this.remove(shape.name(last));
+                            next = last;
+                            last = -1;
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package com.wjduquette.joe.clark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal assembler for JVM class files, just sufficient for the
+ * {@link JitCompiler}: a class with methods whose code calls methods,
+ * loads constants and static fields, and branches.  It writes class
+ * file version 49, which predates the {@code StackMapTable} attribute,
+ * so that the assembler needn't compute stack maps; the JVM verifies
+ * such classes by type inference.
+ */
+final class ClassAssembler {
+    //-------------------------------------------------------------------------
+    // Constants
+
+    // Class file version 49 is Java 5, the last without stack maps.
+    private static final int MAJOR_VERSION = 49;
+
+    // Access flags
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL  = 0x0010;
+    static final int ACC_SUPER  = 0x0020;
+
+    // Constant pool tags
+    private static final int CONSTANT_UTF8        = 1;
+    private static final int CONSTANT_INTEGER     = 3;
+    private static final int CONSTANT_CLASS       = 7;
+    private static final int CONSTANT_FIELDREF    = 9;
+    private static final int CONSTANT_METHODREF   = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // JVM opcodes
+    static final int ACONST_NULL   = 0x01;
+    static final int ICONST_0      = 0x03;
+    static final int BIPUSH        = 0x10;
+    static final int SIPUSH        = 0x11;
+    static final int LDC_W         = 0x13;
+    static final int ALOAD_0       = 0x2a;
+    static final int ALOAD_1       = 0x2b;
+    static final int IFEQ          = 0x99;
+    static final int IFNE          = 0x9a;
+    static final int GOTO          = 0xa7;
+    static final int ARETURN       = 0xb0;
+    static final int RETURN_VOID   = 0xb1;
+    static final int GETSTATIC     = 0xb2;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    // The class's name, superclass, and interfaces, in internal form.
+    private final String name;
+    private final String superName;
+    private final String[] interfaces;
+
+    // The constant pool, and the index of each entry by its content
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    // The methods
+    private final List<Code> methods = new ArrayList<>();
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    /**
+     * Creates an assembler for a public final class.  Names are in
+     * internal form, e.g., "java/lang/Object".
+     * @param name The class name
+     * @param superName The superclass name
+     * @param interfaces The names of the interfaces it implements
+     */
+    ClassAssembler(String name, String superName, String... interfaces) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+    }
+
+    //-------------------------------------------------------------------------
+    // Constant Pool
+
+    private int utf8(String text) {
+        return entry("U" + text, out -> {
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(text);
+        });
+    }
+
+    private int integer(int value) {
+        return entry("I" + value, out -> {
+            out.writeByte(CONSTANT_INTEGER);
+            out.writeInt(value);
+        });
+    }
+
+    private int classRef(String className) {
+        var nameIndex = utf8(className);
+        return entry("C" + className, out -> {
+            out.writeByte(CONSTANT_CLASS);
+            out.writeShort(nameIndex);
+        });
+    }
+
+    private int nameAndType(String memberName, String descriptor) {
+        var nameIndex = utf8(memberName);
+        var typeIndex = utf8(descriptor);
+        return entry("N" + memberName + ":" + descriptor, out -> {
+            out.writeByte(CONSTANT_NAME_AND_TYPE);
+            out.writeShort(nameIndex);
+            out.writeShort(typeIndex);
+        });
+    }
+
+    private int memberRef(
+        int tag, String owner, String memberName, String descriptor
+    ) {
+        var classIndex = classRef(owner);
+        var natIndex = nameAndType(memberName, descriptor);
+        return entry(tag + ":" + owner + "." + memberName + ":" + descriptor,
+            out -> {
+                out.writeByte(tag);
+                out.writeShort(classIndex);
+                out.writeShort(natIndex);
+            });
+    }
+
+    // Adds an entry to the pool if it isn't there already, returning its
+    // index.
+    private int entry(String key, PoolWriter writer) {
+        var index = poolIndex.get(key);
+        if (index == null) {
+            try {
+                writer.write(poolOut);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            index = poolCount++;
+            poolIndex.put(key, index);
+        }
+        return index;
+    }
+
+    private interface PoolWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    //-------------------------------------------------------------------------
+    // Methods
+
+    /**
+     * Begins a new public method.  Its code should be complete before
+     * the class is assembled.
+     * @param methodName The method name
+     * @param descriptor The method descriptor
+     * @param maxStack The maximum depth of the operand stack
+     * @param maxLocals The number of local variable slots, including
+     *                  {@code this} and the arguments
+     * @return The method's code
+     */
+    Code method(
+        String methodName, String descriptor, int maxStack, int maxLocals
+    ) {
+        var code = new Code(utf8(methodName), utf8(descriptor),
+            maxStack, maxLocals);
+        methods.add(code);
+        return code;
+    }
+
+    /**
+     * Assembles the class file.
+     * @return The bytes
+     */
+    byte[] toByteArray() {
+        // FIRST, add the remaining constants.
+        var thisIndex = classRef(name);
+        var superIndex = classRef(superName);
+        var interfaceIndices = new int[interfaces.length];
+        for (var i = 0; i < interfaces.length; i++) {
+            interfaceIndices[i] = classRef(interfaces[i]);
+        }
+        var codeIndex = utf8("Code");
+
+        // NEXT, write the class file.
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(interfaceIndices.length);
+            for (var index : interfaceIndices) {
+                out.writeShort(index);
+            }
+            out.writeShort(0); // No fields
+            out.writeShort(methods.size());
+            for (var method : methods) {
+                method.write(out, codeIndex);
+            }
+            out.writeShort(0); // No class attributes
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    //-------------------------------------------------------------------------
+    // Code
+
+    /**
+     * A method's code.  Branch targets are labels, which are created
+     * by {@link #label()} and placed by {@link #mark(int)}; a label may
+     * be used before it is placed.
+     */
+    final class Code {
+        private final int nameIndex;
+        private final int descriptorIndex;
+        private final int maxStack;
+        private final int maxLocals;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        // The offset of each label, or -1 if not yet placed
+        private final List<Integer> labels = new ArrayList<>();
+
+        // Each branch's opcode offset, and the label it targets
+        private final List<int[]> branches = new ArrayList<>();
+
+        private Code(
+            int nameIndex, int descriptorIndex, int maxStack, int maxLocals
+        ) {
+            this.nameIndex = nameIndex;
+            this.descriptorIndex = descriptorIndex;
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        /**
+         * Gets the size of the code so far, in bytes.
+         * @return The size
+         */
+        int size() {
+            return code.size();
+        }
+
+        /**
+         * Emits an instruction that takes no operands.
+         * @param opcode The opcode
+         */
+        void op(int opcode) {
+            code.write(opcode);
+        }
+
+        /**
+         * Emits the shortest instruction that pushes the int constant.
+         * @param value The value
+         */
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                code.write(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.write(SIPUSH);
+                u2(value);
+            } else {
+                code.write(LDC_W);
+                u2(integer(value));
+            }
+        }
+
+        /**
+         * Emits a GETSTATIC instruction.
+         * @param owner The field's class
+         * @param field The field name
+         * @param descriptor The field's type descriptor
+         */
+        void getStatic(String owner, String field, String descriptor) {
+            code.write(GETSTATIC);
+            u2(memberRef(CONSTANT_FIELDREF, owner, field, descriptor));
+        }
+
+        /**
+         * Emits an INVOKEVIRTUAL or INVOKESPECIAL instruction.
+         * @param opcode The opcode
+         * @param owner The method's class
+         * @param method The method name
+         * @param descriptor The method descriptor
+         */
+        void invoke(int opcode, String owner, String method, String descriptor) {
+            code.write(opcode);
+            u2(memberRef(CONSTANT_METHODREF, owner, method, descriptor));
+        }
+
+        /**
+         * Creates a new, unplaced label.
+         * @return The label
+         */
+        int label() {
+            labels.add(-1);
+            return labels.size() - 1;
+        }
+
+        /**
+         * Places the label at the current offset.
+         * @param label The label
+         */
+        void mark(int label) {
+            labels.set(label, code.size());
+        }
+
+        /**
+         * Emits a branch instruction, e.g., GOTO or IFEQ, to the label.
+         * @param opcode The opcode
+         * @param label The label
+         */
+        void branch(int opcode, int label) {
+            branches.add(new int[] {code.size(), label});
+            code.write(opcode);
+            u2(0); // Patched by write()
+        }
+
+        private void u2(int value) {
+            code.write(value >> 8);
+            code.write(value);
+        }
+
+        private void write(DataOutputStream out, int codeIndex)
+            throws IOException
+        {
+            // FIRST, patch the branch offsets.
+            var bytes = code.toByteArray();
+            for (var branch : branches) {
+                var target = labels.get(branch[1]);
+                if (target < 0) {
+                    throw new IllegalStateException("Label was never placed.");
+                }
+                var offset = target - branch[0];
+                bytes[branch[0] + 1] = (byte)(offset >> 8);
+                bytes[branch[0] + 2] = (byte)offset;
+            }
+
+            // NEXT, write the method and its Code attribute.
+            out.writeShort(ACC_PUBLIC);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1);
+            out.writeShort(codeIndex);
+            out.writeInt(12 + bytes.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(0); // No exception table
+            out.writeShort(0); // No attributes
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package com.wjduquette.joe.clark;
 
-import com.wjduquette.joe.Environment;
-
 /**
  * Closure is the {@link VirtualMachine}'s representation for compiled
  * functions.
@@ -15,7 +13,10 @@ import com.wjduquette.joe.Environment;
  *
  * <p>Closures are built in this roundabout way because a single Function
  * can be used to create any number of Closures, each of which closes over
- * its own set of {@link Upvalue Upvalues}.</p>
+ * its own set of {@link Upvalue Upvalues}.  A captured variable that is
+ * never reassigned is copied into the Closure by value instead; and a
+ * Function that captures nothing needs only one Closure per global
+ * environment, which the VM reuses.</p>
  */
 public class Closure implements ClarkCallable {
     //-------------------------------------------------------------------------
@@ -27,10 +28,16 @@ public class Closure implements ClarkCallable {
     // The global environment at the time the closure was created.
     // This allows the closure to be executed in other instances of
     // `VirtualMachine`
-    final Environment globals;
+    final GlobalEnvironment globals;
+
+    // The slot in `globals` for each of the function's global variables,
+    // by global index.
+    final int[] globalSlots;
 
-    // The closure's Upvalues, closing over its locals.
-    final Upvalue[] upvalues;
+    // The closure's captured variables, by upvalue index: an Upvalue
+    // for a variable captured by reference, or the variable's value
+    // for a variable captured by value.
+    final Object[] upvalues;
 
     //-------------------------------------------------------------------------
     // Constructor
@@ -38,11 +45,13 @@ public class Closure implements ClarkCallable {
     /**
      * Creates a closure from a function.
      * @param function The function.
+     * @param globals The global environment
      */
-    Closure(Function function, Environment globals) {
+    Closure(Function function, GlobalEnvironment globals) {
         this.function = function;
         this.globals = globals;
-        this.upvalues = new Upvalue[function.upvalueCount];
+        this.globalSlots = function.globalSlots(globals);
+        this.upvalues = new Object[function.upvalueCount];
     }
 
     //-------------------------------------------------------------------------
@@ -48,6 +48,20 @@ public interface CodeChunk {
      */
     Object getConstant(int index);
 
+    /**
+     * Gets the number of names in the function's globals table.
+     * @return The number
+     */
+    int numGlobals();
+
+    /**
+     * Gets the global variable name at the given index in the chunk's
+     * globals table.
+     * @param index The index
+     * @return The name
+     */
+    String getGlobal(int index);
+
     /**
      * Gets the size of the code array
      * @return The size
@@ -12,6 +12,7 @@ import com.wjduquette.joe.scanner.TokenType;
 import static com.wjduquette.joe.clark.Opcode.*;
 
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * The Clark byte-compiler.  The code is loosely based on the legacy
@@ -30,6 +31,12 @@ class Compiler {
     // The maximum number of parameters in a function
     public static final int MAX_PARAMETERS = 255;
 
+    // The code generation version, which keys the BytecodeCache.
+    // Increment it with every change that alters the code compiled
+    // for some script, so that cached code from older compilers is
+    // not reused.
+    static final int CODEGEN_VERSION = 3;
+
     // The name of the script function
     public static final String SCRIPT_NAME = "*script*";
 
@@ -90,6 +97,13 @@ class Compiler {
     // to return its value.`
     private Stmt finalStatement = null;
 
+    // Whether to fold constants and run the Peephole optimizer on each
+    // compiled chunk.
+    private boolean optimizing = true;
+
+    // Folds constant expressions when optimizing.
+    private final ConstantFolder folder;
+
     // Used for debugging/dumping
     private transient Disassembler disassembler;
     private transient StringBuilder dump = null;
@@ -104,6 +118,29 @@ class Compiler {
      */
     Compiler(Joe joe) {
         this.joe = joe;
+        this.folder = new ConstantFolder(joe, this::isTopLevelGlobal);
+    }
+
+    //-------------------------------------------------------------------------
+    // Configuration
+
+    /**
+     * Gets whether the compiler folds constant expressions and runs
+     * the {@link Peephole} optimizer on the compiled code.
+     * @return true or false
+     */
+    boolean isOptimizing() {
+        return optimizing;
+    }
+
+    /**
+     * Sets whether the compiler folds constant expressions and runs
+     * the {@link Peephole} optimizer on the compiled code.  Defaults to
+     * true.
+     * @param flag true or false
+     */
+    void setOptimizing(boolean flag) {
+        this.optimizing = flag;
     }
 
     //-------------------------------------------------------------------------
@@ -117,12 +154,27 @@ class Compiler {
      * @return The script as a `Function`.
      */
     public Function compile(String scriptName, String source) {
+        return compile(() -> compileScript(new SourceBuffer(scriptName, source)));
+    }
 
+    /**
+     * Compiles a parsed script as a no-arg function.
+     * Compilation errors are accumulated and thrown as a unit.
+     * @param script The parsed script
+     * @return The script as a `Function`.
+     */
+    public Function compile(ParsedScript script) {
+        return compile(() -> {
+            errors.clear();
+            return compileStatements(script.buffer(), script.statements());
+        });
+    }
+
+    private Function compile(Supplier<Function> compilation) {
         // Take the current chunk and package it as a Function.
         Function function;
         try {
-            var buff = new SourceBuffer(scriptName, source);
-            function = compileScript(buff);
+            function = compilation.get();
         } catch (SyntaxError ex) {
             throw ex;
         } catch (Exception ex) {
@@ -142,6 +194,17 @@ class Compiler {
     }
 
     public Function compileScript(SourceBuffer source) {
+        // FIRST, parse the script.  This will throw a `SyntaxError` if
+        // any errors are found.
+        errors.clear();
+        return compileStatements(source, parse(source));
+    }
+
+    // Compiles the script's statements.
+    private Function compileStatements(
+        SourceBuffer source,
+        List<Stmt> statements
+    ) {
         this.buffer = source;
         // The FunctionCompiler contains the Chunk for the function
         // currently being compiled.  Each `function` or `method`
@@ -153,11 +216,9 @@ class Compiler {
             SCRIPT_NAME,
             buffer.all());
 
-        // NEXT, parse the script.  This will throw a `SyntaxError` if
-        // any errors are found.
-        errors.clear();
-        var statements = parse(buffer);
+        // NEXT, scan the statements.
         finalStatement = statements.isEmpty() ? null : statements.getLast();
+        folder.scan(statements);
 
         // NEXT, generate the code.
         emit(statements);
@@ -209,12 +270,16 @@ class Compiler {
     private Function endFunction() {
         lineAtEnd(current.chunk.span);
         emitReturn();
+        var size = current.chunk.size;
+        if (optimizing) {
+            Peephole.optimize(current.chunk);
+        }
         var function = new Function(
             current.parameters,
             current.chunk,
             current.upvalueCount);
         if (dump != null) {
-            dump.append(disassembler.disassemble(function)).append("\n");
+            dump.append(disassembler.disassemble(function, size)).append("\n");
         }
         current = current.enclosing;
         return function;
@@ -365,6 +430,8 @@ class Compiler {
                 }
             }
             case Stmt.For s -> {
+                if (current.enclosing == null) folder.beginLoop(s);
+
                 // NOTE: the Parser wraps Stmt.For as follows:
                 // Stmt.Block[Stmt.For]. Thus, this code needn't
                 // create a scope.  This is a confusing pattern;
@@ -405,6 +472,8 @@ class Compiler {
                 endLoop();                   // ∅     ; end b/c zone
             }
             case Stmt.ForEach s -> {
+                if (current.enclosing == null) folder.beginLoop(s);
+
                 // NOTE: the Parser wraps Stmt.ForEach as follows:
                 // Stmt.Block[Stmt.Var loopVar, Stmt.ForEach]
                 //
@@ -435,6 +504,8 @@ class Compiler {
                 // Local *iter* is popped when the enclosing block end.
             }
             case Stmt.ForEachBind s -> {
+                if (current.enclosing == null) folder.beginLoop(s);
+
                 // NOTE: the Parser wraps Stmt.ForEachBind as
                 // Stmt.Block[Stmt.ForEachBind]. Thus, this code needn't
                 // create a scope.
@@ -492,17 +563,32 @@ class Compiler {
                 //       JUMP end     | ∅      ; Jump to end
                 // else: elseBranch   | ∅      ; Execute else branch
                 // end:  ...          | ∅      ; end of statement
-
-                emit(s.condition());
-                var else_ = emitJump(JIF);
-                emit(s.thenBranch());
+                //
+                // If the condition is constant, the JIF becomes a JUMP
+                // to the branch that will be taken, or is omitted;
+                // the Peephole optimizer removes the dead branch.
+
+                var flag = fold(s.condition());
+                int else_;
+                if (flag == ConstantFolder.NOT_CONSTANT) {
+                    emit(s.condition());
+                    else_ = emitJump(JIF);
+                } else if (Joe.isFalsey(flag)) {
+                    else_ = emitJump(JUMP);
+                } else {
+                    else_ = -1;
+                }
+                var isConstant = flag != ConstantFolder.NOT_CONSTANT;
+                emitLive(!isConstant || Joe.isTruthy(flag),
+                    () -> emit(s.thenBranch()));
 
                 int end_ = -1;
                 if (s.elseBranch() != null) {
                     end_ = emitJump(JUMP);
-                    patchJump(else_);
-                    emit(s.elseBranch());
-                } else {
+                    if (else_ != -1) patchJump(else_);
+                    emitLive(!isConstant || Joe.isFalsey(flag),
+                        () -> emit(s.elseBranch()));
+                } else if (else_ != -1) {
                     patchJump(else_);
                 }
 
@@ -516,6 +602,7 @@ class Compiler {
 
                 // Setup                        // Stack:
                 emit(IMPORT, constant(spec));   // ∅
+                folder.forgetAll();
             }
             case Stmt.Match s -> {
                 // Setup                      // Stack: locals | working
@@ -633,7 +720,17 @@ class Compiler {
                         error(s.keyword(),
                             "Can't return a value from an initializer.");
                     }
-                    emit(s.value());
+                    if (isTailCall(s.value())) {
+                        // The TAILCALL reuses this function's call frame
+                        // when it can, and otherwise leaves the result
+                        // for the RETURN, as for CALL.
+                        var call = (Expr.Call)s.value();
+                        emit(call.callee());
+                        emitArgs(call.arguments());
+                        emit(TAILCALL, (char)call.arguments().size());
+                    } else {
+                        emit(s.value());
+                    }
                     emit(RETURN);
                 } else {
                     emitReturn(); // Includes initializer magic
@@ -709,6 +806,7 @@ class Compiler {
                     // Define the variable.  We don't worry about whether it
                     // already existed or not
                     defineGlobal(var.name());
+                    folder.declare(var);
                 } else {
                     // The value is on the stack; define the variable.
                     defineLocal(var.name());
@@ -732,6 +830,8 @@ class Compiler {
                 }
             }
             case Stmt.While s -> {
+                if (current.enclosing == null) folder.beginLoop(s);
+
                 // Setup                   // Stack effects:
                 var start_ = here();       // ∅     ; start:
                 emit(s.condition());       // cond  ; compute condition
@@ -769,8 +869,15 @@ class Compiler {
 
         // Emit data about the upvalues
         for (int i = 0; i < function.upvalueCount; i++) {
-            emit((char)(compiler.upvalues[i].isLocal ? 1 : 0));
-            emit(compiler.upvalues[i].index);
+            var upvalue = compiler.upvalues[i];
+            if (!upvalue.isLocal) {
+                emit(CAPTURE_UPVALUE);
+            } else if (upvalue.byValue) {
+                emit(CAPTURE_VALUE);
+            } else {
+                emit(CAPTURE_LOCAL);
+            }
+            emit(upvalue.index);
         }
     }
 
@@ -790,7 +897,23 @@ class Compiler {
         emit(EXPORT, constant(name.lexeme()));
     }
 
-    // Emits a function's argument list.
+    // Emits PROPGET for the name constant, with its inline cache.
+    private void emitPROPGET(char name) {
+        emit(PROPGET, name, cache());
+    }
+
+    // Emits INVOKE for the method name constant and argument count, with
+    // its inline cache.
+    private void emitINVOKE(char name, int argc) {
+        emit(INVOKE, name, (char)argc, cache());
+    }
+
+    // Emits PROPSET for the name constant, with its inline cache.
+    private void emitPROPSET(char name) {
+        emit(PROPSET, name, cache());
+    }
+
+    // Emits a function's argument list, or a collection literal's items.
     private void emitArgs(List<Expr> args) {
         for (var arg : args) {
             emit(arg);
@@ -801,8 +924,29 @@ class Compiler {
     private void emit(Expr expr) {
         line(expr.location());
 
+        // Emit constant expressions as constants.
+        var value = fold(expr);
+        if (value != ConstantFolder.NOT_CONSTANT) {
+            emitConstant(value);
+            return;
+        }
+
         switch (expr) {
             case Expr.Binary e -> {
+                // A chain of string concatenations adds all of its
+                // operands in one instruction.
+                var operands = plusOperands(e);
+                if (operands.size() >= 3
+                    && operands.size() <= Character.MAX_VALUE
+                    && operands.stream().anyMatch(this::isStringConstant)
+                ) {
+                                                    // Stack effects:
+                    emitArgs(operands);             // a b c... ; compute operands
+                    emit(CONCAT, (char)operands.size());
+                                                    // s        ; s = a + b + c...
+                    return;
+                }
+
                 var op = switch (e.op().type()) {
                     case TokenType.BANG_EQUAL    -> NE;
                     case TokenType.EQUAL_EQUAL   -> EQ;
@@ -820,17 +964,22 @@ class Compiler {
                         "Unexpected operator: " + e.op());
                 };
 
+                // If both operands are known to be numbers, use the
+                // numeric variant of the instruction, if any.
+                if (isNumeric(e.left()) && isNumeric(e.right())) {
+                    op = numericVariant(op);
+                }
+
                                      // Stack effects:
                 emit(e.left());      // a        ; compute left
                 emit(e.right());     // a b      ; compute right
                 emit(op);            // c        ; c = a op b
             }
             case Expr.Call e -> {
-                var argc = e.arguments().size();
+                emitCall(e);
 
-                emit(e.callee());         // f          ; compute callable
-                emitArgs(e.arguments());  // f args...  ; compute arguments
-                emit(CALL, (char)argc);   // result     ; result = f(args);
+                // The callee might assign any global.
+                if (current.enclosing == null) folder.forgetAll();
             }
             case Expr.False ignored -> emit(FALSE);
             case Expr.Grouping e -> emit(e.expr());
@@ -893,6 +1042,23 @@ class Compiler {
             }
             case Expr.Literal e -> emitCONST(e.value());
             case Expr.Logical e -> {
+                // If the left operand is constant, either it is the
+                // result or the right operand is.
+                var left = fold(e.left());
+                if (left != ConstantFolder.NOT_CONSTANT) {
+                    var isAnd = e.op().type() == TokenType.AND;
+                    if (Joe.isTruthy(left) == isAnd) {
+                        emit(e.right());
+                    } else {                         // Stack effects:
+                        emitConstant(left);          // v      ; left
+                        int end_ = emitJump(JUMP);   // v      ; JUMP end
+                        emitDead(() ->
+                            emit(e.right()));        //        ; dead code
+                        patchJump(end_);             // v      ; end:
+                    }
+                    return;
+                }
+
                 if (e.op().type() == TokenType.AND) {
                                                      // Stack effects:
                     emit(e.left());                  // v      ; compute left
@@ -909,12 +1075,22 @@ class Compiler {
                 }
             }
             case Expr.MapLiteral e -> {
+                var entries = e.entries();
+                var template = template(LiteralTemplate.Kind.MAP, entries);
+                if (template != null) {
+                    emit(TEMPLATE, constant(template));
+                } else if (entries.size()/2 <= Character.MAX_VALUE) {
+                    emitArgs(entries);             // k v ...  ; compute entries
+                    emit(MAPOF, (char)(entries.size()/2));
+                                                   // m        ; create map
+                } else {
                                                    // Stack effects:
-                emit(MAPNEW);                      // m        ; create map
-                for (var i = 0; i < e.entries().size(); i += 2) {
-                    emit(e.entries().get(i));      // m k      ; compute key
-                    emit(e.entries().get(i + 1));  // m k v    ; compute value
-                    emit(MAPPUT);                  // m        ; m[k] = v
+                    emit(MAPNEW);                  // m        ; create map
+                    for (var i = 0; i < entries.size(); i += 2) {
+                        emit(entries.get(i));      // m k      ; compute key
+                        emit(entries.get(i + 1));  // m k v    ; compute value
+                        emit(MAPPUT);              // m        ; m[k] = v
+                    }
                 }
             }
             case Expr.Match e -> {
@@ -945,7 +1121,7 @@ class Compiler {
                 var name = name(e.name());
                                           // Stack effects:
                 emit(e.object());         // o      ; compute object
-                emit(PROPGET, name);      // a      ; get property name
+                emitPROPGET(name);        // a      ; get property name
             }
             case Expr.PropIncrDecr e -> {
                 var name = name(e.name());
@@ -957,19 +1133,19 @@ class Compiler {
                                           // Stack effects:
                     emit(e.object());     // o      ; compute object
                     emit(DUP);            // o o    ; need it twice
-                    emit(PROPGET, name);  // o a    ; a = o.name
+                    emitPROPGET(name);    // o a    ; a = o.name
                     emit(op);             // o b    ; b = a +/- 1
-                    emit(PROPSET, name);  // b      ; o.name = b
+                    emitPROPSET(name);    // b      ; o.name = b
                 } else {
                     // Post-increment/decrement
 
                                           // Stack effects:
                     emit(e.object());     // o      ; compute object
                     emit(DUP);            // o o    ; need it twice
-                    emit(PROPGET, name);  // o a    ; a = o.name
+                    emitPROPGET(name);    // o a    ; a = o.name
                     emit(TSET);           // o a    ; T = a
                     emit(op);             // o b    ; b = a +/- 1
-                    emit(PROPSET, name);  // b      ; o.name = b
+                    emitPROPSET(name);    // b      ; o.name = b
                     emit(POP);            // ∅      ;
                     emit(TGET);           // a      ; a = T
                 }
@@ -982,7 +1158,7 @@ class Compiler {
                                           // Stack effects:
                     emit(e.object());     // o      ; compute object
                     emit(e.value());      // o v    ; compute value
-                    emit(PROPSET, name);  // v      ; o.name = v
+                    emitPROPSET(name);    // v      ; o.name = v
                     return;
                 }
 
@@ -991,10 +1167,10 @@ class Compiler {
 
                 emit(e.object());         // o      ; compute object
                 emit(DUP);                // o o    ; object needed twice
-                emit(PROPGET, name);      // o a    ; get prop value
+                emitPROPGET(name);        // o a    ; get prop value
                 emit(e.value());          // o a b  ; compute update value
                 emit(mathOp);             // o c    ; c = a op b
-                emit(PROPSET, name);      // c      ; o.name = c
+                emitPROPSET(name);        // c      ; o.name = c
             }
             case Expr.RuleSet e -> {
                 // FIRST, check for stratification
@@ -1010,21 +1186,34 @@ class Compiler {
                 emitSet(e.list());       // set      ; compute set
             }
             case Expr.Super e -> {
-                if (currentType == null || !currentType.inInstanceMethod) {
-                    error(e.keyword(), "Can't use '" + e.keyword().lexeme() +
-                        "' outside of a method.");
-                } else if (!currentType.hasSupertype) {
-                    error(e.keyword(), "Can't use '" + e.keyword().lexeme() +
-                        "' in a class with no superclass.");
-                }
-
+                checkSuper(e);
                 var name = name(e.method());
 
                 emitGET(VAR_THIS);     // t        ; get this
                 emitGET(VAR_SUPER);    // t s      ; get super
-                emit(SUPGET, name);    // m        ; super.name
+                emit(SUPGET, name, cache()); // m  ; super.name
             }
             case Expr.Ternary e -> {
+                // If the condition is constant, jump to the chosen
+                // value; the Peephole optimizer removes the dead code.
+                var flag = fold(e.condition());
+                if (flag != ConstantFolder.NOT_CONSTANT) {
+                    if (Joe.isTruthy(flag)) {      // Stack effects
+                        emit(e.trueExpr());        // v     ; true value
+                        int end_ = emitJump(JUMP); // v     ; JUMP end
+                        emitDead(() ->
+                            emit(e.falseExpr()));  //       ; dead code
+                        patchJump(end_);           // v     ; end:
+                    } else {
+                        int else_ = emitJump(JUMP);//       ; JUMP else
+                        emitDead(() ->
+                            emit(e.trueExpr()));   //       ; dead code
+                        patchJump(else_);          //       ; else:
+                        emit(e.falseExpr());       // v     ; false value
+                    }
+                    return;
+                }
+
                                             // Stack effects
                 emit(e.condition());        // c     ; compute condition
                 int else_ = emitJump(JIF);  //       ; JIF else
@@ -1087,6 +1276,26 @@ class Compiler {
                     return;
                 }
 
+                // Appending a concatenation chain that begins with a
+                // string: name + (a + b...) == name + a + b...
+                if (e.op().type() == TokenType.PLUS_EQUAL
+                    && e.value() instanceof Expr.Binary chain
+                ) {
+                    var operands = plusOperands(chain);
+                    if (operands.size() >= 2
+                        && operands.size() < Character.MAX_VALUE
+                        && isStringConstant(operands.getFirst())
+                    ) {
+                                                // Stack effects:
+                        emitGET(e.name());      // a        ; a = name
+                        emitArgs(operands);     // a b c... ; compute operands
+                        emit(CONCAT, (char)(operands.size() + 1));
+                                                // s        ; s = a + b + c...
+                        emitSET(e.name());      // s        ; name = s
+                        return;
+                    }
+                }
+
                 // Assignment with update
                 var mathOp = token2updater(e.op());
 
@@ -1099,6 +1308,122 @@ class Compiler {
         }
     }
 
+    // Emits a function or method call.
+    private void emitCall(Expr.Call e) {
+        var argc = e.arguments().size();
+
+        // Method calls invoke the method directly.
+        if (e.callee() instanceof Expr.PropGet prop) {
+            var name = name(prop.name());
+                                      // Stack effects:
+            emit(prop.object());      // o          ; compute object
+            emitArgs(e.arguments());  // o args...  ; compute arguments
+            emitINVOKE(name, argc);   // result     ; result = o.name(args)
+            return;
+        }
+
+        // As do superclass method calls.
+        if (e.callee() instanceof Expr.Super sup) {
+            checkSuper(sup);
+            var name = name(sup.method());
+                                      // Stack effects:
+            emitGET(VAR_THIS);        // t          ; get this
+            emitArgs(e.arguments());  // t args...  ; compute arguments
+            emitGET(VAR_SUPER);       // t args... s; get super
+            emit(SUPINVOKE, name, (char)argc, cache());
+                                      // result     ; result = super.name(args)
+            return;
+        }
+
+        emit(e.callee());         // f          ; compute callable
+        emitArgs(e.arguments());  // f args...  ; compute arguments
+        emit(CALL, (char)argc);   // result     ; result = f(args);
+    }
+
+    // Emits code that is never executed, e.g., the untaken branch of a
+    // constant condition.  Its calls can't assign globals, so the
+    // folder's propagated globals are kept.
+    private void emitDead(Runnable emitter) {
+        var globals = folder.saveGlobals();
+        emitter.run();
+        folder.restoreGlobals(globals);
+    }
+
+    // Emits code that is executed only if it is live.
+    private void emitLive(boolean isLive, Runnable emitter) {
+        if (isLive) {
+            emitter.run();
+        } else {
+            emitDead(emitter);
+        }
+    }
+
+    // Evaluates the expression if it is constant and we are optimizing.
+    // Returns ConstantFolder.NOT_CONSTANT otherwise.
+    private Object fold(Expr expr) {
+        return optimizing ? folder.fold(expr) : ConstantFolder.NOT_CONSTANT;
+    }
+
+    // Returns true if the name refers to a global variable from the
+    // script's top-level code, for constant propagation.
+    private boolean isTopLevelGlobal(Token name) {
+        return current.enclosing == null && resolveLocal(current, name) == -1;
+    }
+
+    // Returns the operands of a chain of `+` operations, e.g.,
+    // `a + b + c`, in order.  Constant subexpressions are left for
+    // folding.
+    private List<Expr> plusOperands(Expr.Binary expr) {
+        var operands = new ArrayList<Expr>();
+        Expr left = expr;
+        while (left instanceof Expr.Binary e
+            && e.op().type() == TokenType.PLUS
+            && fold(e) == ConstantFolder.NOT_CONSTANT
+        ) {
+            operands.add(e.right());
+            left = e.left();
+        }
+        operands.add(left);
+        return operands.reversed();
+    }
+
+    // Returns true if the expression is a string literal, or folds to
+    // a constant string.
+    private boolean isStringConstant(Expr expr) {
+        return (expr instanceof Expr.Literal e && e.value() instanceof String)
+            || fold(expr) instanceof String;
+    }
+
+    // Returns true if the expression is known at compile time to yield
+    // a number (or to throw an error).
+    private boolean isNumeric(Expr expr) {
+        return switch (expr) {
+            case Expr.Literal e -> e.value() instanceof Double;
+            case Expr.Grouping e -> isNumeric(e.expr());
+            case Expr.Unary e -> e.op().type() == TokenType.MINUS;
+            case Expr.Binary e -> switch (e.op().type()) {
+                case TokenType.MINUS, TokenType.STAR, TokenType.SLASH -> true;
+                case TokenType.PLUS ->
+                    isNumeric(e.left()) && isNumeric(e.right());
+                default -> false;
+            };
+            default -> false;
+        };
+    }
+
+    // Gets the variant of the binary opcode that assumes both operands
+    // are numbers, if there is one.
+    private char numericVariant(char op) {
+        return switch (op) {
+            case ADD -> ADDN;
+            case GE -> GEN;
+            case GT -> GTN;
+            case LE -> LEN;
+            case LT -> LTN;
+            default -> op;
+        };
+    }
+
     private char token2updater(Token op) {
         return switch(op.type()) {
             case TokenType.PLUS_EQUAL  -> ADD;
@@ -1147,7 +1472,8 @@ class Compiler {
     // GLODEF nameIndex       | value → ∅
     private void defineGlobal(Token name) {
         assert inGlobalScope();
-        emit(GLODEF, constant(name.lexeme()));
+        emit(GLODEF, global(name.lexeme()));
+        folder.forget(name);
     }
 
     // Declares a local variable.  Checks for too many locals, and for
@@ -1219,9 +1545,10 @@ class Compiler {
         if (arg != -1) {
             getOp = Opcode.LOCGET;
         } else if ((arg = resolveUpvalue(current, name)) != -1) {
-            getOp = Opcode.UPGET;
+            getOp = current.upvalues[arg].byValue
+                ? Opcode.CAPGET : Opcode.UPGET;
         } else {
-            arg = constant(name.lexeme());
+            arg = global(name.lexeme());
             getOp = Opcode.GLOGET;
         }
 
@@ -1243,7 +1570,7 @@ class Compiler {
         } else if ((arg = resolveUpvalue(current, name)) != -1) {
             setOp = Opcode.UPSET;
         } else {
-            arg = constant(name.lexeme());
+            arg = global(name.lexeme());
             setOp = Opcode.GLOSET;
         }
 
@@ -1277,7 +1604,10 @@ class Compiler {
 
     // Resolves the name as the name of an upvalue.  Returns -1 if the
     // variable is global, and the upvalue index otherwise.  Captures
-    // locals as upvalues.
+    // locals as upvalues.  When optimizing, a local whose name is never
+    // assigned anywhere in the script can't change after it is
+    // initialized, and so is captured by value: the closure gets a
+    // copy of its value rather than an Upvalue.
     private int resolveUpvalue(FunctionInfo compiler, Token name) {
         // FIRST, if there's no enclosing FunctionCompiler, then this is
         // necessarily a global.
@@ -1288,8 +1618,11 @@ class Compiler {
         int local = resolveLocal(compiler.enclosing, name);
 
         if (local != -1) {
-            compiler.enclosing.locals[local].isCaptured = true;
-            return addUpvalue(compiler, name, (char)local, true);
+            var byValue = optimizing && !folder.isAssigned(name.lexeme());
+            if (!byValue) {
+                compiler.enclosing.locals[local].isCaptured = true;
+            }
+            return addUpvalue(compiler, name, (char)local, true, byValue);
         }
 
         // NEXT, it might be defined in a scope that encloses the enclosing
@@ -1297,7 +1630,8 @@ class Compiler {
         // as an upvalue, not as a local.
         int upvalue = resolveUpvalue(compiler.enclosing, name);
         if (upvalue != -1) {
-            return addUpvalue(compiler, name, (char)upvalue, false);
+            var byValue = compiler.enclosing.upvalues[upvalue].byValue;
+            return addUpvalue(compiler, name, (char)upvalue, false, byValue);
         }
 
         return -1;
@@ -1305,12 +1639,14 @@ class Compiler {
 
     // Adds an upvalue to the current function.  `index` is the index of the
     // upvalue in this function; `isLocal` is true if the upvalue is defined
-    // for this scope, and false if it's for an enclosing scope.
+    // for this scope, and false if it's for an enclosing scope.  `byValue`
+    // is true if the upvalue is a copy of the variable's value.
     private int addUpvalue(
         FunctionInfo compiler,
         Token name,
         char index,
-        boolean isLocal) {
+        boolean isLocal,
+        boolean byValue) {
         int upvalueCount = compiler.upvalueCount;
 
         // See if we already know about this upvalue.
@@ -1327,7 +1663,8 @@ class Compiler {
         }
 
         // Allocate a new upvalue.
-        compiler.upvalues[upvalueCount] = new UpvalueInfo(index, isLocal);
+        compiler.upvalues[upvalueCount] =
+            new UpvalueInfo(index, isLocal, byValue);
         return compiler.upvalueCount++;
     }
 
@@ -1480,6 +1817,18 @@ class Compiler {
         return current.chunk.addConstant(value);
     }
 
+    // Adds a global variable name to the globals table and returns its
+    // index.
+    private char global(String name) {
+        return current.chunk.addGlobal(name);
+    }
+
+    // Allocates an inline cache for a property access instruction, and
+    // returns its index.
+    private char cache() {
+        return current.chunk.addCache();
+    }
+
     // Adds a constant to the constant table for the token's lexeme,
     // and returns its index.
     private char name(Token name) {
@@ -1491,6 +1840,17 @@ class Compiler {
         emit(Opcode.CONST, constant(value));
     }
 
+    // Emits a folded constant value.
+    private void emitConstant(Object value) {
+        if (value == null) {
+            emit(NULL);
+        } else if (value instanceof Boolean flag) {
+            emit(flag ? TRUE : FALSE);
+        } else {
+            emitCONST(value);
+        }
+    }
+
     // Emits METHOD with the name of the method.  The method's
     // closure must already be on the stack.
     private void emitMETHOD(Token name) {
@@ -1499,22 +1859,56 @@ class Compiler {
 
     // Builds a new ListValue from multiple expressions.
     private void emitList(List<Expr> items) {
-        emit(LISTNEW);
-        for (var item : items) {
-            emit(item);
-            emit(LISTADD);
+        var template = template(LiteralTemplate.Kind.LIST, items);
+        if (template != null) {
+            emit(TEMPLATE, constant(template));
+        } else if (items.size() <= Character.MAX_VALUE) {
+            emitArgs(items);
+            emit(LISTOF, (char)items.size());
+        } else {
+            emit(LISTNEW);
+            for (var item : items) {
+                emit(item);
+                emit(LISTADD);
+            }
         }
     }
 
     // Builds a new SetValue from multiple expressions.
     private void emitSet(List<Expr> items) {
-        emit(SETNEW);
-        for (var item : items) {
-            emit(item);
-            emit(SETADD);
+        var template = template(LiteralTemplate.Kind.SET, items);
+        if (template != null) {
+            emit(TEMPLATE, constant(template));
+        } else if (items.size() <= Character.MAX_VALUE) {
+            emitArgs(items);
+            emit(SETOF, (char)items.size());
+        } else {
+            emit(SETNEW);
+            for (var item : items) {
+                emit(item);
+                emit(SETADD);
+            }
         }
     }
 
+    // Returns a template for a collection literal whose items are all
+    // constants, or null if the literal is empty or isn't constant.
+    private LiteralTemplate template(
+        LiteralTemplate.Kind kind,
+        List<Expr> items
+    ) {
+        if (items.isEmpty() || items.size() > Character.MAX_VALUE) {
+            return null;
+        }
+
+        var values = new Object[items.size()];
+        for (var i = 0; i < values.length; i++) {
+            values[i] = fold(items.get(i));
+            if (values[i] == ConstantFolder.NOT_CONSTANT) return null;
+        }
+        return new LiteralTemplate(kind, values);
+    }
+
     private int emitJump(char opcode) {
         emit(opcode);
         emit(Character.MAX_VALUE);
@@ -1571,6 +1965,30 @@ class Compiler {
         emit(Opcode.RETURN);
     }
 
+    // Checks that `super` is used in an instance method of a class with
+    // a superclass.
+    private void checkSuper(Expr.Super e) {
+        if (currentType == null || !currentType.inInstanceMethod) {
+            error(e.keyword(), "Can't use '" + e.keyword().lexeme() +
+                "' outside of a method.");
+        } else if (!currentType.hasSupertype) {
+            error(e.keyword(), "Can't use '" + e.keyword().lexeme() +
+                "' in a class with no superclass.");
+        }
+    }
+
+    // Returns true if a `return` of the given value can be compiled
+    // as a tail call: the value is a call, but not a method invocation,
+    // and the function isn't a script or an initializer, which must
+    // return something else.
+    private boolean isTailCall(Expr value) {
+        return value instanceof Expr.Call call
+            && !(call.callee() instanceof Expr.PropGet)
+            && !(call.callee() instanceof Expr.Super)
+            && current.chunk.type != FunctionType.SCRIPT
+            && current.chunk.type != FunctionType.INITIALIZER;
+    }
+
     // Emits a comment instruction; used when debugging the compiler.
     @SuppressWarnings("unused")
     private void emitComment(String comment) {
@@ -1747,15 +2165,18 @@ class Compiler {
     static class UpvalueInfo {
         char index;
         boolean isLocal;
+        boolean byValue;
 
-        UpvalueInfo(char index, boolean isLocal) {
+        UpvalueInfo(char index, boolean isLocal, boolean byValue) {
             this.index = index;
             this.isLocal = isLocal;
+            this.byValue = byValue;
         }
 
         @Override
         public String toString() {
-            return "UpvalueInfo[index=" + (int)index + ", isLocal=" + isLocal + "]";
+            return "UpvalueInfo[index=" + (int)index + ", isLocal=" + isLocal +
+                ", byValue=" + byValue + "]";
         }
     }
 
@@ -0,0 +1,508 @@
+package com.wjduquette.joe.clark;
+
+import com.wjduquette.joe.Joe;
+import com.wjduquette.joe.parser.ASTPattern;
+import com.wjduquette.joe.parser.Expr;
+import com.wjduquette.joe.parser.Stmt;
+import com.wjduquette.joe.scanner.Token;
+import com.wjduquette.joe.scanner.TokenType;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Evaluates constant expressions at compile time on behalf of the
+ * {@link Compiler}.  An expression is constant if it is built from
+ * literals, {@code true}, {@code false}, {@code null}, and the
+ * references to propagated globals, using the arithmetic, comparison,
+ * equality, logical, and negation operators, and the ternary operator.  An expression whose evaluation
+ * would throw an error, e.g., {@code 1 + true}, is never constant;
+ * it is left for the VM to evaluate and report in the usual way.
+ *
+ * <p><b>Constant Propagation:</b> a global variable declared exactly
+ * once in the script's top-level code with a constant initializer, and
+ * never assigned, incremented, decremented, or bound by a pattern
+ * anywhere in the script, has a known value.  References to it in the
+ * script's top-level code following the declaration are replaced by its
+ * value, up to the first call or {@code import}: code outside the script,
+ * e.g., functions defined by other scripts or Java code, can assign the
+ * global.  For the same reason, nothing is propagated into a loop that
+ * contains a call or {@code import}, as the loop's back-edge can bring
+ * the call before any use in the loop.  References within functions and
+ * methods are never replaced, as they can be called from other scripts
+ * after the global has been changed.</p>
+ *
+ * <p>The scan also records the names of all variables, global or local,
+ * that are assigned anywhere in the script, so that the compiler can
+ * capture locals that are never reassigned by value rather than as
+ * {@link Upvalue Upvalues}.</p>
+ */
+final class ConstantFolder {
+    /** The result of folding an expression that isn't constant. */
+    static final Object NOT_CONSTANT = new Object();
+
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    // The Joe interpreter, for stringification
+    private final Joe joe;
+
+    // Returns true if a variable reference refers to a global from
+    // the script's top-level code.
+    private final Predicate<Token> isTopLevelGlobal;
+
+    // Names of globals that can't be propagated.
+    private final Set<String> unstable = new HashSet<>();
+
+    // Names of variables that are assigned, incremented, or decremented,
+    // are the loop variable of a `foreach`, or are bound by a pattern,
+    // anywhere in the script.
+    private final Set<String> assigned = new HashSet<>();
+
+    // Number of declarations of each name outside of function bodies.
+    private final Map<String, Integer> declarations = new HashMap<>();
+
+    // The `var` declarations in the script's top-level statement list
+    private final Set<Stmt.Var> topLevel =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // Propagated globals and their values.
+    private final Map<String, Object> globals = new HashMap<>();
+
+    // Loops whose code includes a call or import.
+    private final Set<Stmt> callingLoops =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // Whether the code scanned so far in the current loop or function
+    // body includes a call or import.
+    private boolean calls = false;
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    /**
+     * Creates a folder.
+     * @param joe The Joe interpreter
+     * @param isTopLevelGlobal Predicate: does a reference to this name
+     *                         at the current point of compilation
+     *                         refer to a global from top-level code?
+     */
+    ConstantFolder(Joe joe, Predicate<Token> isTopLevelGlobal) {
+        this.joe = joe;
+        this.isTopLevelGlobal = isTopLevelGlobal;
+    }
+
+    //-------------------------------------------------------------------------
+    // Constant Propagation
+
+    /**
+     * Scans the script's statements for the globals that can't be
+     * propagated.  Call this before compiling the script.
+     * @param statements The script's statements
+     */
+    void scan(List<Stmt> statements) {
+        unstable.clear();
+        assigned.clear();
+        declarations.clear();
+        globals.clear();
+        topLevel.clear();
+        callingLoops.clear();
+        calls = false;
+        scanStmts(statements, true);
+
+        for (var stmt : statements) {
+            if (stmt instanceof Stmt.Var var) topLevel.add(var);
+        }
+
+        declarations.forEach((name, count) -> {
+            if (count > 1) unstable.add(name);
+        });
+        unstable.addAll(assigned);
+    }
+
+    /**
+     * Returns true if a variable with this name is assigned anywhere
+     * in the script, i.e., if a local variable with this name might
+     * change value after it is initialized.
+     * @param name The name
+     * @return true or false
+     */
+    boolean isAssigned(String name) {
+        return assigned.contains(name);
+    }
+
+    /**
+     * Notes the declaration of a global variable.  If the declaration is
+     * one of the script's top-level statements, its initializer is
+     * constant, and the variable is stable, subsequent references to it
+     * can be folded.
+     * @param var The declaration
+     */
+    void declare(Stmt.Var var) {
+        var name = var.name().lexeme();
+        var value = topLevel.contains(var) && !unstable.contains(name)
+            ? fold(var.value()) : NOT_CONSTANT;
+        if (value != NOT_CONSTANT) {
+            globals.put(name, value);
+        } else {
+            globals.remove(name);
+        }
+    }
+
+    /**
+     * Notes that the global with the given name has been redefined by
+     * some other means, e.g., a function, class, or record declaration.
+     * @param name The name
+     */
+    void forget(Token name) {
+        globals.remove(name.lexeme());
+    }
+
+    /**
+     * Notes that any number of globals may have been redefined, e.g.,
+     * by an {@code import}.
+     */
+    void forgetAll() {
+        globals.clear();
+    }
+
+    /**
+     * Gets a copy of the propagated globals, e.g., before compiling
+     * dead code.
+     * @return The globals and their values
+     */
+    Map<String, Object> saveGlobals() {
+        return new HashMap<>(globals);
+    }
+
+    /**
+     * Restores the propagated globals saved by {@link #saveGlobals()}.
+     * @param saved The saved globals
+     */
+    void restoreGlobals(Map<String, Object> saved) {
+        globals.clear();
+        globals.putAll(saved);
+    }
+
+    /**
+     * Notes the beginning of a loop in the script's top-level code.  If
+     * the loop includes a call or import, which might assign any global,
+     * no globals are propagated into it.
+     * @param loop The loop statement
+     */
+    void beginLoop(Stmt loop) {
+        if (callingLoops.contains(loop)) globals.clear();
+    }
+
+    //-------------------------------------------------------------------------
+    // Folding
+
+    /**
+     * Returns true if the expression is constant.
+     * @param expr The expression
+     * @return true or false
+     */
+    boolean isConstant(Expr expr) {
+        return fold(expr) != NOT_CONSTANT;
+    }
+
+    /**
+     * Evaluates the expression if it is constant.
+     * @param expr The expression
+     * @return The value, or NOT_CONSTANT.
+     */
+    Object fold(Expr expr) {
+        return switch (expr) {
+            case Expr.Literal e -> e.value();
+            case Expr.False ignored -> false;
+            case Expr.True ignored -> true;
+            case Expr.Null ignored -> null;
+            case Expr.Grouping e -> fold(e.expr());
+            case Expr.Unary e -> foldUnary(e);
+            case Expr.Logical e -> {
+                var a = fold(e.left());
+                var b = fold(e.right());
+                if (a == NOT_CONSTANT || b == NOT_CONSTANT) {
+                    yield NOT_CONSTANT;
+                }
+                var isAnd = e.op().type() == TokenType.AND;
+                yield Joe.isTruthy(a) == isAnd ? b : a;
+            }
+            case Expr.Binary e -> foldBinary(e);
+            case Expr.Ternary e -> {
+                // Both branches must be constant, so that folding
+                // doesn't hide compilation errors in the unused branch.
+                var flag = fold(e.condition());
+                var a = fold(e.trueExpr());
+                var b = fold(e.falseExpr());
+                if (flag == NOT_CONSTANT || a == NOT_CONSTANT ||
+                    b == NOT_CONSTANT
+                ) {
+                    yield NOT_CONSTANT;
+                }
+                yield Joe.isTruthy(flag) ? a : b;
+            }
+            case Expr.VarGet e -> {
+                var name = e.name().lexeme();
+                if (globals.containsKey(name) &&
+                    isTopLevelGlobal.test(e.name())
+                ) {
+                    yield globals.get(name);
+                }
+                yield NOT_CONSTANT;
+            }
+            default -> NOT_CONSTANT;
+        };
+    }
+
+    private Object foldUnary(Expr.Unary e) {
+        var a = fold(e.right());
+        if (a == NOT_CONSTANT) return NOT_CONSTANT;
+
+        return switch (e.op().type()) {
+            case TokenType.BANG -> Joe.isFalsey(a);
+            case TokenType.MINUS ->
+                a instanceof Double d ? -d : NOT_CONSTANT;
+            default -> NOT_CONSTANT;
+        };
+    }
+
+    private Object foldBinary(Expr.Binary e) {
+        var a = fold(e.left());
+        if (a == NOT_CONSTANT) return NOT_CONSTANT;
+        var b = fold(e.right());
+        if (b == NOT_CONSTANT) return NOT_CONSTANT;
+
+        // Equality is defined for all values.
+        switch (e.op().type()) {
+            case TokenType.EQUAL_EQUAL -> { return Joe.isEqual(a, b); }
+            case TokenType.BANG_EQUAL -> { return !Joe.isEqual(a, b); }
+            default -> {}
+        }
+
+        if (a instanceof Double x && b instanceof Double y) {
+            return switch (e.op().type()) {
+                case TokenType.PLUS          -> x + y;
+                case TokenType.MINUS         -> x - y;
+                case TokenType.STAR          -> x * y;
+                case TokenType.SLASH         -> x / y;
+                case TokenType.LESS          -> x < y;
+                case TokenType.LESS_EQUAL    -> x <= y;
+                case TokenType.GREATER       -> x > y;
+                case TokenType.GREATER_EQUAL -> x >= y;
+                default -> NOT_CONSTANT;
+            };
+        }
+
+        if (a instanceof String s && b instanceof String t) {
+            var cmp = s.compareTo(t);
+            switch (e.op().type()) {
+                case TokenType.LESS          -> { return cmp < 0; }
+                case TokenType.LESS_EQUAL    -> { return cmp <= 0; }
+                case TokenType.GREATER       -> { return cmp > 0; }
+                case TokenType.GREATER_EQUAL -> { return cmp >= 0; }
+                default -> {}
+            }
+        }
+
+        if (e.op().type() == TokenType.PLUS) {
+            if (a instanceof String s) return s + joe.stringify(b);
+            if (b instanceof String s) return joe.stringify(a) + s;
+        }
+
+        return NOT_CONSTANT;
+    }
+
+    //-------------------------------------------------------------------------
+    // Scanning
+
+    // Scans a list of statements.  `outside` is true if the statements
+    // are outside any function body, i.e., a `var` might declare
+    // a global.
+    private void scanStmts(List<Stmt> statements, boolean outside) {
+        for (var stmt : statements) {
+            scanStmt(stmt, outside);
+        }
+    }
+
+    private void scanStmt(Stmt stmt, boolean outside) {
+        if (stmt == null) return;
+
+        switch (stmt) {
+            case Stmt.Assert s -> {
+                scanExpr(s.condition());
+                scanExpr(s.message());
+            }
+            case Stmt.Block s -> scanStmts(s.statements(), outside);
+            case Stmt.Break ignored -> {}
+            case Stmt.Class s -> {
+                scanExpr(s.superclass());
+                scanFunctions(s.staticMethods());
+                scanFunctions(s.methods());
+                scanStmts(s.staticInit(), outside);
+            }
+            case Stmt.Continue ignored -> {}
+            case Stmt.Expression s -> scanExpr(s.expr());
+            case Stmt.For s -> scanLoop(s, () -> {
+                scanStmt(s.init(), outside);
+                scanExpr(s.condition());
+                scanExpr(s.updater());
+                scanStmt(s.body(), outside);
+            });
+            case Stmt.ForEach s -> scanLoop(s, () -> {
+                assigned.add(s.name().lexeme());
+                scanExpr(s.items());
+                scanStmt(s.body(), outside);
+            });
+            case Stmt.ForEachBind s -> scanLoop(s, () -> {
+                scanPattern(s.pattern());
+                scanExpr(s.items());
+                scanStmt(s.body(), outside);
+            });
+            case Stmt.Function s -> scanBody(s.body());
+            case Stmt.If s -> {
+                scanExpr(s.condition());
+                scanStmt(s.thenBranch(), outside);
+                scanStmt(s.elseBranch(), outside);
+            }
+            case Stmt.Import ignored -> calls = true;
+            case Stmt.Match s -> {
+                scanExpr(s.expr());
+                for (var c : s.cases()) {
+                    scanPattern(c.pattern());
+                    scanExpr(c.guard());
+                    scanStmt(c.statement(), outside);
+                }
+                scanStmt(s.matchDefault(), outside);
+            }
+            case Stmt.Record s -> {
+                scanFunctions(s.staticMethods());
+                scanFunctions(s.methods());
+                scanStmts(s.staticInit(), outside);
+            }
+            case Stmt.Return s -> scanExpr(s.value());
+            case Stmt.Switch s -> {
+                scanExpr(s.expr());
+                for (var c : s.cases()) {
+                    c.values().forEach(this::scanExpr);
+                    scanStmt(c.statement(), outside);
+                }
+                if (s.switchDefault() != null) {
+                    scanStmt(s.switchDefault().statement(), outside);
+                }
+            }
+            case Stmt.Throw s -> scanExpr(s.value());
+            case Stmt.Var s -> {
+                if (outside) {
+                    declarations.merge(s.name().lexeme(), 1, Integer::sum);
+                }
+                scanExpr(s.value());
+            }
+            case Stmt.VarPattern s -> {
+                scanPattern(s.pattern());
+                scanExpr(s.target());
+            }
+            case Stmt.While s -> scanLoop(s, () -> {
+                scanExpr(s.condition());
+                scanStmt(s.body(), outside);
+            });
+        }
+    }
+
+    // Scans the loop, noting whether it includes a call or import.
+    private void scanLoop(Stmt loop, Runnable scanner) {
+        var outer = calls;
+        calls = false;
+        scanner.run();
+        if (calls) callingLoops.add(loop);
+        calls |= outer;
+    }
+
+    private void scanFunctions(List<Stmt.Function> functions) {
+        for (var f : functions) {
+            scanBody(f.body());
+        }
+    }
+
+    // Scans a function body.  Its calls run only when the function is
+    // called, so they don't count toward the enclosing code's.
+    private void scanBody(List<Stmt> body) {
+        var outer = calls;
+        scanStmts(body, false);
+        calls = outer;
+    }
+
+    // A pattern's variables are rebound each time it matches, e.g., in
+    // a `while` condition, so they count as assigned.
+    private void scanPattern(ASTPattern pattern) {
+        pattern.getVariableTokens().forEach(t -> assigned.add(t.lexeme()));
+        pattern.getExprs().forEach(this::scanExpr);
+    }
+
+    private void scanExpr(Expr expr) {
+        if (expr == null) return;
+
+        switch (expr) {
+            case Expr.Binary e -> {
+                scanExpr(e.left());
+                scanExpr(e.right());
+            }
+            case Expr.Call e -> {
+                calls = true;
+                scanExpr(e.callee());
+                e.arguments().forEach(this::scanExpr);
+            }
+            case Expr.False ignored -> {}
+            case Expr.Grouping e -> scanExpr(e.expr());
+            case Expr.IndexGet e -> {
+                scanExpr(e.collection());
+                scanExpr(e.index());
+            }
+            case Expr.IndexIncrDecr e -> {
+                scanExpr(e.collection());
+                scanExpr(e.index());
+            }
+            case Expr.IndexSet e -> {
+                scanExpr(e.collection());
+                scanExpr(e.index());
+                scanExpr(e.value());
+            }
+            case Expr.Lambda e -> scanBody(e.declaration().body());
+            case Expr.ListLiteral e -> e.list().forEach(this::scanExpr);
+            case Expr.Literal ignored -> {}
+            case Expr.Logical e -> {
+                scanExpr(e.left());
+                scanExpr(e.right());
+            }
+            case Expr.MapLiteral e -> e.entries().forEach(this::scanExpr);
+            case Expr.Match e -> {
+                scanExpr(e.target());
+                scanPattern(e.pattern());
+            }
+            case Expr.Null ignored -> {}
+            case Expr.PropGet e -> scanExpr(e.object());
+            case Expr.PropIncrDecr e -> scanExpr(e.object());
+            case Expr.PropSet e -> {
+                scanExpr(e.object());
+                scanExpr(e.value());
+            }
+            case Expr.RuleSet ignored -> {}
+            case Expr.SetLiteral e -> e.list().forEach(this::scanExpr);
+            case Expr.Super ignored -> {}
+            case Expr.Ternary e -> {
+                scanExpr(e.condition());
+                scanExpr(e.trueExpr());
+                scanExpr(e.falseExpr());
+            }
+            case Expr.This ignored -> {}
+            case Expr.True ignored -> {}
+            case Expr.Unary e -> scanExpr(e.right());
+            case Expr.VarGet ignored -> {}
+            case Expr.VarIncrDecr e -> assigned.add(e.name().lexeme());
+            case Expr.VarSet e -> {
+                assigned.add(e.name().lexeme());
+                scanExpr(e.value());
+            }
+        }
+    }
+}
@@ -21,6 +21,10 @@ public class Disassembler {
     //-------------------------------------------------------------------------
     // Instance Variables
 
+    // The names of the CLOSURE capture kinds, by kind
+    private static final String[] CAPTURE_KINDS =
+        { "upvalue", "local", "value" };
+
     private final Joe joe;
     private transient CodeChunk chunk;
 
@@ -51,6 +55,18 @@ public class Disassembler {
      * @return The string.
      */
     String disassemble(CodeChunk chunk) {
+        return disassemble(chunk, chunk.codeSize());
+    }
+
+    /**
+     * Disassembles the chunk, as for {@link #disassemble(CodeChunk)},
+     * noting the size of its code before optimization by the
+     * {@link Peephole} optimizer.
+     * @param chunk The chunk
+     * @param unoptimizedSize The code size before optimization
+     * @return The string.
+     */
+    String disassemble(CodeChunk chunk, int unoptimizedSize) {
         this.chunk = chunk;
         // FIRST, get the title and constants table.
         var buff = new StringBuilder();
@@ -67,6 +83,13 @@ public class Disassembler {
             .append(String.format("%d/%d = %.1f%%",
                 compressed, chunk.codeSize(), percentage))
             .append("\n");
+        if (unoptimizedSize != chunk.codeSize()) {
+            buff.append("Optimized size: ")
+                .append(String.format("%d/%d = %.1f%%",
+                    chunk.codeSize(), unoptimizedSize,
+                    100.0*chunk.codeSize()/unoptimizedSize))
+                .append("\n");
+        }
 
         for (int i = 0; i < chunk.numConstants(); i++) {
             buff.append("[")
@@ -80,6 +103,18 @@ public class Disassembler {
             buff.append("\n");
         }
 
+        for (int i = 0; i < chunk.numGlobals(); i++) {
+            buff.append("{")
+                .append(i)
+                .append("} = ")
+                .append(chunk.getGlobal(i))
+                .append("\n");
+        }
+
+        if (chunk.numGlobals() > 0) {
+            buff.append("\n");
+        }
+
         // NEXT, get the lines of the output.
         var lines = new ArrayList<Line>();
         for (int ip = 0; ip < chunk.codeSize(); ) {
@@ -152,10 +187,10 @@ public class Disassembler {
         switch (opcode) {
             // Simple Instructions
             // Pattern: opcode
-            case ADD, ASSERT, DECR, DIV, DUP, DUP2, EQ, FALSE,
-                 GE, GT, GETNEXT, HASNEXT,
+            case ADD, ADDN, ASSERT, DECR, DIV, DUP, DUP2, EQ, FALSE,
+                 GE, GEN, GT, GTN, GETNEXT, GLOBIND, HASNEXT,
                  IN, INCR, INDGET, INDSET, INHERIT, ITER,
-                 LISTADD, LISTNEW, LE, LT,
+                 LISTADD, LISTNEW, LE, LEN, LOCBIND, LT, LTN,
                  MAPNEW, MAPPUT, MATCH, MATCHG, MATCHL, MUL,
                  NE, NEGATE, NI, NOT, NULL,
                  POP, RETURN, SETADD, SETNEW, SUB, SWAP,
@@ -167,7 +202,8 @@ public class Disassembler {
 
             // Char Instructions (instructions with one arbitrary char arg)
             // Pattern: opcode charValue
-            case CALL, LOCGET, LOCSET, POPN, UPCLOSE, UPGET, UPSET -> {
+            case CALL, CAPGET, CONCAT, LISTOF, LOCDECR, LOCGET, LOCINCR, LOCSET,
+                 MAPOF, POPN, SETOF, TAILCALL, UPCLOSE, UPGET, UPSET -> {
                 char arg = chunk.code(ip + 1);
                 var text = String.format(" %04d", (int)arg);
                 lines.add(new Line(ip, prefix + text));
@@ -194,6 +230,24 @@ public class Disassembler {
                 return ip + 2;
             }
 
+            // Compare-and-Jump Instructions
+            // Pattern: opcode cmp slot (constantIndex|slot) jumpOffset
+            case JIFLC, JIFLL -> {
+                char cmp = chunk.code(ip + 1);
+                int slot = chunk.code(ip + 2);
+                int b = chunk.code(ip + 3);
+                char jump = chunk.code(ip + 4);
+                var operand = opcode == JIFLC
+                    ? String.format("%04d '%s'", b,
+                        joe.stringify(chunk.getConstant(b)))
+                    : String.format("%04d", b);
+                var text = String.format(" %s %04d %s -> %d",
+                    Opcode.name(cmp), slot, operand,
+                    ip + 5 + jump);  // Add jump
+                lines.add(new Line(ip, prefix + text));
+                return ip + 5;
+            }
+
             // Backward Jump Instructions
             // Pattern: opcode jumpOffset
             case LOOP -> {
@@ -208,9 +262,8 @@ public class Disassembler {
 
             // Constant Instructions
             // Pattern: opcode constantIndex
-            case CLASS, COMMENT, CONST, EXPORT, GLODEF, GLOGET, GLOBIND, GLOSET,
-                 IMPORT, LOCBIND, METHOD, PATTERN, PROPGET, PROPSET, RULESET,
-                 SUPGET, TRCPUSH
+            case CLASS, COMMENT, CONST, EXPORT,
+                 IMPORT, METHOD, RULESET, TEMPLATE, TRCPUSH
             -> {
                 int index = chunk.code(ip + 1);
                 var constant = joe.stringify(chunk.getConstant(index));
@@ -222,9 +275,53 @@ public class Disassembler {
                 return ip + 2;
             }
 
+            // Property Instructions
+            // Pattern: opcode nameIndex cacheIndex
+            case PROPGET, PROPSET, SUPGET -> {
+                int index = chunk.code(ip + 1);
+                int cache = chunk.code(ip + 2);
+                var text = String.format(" %04d '%s' %04d", index,
+                    chunk.getConstant(index), cache);
+                lines.add(new Line(ip, prefix + text));
+                return ip + 3;
+            }
+
+            // Invoke Instructions
+            // Pattern: opcode nameIndex argc cacheIndex
+            case INVOKE, SUPINVOKE -> {
+                int index = chunk.code(ip + 1);
+                int argc = chunk.code(ip + 2);
+                int cache = chunk.code(ip + 3);
+                var text = String.format(" %04d '%s' %04d %04d", index,
+                    chunk.getConstant(index), argc, cache);
+                lines.add(new Line(ip, prefix + text));
+                return ip + 4;
+            }
+
+            // Global Call Instructions
+            // Pattern: opcode argc globalIndex
+            case GLOCALL -> {
+                int argc = chunk.code(ip + 1);
+                int index = chunk.code(ip + 2);
+                var text = String.format(" %04d %04d '%s'", argc, index,
+                    chunk.getGlobal(index));
+                lines.add(new Line(ip, prefix + text));
+                return ip + 3;
+            }
+
+            // Global Instructions
+            // Pattern: opcode globalIndex
+            case GLODEF, GLOGET, GLOSET -> {
+                int index = chunk.code(ip + 1);
+                var text = String.format(" %04d '%s'", index,
+                    chunk.getGlobal(index));
+                lines.add(new Line(ip, prefix + text));
+                return ip + 2;
+            }
+
             // Two-constant Instructions
             // Pattern: opcode constantIndex1 constantIndex2
-            case RECORD -> {
+            case PATTERN, RECORD -> {
                 int i1 = chunk.code(ip + 1);
                 var c1 = joe.stringify(chunk.getConstant(i1));
                 if (c1.length() > 10) {
@@ -241,7 +338,7 @@ public class Disassembler {
             }
 
             // Closure Instruction
-            // Pattern: CLOSURE index [,isLocal, index]...
+            // Pattern: CLOSURE index [,kind, index]...
             case CLOSURE -> {
                 var start = ip++;
                 int constIndex = chunk.code(ip++);
@@ -251,10 +348,10 @@ public class Disassembler {
                 lines.add(new Line(start, prefix + text));
 
                 for (var i = 0; i < func.upvalueCount; i++) {
-                    int isLocal = chunk.code(ip);
+                    int kind = chunk.code(ip);
                     int index = chunk.code(ip + 1);
                     var upText = String.format("   | @%04d         %s %d              ",
-                        ip, isLocal == 1 ? "local" : "upvalue", index);
+                        ip, CAPTURE_KINDS[kind], index);
                     lines.add(new Line(ip, upText));
                     ip += 2;
                 }
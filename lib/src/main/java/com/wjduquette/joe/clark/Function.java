@@ -62,11 +62,36 @@ public class Function implements CodeChunk {
     // The constants table
     final Object[] constants;
 
+    // The globals table: the names of the global variables referenced
+    // by the code.
+    final String[] globals;
+
+    // The globals table resolved to slots in the most recently used
+    // global environment; see globalSlots().
+    private volatile GlobalSlots globalSlots = null;
+
+    // The closure shared by all uses of a function that captures no
+    // variables, for a particular global environment.
+    private volatile Closure sharedClosure = null;
+
+    // The inline caches for the code's property access instructions.
+    // These are mutable, and are updated by the VirtualMachine as the
+    // code executes.
+    final InlineCache[] caches;
+
     // The compiled code
     final char[] code;
 
-    // The line number associated with each index in code[].
-    private final int[] lines;
+    // The line number associated with each index in code[], run-length
+    // encoded; see RLE.  Lines are needed only for error messages and
+    // disassembly, and long runs of code share the same line.
+    final int[] lineRuns;
+
+    // The code translated to JVM byte-code by the JitCompiler, or null;
+    // and the number of calls counted towards translating it.  Both are
+    // managed by the VirtualMachine.
+    volatile JitCompiler.Code jitCode = null;
+    int jitCalls = 0;
 
     //-------------------------------------------------------------------------
     // Constructor
@@ -76,9 +101,39 @@ public class Function implements CodeChunk {
      * @param chunk The chunk.
      */
     Function(List<String> parameters, Chunk chunk, int upvalueCount) {
+        this(chunk.name,
+            chunk.type,
+            parameters,
+            chunk.source(),
+            chunk.span,
+            Arrays.copyOf(chunk.constants, chunk.numConstants),
+            chunk.globals.toArray(new String[0]),
+            Arrays.copyOf(chunk.code, chunk.size),
+            chunk.numCaches,
+            RLE.encode(Arrays.copyOf(chunk.lines, chunk.size)),
+            upvalueCount);
+    }
+
+    /**
+     * Creates a function from its parts, e.g., as read from a
+     * {@link BytecodeCache} file.
+     */
+    Function(
+        String name,
+        FunctionType type,
+        List<String> parameters,
+        SourceBuffer source,
+        SourceBuffer.Span span,
+        Object[] constants,
+        String[] globals,
+        char[] code,
+        int numCaches,
+        int[] lineRuns,
+        int upvalueCount
+    ) {
         // Operational data
-        this.name = chunk.name;
-        this.type = chunk.type;
+        this.name = name;
+        this.type = type;
         if (!parameters.isEmpty() && parameters.getLast().equals(ARGS)) {
             this.arity = parameters.size() - 1;
             this.isVarargs = true;
@@ -86,15 +141,20 @@ public class Function implements CodeChunk {
             this.arity = parameters.size();
             this.isVarargs = false;
         }
-        this.constants = Arrays.copyOf(chunk.constants, chunk.numConstants);
-        this.code = Arrays.copyOf(chunk.code, chunk.size);
+        this.constants = constants;
+        this.globals = globals;
+        this.code = code;
+        this.caches = new InlineCache[numCaches];
+        for (var i = 0; i < caches.length; i++) {
+            caches[i] = new InlineCache();
+        }
         this.upvalueCount = upvalueCount;
 
         // Debugging/error info
         this.parameters = parameters;
-        this.source = chunk.source();
-        this.span = chunk.span;
-        this.lines = Arrays.copyOf(chunk.lines, chunk.size);
+        this.source = source;
+        this.span = span;
+        this.lineRuns = lineRuns;
     }
 
     //-------------------------------------------------------------------------
@@ -106,10 +166,12 @@ public class Function implements CodeChunk {
     @Override public String name() { return name; }
     @Override public int codeSize() { return code.length; }
     @Override public char code(int index) { return code[index]; }
-    @Override public int line(int index) { return lines[index]; }
+    @Override public int line(int index) { return RLE.get(lineRuns, index); }
     @Override public int numConstants() { return constants.length; }
     @Override public Object getConstant(int index) { return constants[index]; }
-    @Override public int[] lines() { return lines; }
+    @Override public int numGlobals() { return globals.length; }
+    @Override public String getGlobal(int index) { return globals[index]; }
+    @Override public int[] lines() { return RLE.decode(lineRuns); }
 
     //-------------------------------------------------------------------------
     // Function API
@@ -127,6 +189,44 @@ public class Function implements CodeChunk {
         }
     }
 
+    /**
+     * Gets the function's globals table resolved to slot indices in the
+     * given global environment.  The result is cached, so that creating
+     * many closures from the same function in the same environment
+     * resolves the names only once.
+     * @param env The global environment
+     * @return The slot indices, by global index
+     */
+    int[] globalSlots(GlobalEnvironment env) {
+        var cached = globalSlots;
+        if (cached == null || cached.env() != env) {
+            cached = new GlobalSlots(env, env.resolve(globals));
+            globalSlots = cached;
+        }
+        return cached.slots();
+    }
+
+    /**
+     * Gets a closure for this function in the given global environment.
+     * The function must capture no variables; all closures of such a
+     * function in one environment are equivalent, so the closure is
+     * cached and reused.
+     * @param env The global environment
+     * @return The closure
+     */
+    Closure sharedClosure(GlobalEnvironment env) {
+        assert upvalueCount == 0;
+        var closure = sharedClosure;
+        if (closure == null || closure.globals != env) {
+            closure = new Closure(this, env);
+            sharedClosure = closure;
+        }
+        return closure;
+    }
+
+    // A function's global slots as resolved in a particular environment.
+    private record GlobalSlots(GlobalEnvironment env, int[] slots) {}
+
     //-------------------------------------------------------------------------
     // Object API
 
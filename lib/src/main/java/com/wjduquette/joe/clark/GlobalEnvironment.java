@@ -0,0 +1,166 @@
+package com.wjduquette.joe.clark;
+
+import com.wjduquette.joe.Environment;
+
+import java.util.*;
+
+/**
+ * The {@link VirtualMachine}'s global environment.  Global variables are
+ * stored in an array of slots; each global name is assigned a slot the
+ * first time it is referenced, whether by compiled code or by the
+ * {@link Environment} API, and keeps it for the life of the environment.
+ * Compiled code resolves its global names to slots once per
+ * {@link Function}, so that {@code GLOGET} and friends are simple array
+ * accesses.  The {@link Environment} API is a view on the slot table.
+ *
+ * <p>A slot can exist without its variable being defined; such slots
+ * contain {@code UNDEFINED}.  A new slot for a variable in the
+ * environment's base is initialized from the base, so that only the
+ * base variables the scripts actually use are copied.</p>
+ */
+class GlobalEnvironment extends Environment {
+    /**
+     * The value of a slot whose variable has not yet been defined.
+     */
+    static final Object UNDEFINED = new Object() {
+        @Override public String toString() { return "<undefined>"; }
+    };
+
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    // The slot index for each known global name.
+    private final Map<String, Integer> slotMap = new HashMap<>();
+
+    // The name of each slot, by index.
+    private String[] names = new String[64];
+
+    // The slot values, by index.  Undefined variables contain UNDEFINED.
+    private Object[] slots = new Object[64];
+
+    // The number of slots in use.
+    private int slotCount = 0;
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    /**
+     * Creates an empty global environment.
+     */
+    GlobalEnvironment() {
+        // Nothing to do
+    }
+
+    //-------------------------------------------------------------------------
+    // Slot API
+
+    /**
+     * Gets the slot index for the named global, assigning a new slot
+     * if need be.
+     * @param name The name
+     * @return The slot index
+     */
+    int slotOf(String name) {
+        var slot = slotMap.get(name);
+
+        if (slot == null) {
+            if (slotCount == slots.length) {
+                slots = Arrays.copyOf(slots, 2*slots.length);
+                names = Arrays.copyOf(names, 2*names.length);
+            }
+            slot = slotCount++;
+            slots[slot] = base.containsKey(name) ? base.get(name) : UNDEFINED;
+            names[slot] = name;
+            slotMap.put(name, slot);
+        }
+
+        return slot;
+    }
+
+    /**
+     * Resolves each of the names to its slot index.
+     * @param globalNames The names
+     * @return An array of slot indices, one for each name.
+     */
+    int[] resolve(String[] globalNames) {
+        var result = new int[globalNames.length];
+        for (var i = 0; i < globalNames.length; i++) {
+            result[i] = slotOf(globalNames[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the value in the slot, which will be {@code UNDEFINED}
+     * if the variable has not been defined.
+     * @param slot The slot index
+     * @return The value
+     */
+    Object get(int slot) {
+        return slots[slot];
+    }
+
+    /**
+     * Sets the value in the slot, defining the variable if need be.
+     * @param slot The slot index
+     * @param value The value
+     */
+    void set(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    //-------------------------------------------------------------------------
+    // Environment API
+
+    @Override
+    public boolean hasVariable(String name) {
+        var slot = slotMap.get(name);
+        if (slot == null) return base.containsKey(name);
+        return slots[slot] != UNDEFINED;
+    }
+
+    @Override
+    public Object getVariable(String name) {
+        var slot = slotMap.get(name);
+        if (slot == null) return base.get(name);
+
+        var value = slots[slot];
+        return value != UNDEFINED ? value : null;
+    }
+
+    @Override
+    public void setVariable(String name, Object value) {
+        slots[slotOf(name)] = value;
+    }
+
+    @Override
+    public Set<String> getVariableNames() {
+        var result = new HashSet<String>();
+        for (var name : base.keySet()) {
+            if (!slotMap.containsKey(name)) result.add(name);
+        }
+        for (var i = 0; i < slotCount; i++) {
+            if (slots[i] != UNDEFINED) {
+                result.add(names[i]);
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public void setBase(Map<String, Object> base) {
+        super.setBase(base);
+
+        // Slots assigned before the base was set get their base values.
+        for (var i = 0; i < slotCount; i++) {
+            if (slots[i] == UNDEFINED && this.base.containsKey(names[i])) {
+                slots[i] = this.base.get(names[i]);
+            }
+        }
+    }
+
+    @Override
+    public void setAll(Map<String, Object> map) {
+        map.forEach(this::setVariable);
+    }
+}
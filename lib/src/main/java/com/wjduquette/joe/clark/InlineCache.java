@@ -0,0 +1,197 @@
+package com.wjduquette.joe.clark;
+
+import com.wjduquette.joe.Joe;
+import com.wjduquette.joe.JoeValueLambda;
+
+import java.util.Arrays;
+
+/**
+ * A polymorphic inline cache for a single property access site, i.e., a
+ * single {@code PROPGET}, {@code PROPSET}, or {@code INVOKE} instruction.
+ * The cache maps the {@link InstanceShape} of the {@link ClarkInstance}
+ * being accessed to the result of looking up the property in that shape,
+ * so that repeated accesses to objects of the same shape needn't look up
+ * the property by name.
+ *
+ * <p>An {@code INVOKE} site also caches native methods: it maps the
+ * Java class of a receiver with a {@link com.wjduquette.joe.ProxyType}
+ * to the proxy's {@link JoeValueLambda} for the method, so that the
+ * method can be called directly on the receiver.</p>
+ *
+ * <p>A {@code SUPGET} or {@code SUPINVOKE} site caches the vtable slot
+ * of the method in the superclass.</p>
+ *
+ * <p>Shape entries and the superclass entry cache method slots, so they
+ * are valid only while {@link ClarkClass#version()} is unchanged; the
+ * cache discards them when it changes.</p>
+ *
+ * <p>The cache holds up to {@code MAX_ENTRIES} shapes and
+ * {@code MAX_ENTRIES} classes; a site that sees more than that is
+ * megamorphic, and the additional shapes and classes are simply looked
+ * up on each access.</p>
+ */
+final class InlineCache {
+    /** The maximum number of shapes or classes cached at a site. */
+    static final int MAX_ENTRIES = 4;
+
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    private final Entry[] entries = new Entry[MAX_ENTRIES];
+    private int count = 0;
+
+    // The method version when the shape and superclass entries were
+    // cached.
+    private int version = ClarkClass.version();
+
+    // The superclass entry: a class and its method's slot.
+    private ClarkClass superclass = null;
+    private int superSlot = -1;
+
+    private final NativeEntry[] nativeEntries = new NativeEntry[MAX_ENTRIES];
+    private int nativeCount = 0;
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    InlineCache() {
+        // Nothing to do
+    }
+
+    //-------------------------------------------------------------------------
+    // API
+
+    /**
+     * Looks up the entry for the given shape.
+     * @param shape The shape
+     * @return The entry, or null if the shape isn't cached.
+     */
+    Entry lookup(InstanceShape shape) {
+        checkVersion();
+        for (var i = 0; i < count; i++) {
+            var entry = entries[i];
+            if (entry.shape == shape) return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Adds an entry to the cache, if there's room.
+     * @param entry The entry
+     * @return The entry
+     */
+    Entry add(Entry entry) {
+        if (count < MAX_ENTRIES) {
+            entries[count++] = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * Looks up the cached method slot for the given superclass.
+     * @param klass The superclass
+     * @return The slot, -1 if the superclass has no such method, or
+     * -2 if the superclass isn't cached.
+     */
+    int lookupSuper(ClarkClass klass) {
+        checkVersion();
+        return klass == superclass ? superSlot : -2;
+    }
+
+    /**
+     * Caches the method slot for the given superclass.
+     * @param klass The superclass
+     * @param slot The slot, or -1
+     * @return The slot
+     */
+    int addSuper(ClarkClass klass, int slot) {
+        superclass = klass;
+        superSlot = slot;
+        return slot;
+    }
+
+    // Discards the method-related entries if the method version has
+    // changed.
+    private void checkVersion() {
+        var current = ClarkClass.version();
+        if (version != current) {
+            version = current;
+            Arrays.fill(entries, null);
+            count = 0;
+            superclass = null;
+        }
+    }
+
+    /**
+     * Looks up the native entry for the given receiver class.
+     * @param joe The Joe interpreter whose proxies are in use
+     * @param cls The receiver's class
+     * @return The entry, or null if the class isn't cached.
+     */
+    NativeEntry lookup(Joe joe, Class<?> cls) {
+        for (var i = 0; i < nativeCount; i++) {
+            var entry = nativeEntries[i];
+            if (entry.cls == cls && entry.joe == joe) return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Adds a native entry to the cache, if there's room.
+     * @param entry The entry
+     * @return The entry
+     */
+    NativeEntry add(NativeEntry entry) {
+        if (nativeCount < MAX_ENTRIES) {
+            nativeEntries[nativeCount++] = entry;
+        }
+        return entry;
+    }
+
+    //-------------------------------------------------------------------------
+    // Entries
+
+    /**
+     * The result of looking up a property in a shape.
+     * For {@code PROPGET} and {@code INVOKE}, {@code index} is the
+     * field's index, or -1 if the shape has no such field; in that case
+     * {@code slot} is the vtable slot of the class's method of that
+     * name, or -1.
+     * For {@code PROPSET}, {@code index} is the field's index in the
+     * {@code next} shape, which is the shape itself if the field already
+     * exists and its successor for the field otherwise.
+     * @param shape The shape
+     * @param index The field index, or -1
+     * @param next The instance's shape after a PROPSET
+     * @param slot The method's slot, or -1
+     */
+    record Entry(
+        InstanceShape shape,
+        int index,
+        InstanceShape next,
+        int slot
+    ) {
+        /**
+         * Gets the method in the entry's slot.
+         * @return The method, or null if none.
+         */
+        Closure method() {
+            return slot >= 0 ? shape.klass().method(slot) : null;
+        }
+    }
+
+    /**
+     * The result of looking up a native method for a receiver class.
+     * Proxies are registered per Joe interpreter, so the interpreter is
+     * part of the key.
+     * @param joe The Joe interpreter
+     * @param cls The receiver's class
+     * @param method The method's callable, or null if the proxy has no
+     *               such method.
+     */
+    record NativeEntry(
+        Joe joe,
+        Class<?> cls,
+        JoeValueLambda<Object> method
+    ) {}
+}
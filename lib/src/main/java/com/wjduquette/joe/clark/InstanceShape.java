@@ -0,0 +1,131 @@
+package com.wjduquette.joe.clark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The field layout of a {@link ClarkInstance}, a "hidden class" in the
+ * usual terminology.  A shape maps field names to indices in the
+ * instance's array of field values.  Each {@link ClarkClass} has a root
+ * shape with no fields; adding a field to an instance moves it to the
+ * shape's successor for that field name, which is created once and then
+ * shared.  Thus, instances of a class whose fields are added in the
+ * same order share the same shape, and a shape identifies both the
+ * instance's class and its field layout.  This is what makes the
+ * {@link VirtualMachine}'s {@link InlineCache inline caches} possible.
+ *
+ * <p>Shapes are immutable, except for the table of successors.</p>
+ */
+final class InstanceShape {
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    // The class whose instances have this shape
+    private final ClarkClass klass;
+
+    // The field names, by index.
+    private final String[] names;
+
+    // The field indices, by name.
+    private final Map<String, Integer> indices;
+
+    // The successor shapes, by added field name.
+    private final Map<String, InstanceShape> successors =
+        new ConcurrentHashMap<>();
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    /**
+     * Creates the root shape for a class.
+     * @param klass The class
+     */
+    InstanceShape(ClarkClass klass) {
+        this.klass = klass;
+        this.names = new String[0];
+        this.indices = Map.of();
+    }
+
+    // Creates the successor of the given shape for the given field name.
+    private InstanceShape(InstanceShape parent, String name) {
+        this.klass = parent.klass;
+        this.names = Arrays.copyOf(parent.names, parent.names.length + 1);
+        this.names[parent.names.length] = name;
+        this.indices = new HashMap<>(parent.indices);
+        this.indices.put(name, parent.names.length);
+    }
+
+    //-------------------------------------------------------------------------
+    // API
+
+    /**
+     * Gets the class whose instances have this shape.
+     * @return The class
+     */
+    ClarkClass klass() {
+        return klass;
+    }
+
+    /**
+     * Gets the number of fields in this shape.
+     * @return The number
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Gets the name of the field with the given index.
+     * @param index The index
+     * @return The name
+     */
+    String name(int index) {
+        return names[index];
+    }
+
+    /**
+     * Gets the index of the named field, or -1 if there is no such field.
+     * @param name The field name
+     * @return The index
+     */
+    int indexOf(String name) {
+        var index = indices.get(name);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Gets the shape that results from adding the named field to this
+     * shape.  The field must not already be present.
+     * @param name The field name
+     * @return The successor shape
+     */
+    InstanceShape with(String name) {
+        return successors.computeIfAbsent(name,
+            n -> new InstanceShape(this, n));
+    }
+
+    /**
+     * Gets the shape that results from removing the named field from this
+     * shape.  This is rare, and so isn't cached.
+     * @param name The field name
+     * @return The shape
+     */
+    InstanceShape without(String name) {
+        var shape = klass.shape();
+        for (var field : names) {
+            if (!field.equals(name)) shape = shape.with(field);
+        }
+        return shape;
+    }
+
+    //-------------------------------------------------------------------------
+    // Object API
+
+    @Override
+    public String toString() {
+        return "InstanceShape[" + klass.name() + "," +
+            String.join(",", names) + "]";
+    }
+}
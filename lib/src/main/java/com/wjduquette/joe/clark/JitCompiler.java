@@ -0,0 +1,243 @@
+package com.wjduquette.joe.clark;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static com.wjduquette.joe.clark.ClassAssembler.*;
+import static com.wjduquette.joe.clark.Opcode.*;
+
+/**
+ * The Clark VM's compiled tier: translates a hot {@link Function}'s
+ * byte-code into a JVM hidden class, so that HotSpot can compile the
+ * function's code as a unit and inline the VM's instruction
+ * implementations into it.
+ *
+ * <p>The translation is a template compiler.  Each Clark instruction
+ * becomes a call to a {@code jit*} method of the {@link VirtualMachine}
+ * with the instruction's operands as constants, and the jump instructions
+ * become JVM branches, so that the translated code does no instruction
+ * decoding or dispatch.  The value stack, the call frames, and the
+ * function's constants and inline caches remain the VM's own, so the
+ * translated code and the interpreter can hand execution of a frame
+ * back and forth.  Instructions without a {@code jit*} method are
+ * executed by the interpreter's {@code step()}.</p>
+ *
+ * <p>The translated code runs only at the start of a call; it yields
+ * to the interpreter, which finishes the call, when the VM can't run a
+ * callee to completion on the Java stack, and after a tail call.  The
+ * VM decides when to compile a function; see
+ * {@link ClarkEngine#setJitThreshold(int)}.</p>
+ */
+final class JitCompiler {
+    private JitCompiler() {} // Not instantiable
+
+    /** The largest function translated, in chars of byte-code.  This
+     * keeps the translation well within the reach of the JVM's 16-bit
+     * branch offsets. */
+    static final int MAX_CODE_SIZE = 2000;
+
+    /**
+     * A function's translated code.
+     */
+    interface Code {
+        /**
+         * Executes the VM's current frame from the beginning of its
+         * function.  The frame's origin must not be Origin.JOE.
+         * @param vm The VM
+         * @return The function's result, or VirtualMachine.YIELD if the
+         * interpreter must finish the call.
+         */
+        Object run(VirtualMachine vm);
+    }
+
+    // Internal names and descriptors
+    private static final String PACKAGE = "com/wjduquette/joe/clark/";
+    private static final String VM = PACKAGE + "VirtualMachine";
+    private static final String CODE = PACKAGE + "JitCompiler$Code";
+    private static final String OBJECT = "java/lang/Object";
+
+    // The JVM operand stack depth needed by the translation: the VM and
+    // up to three int operands.
+    private static final int MAX_STACK = 4;
+
+    //-------------------------------------------------------------------------
+    // Compilation
+
+    /**
+     * A failure to translate a function or to load its translation,
+     * e.g., because it fails verification: a bug in the compiler.  The
+     * VM reports it and leaves the function to the interpreter.
+     */
+    static final class Failure extends Exception {
+        Failure(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Translates the function's byte-code into a hidden class, and
+     * returns an instance of it.
+     * @param function The function
+     * @return The code, or null if the function is too large to translate.
+     * @throws Failure if the translation fails.
+     */
+    static Code compile(Function function) throws Failure {
+        if (function.code.length > MAX_CODE_SIZE) return null;
+
+        try {
+            var bytes = translate(function);
+            var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            var constructor = lookup.findConstructor(lookup.lookupClass(),
+                MethodType.methodType(void.class));
+            return (Code)constructor.invoke();
+        } catch (VirtualMachineError ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new Failure("Could not compile " + function, ex);
+        }
+    }
+
+    // Translates the function into a class file.
+    private static byte[] translate(Function function) {
+        var asm = new ClassAssembler(PACKAGE + "Jit$" +
+            function.name().replaceAll("\\W", "_"), OBJECT, CODE);
+
+        var init = asm.method("<init>", "()V", 1, 1);
+        init.op(ALOAD_0);
+        init.invoke(INVOKESPECIAL, OBJECT, "<init>", "()V");
+        init.op(RETURN_VOID);
+
+        var run = asm.method("run", "(L" + VM + ";)L" + OBJECT + ";",
+            MAX_STACK, 2);
+        var code = function.code;
+        var labels = new int[code.length + 1];
+        for (var ip = 0; ip <= code.length; ip++) {
+            labels[ip] = run.label();
+        }
+
+        var ip = 0;
+        while (ip < code.length) {
+            run.mark(labels[ip]);
+            var next = ip + Opcode.length(function, ip);
+            var opcode = code[ip];
+
+            switch (opcode) {
+                // Control flow
+                case JUMP -> run.branch(GOTO, labels[next + code[ip + 1]]);
+                case LOOP -> run.branch(GOTO, labels[next - code[ip + 1]]);
+                case JIF, JIFKEEP, JIT, JITKEEP -> {
+                    var pop = opcode == JIF || opcode == JIT;
+                    vm(run, next, pop ? "jitPopTruthy" : "jitPeekTruthy",
+                        "()Z");
+                    run.branch(opcode == JIF || opcode == JIFKEEP ? IFEQ : IFNE,
+                        labels[next + code[ip + 1]]);
+                }
+                case JIFLC, JIFLL -> {
+                    vm(run, next,
+                        opcode == JIFLC ? "jitCompareLC" : "jitCompareLL",
+                        "(CII)Z", code[ip + 1], code[ip + 2], code[ip + 3]);
+                    run.branch(IFEQ, labels[next + code[ip + 4]]);
+                }
+                case CALL, GLOCALL, INVOKE, SUPINVOKE -> {
+                    call(run, "jitCall", "(I)Z", ip);
+                    run.branch(IFEQ, labels[next]);
+                    emitYield(run);
+                }
+                case TAILCALL -> {
+                    call(run, "jitStep", "(I)V", ip);
+                    emitYield(run);
+                }
+                case RETURN -> {
+                    call(run, "jitReturn", "(I)L" + OBJECT + ";", ip);
+                    run.op(ARETURN);
+                }
+
+                // Stack and variables
+                case CONST -> vm(run, next, "jitConst", "(I)V", code[ip + 1]);
+                case DUP -> vm(run, next, "jitDup", "()V");
+                case FALSE, NULL, TRUE -> {
+                    call(run, "jitAt", "(I)V", next);
+                    run.op(ALOAD_1);
+                    if (opcode == NULL) {
+                        run.op(ACONST_NULL);
+                    } else {
+                        run.getStatic("java/lang/Boolean",
+                            opcode == TRUE ? "TRUE" : "FALSE",
+                            "Ljava/lang/Boolean;");
+                    }
+                    run.invoke(INVOKEVIRTUAL, VM, "jitPush",
+                        "(L" + OBJECT + ";)V");
+                }
+                case GLOGET -> vm(run, next, "jitGloGet", "(I)V", code[ip + 1]);
+                case LOCGET -> vm(run, next, "jitLocGet", "(I)V", code[ip + 1]);
+                case LOCSET -> vm(run, next, "jitLocSet", "(I)V", code[ip + 1]);
+                case POP -> vm(run, next, "jitPop", "(I)V", 1);
+                case POPN -> vm(run, next, "jitPop", "(I)V", code[ip + 1]);
+
+                // Arithmetic and comparisons
+                case ADD -> vm(run, next, "jitAdd", "()V");
+                case ADDN -> vm(run, next, "jitAddN", "()V");
+                case DIV, MUL, SUB -> vm(run, next, "jitArith", "(C)V", opcode);
+                case NEGATE -> vm(run, next, "jitNegate", "()V");
+                case NOT -> vm(run, next, "jitNot", "()V");
+                case EQ, GE, GT, LE, LT, NE ->
+                    vm(run, next, "jitCompare", "(C)V", opcode);
+                case GEN -> vm(run, next, "jitCompareN", "(C)V", GE);
+                case GTN -> vm(run, next, "jitCompareN", "(C)V", GT);
+                case LEN -> vm(run, next, "jitCompareN", "(C)V", LE);
+                case LTN -> vm(run, next, "jitCompareN", "(C)V", LT);
+                case DECR -> vm(run, next, "jitIncr", "(I)V", -1);
+                case INCR -> vm(run, next, "jitIncr", "(I)V", 1);
+                case LOCDECR ->
+                    vm(run, next, "jitLocIncr", "(II)V", code[ip + 1], -1);
+                case LOCINCR ->
+                    vm(run, next, "jitLocIncr", "(II)V", code[ip + 1], 1);
+
+                // Everything else
+                default -> call(run, "jitStep", "(I)V", ip);
+            }
+            ip = next;
+        }
+
+        // The code can end with an instruction that doesn't return, e.g.,
+        // THROW; the JVM requires that the method not fall off the end.
+        run.mark(labels[code.length]);
+        emitYield(run);
+
+        return asm.toByteArray();
+    }
+
+    // Emits a call to a VM method that implements the instruction, which
+    // is preceded by a call to jitAt(next), so that the frame's ip is
+    // as step() would leave it.
+    private static void vm(
+        ClassAssembler.Code run,
+        int next,
+        String method,
+        String descriptor,
+        int... operands
+    ) {
+        call(run, "jitAt", "(I)V", next);
+        call(run, method, descriptor, operands);
+    }
+
+    // Emits a call to a VM method with constant operands.
+    private static void call(
+        ClassAssembler.Code run,
+        String method,
+        String descriptor,
+        int... operands
+    ) {
+        run.op(ALOAD_1);
+        for (var operand : operands) {
+            run.iconst(operand);
+        }
+        run.invoke(INVOKEVIRTUAL, VM, method, descriptor);
+    }
+
+    // Emits a return of VirtualMachine.YIELD.
+    private static void emitYield(ClassAssembler.Code run) {
+        run.getStatic(VM, "YIELD", "L" + OBJECT + ";");
+        run.op(ARETURN);
+    }
+}
@@ -0,0 +1,51 @@
+package com.wjduquette.joe.clark;
+
+import com.wjduquette.joe.types.ListValue;
+import com.wjduquette.joe.types.MapValue;
+import com.wjduquette.joe.types.SetValue;
+
+import java.util.Arrays;
+
+/**
+ * A prebuilt template for a list, map, or set literal whose items are
+ * all constants, e.g., {@code [1, 2, 3]}.  The {@code TEMPLATE}
+ * instruction pushes a new copy of the collection, sized exactly for
+ * its items.  The template itself is never modified.
+ * @param kind The kind of collection
+ * @param items The items; for a map, alternating keys and values.
+ */
+record LiteralTemplate(Kind kind, Object[] items) {
+    /** The kinds of collection literal. */
+    enum Kind { LIST, MAP, SET }
+
+    /**
+     * Creates a new collection containing the template's items.
+     * @return The collection
+     */
+    Object copy() {
+        return switch (kind) {
+            case LIST -> {
+                var list = new ListValue(items.length);
+                for (var item : items) list.add(item);
+                yield list;
+            }
+            case MAP -> {
+                var map = new MapValue(items.length / 2);
+                for (var i = 0; i < items.length; i += 2) {
+                    map.put(items[i], items[i + 1]);
+                }
+                yield map;
+            }
+            case SET -> {
+                var set = new SetValue(items.length);
+                for (var item : items) set.add(item);
+                yield set;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return kind.name().toLowerCase() + Arrays.toString(items);
+    }
+}
@@ -1,5 +1,7 @@
 package com.wjduquette.joe.clark;
 
+import java.util.Arrays;
+
 /**
  * The instruction opcodes for Bert's {@link VirtualMachine}. Opcodes
  * are represented as {@code char} constants, as that's the form they
@@ -19,84 +21,119 @@ public class Opcode {
     //
     // When adding an opcode, be sure to add its name to the {@code names}
     // array, below.
-    /** Opcode */ public static final char ADD     = 0;
-    /** Opcode */ public static final char ASSERT  = 1;
-    /** Opcode */ public static final char CALL    = 2;
-    /** Opcode */ public static final char CLASS   = 3;
-    /** Opcode */ public static final char CLOSURE = 4;
-    /** Opcode */ public static final char COMMENT = 5;
-    /** Opcode */ public static final char CONST   = 6;
-    /** Opcode */ public static final char DECR    = 7;
-    /** Opcode */ public static final char DIV     = 8;
-    /** Opcode */ public static final char DUP     = 9;
-    /** Opcode */ public static final char DUP2    = 10;
-    /** Opcode */ public static final char EQ      = 11;
-    /** Opcode */ public static final char EXPORT  = 12;
-    /** Opcode */ public static final char FALSE   = 13;
-    /** Opcode */ public static final char GE      = 14;
-    /** Opcode */ public static final char GETNEXT = 15;
-    /** Opcode */ public static final char GLOBIND = 16;
-    /** Opcode */ public static final char GLODEF  = 17;
-    /** Opcode */ public static final char GLOGET  = 18;
-    /** Opcode */ public static final char GLOSET  = 19;
-    /** Opcode */ public static final char GT      = 20;
-    /** Opcode */ public static final char HASNEXT = 21;
-    /** Opcode */ public static final char IMPORT  = 22;
-    /** Opcode */ public static final char IN      = 23;
-    /** Opcode */ public static final char INCR    = 24;
-    /** Opcode */ public static final char INDGET  = 25;
-    /** Opcode */ public static final char INDSET  = 26;
-    /** Opcode */ public static final char INHERIT = 27;
-    /** Opcode */ public static final char ITER    = 28;
-    /** Opcode */ public static final char JIF     = 29;
-    /** Opcode */ public static final char JIFKEEP = 30;
-    /** Opcode */ public static final char JIT     = 31;
-    /** Opcode */ public static final char JITKEEP = 32;
-    /** Opcode */ public static final char JUMP    = 33;
-    /** Opcode */ public static final char LE      = 34;
-    /** Opcode */ public static final char LISTADD = 35;
-    /** Opcode */ public static final char LISTNEW = 36;
-    /** Opcode */ public static final char LOCBIND = 37;
-    /** Opcode */ public static final char LOCGET  = 38;
-    /** Opcode */ public static final char LOCMOVE = 39;
-    /** Opcode */ public static final char LOCSET  = 40;
-    /** Opcode */ public static final char LOOP    = 41;
-    /** Opcode */ public static final char LT      = 42;
-    /** Opcode */ public static final char MAPNEW  = 43;
-    /** Opcode */ public static final char MAPPUT  = 44;
-    /** Opcode */ public static final char MATCH   = 45;
-    /** Opcode */ public static final char MATCHG  = 46;
-    /** Opcode */ public static final char MATCHL  = 47;
-    /** Opcode */ public static final char METHOD  = 48;
-    /** Opcode */ public static final char MUL     = 49;
-    /** Opcode */ public static final char NE      = 50;
-    /** Opcode */ public static final char NEGATE  = 51;
-    /** Opcode */ public static final char NI      = 52;
-    /** Opcode */ public static final char NOT     = 53;
-    /** Opcode */ public static final char NULL    = 54;
-    /** Opcode */ public static final char PATTERN = 55;
-    /** Opcode */ public static final char POP     = 56;
-    /** Opcode */ public static final char POPN    = 57;
-    /** Opcode */ public static final char PROPGET = 58;
-    /** Opcode */ public static final char PROPSET = 59;
-    /** Opcode */ public static final char RECORD  = 60;
-    /** Opcode */ public static final char RETURN  = 61;
-    /** Opcode */ public static final char RULESET = 62;
-    /** Opcode */ public static final char SETADD  = 63;
-    /** Opcode */ public static final char SETNEW  = 64;
-    /** Opcode */ public static final char SUB     = 65;
-    /** Opcode */ public static final char SUPGET  = 66;
-    /** Opcode */ public static final char SWAP    = 67;
-    /** Opcode */ public static final char TGET    = 68;
-    /** Opcode */ public static final char THROW   = 69;
-    /** Opcode */ public static final char TPUT    = 70;
-    /** Opcode */ public static final char TRCPOP  = 71;
-    /** Opcode */ public static final char TRCPUSH = 72;
-    /** Opcode */ public static final char TSET    = 73;
-    /** Opcode */ public static final char TRUE    = 74;
-    /** Opcode */ public static final char UPCLOSE = 75;
-    /** Opcode */ public static final char UPGET   = 76;
-    /** Opcode */ public static final char UPSET   = 77;
+    /** Opcode */ public static final char ADD       = 0;
+    /** Opcode */ public static final char ADDN      = 1;
+    /** Opcode */ public static final char ASSERT    = 2;
+    /** Opcode */ public static final char CALL      = 3;
+    /** Opcode */ public static final char CAPGET    = 4;
+    /** Opcode */ public static final char CLASS     = 5;
+    /** Opcode */ public static final char CLOSURE   = 6;
+    /** Opcode */ public static final char COMMENT   = 7;
+    /** Opcode */ public static final char CONCAT    = 8;
+    /** Opcode */ public static final char CONST     = 9;
+    /** Opcode */ public static final char DECR      = 10;
+    /** Opcode */ public static final char DIV       = 11;
+    /** Opcode */ public static final char DUP       = 12;
+    /** Opcode */ public static final char DUP2      = 13;
+    /** Opcode */ public static final char EQ        = 14;
+    /** Opcode */ public static final char EXPORT    = 15;
+    /** Opcode */ public static final char FALSE     = 16;
+    /** Opcode */ public static final char GE        = 17;
+    /** Opcode */ public static final char GEN       = 18;
+    /** Opcode */ public static final char GETNEXT   = 19;
+    /** Opcode */ public static final char GLOBIND   = 20;
+    /** Opcode */ public static final char GLOCALL   = 21;
+    /** Opcode */ public static final char GLODEF    = 22;
+    /** Opcode */ public static final char GLOGET    = 23;
+    /** Opcode */ public static final char GLOSET    = 24;
+    /** Opcode */ public static final char GT        = 25;
+    /** Opcode */ public static final char GTN       = 26;
+    /** Opcode */ public static final char HASNEXT   = 27;
+    /** Opcode */ public static final char IMPORT    = 28;
+    /** Opcode */ public static final char IN        = 29;
+    /** Opcode */ public static final char INCR      = 30;
+    /** Opcode */ public static final char INDGET    = 31;
+    /** Opcode */ public static final char INDSET    = 32;
+    /** Opcode */ public static final char INHERIT   = 33;
+    /** Opcode */ public static final char INVOKE    = 34;
+    /** Opcode */ public static final char ITER      = 35;
+    /** Opcode */ public static final char JIF       = 36;
+    /** Opcode */ public static final char JIFKEEP   = 37;
+    /** Opcode */ public static final char JIFLC     = 38;
+    /** Opcode */ public static final char JIFLL     = 39;
+    /** Opcode */ public static final char JIT       = 40;
+    /** Opcode */ public static final char JITKEEP   = 41;
+    /** Opcode */ public static final char JUMP      = 42;
+    /** Opcode */ public static final char LE        = 43;
+    /** Opcode */ public static final char LEN       = 44;
+    /** Opcode */ public static final char LISTADD   = 45;
+    /** Opcode */ public static final char LISTNEW   = 46;
+    /** Opcode */ public static final char LISTOF    = 47;
+    /** Opcode */ public static final char LOCBIND   = 48;
+    /** Opcode */ public static final char LOCDECR   = 49;
+    /** Opcode */ public static final char LOCGET    = 50;
+    /** Opcode */ public static final char LOCINCR   = 51;
+    /** Opcode */ public static final char LOCMOVE   = 52;
+    /** Opcode */ public static final char LOCSET    = 53;
+    /** Opcode */ public static final char LOOP      = 54;
+    /** Opcode */ public static final char LT        = 55;
+    /** Opcode */ public static final char LTN       = 56;
+    /** Opcode */ public static final char MAPNEW    = 57;
+    /** Opcode */ public static final char MAPOF     = 58;
+    /** Opcode */ public static final char MAPPUT    = 59;
+    /** Opcode */ public static final char MATCH     = 60;
+    /** Opcode */ public static final char MATCHG    = 61;
+    /** Opcode */ public static final char MATCHL    = 62;
+    /** Opcode */ public static final char METHOD    = 63;
+    /** Opcode */ public static final char MUL       = 64;
+    /** Opcode */ public static final char NE        = 65;
+    /** Opcode */ public static final char NEGATE    = 66;
+    /** Opcode */ public static final char NI        = 67;
+    /** Opcode */ public static final char NOT       = 68;
+    /** Opcode */ public static final char NULL      = 69;
+    /** Opcode */ public static final char PATTERN   = 70;
+    /** Opcode */ public static final char POP       = 71;
+    /** Opcode */ public static final char POPN      = 72;
+    /** Opcode */ public static final char PROPGET   = 73;
+    /** Opcode */ public static final char PROPSET   = 74;
+    /** Opcode */ public static final char RECORD    = 75;
+    /** Opcode */ public static final char RETURN    = 76;
+    /** Opcode */ public static final char RULESET   = 77;
+    /** Opcode */ public static final char SETADD    = 78;
+    /** Opcode */ public static final char SETNEW    = 79;
+    /** Opcode */ public static final char SETOF     = 80;
+    /** Opcode */ public static final char SUB       = 81;
+    /** Opcode */ public static final char SUPGET    = 82;
+    /** Opcode */ public static final char SUPINVOKE = 83;
+    /** Opcode */ public static final char SWAP      = 84;
+    /** Opcode */ public static final char TAILCALL  = 85;
+    /** Opcode */ public static final char TEMPLATE  = 86;
+    /** Opcode */ public static final char TGET      = 87;
+    /** Opcode */ public static final char THROW     = 88;
+    /** Opcode */ public static final char TPUT      = 89;
+    /** Opcode */ public static final char TRCPOP    = 90;
+    /** Opcode */ public static final char TRCPUSH   = 91;
+    /** Opcode */ public static final char TSET      = 92;
+    /** Opcode */ public static final char TRUE      = 93;
+    /** Opcode */ public static final char UPCLOSE   = 94;
+    /** Opcode */ public static final char UPGET     = 95;
+    /** Opcode */ public static final char UPSET     = 96;
+
+    //-------------------------------------------------------------------------
+    // Capture Kinds
+
+    // The CLOSURE instruction describes each variable captured by the
+    // new closure as a kind and an index, using these constants.
+
+    // Share the enclosing closure's upvalue at the index.
+    static final char CAPTURE_UPVALUE = 0;
+
+    // Capture the enclosing frame's local at the index as an Upvalue.
+    static final char CAPTURE_LOCAL = 1;
+
+    // Copy the value of the enclosing frame's local at the index; the
+    // compiler has determined that the local is never reassigned.
+    static final char CAPTURE_VALUE = 2;
 
     //-------------------------------------------------------------------------
     // Opcode names
@@ -107,11 +144,14 @@ public class Opcode {
     // listed in alphabetical order.
     private static final String[] names = {
         "ADD",
+        "ADDN",
         "ASSERT",
         "CALL",
+        "CAPGET",
         "CLASS",
         "CLOSURE",
         "COMMENT",
+        "CONCAT",
         "CONST",
         "DECR",
         "DIV",
@@ -121,12 +161,15 @@ public class Opcode {
         "EXPORT",
         "FALSE",
         "GE",
+        "GEN",
         "GETNEXT",
         "GLOBIND",
+        "GLOCALL",
         "GLODEF",
         "GLOGET",
         "GLOSET",
         "GT",
+        "GTN",
         "HASNEXT",
         "IMPORT",
         "IN",
@@ -134,22 +177,31 @@ public class Opcode {
         "INDGET",
         "INDSET",
         "INHERIT",
+        "INVOKE",
         "ITER",
         "JIF",
         "JIFKEEP",
+        "JIFLC",
+        "JIFLL",
         "JIT",
         "JITKEEP",
         "JUMP",
         "LE",
+        "LEN",
         "LISTADD",
         "LISTNEW",
+        "LISTOF",
         "LOCBIND",
+        "LOCDECR",
         "LOCGET",
+        "LOCINCR",
         "LOCMOVE",
         "LOCSET",
         "LOOP",
         "LT",
+        "LTN",
         "MAPNEW",
+        "MAPOF",
         "MAPPUT",
         "MATCH",
         "MATCHG",
@@ -171,9 +223,13 @@ public class Opcode {
         "RULESET",
         "SETADD",
         "SETNEW",
+        "SETOF",
         "SUB",
         "SUPGET",
+        "SUPINVOKE",
         "SWAP",
+        "TAILCALL",
+        "TEMPLATE",
         "TGET",
         "THROW",
         "TPUT",
@@ -198,4 +254,54 @@ public class Opcode {
         return opcode <= names.length
             ? names[opcode] : "Unknown";
     }
+
+    /**
+     * Gets a signature for the instruction set: a hash of the opcode
+     * names, which changes whenever opcodes are added or renumbered.
+     * Used to key the {@link BytecodeCache}.
+     * @return The signature
+     */
+    static int signature() {
+        return Arrays.hashCode(names);
+    }
+
+    /**
+     * Gets the length in chars of the instruction at the given offset
+     * in the chunk, i.e., the opcode plus its arguments.  The opcodes are
+     * grouped by argument pattern, as in the {@link Disassembler}.
+     * @param chunk The chunk
+     * @param ip The offset of the instruction's opcode
+     * @return The length
+     */
+    static int length(CodeChunk chunk, int ip) {
+        var opcode = chunk.code(ip);
+        return switch (opcode) {
+            // Pattern: opcode charValue
+            case CALL, CAPGET, CLASS, COMMENT, CONCAT, CONST, EXPORT,
+                 GLODEF, GLOGET, GLOSET, IMPORT,
+                 JIF, JIFKEEP, JIT, JITKEEP, JUMP, LISTOF,
+                 LOCDECR, LOCGET, LOCINCR, LOCSET, LOOP, MAPOF, METHOD, POPN,
+                 RULESET, SETOF, TAILCALL, TEMPLATE, TRCPUSH,
+                 UPCLOSE, UPGET, UPSET -> 2;
+
+            // Pattern: opcode charValue charValue
+            case GLOCALL, LOCMOVE, PATTERN, PROPGET, PROPSET, RECORD,
+                 SUPGET -> 3;
+
+            // Pattern: opcode nameIndex argc cacheIndex
+            case INVOKE, SUPINVOKE -> 4;
+
+            // Pattern: opcode cmp slot (constantIndex|slot) jumpOffset
+            case JIFLC, JIFLL -> 5;
+
+            // Pattern: CLOSURE index [,kind, index]...
+            case CLOSURE -> {
+                var func = (Function)chunk.getConstant(chunk.code(ip + 1));
+                yield 2 + 2*func.upvalueCount;
+            }
+
+            // Pattern: opcode
+            default -> 1;
+        };
+    }
 }
@@ -0,0 +1,115 @@
+package com.wjduquette.joe.clark;
+
+import com.wjduquette.joe.Joe;
+import com.wjduquette.joe.SyntaxError;
+
+import java.util.*;
+
+/**
+ * Counts the opcode pairs and triples that occur in compiled code, for
+ * use in choosing superinstructions.  Add any number of scripts, e.g.,
+ * the scripts in the Joe test suite, and then get a report of the most
+ * common sequences.  The counts are static, i.e., each sequence is
+ * counted once per occurrence in the compiled code, not once per
+ * execution.
+ *
+ * <p>The scripts are compiled as they would be for execution by the
+ * interpreter's engine, i.e., with or without peephole optimization
+ * per {@link ClarkEngine#isOptimizing()}.  Optimized, the report shows
+ * what's left to optimize.</p>
+ */
+public class OpcodeStats {
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    private final Joe joe;
+    private final Map<String, Integer> pairs = new HashMap<>();
+    private final Map<String, Integer> triples = new HashMap<>();
+    private int scripts = 0;
+    private int instructions = 0;
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    /**
+     * Creates a new instance.
+     * @param joe The Joe interpreter, used for compilation.
+     */
+    public OpcodeStats(Joe joe) {
+        this.joe = joe;
+    }
+
+    //-------------------------------------------------------------------------
+    // API
+
+    /**
+     * Compiles the script and adds its opcode sequences to the counts.
+     * @param scriptName The script's name, e.g., the file name
+     * @param source The script's source.
+     * @throws SyntaxError if the script could not be compiled.
+     */
+    public void add(String scriptName, String source) throws SyntaxError {
+        var compiler = new Compiler(joe);
+        if (joe.engine() instanceof ClarkEngine engine) {
+            compiler.setOptimizing(engine.isOptimizing());
+        }
+        var function = compiler.compile(scriptName, source);
+        ++scripts;
+        add(function);
+    }
+
+    // Counts the function's sequences, and those of the functions
+    // it defines.
+    private void add(Function function) {
+        var ops = new ArrayList<String>();
+        for (var ip = 0; ip < function.codeSize();
+             ip += Opcode.length(function, ip)
+        ) {
+            ops.add(Opcode.name(function.code(ip)));
+        }
+        instructions += ops.size();
+
+        for (var i = 0; i < ops.size(); i++) {
+            if (i + 1 < ops.size()) {
+                pairs.merge(ops.get(i) + " " + ops.get(i + 1), 1, Integer::sum);
+            }
+            if (i + 2 < ops.size()) {
+                triples.merge(ops.get(i) + " " + ops.get(i + 1) + " " +
+                    ops.get(i + 2), 1, Integer::sum);
+            }
+        }
+
+        for (var constant : function.constants) {
+            if (constant instanceof Function f) add(f);
+        }
+    }
+
+    /**
+     * Gets a report of the most common pairs and triples.
+     * @param limit The maximum number of pairs and of triples to list
+     * @return The report
+     */
+    public String report(int limit) {
+        var buff = new StringBuilder();
+        buff.append("Scripts:      ").append(scripts).append("\n")
+            .append("Instructions: ").append(instructions).append("\n");
+        report(buff, "Pairs", pairs, limit);
+        report(buff, "Triples", triples, limit);
+        return buff.toString();
+    }
+
+    private void report(
+        StringBuilder buff,
+        String title,
+        Map<String, Integer> counts,
+        int limit
+    ) {
+        buff.append("\n").append(title).append(":\n");
+        counts.entrySet().stream()
+            .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()))
+            .limit(limit)
+            .forEach(e -> buff.append(String.format("%8d  %s%n",
+                e.getValue(), e.getKey())));
+    }
+}
@@ -0,0 +1,511 @@
+package com.wjduquette.joe.clark;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static com.wjduquette.joe.clark.Opcode.*;
+
+/**
+ * The peephole optimizer.  The {@link Compiler} emits simple,
+ * general-purpose instruction sequences; just before a {@link Chunk}
+ * becomes a {@link Function}, the optimizer rewrites the chunk's code
+ * in a series of passes:
+ *
+ * <ul>
+ * <li>Strips {@code COMMENT} instructions.</li>
+ * <li>Threads jumps: a jump to an unconditional jump goes directly to
+ *     the final target.</li>
+ * <li>Removes dead code, i.e., code that no jump or fall-through can
+ *     reach, e.g., code following a {@code RETURN} or {@code THROW}.</li>
+ * <li>Removes redundant loads and stores, e.g., {@code DUP; POP} and
+ *     {@code LOCSET s; POP; LOCGET s}, and jumps to the next
+ *     instruction, e.g., as left by constant folding.</li>
+ * <li>Replaces common sequences with "superinstructions" that do the
+ *     same work in a single dispatch.  The sequences were chosen by
+ *     counting opcode pairs and triples in the Joe test suite with
+ *     {@link OpcodeStats}, i.e., {@code joe dump --opstats}, and by
+ *     considering which of them occur in loops.</li>
+ * </ul>
+ *
+ * <p>The optimizer decodes the code into a list of instructions,
+ * rewrites the list, and then encodes it back into the chunk, fixing up
+ * jump offsets and line numbers.  Each instruction retains its offset
+ * in the original code; a jump's target is an original offset, and a
+ * jump to an instruction that has been removed goes to the instruction
+ * that followed it.  A sequence is never rewritten if an instruction
+ * within it, other than the first, is a jump target.</p>
+ */
+final class Peephole {
+    private Peephole() {} // Not instantiable
+
+    // The maximum number of jumps to follow when threading a jump.
+    private static final int MAX_HOPS = 8;
+
+    // The comparison opcodes that can be fused with a following JIF.
+    private static final Set<Character> COMPARISONS =
+        Set.of(EQ, NE, LT, LE, GT, GE);
+
+    // The opcodes that simply push one value, with no side effects
+    // and no possibility of error.
+    private static final Set<Character> PUSHES =
+        Set.of(CAPGET, CONST, FALSE, LOCGET, NULL, TRUE, UPGET);
+
+    //-------------------------------------------------------------------------
+    // API
+
+    /**
+     * Optimizes the chunk's code in place.
+     * @param chunk The chunk
+     */
+    static void optimize(Chunk chunk) {
+        var code = decode(chunk);
+        code = stripComments(code);
+        threadJumps(code);
+        code = removeDeadCode(code);
+        code = removeRedundancies(code);
+        code = fuse(code);
+        encode(chunk, code);
+    }
+
+    //-------------------------------------------------------------------------
+    // Comments, Jumps, and Dead Code
+
+    // Removes COMMENT instructions, which are no-ops.
+    private static List<Instruction> stripComments(List<Instruction> code) {
+        var result = new ArrayList<Instruction>(code.size());
+        for (var inst : code) {
+            if (inst.opcode != COMMENT) result.add(inst);
+        }
+        return result;
+    }
+
+    // Retargets each jump whose target is an unconditional jump to that
+    // jump's target, repeatedly.  A JUMP whose final target is behind
+    // it becomes a LOOP, and vice versa; a conditional jump is threaded
+    // only while its target remains ahead of it.
+    private static void threadJumps(List<Instruction> code) {
+        for (var i = 0; i < code.size(); i++) {
+            var inst = code.get(i);
+            if (inst.target < 0) continue;
+
+            var target = inst.target;
+            for (var hops = 0; hops < MAX_HOPS; hops++) {
+                var next = at(code, target);
+                if (next == null
+                    || !isUnconditional(next.opcode)
+                    || next.target == target
+                    || (next.target <= inst.ip && !isUnconditional(inst.opcode))
+                ) {
+                    break;
+                }
+                target = next.target;
+            }
+
+            if (target != inst.target) {
+                var op = inst.opcode;
+                if (isUnconditional(op)) {
+                    op = target > inst.ip ? JUMP : LOOP;
+                }
+                var threaded = inst.with(op, inst.args.clone());
+                threaded.target = target;
+                code.set(i, threaded);
+            }
+        }
+    }
+
+    // Removes instructions that can't be reached from the start of the
+    // chunk.
+    private static List<Instruction> removeDeadCode(List<Instruction> code) {
+        var reachable = new boolean[code.size()];
+        var work = new ArrayDeque<Integer>();
+        work.push(0);
+
+        while (!work.isEmpty()) {
+            int i = work.pop();
+            if (i >= code.size() || reachable[i]) continue;
+            reachable[i] = true;
+
+            var inst = code.get(i);
+            if (inst.target >= 0) {
+                work.push(indexOf(code, inst.target));
+            }
+            switch (inst.opcode) {
+                case JUMP, LOOP, RETURN, THROW -> {}
+                default -> work.push(i + 1);
+            }
+        }
+
+        var result = new ArrayList<Instruction>(code.size());
+        for (var i = 0; i < code.size(); i++) {
+            if (reachable[i]) result.add(code.get(i));
+        }
+        return result;
+    }
+
+    //-------------------------------------------------------------------------
+    // Redundant Loads and Stores
+
+    // Removes redundant loads and stores, and jumps to the next
+    // instruction.  Each instruction is added to the result in turn, and
+    // then the end of the result is checked for redundant sequences;
+    // thus, removing one sequence can expose another.
+    private static List<Instruction> removeRedundancies(
+        List<Instruction> code
+    ) {
+        markTargets(code);
+        var result = new ArrayList<Instruction>(code.size());
+
+        // Set if a removed instruction was a jump target, in which case
+        // the next instruction added is now the target.
+        var pendingTarget = false;
+
+        for (var inst : code) {
+            if (pendingTarget) {
+                inst.isTarget = true;
+                pendingTarget = false;
+            }
+
+            // JUMP to the next instruction => ∅
+            var n0 = result.size();
+            if (n0 > 0 && result.get(n0 - 1).opcode == JUMP
+                && at(code, result.get(n0 - 1).target) == inst
+            ) {
+                if (result.remove(n0 - 1).isTarget) inst.isTarget = true;
+            }
+            result.add(inst);
+
+            for (;;) {
+                var n = result.size();
+                if (n < 2 || result.get(n - 1).isTarget) break;
+                var last = result.get(n - 1);
+                var prev = result.get(n - 2);
+
+                // DUP; POP => ∅
+                // push; POP => ∅
+                if (last.opcode == POP
+                    && (prev.opcode == DUP || PUSHES.contains(prev.opcode))
+                ) {
+                    pendingTarget = prev.isTarget;
+                    result.subList(n - 2, n).clear();
+                    continue;
+                }
+
+                // LOCSET s; POP; LOCGET s => LOCSET s
+                // Ditto for UPSET/UPGET and GLOSET/GLOGET
+                if (n >= 3 && !prev.isTarget
+                    && isReload(result.get(n - 3), prev, last)
+                ) {
+                    result.subList(n - 2, n).clear();
+                    continue;
+                }
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    // Returns true if the three instructions store a variable, pop
+    // the value, and then load the same variable again.
+    private static boolean isReload(
+        Instruction set,
+        Instruction pop,
+        Instruction get
+    ) {
+        if (pop.opcode != POP) return false;
+
+        var pair = switch (set.opcode) {
+            case GLOSET -> get.opcode == GLOGET;
+            case LOCSET -> get.opcode == LOCGET;
+            case UPSET -> get.opcode == UPGET;
+            default -> false;
+        };
+        return pair && set.args[0] == get.args[0];
+    }
+
+    //-------------------------------------------------------------------------
+    // Superinstructions
+
+    // Replaces sequences with superinstructions.
+    private static List<Instruction> fuse(List<Instruction> code) {
+        markTargets(code);
+        var result = new ArrayList<Instruction>(code.size());
+        var i = 0;
+
+        while (i < code.size()) {
+            var first = code.get(i);
+
+            // LOCGET s; TSET; INCR; LOCSET s; POP; TGET; POP => LOCINCR s
+            // i.e., `i++;` and `i--;`
+            if (matches(code, i, LOCGET, TSET, INCR, LOCSET, POP, TGET, POP)
+                || matches(code, i, LOCGET, TSET, DECR, LOCSET, POP, TGET, POP)
+            ) {
+                if (first.args[0] == code.get(i + 3).args[0]) {
+                    var op = code.get(i + 2).opcode == INCR ? LOCINCR : LOCDECR;
+                    result.add(first.with(op, first.args[0]));
+                    i += 7;
+                    continue;
+                }
+            }
+
+            // LOCGET s; INCR; LOCSET s; POP => LOCINCR s
+            // i.e., `++i;` and `--i;`
+            if (matches(code, i, LOCGET, INCR, LOCSET, POP)
+                || matches(code, i, LOCGET, DECR, LOCSET, POP)
+            ) {
+                if (first.args[0] == code.get(i + 2).args[0]) {
+                    var op = code.get(i + 1).opcode == INCR ? LOCINCR : LOCDECR;
+                    result.add(first.with(op, first.args[0]));
+                    i += 4;
+                    continue;
+                }
+            }
+
+            // LOCGET s; CONST c; cmp; JIF => JIFLC cmp s c
+            // LOCGET s; LOCGET t; cmp; JIF => JIFLL cmp s t
+            if (i + 3 < code.size()
+                && first.opcode == LOCGET
+                && COMPARISONS.contains(code.get(i + 2).opcode)
+                && code.get(i + 3).opcode == JIF
+                && noTargets(code, i + 1, i + 4)
+            ) {
+                var second = code.get(i + 1);
+                var cmp = code.get(i + 2).opcode;
+                var jif = code.get(i + 3);
+                var op = switch (second.opcode) {
+                    case CONST -> JIFLC;
+                    case LOCGET -> JIFLL;
+                    default -> (char)0;
+                };
+                if (op != 0) {
+                    var inst = first.with(op,
+                        cmp, first.args[0], second.args[0], (char)0);
+                    inst.target = jif.target;
+                    result.add(inst);
+                    i += 4;
+                    continue;
+                }
+            }
+
+            // GLOGET g; push...; CALL n => push...; GLOCALL n g
+            // where there are n simple pushes.
+            if (first.opcode == GLOGET) {
+                var n = 0;
+                while (i + 1 + n < code.size()
+                    && PUSHES.contains(code.get(i + 1 + n).opcode)
+                ) {
+                    n++;
+                }
+                for (; n >= 0; n--) {
+                    var call = i + 1 + n < code.size()
+                        ? code.get(i + 1 + n) : null;
+                    if (call != null
+                        && call.opcode == CALL
+                        && call.args[0] == n
+                        && noTargets(code, i + 1, i + 2 + n)
+                    ) {
+                        result.addAll(code.subList(i + 1, i + 1 + n));
+                        result.add(call.with(GLOCALL, (char)n, first.args[0]));
+                        i += n + 2;
+                        break;
+                    }
+                }
+                if (n >= 0) continue;
+            }
+
+            result.add(first);
+            i++;
+        }
+
+        return result;
+    }
+
+    // Returns true if the code at i begins with the given opcodes, and
+    // no instruction after the first is a jump target.
+    private static boolean matches(
+        List<Instruction> code,
+        int i,
+        char... opcodes
+    ) {
+        if (i + opcodes.length > code.size()) return false;
+
+        for (var j = 0; j < opcodes.length; j++) {
+            if (code.get(i + j).opcode != opcodes[j]) return false;
+        }
+        return noTargets(code, i + 1, i + opcodes.length);
+    }
+
+    // Returns true if none of the instructions in the range are
+    // jump targets.
+    private static boolean noTargets(List<Instruction> code, int from, int to) {
+        for (var j = from; j < to; j++) {
+            if (code.get(j).isTarget) return false;
+        }
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    // Decoding and Encoding
+
+    // Decodes the chunk's code into a list of instructions.
+    private static List<Instruction> decode(Chunk chunk) {
+        var code = new ArrayList<Instruction>();
+
+        for (var ip = 0; ip < chunk.size; ) {
+            var end = ip + Opcode.length(chunk, ip);
+            var inst = new Instruction(ip, chunk.code[ip],
+                Arrays.copyOfRange(chunk.code, ip + 1, end),
+                chunk.lines[ip]);
+            if (isForwardJump(inst.opcode)) {
+                inst.target = end + inst.offset();
+            } else if (inst.opcode == LOOP) {
+                inst.target = end - inst.offset();
+            }
+            code.add(inst);
+            ip = end;
+        }
+
+        return code;
+    }
+
+    // Marks the instructions that are jump targets.
+    private static void markTargets(List<Instruction> code) {
+        for (var inst : code) {
+            inst.isTarget = false;
+        }
+        for (var inst : code) {
+            if (inst.target >= 0) {
+                var target = at(code, inst.target);
+                if (target != null) target.isTarget = true;
+            }
+        }
+    }
+
+    // Gets the index of the instruction at the given original offset,
+    // or of the instruction that followed it if it has been removed.
+    // Returns code.size() if there is no such instruction.
+    private static int indexOf(List<Instruction> code, int ip) {
+        int lo = 0;
+        int hi = code.size();
+        while (lo < hi) {
+            var mid = (lo + hi) >>> 1;
+            if (code.get(mid).ip < ip) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Gets the instruction at the given original offset, or the one
+    // that followed it if it has been removed, or null.
+    private static Instruction at(List<Instruction> code, int ip) {
+        var i = indexOf(code, ip);
+        return i < code.size() ? code.get(i) : null;
+    }
+
+    // Encodes the instructions back into the chunk, fixing up the
+    // jump offsets.
+    private static void encode(Chunk chunk, List<Instruction> code) {
+        // FIRST, map each original instruction offset to its new offset.
+        // An instruction that was removed maps to the instruction that
+        // followed it.
+        var map = new int[chunk.size + 1];
+        Arrays.fill(map, -1);
+        var size = 0;
+        for (var inst : code) {
+            map[inst.ip] = size;
+            size += 1 + inst.args.length;
+        }
+        map[chunk.size] = size;
+        for (var ip = chunk.size - 1; ip >= 0; ip--) {
+            if (map[ip] == -1) map[ip] = map[ip + 1];
+        }
+
+        // NEXT, write the instructions.
+        var newCode = new char[size];
+        var newLines = new int[size];
+        var ip = 0;
+        for (var inst : code) {
+            var end = ip + 1 + inst.args.length;
+            if (inst.target >= 0) {
+                var target = map[inst.target];
+                inst.setOffset(inst.opcode == LOOP
+                    ? end - target : target - end);
+            }
+
+            newLines[ip] = inst.line;
+            newCode[ip++] = inst.opcode;
+            for (var arg : inst.args) {
+                newLines[ip] = inst.line;
+                newCode[ip++] = arg;
+            }
+        }
+
+        chunk.code = newCode;
+        chunk.lines = newLines;
+        chunk.size = size;
+    }
+
+    // Returns true if the opcode is an unconditional jump.
+    private static boolean isUnconditional(char opcode) {
+        return opcode == JUMP || opcode == LOOP;
+    }
+
+    // Returns true if the opcode is a forward jump.  Every jump
+    // instruction's jump offset is its last argument, and is relative
+    // to the end of the instruction.
+    private static boolean isForwardJump(char opcode) {
+        return switch (opcode) {
+            case JIF, JIFKEEP, JIFLC, JIFLL, JIT, JITKEEP, JUMP -> true;
+            default -> false;
+        };
+    }
+
+    //-------------------------------------------------------------------------
+    // Helper Classes
+
+    // A decoded instruction.
+    private static final class Instruction {
+        // The instruction's offset in the original code.  For a
+        // superinstruction, the offset of the first instruction replaced.
+        final int ip;
+        final char opcode;
+        final char[] args;
+        final int line;
+
+        // The original offset of the jump target, or -1 if this
+        // isn't a jump.
+        int target = -1;
+
+        // Whether some jump targets this instruction.
+        boolean isTarget = false;
+
+        Instruction(int ip, char opcode, char[] args, int line) {
+            this.ip = ip;
+            this.opcode = opcode;
+            this.args = args;
+            this.line = line;
+        }
+
+        // Creates a superinstruction that replaces this instruction and
+        // those that follow it.
+        Instruction with(char opcode, char... args) {
+            var inst = new Instruction(ip, opcode, args, line);
+            inst.isTarget = isTarget;
+            return inst;
+        }
+
+        int offset() {
+            return args[args.length - 1];
+        }
+
+        void setOffset(int offset) {
+            args[args.length - 1] = (char)offset;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.wjduquette.joe.clark;
+
+import java.util.*;
+
+/**
+ * Profiles code executed by the Clark VM: call counts and inclusive and
+ * exclusive times for each {@link Function}, execution counts for each
+ * opcode, and execution counts for the allocation-prone instructions
+ * at each site in the code, e.g., {@code LISTNEW} or {@code ADD} on
+ * strings.  It also accumulates exclusive time by call stack, for
+ * output in the "collapsed stack" format used by flame graph tools.
+ *
+ * <p>Install a profiler via {@link ClarkEngine#setProfiler(Profiler)}.
+ * The VM then executes code in an instrumented loop that counts each
+ * instruction and notes each call and return; without a profiler, it
+ * uses a loop with no instrumentation at all.  Counts are exact; times
+ * are measured at call boundaries, and include the instrumentation's
+ * own overhead.  Time spent in native functions is charged to the
+ * calling function.</p>
+ */
+public class Profiler {
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    // Statistics by function
+    private final Map<Function, Stats> stats = new IdentityHashMap<>();
+
+    // Execution counts by opcode
+    private final long[] opcodes = new long[Character.MAX_VALUE + 1];
+
+    // Execution counts by allocation site
+    private final Map<Site, Long> sites = new HashMap<>();
+
+    // The root of the call tree, for the collapsed stacks
+    private Node root = new Node(null);
+
+    // The calls in progress
+    private final List<Entry> stack = new ArrayList<>();
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    /**
+     * Creates a new profiler.
+     */
+    public Profiler() {
+        // Nothing to do
+    }
+
+    //-------------------------------------------------------------------------
+    // Instrumentation, called by the VM
+
+    // Gets the number of calls in progress.
+    int depth() {
+        return stack.size();
+    }
+
+    // Notes entry to the function.
+    void enter(Function function, long now) {
+        var s = stats.computeIfAbsent(function, Stats::new);
+        s.calls++;
+        s.active++;
+        var parent = stack.isEmpty() ? root : stack.getLast().node;
+        stack.add(new Entry(s, parent.child(function), now));
+    }
+
+    // Notes exit from the most recently entered function.
+    void exit(long now) {
+        var entry = stack.removeLast();
+        var inclusive = now - entry.start;
+        var exclusive = inclusive - entry.children;
+        var s = entry.stats;
+        s.exclusive += exclusive;
+        entry.node.nanos += exclusive;
+
+        // Recursive calls are included in the outermost call's time.
+        if (--s.active == 0) s.inclusive += inclusive;
+        if (!stack.isEmpty()) stack.getLast().children += inclusive;
+    }
+
+    // Counts the execution of an opcode.
+    void count(char opcode) {
+        opcodes[opcode]++;
+    }
+
+    // Counts the execution of an allocation-prone instruction.
+    void allocation(Function function, int ip) {
+        sites.merge(new Site(function, ip), 1L, Long::sum);
+    }
+
+    //-------------------------------------------------------------------------
+    // API
+
+    /**
+     * Clears all accumulated data.  Don't call this while the VM is
+     * executing code.
+     */
+    public void reset() {
+        stats.clear();
+        Arrays.fill(opcodes, 0);
+        sites.clear();
+        root = new Node(null);
+    }
+
+    /**
+     * Gets the profiles of the functions that have been called,
+     * sorted by exclusive time, most expensive first.
+     * @return The profiles
+     */
+    public List<FunctionProfile> functions() {
+        return stats.values().stream()
+            .map(s -> new FunctionProfile(label(s.function), s.calls,
+                s.inclusive, s.exclusive))
+            .sorted(Comparator.comparingLong(FunctionProfile::exclusiveNanos)
+                .reversed())
+            .toList();
+    }
+
+    /**
+     * Gets the execution count for each opcode that was executed, by
+     * opcode name, most frequent first.
+     * @return The counts
+     */
+    public Map<String, Long> opcodeCounts() {
+        var result = new LinkedHashMap<String, Long>();
+        var order = new ArrayList<Character>();
+        for (var i = 0; i < opcodes.length; i++) {
+            if (opcodes[i] > 0) order.add((char)i);
+        }
+        order.sort(Comparator.comparingLong((Character c) -> opcodes[c])
+            .reversed());
+        order.forEach(c -> result.put(Opcode.name(c), opcodes[c]));
+        return result;
+    }
+
+    /**
+     * Gets the execution count for each allocation-prone instruction
+     * by site, e.g., "LISTNEW at main.joe:12", most frequent first.
+     * @return The counts
+     */
+    public Map<String, Long> allocationSites() {
+        var result = new LinkedHashMap<String, Long>();
+        sites.entrySet().stream()
+            .sorted(Map.Entry.<Site, Long>comparingByValue().reversed())
+            .forEach(e -> result.merge(e.getKey().toString(), e.getValue(),
+                Long::sum));
+        return result;
+    }
+
+    /**
+     * Gets the exclusive time spent in each call stack, in microseconds,
+     * in the "collapsed stack" format read by flame graph tools: one
+     * line per stack, with the function names separated by semicolons,
+     * followed by a space and the time.
+     * @return The collapsed stacks
+     */
+    public String collapsedStacks() {
+        var buff = new StringBuilder();
+        for (var child : root.children.values()) {
+            collapse(buff, child, "");
+        }
+        return buff.toString();
+    }
+
+    private void collapse(StringBuilder buff, Node node, String prefix) {
+        var path = prefix + label(node.function).replace(';', ',');
+        var micros = node.nanos / 1000;
+        if (micros > 0) {
+            buff.append(path).append(" ").append(micros).append("\n");
+        }
+        for (var child : node.children.values()) {
+            collapse(buff, child, path + ";");
+        }
+    }
+
+    /**
+     * Gets a report of the profile: the functions by exclusive time, and
+     * the most frequent opcodes and allocation sites.
+     * @param limit The maximum number of entries in each section
+     * @return The report
+     */
+    public String report(int limit) {
+        var buff = new StringBuilder();
+        buff.append("Functions:\n")
+            .append(String.format("%10s %12s %12s  %s%n",
+                "Calls", "Incl ms", "Excl ms", "Function"));
+        functions().stream().limit(limit).forEach(f ->
+            buff.append(String.format("%10d %12.3f %12.3f  %s%n",
+                f.calls(), f.inclusiveNanos() / 1e6,
+                f.exclusiveNanos() / 1e6, f.name())));
+
+        buff.append("\nOpcodes:\n");
+        opcodeCounts().entrySet().stream().limit(limit).forEach(e ->
+            buff.append(String.format("%10d  %s%n", e.getValue(), e.getKey())));
+
+        buff.append("\nAllocation Sites:\n");
+        allocationSites().entrySet().stream().limit(limit).forEach(e ->
+            buff.append(String.format("%10d  %s%n", e.getValue(), e.getKey())));
+        return buff.toString();
+    }
+
+    // Gets a label for the function: its signature and location
+    private static String label(Function function) {
+        var span = function.span();
+        var where = span != null
+            ? " [" + span.filename() + ":" + span.startLine() + "]"
+            : "";
+        return function.signature() + where;
+    }
+
+    //-------------------------------------------------------------------------
+    // Helper Classes
+
+    /**
+     * The profile of a single function.
+     * @param name The function's signature and location
+     * @param calls The number of calls
+     * @param inclusiveNanos The time spent in the function and its callees
+     * @param exclusiveNanos The time spent in the function itself
+     */
+    public record FunctionProfile(
+        String name,
+        long calls,
+        long inclusiveNanos,
+        long exclusiveNanos
+    ) {}
+
+    // A function's accumulated statistics
+    private static class Stats {
+        final Function function;
+        long calls = 0;
+        long inclusive = 0;
+        long exclusive = 0;
+        int active = 0;
+
+        Stats(Function function) {
+            this.function = function;
+        }
+    }
+
+    // A call in progress
+    private static class Entry {
+        final Stats stats;
+        final Node node;
+        final long start;
+        long children = 0;
+
+        Entry(Stats stats, Node node, long start) {
+            this.stats = stats;
+            this.node = node;
+            this.start = start;
+        }
+    }
+
+    // A node in the call tree
+    private static class Node {
+        final Function function;
+        final Map<Function, Node> children = new IdentityHashMap<>();
+        long nanos = 0;
+
+        Node(Function function) {
+            this.function = function;
+        }
+
+        Node child(Function function) {
+            return children.computeIfAbsent(function, Node::new);
+        }
+    }
+
+    // An instruction in a function
+    private record Site(Function function, int ip) {
+        @Override public boolean equals(Object o) {
+            return o instanceof Site s && s.function == function && s.ip == ip;
+        }
+
+        @Override public int hashCode() {
+            return 31 * System.identityHashCode(function) + ip;
+        }
+
+        @Override public String toString() {
+            return Opcode.name(function.code(ip)) + " at " +
+                function.source().filename() + ":" + function.line(ip);
+        }
+    }
+}
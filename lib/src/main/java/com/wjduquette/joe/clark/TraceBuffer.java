@@ -0,0 +1,63 @@
+package com.wjduquette.joe.clark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link TraceSink} that retains the most recent lines of the execution
+ * trace in a fixed-size ring buffer, e.g., to see what led up to an
+ * error without writing the entire trace.
+ */
+public class TraceBuffer implements TraceSink {
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    private final String[] lines;
+    private int next = 0;
+    private int count = 0;
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    /**
+     * Creates a buffer that retains up to the given number of lines.
+     * @param capacity The capacity
+     */
+    public TraceBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        this.lines = new String[capacity];
+    }
+
+    //-------------------------------------------------------------------------
+    // API
+
+    @Override
+    public void trace(String line) {
+        lines[next] = line;
+        next = (next + 1) % lines.length;
+        if (count < lines.length) count++;
+    }
+
+    /**
+     * Gets the retained lines, oldest first.
+     * @return The lines
+     */
+    public List<String> lines() {
+        var result = new ArrayList<String>(count);
+        var first = (next - count + lines.length) % lines.length;
+        for (var i = 0; i < count; i++) {
+            result.add(lines[(first + i) % lines.length]);
+        }
+        return result;
+    }
+
+    /**
+     * Clears the buffer.
+     */
+    public void clear() {
+        next = 0;
+        count = 0;
+    }
+}
@@ -0,0 +1,15 @@
+package com.wjduquette.joe.clark;
+
+/**
+ * A destination for the Clark VM's execution trace, which shows each
+ * instruction as it is executed along with the contents of the value
+ * stack afterwards.  See {@link ClarkEngine#setTraceSink(TraceSink)}.
+ */
+@FunctionalInterface
+public interface TraceSink {
+    /**
+     * Receives one line of the execution trace.
+     * @param line The line, without a line terminator
+     */
+    void trace(String line);
+}
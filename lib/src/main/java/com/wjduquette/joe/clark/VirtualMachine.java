@@ -3,6 +3,7 @@ package com.wjduquette.joe.clark;
 import com.wjduquette.joe.*;
 import com.wjduquette.joe.nero.NeroRuleSet;
 import com.wjduquette.joe.parser.FunctionType;
+import com.wjduquette.joe.parser.ParsedScript;
 import com.wjduquette.joe.patterns.Matcher;
 import com.wjduquette.joe.patterns.Pattern;
 import com.wjduquette.joe.SourceBuffer;
@@ -19,13 +20,55 @@ import static com.wjduquette.joe.clark.Opcode.*;
  * happens.
  */
 class VirtualMachine {
+    /** The initial size of the value stack. */
     public static final int DEFAULT_STACK_SIZE = 256;
-    public static final int MAX_FRAMES = 64;
+
+    /** The default maximum size of the value stack. */
+    public static final int DEFAULT_MAX_STACK_SIZE = 1_000_000;
+
+    /** The initial size of the call frame stack. */
+    public static final int DEFAULT_FRAMES = 64;
+
+    /** The default maximum call depth. */
+    public static final int DEFAULT_MAX_FRAMES = 10_000;
+
+    /** The default number of calls after which a function is compiled
+     * to JVM byte-code. */
+    public static final int DEFAULT_JIT_THRESHOLD = 1000;
+
+    // The maximum number of calls the VM runs to completion on the Java
+    // stack at one time, i.e., nested calls from compiled code.  Deeper
+    // calls are left to the interpreter, so that deep recursion in
+    // compiled code can't overflow the Java stack.
+    private static final int MAX_NESTING = 100;
     private static final String STACK_SEPARATOR = "►";
 
+    // Returned by step() when execution should continue with the next
+    // instruction.
+    private static final Object CONTINUE = new Object();
+
+    // Returned by compiled code when the interpreter must finish
+    // executing the frame; see execute().
+    static final Object YIELD = new Object();
+
+    // The tag for a stack slot whose value is the unboxed number in the
+    // same slot of the `numbers` array.  Arithmetic instructions leave
+    // their results unboxed, so that numeric code needn't allocate a
+    // Double for every intermediate result; a value is boxed only when
+    // it leaves the stack.  Any stack slot may contain either a tag or
+    // an ordinary value, including a boxed Double.
+    //
+    // NOTE: the tag is neither null nor a Boolean, so `Joe.isTruthy()`
+    // correctly treats it as true.
+    private static final Object UNBOXED = new Object() {
+        @Override public String toString() { return "<unboxed>"; }
+    };
+
     private enum Origin {
         /** Called from Java code. */ JAVA,
-        /** Called from Joe code. */  JOE
+        /** Called from Joe code. */  JOE,
+        /** Called from Joe code, and run to completion by execute(). */
+        NESTED
     }
 
     //-------------------------------------------------------------------------
@@ -44,6 +87,18 @@ class VirtualMachine {
     // The Compiler
     private final Compiler compiler;
 
+    // The cache of compiled scripts, or null
+    private BytecodeCache cache = null;
+
+    // The sink for the execution trace, or null
+    private TraceSink traceSink = null;
+
+    // The JIT compiler's failures, if any
+    private final List<Throwable> jitFailures = new ArrayList<>();
+
+    // The profiler, or null
+    private Profiler profiler = null;
+
     //
     // Runtime Data
     //
@@ -52,29 +107,56 @@ class VirtualMachine {
     // closure, but should access the global environment via the current
     // closure's `globals` field.  This allows closures defined in one VM to
     // be executed in another VM.
-    private final Environment globalEnv = new Environment();
+    private final GlobalEnvironment globalEnv = new GlobalEnvironment();
 
     // The exports environment, populated by the EXPORT instruction.
     private final Environment exports = new Environment();
 
     // Registers
     private Object registerT = null;
+    private double registerTNumber = 0.0; // Used if registerT is UNBOXED
 
     // The value stack
     private Object[] stack = new Object[DEFAULT_STACK_SIZE];
 
+    // The unboxed numbers for stack slots tagged UNBOXED
+    private double[] numbers = new double[DEFAULT_STACK_SIZE];
+
     // The number of items on the stack.  The top item is at
     // stack[top - 1].
     private int top = 0;
 
-    // The call frame stack
-    private final CallFrame[] frames = new CallFrame[MAX_FRAMES];
+    // The maximum size of the value stack
+    private int maxStackSize = DEFAULT_MAX_STACK_SIZE;
+
+    // The call frame stack.  The CallFrames are preallocated and reused
+    // from call to call, so that calls needn't allocate them.
+    private CallFrame[] frames = newFrames(new CallFrame[0], DEFAULT_FRAMES);
     private int frameCount;
     private CallFrame frame; // The current frame.  Managed by run().
 
-    // The open upvalues list.  This is an intrusive list, linked by
-    // `Upval.next`, so openValues is simply the top upvalue on the list.
-    Upval openUpvalues = null;
+    // The maximum call depth
+    private int maxFrames = DEFAULT_MAX_FRAMES;
+
+    // The number of calls after which a function is compiled, or -1
+    // if functions are never compiled.
+    private int jitThreshold = DEFAULT_JIT_THRESHOLD;
+
+    // Whether the current loop is the lean loop, which can run compiled
+    // code.  Managed by run().
+    private boolean jitting = false;
+
+    // The number of calls being run to completion by execute(), and the
+    // frame that compiled code is executing, if any.
+    private int nesting = 0;
+    private CallFrame compiledFrame = null;
+
+    // The open upvalues, indexed by stack slot, so that capturing a
+    // local is a single lookup.  No slot above `openLimit` has an
+    // open upvalue, so that closing upvalues needn't search the whole
+    // stack.
+    private Upval[] openUpvalues = new Upval[DEFAULT_STACK_SIZE];
+    private int openLimit = -1;
 
     //-------------------------------------------------------------------------
     // Constructor
@@ -89,6 +171,138 @@ class VirtualMachine {
         this.disassembler = new Disassembler(joe);
     }
 
+    //-------------------------------------------------------------------------
+    // Configuration
+
+    /**
+     * Gets the maximum size of the value stack, in slots.
+     * @return The size
+     */
+    int getMaxStackSize() {
+        return maxStackSize;
+    }
+
+    /**
+     * Sets the maximum size of the value stack, in slots.  The stack
+     * grows on demand up to this size.
+     * @param size The size
+     */
+    void setMaxStackSize(int size) {
+        this.maxStackSize = Math.max(size, DEFAULT_STACK_SIZE);
+    }
+
+    /**
+     * Gets the maximum call depth.
+     * @return The depth
+     */
+    int getMaxFrames() {
+        return maxFrames;
+    }
+
+    /**
+     * Sets the maximum call depth.  The call frame stack grows on demand
+     * up to this depth.
+     * @param depth The depth
+     */
+    void setMaxFrames(int depth) {
+        this.maxFrames = Math.max(depth, 1);
+    }
+
+    /**
+     * Gets the number of calls after which a function is compiled to
+     * JVM byte-code.
+     * @return The threshold, or -1 if functions are never compiled.
+     */
+    int getJitThreshold() {
+        return jitThreshold;
+    }
+
+    /**
+     * Sets the number of calls after which a function is compiled to
+     * JVM byte-code.  0 compiles each function before its first call;
+     * -1 disables compilation.
+     * @param calls The threshold
+     */
+    void setJitThreshold(int calls) {
+        this.jitThreshold = Math.max(calls, -1);
+    }
+
+    /**
+     * Gets the failures to compile functions to JVM byte-code.
+     * @return The failures, in order of occurrence.
+     */
+    List<Throwable> getJitFailures() {
+        return Collections.unmodifiableList(jitFailures);
+    }
+
+    /**
+     * Gets whether the compiler optimizes the compiled code.
+     * @return true or false
+     */
+    boolean isOptimizing() {
+        return compiler.isOptimizing();
+    }
+
+    /**
+     * Sets whether the compiler optimizes the compiled code.
+     * @param flag true or false
+     */
+    void setOptimizing(boolean flag) {
+        compiler.setOptimizing(flag);
+    }
+
+    /**
+     * Gets the cache of compiled scripts.
+     * @return The cache, or null if none.
+     */
+    BytecodeCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the cache of compiled scripts, which the VM consults before
+     * compiling a script.
+     * @param cache The cache, or null for none.
+     */
+    void setCache(BytecodeCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Gets the sink for the execution trace.
+     * @return The sink, or null if none.
+     */
+    TraceSink getTraceSink() {
+        return traceSink;
+    }
+
+    /**
+     * Sets the sink for the execution trace.  The execution loop is
+     * chosen when execution begins, i.e., on entry to {@code run()},
+     * so the sink affects subsequent scripts and calls from Java.
+     * @param sink The sink, or null for none.
+     */
+    void setTraceSink(TraceSink sink) {
+        this.traceSink = sink;
+    }
+
+    /**
+     * Gets the profiler.
+     * @return The profiler, or null if none.
+     */
+    Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Sets the profiler.  As for the trace sink, the execution loop is
+     * chosen on entry to {@code run()}; the trace sink takes precedence.
+     * @param profiler The profiler, or null for none.
+     */
+    void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
     //-------------------------------------------------------------------------
     // Variable Access
 
@@ -121,20 +335,64 @@ class VirtualMachine {
      * @throws JoeError on compilation or execution error.
      */
     Object interpret(String scriptName, String source) {
-        var closure = new Closure(
-            compiler.compile(scriptName, source),
-            globalEnv);
+        return execute(compile(scriptName, source));
+    }
+
+    /**
+     * Compiles and executes a script that has already been parsed.
+     * @param script The parsed script
+     * @return The result of executing the script.
+     * @throws JoeError on compilation or execution error.
+     */
+    Object interpret(ParsedScript script) {
+        return execute(compile(script));
+    }
+
+    // Executes the compiled script.
+    private Object execute(Function script) {
+        var closure = new Closure(script, globalEnv);
         resetStack();
-        stack[top++] = closure;
+        push(closure);
         call(closure, 0, Origin.JAVA);
         try {
             return run();
         } catch (JoeError ex) {
             unwindStack(ex, 0);
+            // Reset the stack, so that the VM can be used again.
+            closeUpvalues(0);
+            top = 0;
+            frameCount = 0;
             throw ex;
         }
     }
 
+    // Compiles the script, or loads it from the cache if possible.
+    private Function compile(String scriptName, String source) {
+        if (cache == null) return compiler.compile(scriptName, source);
+
+        var optimizing = compiler.isOptimizing();
+        var function = cache.load(scriptName, source, optimizing);
+        if (function == null) {
+            function = compiler.compile(scriptName, source);
+            cache.save(source, optimizing, function);
+        }
+        return function;
+    }
+
+    // Compiles the parsed script, or loads it from the cache if possible.
+    private Function compile(ParsedScript script) {
+        if (cache == null) return compiler.compile(script);
+
+        var buffer = script.buffer();
+        var optimizing = compiler.isOptimizing();
+        var function = cache.load(buffer.filename(), buffer.source(), optimizing);
+        if (function == null) {
+            function = compiler.compile(script);
+            cache.save(buffer.source(), optimizing, function);
+        }
+        return function;
+    }
+
     /**
      * Calls a callable from Java, passing it the given arguments.
      * The callee must be a callable according to `BertEngine::isCallable`.
@@ -163,9 +421,9 @@ class VirtualMachine {
                 var oldTop = top;
                 var oldFrameCount = frameCount;
                 var argc = args.length;
-                stack[top++] = bc;
+                push(bc);
                 for (Object arg : args) {
-                    stack[top++] = arg;
+                    push(arg);
                 }
 
                 callValue(bc, argc, Origin.JAVA);
@@ -175,6 +433,7 @@ class VirtualMachine {
                 } catch (JoeError ex) {
                     unwindStack(ex, oldFrameCount);
                     // Result the stack to the old values.
+                    closeUpvalues(oldTop);
                     top = oldTop;
                     frameCount = oldFrameCount;
 
@@ -217,26 +476,34 @@ class VirtualMachine {
                 }
             }
 
-            // NEXT, add the frame's own stack level.
+            // NEXT, add the frame's own stack level.  The frame is
+            // reused, so capture what the trace needs; the trace is
+            // rendered only if someone asks for it.
             // Note: frame.ip is the *next* instruction, the one that
             // didn't actually execute yet.
             var lastIP = Math.max(0, frame.ip - 1);
-            var line = function.line(lastIP);
-            var span = pendingSpan != null
-                ? pendingSpan : function.source().lineSpan(line);
-            if (function.type() == FunctionType.SCRIPT) {
-                var message = "In <script>";
-                error.addFrame(span, message);
-            } else {
-                var message = "In " +
-                    function.type().text() + " " +
-                    function.signature();
-                error.addFrame(span, message);
+            var span = pendingSpan;
+            error.addFrame(() -> new Trace(
+                span != null ? span : lineSpan(function, lastIP),
+                function.type() == FunctionType.SCRIPT
+                    ? "In <script>"
+                    : "In " + function.type().text() + " " +
+                        function.signature()));
+
+            // NEXT, note any frames elided by tail calls.
+            if (frame.tailCalls > 0) {
+                error.addInfo("... " + frame.tailCalls +
+                    (frame.tailCalls == 1 ? " tail call" : " tail calls") +
+                    " elided ...");
             }
 
-            // NEXT, add the preTrace stack trace, if any.
-            if (frame.preTrace != null) {
-                error.addFrame(frame.preTrace.context(), frame.preTrace.message());
+            // NEXT, add a stack level for the class, if this frame is
+            // a class's init() method invoked implicitly by calling the
+            // class.
+            if (frame.initClass != null) {
+                var klass = frame.initClass;
+                error.addFrame(() -> new Trace(function.span(),
+                    "In " + klass.callableType() + " " + klass.signature()));
             }
         }
     }
@@ -246,38 +513,171 @@ class VirtualMachine {
         // garbage-collected.  We could set stack cells to null
         // on `pop()`, but we often pop many items at a time by resetting
         // top.  Doing it here ensures that it gets done eventually.
-        Arrays.fill(stack, null);
+        // If a deep computation grew the stack, shrink it back.
+        if (stack.length > DEFAULT_STACK_SIZE) {
+            stack = new Object[DEFAULT_STACK_SIZE];
+            numbers = new double[DEFAULT_STACK_SIZE];
+            openUpvalues = new Upval[DEFAULT_STACK_SIZE];
+        } else {
+            Arrays.fill(stack, null);
+            Arrays.fill(openUpvalues, null);
+        }
 
+        openLimit = -1;
         top = 0;
         frameCount = 0;
         registerT = null;
+        registerTNumber = 0.0;
     }
 
+    // Executes the current frame until it returns to Java.  The
+    // execution loop is chosen on entry: the lean loop does no
+    // instrumentation at all, so that tracing and profiling cost
+    // nothing when they are disabled.
     private Object run() {
         // Get the top call frame
         frame = frames[frameCount - 1];
 
-        if (joe.isDebug()) {
-            // NOTE: Ultimately, the execution trace is going to need to be
-            // redirected to a file. OR, redirect output and save it until
-            // the end of the instruction.
-            joe.printf("%-40s ", " ");
-            joe.println(stackText());
+        var sink = traceSink;
+        if (sink == null && joe.isDebug()) {
+            sink = joe::println;
         }
+
+        // Only the lean loop runs compiled code.
+        var wasJitting = jitting;
+        jitting = sink == null && profiler == null && jitThreshold >= 0;
+        try {
+            if (sink != null) return runTraced(sink);
+            if (profiler != null) return runProfiled(profiler);
+            return jitting ? execute() : runLean();
+        } finally {
+            jitting = wasJitting;
+        }
+    }
+
+    // Executes the current frame, whose origin is not Origin.JOE, until
+    // it returns, and returns its result.  Runs the function's compiled
+    // code, if it has any, and the lean loop otherwise.  If the compiled
+    // code yields, the lean loop finishes the call, unless the frame
+    // has tail-called another function with compiled code.
+    private Object execute() {
+        var start = frame;
+        var outerFrame = compiledFrame;
+        nesting++;
+        try {
+            for (;;) {
+                var code = frame == start && frame.ip == 0
+                    ? frame.closure.function.jitCode : null;
+                if (code == null) {
+                    compiledFrame = null;
+                    return runLean();
+                }
+                compiledFrame = start;
+                var result = code.run(this);
+                if (result != YIELD) return result;
+            }
+        } finally {
+            nesting--;
+            compiledFrame = outerFrame;
+        }
+    }
+
+    // The production execution loop.
+    private Object runLean() {
+        for (;;) {
+            var result = step();
+            if (result != CONTINUE) return result;
+        }
+    }
+
+    // The instrumented execution loop: writes each instruction and the
+    // resulting stack to the sink.
+    private Object runTraced(TraceSink sink) {
+        sink.trace(String.format("%-40s %s", " ", stackText()));
         for (;;) {
-            if (joe.isDebug()) {
-                joe.printf("%-40s ",
-                    disassembler.disassembleInstruction(
-                        frame.closure.function, frame.ip));
-            }
-            var opcode = frame.closure.function.code[frame.ip++];
-            switch (opcode) {
-                case ADD -> {
+            var instruction = disassembler.disassembleInstruction(
+                frame.closure.function, frame.ip);
+            Object result;
+            try {
+                result = step();
+            } catch (JoeError ex) {
+                sink.trace(String.format("%-40s %s", instruction,
+                    "*** " + ex.getMessage()));
+                throw ex;
+            }
+            sink.trace(String.format("%-40s %s", instruction, stackText()));
+            if (result != CONTINUE) return result;
+        }
+    }
+
+    // The profiling execution loop: counts each instruction, and notes
+    // each call and return by the change in the frame count.
+    private Object runProfiled(Profiler profiler) {
+        var depth = profiler.depth();
+        profiler.enter(frame.closure.function, System.nanoTime());
+        try {
+            for (;;) {
+                var function = frame.closure.function;
+                var ip = frame.ip;
+                var opcode = function.code[ip];
+                profiler.count(opcode);
+                if (allocates(opcode, function, ip)) {
+                    profiler.allocation(function, ip);
+                }
+
+                var frames = frameCount;
+                var result = step();
+                if (frameCount > frames) {
+                    profiler.enter(frame.closure.function, System.nanoTime());
+                } else if (frameCount < frames) {
+                    profiler.exit(System.nanoTime());
+                } else if (opcode == TAILCALL && frame.ip == 0) {
+                    // The callee replaced the caller in its frame.
+                    var now = System.nanoTime();
+                    profiler.exit(now);
+                    profiler.enter(frame.closure.function, now);
+                }
+                if (result != CONTINUE) return result;
+            }
+        } catch (JoeError ex) {
+            // The error unwinds every call made since entry.
+            var now = System.nanoTime();
+            while (profiler.depth() > depth) profiler.exit(now);
+            throw ex;
+        }
+    }
+
+    // Returns true if the instruction about to be executed will
+    // allocate a new object, for the profiler.
+    private boolean allocates(char opcode, Function function, int ip) {
+        return switch (opcode) {
+            case CONCAT, ITER, LISTNEW, LISTOF, MAPNEW, MAPOF, PATTERN,
+                 SETNEW, SETOF, SUPGET, TEMPLATE -> true;
+            case CLOSURE -> ((Function)function.constants[function.code[ip + 1]])
+                .upvalueCount > 0;
+            case ADD -> !isNumber(top - 2) || !isNumber(top - 1);
+            case CALL, TAILCALL -> peek(function.code[ip + 1]) instanceof ClarkClass;
+            case GLOCALL -> globals().get(
+                frame.closure.globalSlots[function.code[ip + 2]])
+                instanceof ClarkClass;
+            default -> false;
+        };
+    }
+
+    // Executes a single instruction.  Returns the result of the
+    // script or call if the instruction returned to Java, and
+    // CONTINUE otherwise.
+    private Object step() {
+        var opcode = frame.closure.function.code[frame.ip++];
+        switch (opcode) {
+            case ADD -> {
+                if (isNumber(top - 2) && isNumber(top - 1)) {
+                    var b = number(--top);
+                    setNumber(top - 1, number(top - 1) + b);
+                } else {
                     var b = pop();
                     var a = pop();
-                    if (a instanceof Double x && b instanceof Double y) {
-                        push(x + y);
-                    } else if (a instanceof String s) {
+                    if (a instanceof String s) {
                         push(s + joe.stringify(b));
                     } else if (b instanceof String s) {
                         push(joe.stringify(a) + s);
@@ -285,467 +685,633 @@ class VirtualMachine {
                         throw error("The '+' operator expects two Numbers or at least one String.");
                     }
                 }
-                case ASSERT -> {
-                    var message = pop();
-                    throw new AssertError(ipSpan(), joe.stringify(message));
-                }
-                case CALL -> {
-                    var argCount = readArg();
-                    callValue(peek(argCount), argCount, Origin.JOE);
-                    frame = frames[frameCount - 1];
-                }
-                case CLASS -> push(new ClarkClass(readString()));
-                case CLOSURE -> {
-                    var function = readFunction();
+            }
+            case ADDN -> {
+                var b = number(--top);
+                setNumber(top - 1, number(top - 1) + b);
+            }
+            case ASSERT -> {
+                var message = pop();
+                throw new AssertError(ipSpan(), joe.stringify(message));
+            }
+            case CALL -> {
+                var argCount = readArg();
+                callValue(peek(argCount), argCount, Origin.JOE);
+                frame = frames[frameCount - 1];
+            }
+            case CAPGET -> {
+                int slot = readArg();
+                push(frame.closure.upvalues[slot]);
+            }
+            case CLASS -> push(new ClarkClass(readString()));
+            case CONCAT -> concat(readArg());
+            case CLOSURE -> {
+                var function = readFunction();
+
+                // A function that captures nothing can share one closure.
+                if (function.upvalueCount == 0) {
+                    push(function.sharedClosure(globals()));
+                } else {
                     var closure = new Closure(function, globals());
                     push(closure);
                     for (int i = 0; i < closure.upvalues.length; i++) {
-                        boolean isLocal = readArg() == 1;
+                        var kind = readArg();
                         int index = readArg();
 
-                        if (isLocal) {
-                            closure.upvalues[i] =
+                        closure.upvalues[i] = switch (kind) {
+                            case CAPTURE_LOCAL ->
                                 captureUpvalue(frame.base + index);
-                        } else {
-                            closure.upvalues[i] = frame.closure.upvalues[index];
-                        }
+                            case CAPTURE_VALUE -> value(frame.base + index);
+                            default -> frame.closure.upvalues[index];
+                        };
                     }
                 }
-                case COMMENT -> readConstant(); // NO-OP
-                case CONST -> push(readConstant());
-                case DECR -> {
-                    var a = pop();
-                    checkPrePostOperand("--", a);
-                    push((double)a - 1);
-                }
-                case DIV -> {
-                    var b = pop();
-                    var a = pop();
-                    checkNumericOperands(opcode, a, b);
-                    push((double)a / (double)b);
-                }
-                case DUP -> push(peek(0));
-                case DUP2 -> {
-                    push(peek(1));
-                    push(peek(1));
-                }
-                case EQ -> {
+            }
+            case COMMENT -> readConstant(); // NO-OP
+            case CONST -> push(readConstant());
+            case DECR -> {
+                checkPrePostOperand("--");
+                setNumber(top - 1, number(top - 1) - 1);
+            }
+            case DIV -> {
+                checkNumericOperands(opcode);
+                var b = number(--top);
+                setNumber(top - 1, number(top - 1) / b);
+            }
+            case DUP -> pushSlot(top - 1);
+            case DUP2 -> {
+                pushSlot(top - 2);
+                pushSlot(top - 2);
+            }
+            case EQ -> {
+                if (isNumber(top - 2) && isNumber(top - 1)) {
+                    var b = number(--top);
+                    stack[top - 1] = numberEquals(number(top - 1), b);
+                } else {
                     var b = pop();
                     var a = pop();
                     push(Joe.isEqual(a, b));
                 }
-                case EXPORT -> {
-                    var name = readString();
-                    exports.setVariable(name, globals().getVariable(name));
-                }
-                case FALSE -> push(false);
-                case GE -> {
+            }
+            case EXPORT -> {
+                var name = readString();
+                exports.setVariable(name, globals().getVariable(name));
+            }
+            case FALSE -> push(false);
+            case GE -> {
+                if (isNumber(top - 2) && isNumber(top - 1)) {
+                    var b = number(--top);
+                    stack[top - 1] = number(top - 1) >= b;
+                } else {
                     var b = pop();
                     var a = pop();
-                    if (a instanceof Double x && b instanceof Double y) {
-                        push(x >= y);
-                    } else if (a instanceof String s && b instanceof String t) {
+                    if (a instanceof String s && b instanceof String t) {
                         push(s.compareTo(t) >= 0);
                     } else {
                         throw error("The '>=' operator expects two Numbers or two Strings.");
                     }
                 }
-                case GETNEXT -> {
-                    var iterator = peek(0);
-                    if (iterator instanceof Iterator<?> iter) {
-                        push(iter.next());
-                    } else {
-                        throw new IllegalStateException(
-                            "GETNEXT expected iterator, got " +
-                                joe.typedValue(iterator));
-                    }
-                }
-                case GLODEF -> globals().setVariable(readString(), pop());
-                case GLOGET -> {
-                    var name = readString();
-                    if (globals().hasVariable(name)) {
-                        push(globals().getVariable(name));
-                    } else {
-                        throw error("Undefined variable: '" + name + "'.");
-                    }
+            }
+            case GEN -> {
+                var b = number(--top);
+                stack[top - 1] = number(top - 1) >= b;
+            }
+            case GETNEXT -> {
+                var iterator = peek(0);
+                if (iterator instanceof PrimitiveIterator.OfDouble iter) {
+                    // E.g., a Range; push the item unboxed.
+                    push(UNBOXED, iter.nextDouble());
+                } else if (iterator instanceof Iterator<?> iter) {
+                    push(iter.next());
+                } else {
+                    throw new IllegalStateException(
+                        "GETNEXT expected iterator, got " +
+                            joe.typedValue(iterator));
                 }
-                case GLOBIND -> {
-                    var target = pop();
-                    var pv = (PatternValue)pop();
-
-                    // FIRST, see if there's a match.  This is defining globals;
-                    // the global environment persists, so we don't want to
-                    // touch it unless the match is successful.  Save the
-                    // bindings as we go, and then add them to the global
-                    // environment as a group.
-                    var bound = Matcher.match(
-                        joe,
-                        pv.pattern,
-                        target,
-                        pv.constants::get);
-                    if (bound == null) {
-                        throw error(
-                            "'var' pattern failed to match target value.");
-                    }
-
-                    // NEXT, add the bindings to the global scope.
-                    globals().setAll(bound.asMap());
+            }
+            case GLODEF -> globals().set(readGlobalSlot(), pop());
+            case GLOGET -> {
+                var value = globals().get(readGlobalSlot());
+                if (value != GlobalEnvironment.UNDEFINED) {
+                    push(value);
+                } else {
+                    throw undefinedGlobal();
                 }
-                case GLOSET -> {
-                    var name = readString();
-                    if (globals().hasVariable(name)) {
-                        globals().setVariable(name, peek(0));
-                        // NOTE: we leave the value on the stack, since
-                        // assignment is an expression.
-                    } else {
-                        throw error("Undefined variable: '" + name + "'.");
-                    }
+            }
+            case GLOCALL -> {
+                // The arguments are already on the stack; insert
+                // the callee below them, as for CALL.
+                var argCount = readArg();
+                var callee = globals().get(readGlobalSlot());
+                if (callee == GlobalEnvironment.UNDEFINED) {
+                    throw undefinedGlobal();
+                }
+                if (top == stack.length) {
+                    growStack();
+                }
+                for (var i = top; i > top - argCount; i--) {
+                    copySlot(i - 1, i);
+                }
+                stack[top - argCount] = callee;
+                top++;
+                callValue(callee, argCount, Origin.JOE);
+                frame = frames[frameCount - 1];
+            }
+            case GLOBIND -> {
+                var target = pop();
+                var pv = (PatternValue)pop();
+
+                // FIRST, see if there's a match.  This is defining globals;
+                // the global environment persists, so we don't want to
+                // touch it unless the match is successful.  Save the
+                // bindings as we go, and then add them to the global
+                // environment as a group.
+                var bound = Matcher.match(
+                    joe,
+                    pv.pattern,
+                    target,
+                    pv.constants::get);
+                if (bound == null) {
+                    throw error(
+                        "'var' pattern failed to match target value.");
+                }
+
+                // NEXT, add the bindings to the global scope.
+                globals().setAll(bound.asMap());
+            }
+            case GLOSET -> {
+                var slot = readGlobalSlot();
+                if (globals().get(slot) != GlobalEnvironment.UNDEFINED) {
+                    globals().set(slot, peek(0));
+                    // NOTE: we leave the value on the stack, since
+                    // assignment is an expression.
+                } else {
+                    throw undefinedGlobal();
                 }
-                case GT -> {
+            }
+            case GT -> {
+                if (isNumber(top - 2) && isNumber(top - 1)) {
+                    var b = number(--top);
+                    stack[top - 1] = number(top - 1) > b;
+                } else {
                     var b = pop();
                     var a = pop();
-                    if (a instanceof Double x && b instanceof Double y) {
-                        push(x > y);
-                    } else if (a instanceof String s && b instanceof String t) {
+                    if (a instanceof String s && b instanceof String t) {
                         push(s.compareTo(t) > 0);
                     } else {
                         throw error("The '>' operator expects two Numbers or two Strings.");
                     }
                 }
-                case HASNEXT -> {
-                    var iterator = peek(0);
-                    if (iterator instanceof Iterator<?> iter) {
-                        push(iter.hasNext());
-                    } else {
-                        throw new IllegalStateException(
-                            "HASNEXT expected iterator, got " +
-                            joe.typedValue(iterator));
-                    }
-                }
-                case IMPORT -> {
-                    var spec = readImportSpec();
-                    var reg = joe.packageRegistry();
-                    reg.load(spec.pkgName());
-                    var exports = reg.getExports(spec.pkgName());
-
-                    if (spec.symbol().equals("*")) {
-                        globalEnv.merge(exports);
-                    } else if (exports.hasVariable(spec.symbol())) {
-                        globalEnv.setVariable(spec.symbol(),
-                            exports.getVariable(spec.symbol()));
-                    } else {
-                        throw error("Package '" + spec.pkgName() +
-                                "' does not export symbol '" +
-                                spec.symbol() + "'.");
-                    }
-                }
-                case IN -> {
-                    var collection = checkCollection(pop());
-                    var item = pop();
-                    push(collection.contains(item));
+            }
+            case GTN -> {
+                var b = number(--top);
+                stack[top - 1] = number(top - 1) > b;
+            }
+            case HASNEXT -> {
+                var iterator = peek(0);
+                if (iterator instanceof Iterator<?> iter) {
+                    push(iter.hasNext());
+                } else {
+                    throw new IllegalStateException(
+                        "HASNEXT expected iterator, got " +
+                        joe.typedValue(iterator));
                 }
-                case INCR -> {
-                    var a = pop();
-                    checkPrePostOperand("++", a);
-                    push((double)a + 1);
+            }
+            case IMPORT -> {
+                var spec = readImportSpec();
+                var reg = joe.packageRegistry();
+                reg.load(spec.pkgName());
+                var exports = reg.getExports(spec.pkgName());
+
+                if (spec.symbol().equals("*")) {
+                    globalEnv.merge(exports);
+                } else if (exports.hasVariable(spec.symbol())) {
+                    globalEnv.setVariable(spec.symbol(),
+                        exports.getVariable(spec.symbol()));
+                } else {
+                    throw error("Package '" + spec.pkgName() +
+                            "' does not export symbol '" +
+                            spec.symbol() + "'.");
                 }
-                case INDGET -> {
-                    var index = pop();
-                    var coll = pop();
-
-                    switch (coll) {
-                        case JoeList list -> {
-                            var i = checkListIndex(list, index);
-                            push(list.get(i));
-                        }
-                        case JoeMap map -> push(map.get(index));
-                        default ->
-                            throw error("Expected indexed collection, got: " +
-                                joe.typedValue(coll) + ".");
+            }
+            case IN -> {
+                var collection = checkCollection(pop());
+                var item = pop();
+                push(collection.contains(item));
+            }
+            case INCR -> {
+                checkPrePostOperand("++");
+                setNumber(top - 1, number(top - 1) + 1);
+            }
+            case INDGET -> {
+                var index = pop();
+                var coll = pop();
+
+                switch (coll) {
+                    case JoeList list -> {
+                        var i = checkListIndex(list, index);
+                        push(list.get(i));
                     }
+                    case JoeMap map -> push(map.get(index));
+                    default ->
+                        throw error("Expected indexed collection, got: " +
+                            joe.typedValue(coll) + ".");
                 }
-                case INDSET -> {
-                    var value = pop();
-                    var index = pop();
-                    var coll = pop();
-
-                    switch (coll) {
-                        case JoeList list -> {
-                            var i = checkListIndex(list, index);
-                            list.set(i, value);
-                        }
-                        case JoeMap map -> map.put(index, value);
-                        default ->
-                            throw error("Expected indexed collection, got: " +
-                                joe.typedValue(coll) + ".");
+            }
+            case INDSET -> {
+                var value = pop();
+                var index = pop();
+                var coll = pop();
+
+                switch (coll) {
+                    case JoeList list -> {
+                        var i = checkListIndex(list, index);
+                        list.set(i, value);
                     }
-                    push(value);
+                    case JoeMap map -> map.put(index, value);
+                    default ->
+                        throw error("Expected indexed collection, got: " +
+                            joe.typedValue(coll) + ".");
                 }
-                case INHERIT -> {
-                    var superclass = peek(1);
-
-                    if (superclass instanceof JoeClass jc) {
-                        // FIRST, can this superclass be extended?
-                        if (jc.canBeExtended()) {
-                            var subclass = (ClarkClass) peek(0);
-                            subclass.inheritSuperclass(jc);
-                            pop();  // Subclass
-                        } else {
-                            throw error("Superclass '" + jc.name() +
-                                "' cannot be extended.");
-                        }
+                push(value);
+            }
+            case INHERIT -> {
+                var superclass = peek(1);
+
+                if (superclass instanceof JoeClass jc) {
+                    // FIRST, can this superclass be extended?
+                    if (jc.canBeExtended()) {
+                        var subclass = (ClarkClass) peek(0);
+                        subclass.inheritSuperclass(jc);
+                        pop();  // Subclass
                     } else {
-                        throw error("Expected superclass, got: " +
-                            joe.typedValue(superclass));
+                        throw error("Superclass '" + jc.name() +
+                            "' cannot be extended.");
                     }
-                    // NOTE: Superclass is still on the stack, I think
-                    // as the `super` variable.  Seems weird, though.
-                }
-                case ITER -> {
-                    var collection = checkCollection(pop());
-                    push(collection.iterator());
-                }
-                case JIF -> {
-                    var offset = readArg();
-                    if (Joe.isFalsey(pop())) frame.ip += offset;
-                }
-                case JIFKEEP -> {
-                    var offset = readArg();
-                    if (Joe.isFalsey(peek(0))) frame.ip += offset;
+                } else {
+                    throw error("Expected superclass, got: " +
+                        joe.typedValue(superclass));
                 }
-                case JIT -> {
-                    var offset = readArg();
-                    if (Joe.isTruthy(pop())) frame.ip += offset;
-                }
-                case JITKEEP -> {
-                    var offset = readArg();
-                    if (Joe.isTruthy(peek(0))) frame.ip += offset;
-                }
-                case JUMP -> {
-                    var offset = readArg();
-                    frame.ip += offset;
+                // NOTE: Superclass is still on the stack, I think
+                // as the `super` variable.  Seems weird, though.
+            }
+            case INVOKE -> {
+                var name = readString();
+                var argCount = readArg();
+                var cache = readCache();
+                var target = peek(argCount);
+
+                // If the target is a ClarkInstance, call the method
+                // directly with the instance as the receiver in slot 0,
+                // as for a BoundMethod.  Otherwise, get the property
+                // and call it as a function.
+                if (target instanceof ClarkInstance instance) {
+                    var entry = lookupProperty(instance, name, cache);
+                    if (entry.method() != null) {
+                        call(entry.method(), argCount, Origin.JOE);
+                    } else {
+                        var callee = entry.index() >= 0
+                            ? instance.fields.get(entry.index())
+                            : instance.get(name);
+                        stack[top - argCount - 1] = callee;
+                        callValue(callee, argCount, Origin.JOE);
+                    }
+                } else if (target == null) {
+                    throw error("Cannot retrieve property, target is null.");
+                } else {
+                    // If the target has a proxy with a method of this
+                    // name, call it directly; otherwise get the
+                    // property and call it as a function.
+                    var method = lookupNativeMethod(target, name, cache);
+                    if (method != null) {
+                        callNativeMethod(method, target, name, argCount);
+                    } else {
+                        var callee = joe.asJoeValue(target).get(name);
+                        stack[top - argCount - 1] = callee;
+                        callValue(callee, argCount, Origin.JOE);
+                    }
                 }
-                case LE -> {
+                frame = frames[frameCount - 1];
+            }
+            case ITER -> {
+                var collection = checkCollection(pop());
+                push(collection.iterator());
+            }
+            case JIF -> {
+                var offset = readArg();
+                if (Joe.isFalsey(stack[--top])) frame.ip += offset;
+            }
+            case JIFKEEP -> {
+                var offset = readArg();
+                if (Joe.isFalsey(stack[top - 1])) frame.ip += offset;
+            }
+            case JIFLC -> {
+                var cmp = readArg();
+                var a = frame.base + readInt();
+                var b = readConstant();
+                var offset = readArg();
+                var flag = isNumber(a) && b instanceof Double d
+                    ? compareNumbers(cmp, number(a), d)
+                    : compareValues(cmp, value(a), b);
+                if (!flag) frame.ip += offset;
+            }
+            case JIFLL -> {
+                var cmp = readArg();
+                var a = frame.base + readInt();
+                var b = frame.base + readInt();
+                var offset = readArg();
+                var flag = isNumber(a) && isNumber(b)
+                    ? compareNumbers(cmp, number(a), number(b))
+                    : compareValues(cmp, value(a), value(b));
+                if (!flag) frame.ip += offset;
+            }
+            case JIT -> {
+                var offset = readArg();
+                if (Joe.isTruthy(stack[--top])) frame.ip += offset;
+            }
+            case JITKEEP -> {
+                var offset = readArg();
+                if (Joe.isTruthy(stack[top - 1])) frame.ip += offset;
+            }
+            case JUMP -> {
+                var offset = readArg();
+                frame.ip += offset;
+            }
+            case LE -> {
+                if (isNumber(top - 2) && isNumber(top - 1)) {
+                    var b = number(--top);
+                    stack[top - 1] = number(top - 1) <= b;
+                } else {
                     var b = pop();
                     var a = pop();
-                    if (a instanceof Double x && b instanceof Double y) {
-                        push(x <= y);
-                    } else if (a instanceof String s && b instanceof String t) {
+                    if (a instanceof String s && b instanceof String t) {
                         push(s.compareTo(t) <= 0);
                     } else {
                         throw error(
                             "The '<=' operator expects two Numbers or two Strings.");
                     }
                 }
-                case LISTADD -> {
-                    var item = pop();
-                    var list = (ListValue)peek(0);
-                    list.add(item);
-                }
-                case LISTNEW -> push(new ListValue());
-                case LOCBIND -> {
-                    var target = pop();
-                    var pv = (PatternValue)pop();
-
-                    // FIRST, see if there's a match.  This is defining locals,
-                    // so just push the bound values onto the stack.  They
-                    // are being processed in the order they were defined by
-                    // the compiler.
-                    var bound = Matcher.match(
-                        joe,
-                        pv.pattern,
-                        target,
-                        pv.constants::get
-                    );
-
-                    if (bound != null) {
-                        // Note: bound is a LinkedHashMap, values are in order
-                        // of binding.
-                        for (var value : bound.asMap().values()) {
-                            push(value);
-                        }
-                    } else {
-                        throw error(
-                            "'var' pattern failed to match target value.");
+            }
+            case LEN -> {
+                var b = number(--top);
+                stack[top - 1] = number(top - 1) <= b;
+            }
+            case LISTADD -> {
+                var item = pop();
+                var list = (ListValue)peek(0);
+                list.add(item);
+            }
+            case LISTNEW -> push(new ListValue());
+            case LISTOF -> {
+                var n = readArg();
+                var list = new ListValue(n);
+                for (var slot = top - n; slot < top; slot++) {
+                    list.add(value(slot));
+                }
+                top -= n;
+                push(list);
+            }
+            case LOCBIND -> {
+                var target = pop();
+                var pv = (PatternValue)pop();
+
+                // FIRST, see if there's a match.  This is defining locals,
+                // so just push the bound values onto the stack.  They
+                // are being processed in the order they were defined by
+                // the compiler.
+                var bound = Matcher.match(
+                    joe,
+                    pv.pattern,
+                    target,
+                    pv.constants::get
+                );
+
+                if (bound != null) {
+                    // Note: bound is a LinkedHashMap, values are in order
+                    // of binding.
+                    for (var value : bound.asMap().values()) {
+                        push(value);
                     }
+                } else {
+                    throw error(
+                        "'var' pattern failed to match target value.");
                 }
-                case LOCGET -> {
-                    var slot = readInt();
-                    push(stack[frame.base + slot]);
-                }
-                case LOCMOVE -> {
-                    var slot = readInt();
-                    var n = readInt();
-                    var range = top - (frame.base + slot);
-                    shift(n, range);
-                }
-                case LOCSET -> {
-                    var slot = readInt();
-                    stack[frame.base + slot] = peek(0);
-                }
-                case LOOP -> {
-                    var offset = readArg();
-                    frame.ip -= offset;
-                }
-                case LT -> {
+            }
+            case LOCDECR -> {
+                var slot = frame.base + readInt();
+                checkPrePostOperand("--", slot);
+                setNumber(slot, number(slot) - 1);
+            }
+            case LOCGET -> {
+                var slot = readInt();
+                pushSlot(frame.base + slot);
+            }
+            case LOCINCR -> {
+                var slot = frame.base + readInt();
+                checkPrePostOperand("++", slot);
+                setNumber(slot, number(slot) + 1);
+            }
+            case LOCMOVE -> {
+                var slot = readInt();
+                var n = readInt();
+                var range = top - (frame.base + slot);
+                shift(n, range);
+            }
+            case LOCSET -> {
+                var slot = readInt();
+                copySlot(top - 1, frame.base + slot);
+            }
+            case LOOP -> {
+                var offset = readArg();
+                frame.ip -= offset;
+            }
+            case LT -> {
+                if (isNumber(top - 2) && isNumber(top - 1)) {
+                    var b = number(--top);
+                    stack[top - 1] = number(top - 1) < b;
+                } else {
                     var b = pop();
                     var a = pop();
-                    if (a instanceof Double x && b instanceof Double y) {
-                        push(x < y);
-                    } else if (a instanceof String s && b instanceof String t) {
+                    if (a instanceof String s && b instanceof String t) {
                         push(s.compareTo(t) < 0);
                     } else {
                         throw error("The '<' operator expects two Numbers or two Strings.");
                     }
                 }
-                case MAPNEW -> push(new MapValue());
-                case MAPPUT -> {
-                    var value = pop();
-                    var key = pop();
-                    var map = (MapValue)peek(0);
-                    map.put(key, value);
-                }
-                case MATCH -> {
-                    var target = pop();
-                    var pv = (PatternValue)pop();
-
-                    // FIRST, match the pattern against the target given the
-                    // constants, pushing bound values onto the stack as the
-                    // match proceeds.
-                    var bound = Matcher.match(
-                        joe,
-                        pv.pattern,
-                        target,
-                        pv.constants::get
-                    );
-
-                    // NEXT, if the match succeeded push the bound values.
-                    if (bound != null) {
-                        bound.asMap().values().forEach(this::push);
-                    }
-
-                    // FINALLY, push the success/failure flag.
-                    push(bound != null);
-                }
-                case MATCHG -> {
-                    var target = pop();
-                    var pv = (PatternValue)pop();
-
-                    // FIRST, see if there's a match.  Saves bound values
-                    // to the global environment as it goes.
-                    var bound = Matcher.match(
-                        joe,
-                        pv.pattern,
-                        target,
-                        pv.constants::get
-                    );
-
-                    if (bound != null) {
-                        globals().setAll(bound.asMap());
-                    } else {
-                        // Match failed; set all relevant globals to null.
-                        for (var name : pv.bindings()) {
-                            globals().setVariable(name, null);
-                        }
+            }
+            case LTN -> {
+                var b = number(--top);
+                stack[top - 1] = number(top - 1) < b;
+            }
+            case MAPNEW -> push(new MapValue());
+            case MAPOF -> {
+                var n = readArg();
+                var map = new MapValue(n);
+                for (var slot = top - 2*n; slot < top; slot += 2) {
+                    map.put(value(slot), value(slot + 1));
+                }
+                top -= 2*n;
+                push(map);
+            }
+            case MAPPUT -> {
+                var value = pop();
+                var key = pop();
+                var map = (MapValue)peek(0);
+                map.put(key, value);
+            }
+            case MATCH -> {
+                var target = pop();
+                var pv = (PatternValue)pop();
+
+                // FIRST, match the pattern against the target given the
+                // constants, pushing bound values onto the stack as the
+                // match proceeds.
+                var bound = Matcher.match(
+                    joe,
+                    pv.pattern,
+                    target,
+                    pv.constants::get
+                );
+
+                // NEXT, if the match succeeded push the bound values.
+                if (bound != null) {
+                    bound.asMap().values().forEach(this::push);
+                }
+
+                // FINALLY, push the success/failure flag.
+                push(bound != null);
+            }
+            case MATCHG -> {
+                var target = pop();
+                var pv = (PatternValue)pop();
+
+                // FIRST, see if there's a match.  Saves bound values
+                // to the global environment as it goes.
+                var bound = Matcher.match(
+                    joe,
+                    pv.pattern,
+                    target,
+                    pv.constants::get
+                );
+
+                if (bound != null) {
+                    globals().setAll(bound.asMap());
+                } else {
+                    // Match failed; set all relevant globals to null.
+                    for (var name : pv.bindings()) {
+                        globals().setVariable(name, null);
                     }
-
-                    push(bound != null);
                 }
-                case MATCHL -> {
-                    var target = pop();
-                    var pv = (PatternValue)pop();
-
-                    // FIRST, match the pattern against the target given the
-                    // constants, pushing bound values onto the stack as the
-                    // match proceeds.
-                    var bound = Matcher.match(
-                        joe,
-                        pv.pattern,
-                        target,
-                        pv.constants::get
-                    );
-
-                    // NEXT, push the bound values or nulls.
-                    if (bound != null) {
-                        bound.asMap().values().forEach(this::push);
-                    } else {
-                        for (var ignored : pv.bindings) {
-                            push(null);
-                        }
-                    }
 
-                    // FINALLY, push the success/failure flag.
-                    push(bound != null);
-                }
-                case METHOD -> {
-                    // NOTE: This was defineMethod in clox
-                    var name = readString();
-                    var method = (Closure)peek(0);
-                    var type = (ClarkType)peek(1);
-                    switch (method.function.type()) {
-                        case METHOD, INITIALIZER ->
-                            type.addMethod(name, method);
-                        case STATIC_METHOD ->
-                            type.addStaticMethod(name, method);
-                        default -> throw new IllegalStateException(
-                            "Invalid closure type in METHOD instruction: " +
-                            method.function.type());
+                push(bound != null);
+            }
+            case MATCHL -> {
+                var target = pop();
+                var pv = (PatternValue)pop();
+
+                // FIRST, match the pattern against the target given the
+                // constants, pushing bound values onto the stack as the
+                // match proceeds.
+                var bound = Matcher.match(
+                    joe,
+                    pv.pattern,
+                    target,
+                    pv.constants::get
+                );
+
+                // NEXT, push the bound values or nulls.
+                if (bound != null) {
+                    bound.asMap().values().forEach(this::push);
+                } else {
+                    for (var ignored : pv.bindings) {
+                        push(null);
                     }
-                    pop(); // Pop the method
-                }
-                case MUL -> {
-                    var b = pop();
-                    var a = pop();
-                    checkNumericOperands(opcode, a, b);
-                    push((double)a * (double)b);
                 }
-                case NE -> {
+
+                // FINALLY, push the success/failure flag.
+                push(bound != null);
+            }
+            case METHOD -> {
+                // NOTE: This was defineMethod in clox
+                var name = readString();
+                var method = (Closure)peek(0);
+                var type = (ClarkType)peek(1);
+                switch (method.function.type()) {
+                    case METHOD, INITIALIZER ->
+                        type.addMethod(name, method);
+                    case STATIC_METHOD ->
+                        type.addStaticMethod(name, method);
+                    default -> throw new IllegalStateException(
+                        "Invalid closure type in METHOD instruction: " +
+                        method.function.type());
+                }
+                pop(); // Pop the method
+            }
+            case MUL -> {
+                checkNumericOperands(opcode);
+                var b = number(--top);
+                setNumber(top - 1, number(top - 1) * b);
+            }
+            case NE -> {
+                if (isNumber(top - 2) && isNumber(top - 1)) {
+                    var b = number(--top);
+                    stack[top - 1] = !numberEquals(number(top - 1), b);
+                } else {
                     var b = pop();
                     var a = pop();
                     push(!Joe.isEqual(a, b));
                 }
-                case NEGATE -> {
-                    var a = pop();
-                    checkNumericOperand(a);
-                    push(-(double)a);
-                }
-                case NI -> {
-                    var collection = checkCollection(pop());
-                    var item = pop();
-                    push(!collection.contains(item));
-                }
-                case NOT -> push(Joe.isFalsey(pop()));
-                case NULL -> push(null);
-                case PATTERN -> {
-                    var pattern = readPattern();
-                    var bindings = readStringList();
-                    var constants = (ListValue)pop();
-                    push(new PatternValue(pattern, bindings, constants));
-                }
-                case POP -> pop();
-                case POPN -> top -= readArg();
-                case PROPGET -> {
-                    var target = peek(0);
-                    var name = readString();
-
-                    if (target == null) {
-                        throw error("Cannot retrieve property, target is null.");
-                    }
-
+            }
+            case NEGATE -> {
+                checkNumericOperand();
+                setNumber(top - 1, -number(top - 1));
+            }
+            case NI -> {
+                var collection = checkCollection(pop());
+                var item = pop();
+                push(!collection.contains(item));
+            }
+            case NOT -> stack[top - 1] = Joe.isFalsey(stack[top - 1]);
+            case NULL -> push(null);
+            case PATTERN -> {
+                var pattern = readPattern();
+                var bindings = readStringList();
+                var constants = (ListValue)pop();
+                push(new PatternValue(pattern, bindings, constants));
+            }
+            case POP -> top--;
+            case POPN -> top -= readArg();
+            case PROPGET -> {
+                var target = peek(0);
+                var name = readString();
+                var cache = readCache();
+
+                if (target instanceof ClarkInstance instance) {
+                    pop();
+                    push(getProperty(instance, name, cache));
+                } else if (target == null) {
+                    throw error("Cannot retrieve property, target is null.");
+                } else {
                     // Note: this works for all JoeObjects, including
-                    // `BertClass` and `BertInstance`.
+                    // `ClarkClass` and `Instance`.
                     var joeObject = joe.asJoeValue(target);
                     pop();
                     push(joeObject.get(name));
                 }
-                case PROPSET -> {
-                    var target = peek(1);
-                    var name = readString();
-
-                    if (target == null) {
-                        throw error("Cannot retrieve property, target is null.");
-                    }
+            }
+            case PROPSET -> {
+                var target = peek(1);
+                var name = readString();
+                var cache = readCache();
 
+                if (target instanceof ClarkInstance instance) {
+                    var value = pop();
+                    setProperty(instance, name, cache, value);
+                    pop();       // Pop the instance
+                    push(value); // Push the value; this is an assignment.
+                } else if (target == null) {
+                    throw error("Cannot retrieve property, target is null.");
+                } else {
                     // Handle JoeObjects
                     var joeObject = joe.asJoeValue(target);
                     var value = pop();
@@ -753,143 +1319,357 @@ class VirtualMachine {
                     pop();       // Pop the instance
                     push(value); // Push the value; this is an assignment.
                 }
-                case RECORD ->
-                    push(new ClarkRecordType(readString(), readStringList()));
-                case RETURN -> {
+            }
+            case RECORD ->
+                push(new ClarkRecordType(readString(), readStringList()));
+            case RETURN -> {
+                closeUpvalues(frame.base);
+                frameCount--;
+
+                // We return from run() if the relevant closure was
+                // called from Java, i.e., via `interpret()` or
+                // via `callFromJava()`, or from execute() if it is
+                // running the call to completion.
+                if (frame.origin != Origin.JOE) {
                     var result = pop();
-                    closeUpvalues(frame.base);
-                    frameCount--;
-
-                    // We return from run() if the relevant closure was
-                    // called from Java, i.e., via `interpret()` or
-                    // via `callFromJava()`.
-                    if (frame.origin == Origin.JAVA) {
-                        // Pop the call frame's stack entries, and restore
-                        // the previous call frame.
-                        top = frame.base;
-                        if (frameCount > 0) frame = frames[frameCount - 1];
-
-                        if (joe.isDebug()) {
-                            joe.println(stackText());
-                        }
-                        return result;
-                    }
 
-                    // Pop the call frame's stack entries
+                    // Pop the call frame's stack entries, and restore
+                    // the previous call frame.
                     top = frame.base;
-
-                    // Push the result back on the stack, and reset
-                    // back to the caller's call frame
-                    push(result);
-                    frame = frames[frameCount - 1];
-
-                    if (joe.isDebug()) {
-                        joe.println(stackText());
-                    }
+                    if (frameCount > 0) frame = frames[frameCount - 1];
+                    return result;
                 }
-                case RULESET -> {
-                    var ruleset = readRuleSet();
 
-                    if (!ruleset.isStratified()) {
-                        throw error("Rule set is not stratified.");
-                    }
+                // Pop the call frame's stack entries, leaving the
+                // result in the frame's base slot, and reset back to
+                // the caller's call frame.  The result is moved
+                // rather than popped, so that it needn't be boxed.
+                copySlot(top - 1, frame.base);
+                top = frame.base + 1;
+                frame = frames[frameCount - 1];
+            }
+            case RULESET -> {
+                var ruleset = readRuleSet();
 
-                    push(ruleset);
+                if (!ruleset.isStratified()) {
+                    throw error("Rule set is not stratified.");
                 }
-                case SETADD -> {
-                    var item = pop();
-                    var set = (SetValue)peek(0);
-                    set.add(item);
-                }
-                case SETNEW -> push(new SetValue());
-                case SUB -> {
-                    var b = pop();
-                    var a = pop();
-                    checkNumericOperands(opcode, a, b);
-                    push((double)a - (double)b);
-                }
-                case SUPGET -> {
-                    var name = readString();
-                    var superclass = (JoeClass)pop();
-                    var instance = peek(0);
-                    var method = superclass.bind(instance, name);
 
-                    if (method != null) {
-                        pop(); // The instance
-                        push(method);
-                    } else {
+                push(ruleset);
+            }
+            case SETADD -> {
+                var item = pop();
+                var set = (SetValue)peek(0);
+                set.add(item);
+            }
+            case SETNEW -> push(new SetValue());
+            case SETOF -> {
+                var n = readArg();
+                var set = new SetValue(n);
+                for (var slot = top - n; slot < top; slot++) {
+                    set.add(value(slot));
+                }
+                top -= n;
+                push(set);
+            }
+            case SUB -> {
+                checkNumericOperands(opcode);
+                var b = number(--top);
+                setNumber(top - 1, number(top - 1) - b);
+            }
+            case SUPGET -> {
+                var name = readString();
+                var cache = readCache();
+                var superclass = (JoeClass)pop();
+                var instance = peek(0);
+                var method = lookupSuperMethod(superclass, name, cache);
+                var bound = method != null
+                    ? new BoundMethod(instance, method)
+                    : superclass.bind(instance, name);
+
+                if (bound != null) {
+                    pop(); // The instance
+                    push(bound);
+                } else {
+                    throw error("Undefined property: '" + name + "'.");
+                }
+            }
+            case SUPINVOKE -> {
+                var name = readString();
+                var argCount = readArg();
+                var cache = readCache();
+                var superclass = (JoeClass)pop();
+
+                // Call a scripted method directly with the instance as
+                // the receiver in slot 0, as for INVOKE; otherwise, bind
+                // the method and call it.
+                var method = lookupSuperMethod(superclass, name, cache);
+                if (method != null) {
+                    call(method, argCount, Origin.JOE);
+                } else {
+                    var bound = superclass.bind(peek(argCount), name);
+                    if (bound == null) {
                         throw error("Undefined property: '" + name + "'.");
                     }
+                    stack[top - argCount - 1] = bound;
+                    callValue(bound, argCount, Origin.JOE);
                 }
-                case SWAP -> {
-                    var a = pop();
-                    var b = pop();
-                    push(a);
-                    push(b);
-                }
-                case TGET -> push(registerT);
-                case THROW -> {
-                    var value = pop();
-                    if (value instanceof JoeError err) {
-                        throw err;
-                    } else {
-                        throw error(joe.stringify(value));
+                frame = frames[frameCount - 1];
+            }
+            case SWAP -> {
+                var a = pop();
+                var b = pop();
+                push(a);
+                push(b);
+            }
+            case TAILCALL -> {
+                var argCount = readArg();
+                var callee = peek(argCount);
+                switch (callee) {
+                    case Closure f -> tailCall(f, argCount);
+                    case BoundMethod bound -> {
+                        stack[top - argCount - 1] = bound.receiver();
+                        tailCall(bound.method(), argCount);
                     }
-                }
-                case TPUT -> registerT = pop();
-                case TRUE -> push(true);
-                case TRCPOP -> frame.postTraces.pop();
-                case TRCPUSH -> {
-                    if (frame.postTraces == null) {
-                        frame.postTraces = new Stack<>();
+                    // Other callables get a frame of their own, or none;
+                    // the RETURN that follows returns the result.
+                    default -> {
+                        callValue(callee, argCount, Origin.JOE);
+                        frame = frames[frameCount - 1];
                     }
-                    frame.postTraces.push((Trace)readConstant());
                 }
-                case TSET -> registerT = peek(0);
-                case UPCLOSE -> {
-                    // Close and then pop the *n* upvalues on the
-                    // top of the stack.
-                    int n = readArg();
-                    closeUpvalues(top - n);
-                    top -= n;
-                }
-                case UPGET -> {
-                    int slot = readArg();
-                    push(frame.closure.upvalues[slot].get());
+            }
+            case TEMPLATE ->
+                push(((LiteralTemplate)readConstant()).copy());
+            case TGET -> push(registerT, registerTNumber);
+            case THROW -> {
+                var value = pop();
+                if (value instanceof JoeError err) {
+                    throw err;
+                } else {
+                    throw error(joe.stringify(value));
                 }
-                case UPSET -> {
-                    int slot = readArg();
-                    frame.closure.upvalues[slot].set(peek(0));
+            }
+            case TPUT -> {
+                registerT = stack[--top];
+                registerTNumber = numbers[top];
+            }
+            case TRUE -> push(true);
+            case TRCPOP -> frame.postTraces.pop();
+            case TRCPUSH -> {
+                if (frame.postTraces == null) {
+                    frame.postTraces = new Stack<>();
                 }
-                default -> throw new IllegalStateException(
-                    "Unknown opcode: " + opcode + ".");
+                frame.postTraces.push((Trace)readConstant());
+            }
+            case TSET -> {
+                registerT = stack[top - 1];
+                registerTNumber = numbers[top - 1];
+            }
+            case UPCLOSE -> {
+                // Close and then pop the *n* upvalues on the
+                // top of the stack.
+                int n = readArg();
+                closeUpvalues(top - n);
+                top -= n;
+            }
+            case UPGET -> {
+                int slot = readArg();
+                push(((Upval)frame.closure.upvalues[slot]).get());
             }
-            if (joe.isDebug()) {
-                joe.println(stackText());
+            case UPSET -> {
+                int slot = readArg();
+                ((Upval)frame.closure.upvalues[slot]).set(peek(0));
             }
+            default -> throw new IllegalStateException(
+                "Unknown opcode: " + opcode + ".");
         }
+        return CONTINUE;
     }
 
     // Gets the global environment in use in the current closure.
-    private Environment globals() {
+    private GlobalEnvironment globals() {
         return frame.closure.globals;
     }
 
+    // Gets the error for a GLOGET/GLOSET of an undefined global.  The
+    // instruction's global index is the last char read.
+    private RuntimeError undefinedGlobal() {
+        var function = frame.closure.function;
+        var name = function.globals[function.code[frame.ip - 1]];
+        return error("Undefined variable: '" + name + "'.");
+    }
+
+    // Gets the named property of a ClarkInstance, using and updating
+    // the inline cache.
+    private Object getProperty(
+        ClarkInstance instance,
+        String name,
+        InlineCache cache
+    ) {
+        var entry = lookupProperty(instance, name, cache);
+        if (entry.index() >= 0) {
+            return instance.fields.get(entry.index());
+        } else if (entry.method() != null) {
+            return new BoundMethod(instance, entry.method());
+        } else {
+            // Not a field or a scripted method.  Let the instance handle it.
+            return instance.get(name);
+        }
+    }
+
+    // Looks up the named property in the instance's shape, using and
+    // updating the inline cache.
+    private InlineCache.Entry lookupProperty(
+        ClarkInstance instance,
+        String name,
+        InlineCache cache
+    ) {
+        var shape = instance.fields.shape();
+        var entry = cache.lookup(shape);
+
+        if (entry == null) {
+            var index = shape.indexOf(name);
+            var slot = index < 0 ? shape.klass().slot(name) : -1;
+            entry = cache.add(
+                new InlineCache.Entry(shape, index, shape, slot));
+        }
+        return entry;
+    }
+
+    // Looks up the named scripted method in the superclass's vtable,
+    // using and updating the inline cache.  Returns null if the
+    // superclass isn't a ClarkClass or has no such method.
+    private Closure lookupSuperMethod(
+        JoeClass superclass,
+        String name,
+        InlineCache cache
+    ) {
+        if (superclass instanceof ClarkClass klass) {
+            var slot = cache.lookupSuper(klass);
+            if (slot == -2) {
+                slot = cache.addSuper(klass, klass.slot(name));
+            }
+            return slot >= 0 ? klass.method(slot) : null;
+        }
+        return null;
+    }
+
+    // Looks up the named native method for the target in its proxy type,
+    // using and updating the inline cache.  Returns null if the target
+    // has no proxy type or the proxy has no such method.
+    private JoeValueLambda<Object> lookupNativeMethod(
+        Object target,
+        String name,
+        InlineCache cache
+    ) {
+        // JoeValues and JoeInstances handle their own properties.
+        if (target instanceof JoeValue || target instanceof JoeInstance) {
+            return null;
+        }
+
+        var cls = target.getClass();
+        var entry = cache.lookup(joe, cls);
+
+        if (entry == null) {
+            entry = cache.add(new InlineCache.NativeEntry(
+                joe, cls, joe.lookupMethod(cls, name)));
+        }
+        return entry.method();
+    }
+
+    // Sets the named property of a ClarkInstance, using and updating
+    // the inline cache.
+    private void setProperty(
+        ClarkInstance instance,
+        String name,
+        InlineCache cache,
+        Object value
+    ) {
+        var shape = instance.fields.shape();
+        var entry = cache.lookup(shape);
+
+        if (entry == null) {
+            var index = shape.indexOf(name);
+            var next = index >= 0 ? shape : shape.with(name);
+            entry = cache.add(new InlineCache.Entry(
+                shape, next.indexOf(name), next, -1));
+        }
+        instance.fields.set(entry.next(), entry.index(), value);
+    }
+
     // Gets the span for the source line that includes that last
     // executed instruction.
     private SourceBuffer.Span ipSpan() {
         // NOTE: frame.ip points at the *next* instruction, not the
         // last one that executed.
-        var ip = Math.max(frame.ip - 1, 0);
-        var line = frame.closure.function.line(ip);
-        return frame.closure.function.source().lineSpan(line);
+        return lineSpan(frame.closure.function, Math.max(frame.ip - 1, 0));
+    }
+
+    // Gets the span for the source line that includes the function's
+    // instruction at the given ip.
+    private static SourceBuffer.Span lineSpan(Function function, int ip) {
+        return function.source().lineSpan(function.line(ip));
     }
 
-    private void checkNumericOperands(char opcode, Object a, Object b) {
-        if (a instanceof Double && b instanceof Double) {
+    // Adds the n values at the top of the stack from left to right, as
+    // a chain of ADD instructions would, replacing them with the result.
+    // Once the sum becomes a string, the remaining values are converted
+    // to strings in place, and the result is built in a single
+    // StringBuilder sized to fit.
+    private void concat(int n) {
+        var base = top - n;
+        var i = base + 1;
+
+        // FIRST, add numbers until a non-number turns up.
+        while (i < top && isNumber(base) && isNumber(i)) {
+            setNumber(base, number(base) + number(i));
+            i++;
+        }
+
+        if (i < top) {
+            // NEXT, the sum becomes a string here, or it's an error.
+            var a = value(base);
+            if (!(a instanceof String) && !(value(i) instanceof String)) {
+                throw error("The '+' operator expects two Numbers or at least one String.");
+            }
+
+            // NEXT, convert the values to strings, noting the length.
+            // Note: stringify() can call back into the VM.
+            var first = a instanceof String s ? s : joe.stringify(a);
+            stack[base] = first;
+            var length = first.length();
+            for (var j = i; j < top; j++) {
+                var b = value(j);
+                var s = b instanceof String str ? str : joe.stringify(b);
+                stack[j] = s;
+                length += s.length();
+            }
+
+            // NEXT, build the string.
+            var buff = new StringBuilder(length).append(first);
+            for (var j = i; j < top; j++) {
+                buff.append((String)stack[j]);
+            }
+            stack[base] = buff.toString();
+        }
+
+        top = base + 1;
+    }
+
+    // Checks that the top two stack items are numbers.
+    private void checkNumericOperands(char opcode) {
+        if (isNumber(top - 2) && isNumber(top - 1)) {
             return;
         }
-        var op = switch(opcode) {
+        throw error("The '" + operator(opcode) +
+            "' operator expects two numeric operands.");
+    }
+
+    // Gets the source operator for an arithmetic or comparison opcode,
+    // for use in error messages.
+    private String operator(char opcode) {
+        return switch(opcode) {
             case ADD -> "+";
             case DIV -> "/";
             case EQ -> "==";
@@ -903,19 +1683,59 @@ class VirtualMachine {
             default -> throw new IllegalStateException(
                 "Unexpected opcode: " + opcode);
         };
-        throw error(
-            "The '" + op + "' operator expects two numeric operands.");
     }
 
-    private void checkNumericOperand(Object a) {
-        if (!(a instanceof Double)) {
+    // Compares two numbers using the comparison opcode, i.e., EQ, NE,
+    // LT, LE, GT, or GE.  Used by the compare-and-jump instructions.
+    private boolean compareNumbers(char cmp, double a, double b) {
+        return switch (cmp) {
+            case EQ -> numberEquals(a, b);
+            case NE -> !numberEquals(a, b);
+            case LT -> a < b;
+            case LE -> a <= b;
+            case GT -> a > b;
+            case GE -> a >= b;
+            default -> throw new IllegalStateException(
+                "Unexpected opcode: " + cmp);
+        };
+    }
+
+    // Compares two values that aren't both numbers using the comparison
+    // opcode, as the opcode itself would.  Used by the compare-and-jump
+    // instructions.
+    private boolean compareValues(char cmp, Object a, Object b) {
+        if (cmp == EQ) return Joe.isEqual(a, b);
+        if (cmp == NE) return !Joe.isEqual(a, b);
+
+        if (a instanceof String s && b instanceof String t) {
+            var c = s.compareTo(t);
+            return switch (cmp) {
+                case LT -> c < 0;
+                case LE -> c <= 0;
+                case GT -> c > 0;
+                default -> c >= 0;
+            };
+        }
+        throw error("The '" + operator(cmp) +
+            "' operator expects two Numbers or two Strings.");
+    }
+
+    // Checks that the top stack item is a number.
+    private void checkNumericOperand() {
+        if (!isNumber(top - 1)) {
             throw error("Expected numeric operand, got: '" +
-                joe.stringify(a) + "'.");
+                joe.stringify(peek(0)) + "'.");
         }
     }
 
-    private void checkPrePostOperand(String op, Object a) {
-        if (!(a instanceof Double)) {
+    // Checks that the top stack item is a number.
+    private void checkPrePostOperand(String op) {
+        checkPrePostOperand(op, top - 1);
+    }
+
+    // Checks that the stack slot contains a number.
+    private void checkPrePostOperand(String op, int slot) {
+        if (!isNumber(slot)) {
             throw error("Target of '" + op + "' must contain a number.");
         }
     }
@@ -950,8 +1770,13 @@ class VirtualMachine {
         }
     }
 
+    // Creates a RuntimeError at the last executed instruction.  The
+    // error captures just the function and ip; the source line is looked
+    // up only if the error's trace is rendered.
     private RuntimeError error(String message) {
-        return new RuntimeError(ipSpan(), message);
+        var function = frame.closure.function;
+        var ip = Math.max(frame.ip - 1, 0);
+        return new RuntimeError(() -> lineSpan(function, ip), message);
     }
 
     private String stackText() {
@@ -962,7 +1787,7 @@ class VirtualMachine {
         for (var slot = 0; slot < top; slot++) {
             buff.append(STACK_SEPARATOR)
                 .append(" ")
-                .append(stack[slot])
+                .append(value(slot))
                 .append(" ");
         }
         return buff.toString();
@@ -995,6 +1820,20 @@ class VirtualMachine {
         return frame.closure.function.constants[index];
     }
 
+    // Reads a global index from the chunk, and returns the global's
+    // slot in the closure's global environment.
+    private int readGlobalSlot() {
+        var index = frame.closure.function.code[frame.ip++];
+        return frame.closure.globalSlots[index];
+    }
+
+    // Reads a cache index from the chunk, and returns the indexed
+    // inline cache.
+    private InlineCache readCache() {
+        var index = frame.closure.function.code[frame.ip++];
+        return frame.closure.function.caches[index];
+    }
+
     // Reads a constant index from the chunk, and returns the indexed
     // constant as a string.
     private String readString() {
@@ -1036,17 +1875,92 @@ class VirtualMachine {
 
     private void push(Object value) {
         if (top == stack.length) {
-            stack = Arrays.copyOf(stack, 2*stack.length);
+            growStack();
         }
         stack[top++] = value;
     }
 
+    // Pushes a value onto the stack along with its unboxed number.  The
+    // number is used only if the value is UNBOXED.
+    private void push(Object value, double number) {
+        if (top == stack.length) {
+            growStack();
+        }
+        numbers[top] = number;
+        stack[top++] = value;
+    }
+
+    // Pushes a copy of the given stack slot onto the stack, without
+    // boxing it.
+    private void pushSlot(int slot) {
+        push(stack[slot], numbers[slot]);
+    }
+
     private Object pop() {
-        return stack[--top];
+        return value(--top);
     }
 
     private Object peek(int depth) {
-        return stack[top - depth - 1];
+        return value(top - depth - 1);
+    }
+
+    private void growStack() {
+        if (stack.length >= maxStackSize) {
+            var message = "Value stack overflow.";
+            throw frameCount > 0 ? error(message) : new JoeError(message);
+        }
+        var size = (int)Math.min(2L*stack.length, maxStackSize);
+        stack = Arrays.copyOf(stack, size);
+        numbers = Arrays.copyOf(numbers, size);
+        openUpvalues = Arrays.copyOf(openUpvalues, size);
+    }
+
+    // Gets the value in the stack slot, boxing it if need be.
+    private Object value(int slot) {
+        var value = stack[slot];
+        return value != UNBOXED ? value : (Object)numbers[slot];
+    }
+
+    // Copies one stack slot to another, without boxing.
+    private void copySlot(int from, int to) {
+        stack[to] = stack[from];
+        numbers[to] = numbers[from];
+    }
+
+    // Returns true if the stack slot contains a number, boxed or
+    // unboxed.
+    private boolean isNumber(int slot) {
+        var value = stack[slot];
+        return value == UNBOXED || value instanceof Double;
+    }
+
+    // Gets the number in the stack slot, which must contain a number,
+    // boxed or unboxed.
+    private double number(int slot) {
+        var value = stack[slot];
+        return value == UNBOXED ? numbers[slot] : (Double)value;
+    }
+
+    // Sets the stack slot to the unboxed number.
+    private void setNumber(int slot, double number) {
+        stack[slot] = UNBOXED;
+        numbers[slot] = number;
+    }
+
+    // Compares two numbers for equality as Joe.isEqual() would compare
+    // them as Doubles.
+    private boolean numberEquals(double a, double b) {
+        return Double.compare(a, b) == 0;
+    }
+
+    // Gets the values in the given range of stack slots, boxing them
+    // if need be.
+    private Object[] values(int from, int to) {
+        var result = new Object[to - from];
+        for (var i = 0; i < result.length; i++) {
+            result[i] = value(from + i);
+        }
+        return result;
     }
 
     // Slides the n items at the top of the stack down to the beginning
@@ -1061,15 +1975,18 @@ class VirtualMachine {
     private void shift(int n, int range) {
         var base = top - range;
         var copy = Arrays.copyOfRange(stack, base, top);
+        var numCopy = Arrays.copyOfRange(numbers, base, top);
         var m = range - n;
 
         // Move vars down
         for (var i = 0; i < n; i++) {
             stack[base + i] = copy[m + i];
+            numbers[base + i] = numCopy[m + i];
         }
 
         for (var i = 0; i < m; i++) {
             stack[base + n + i] = copy[i];
+            numbers[base + n + i] = numCopy[i];
         }
     }
 
@@ -1081,7 +1998,7 @@ class VirtualMachine {
         switch (callee) {
             case Closure f -> call(f, argCount, origin);
             case NativeCallable f -> {
-                var args = new Args(Arrays.copyOfRange(stack, top - argCount, top));
+                var args = new Args(values(top - argCount, top));
                 top -= argCount + 1;
                 try {
                     push(f.call(joe, args));
@@ -1099,14 +2016,11 @@ class VirtualMachine {
             }
             case ClarkClass klass -> {
                 stack[top - argCount - 1] = klass.make(joe, klass);
-                var initializer = klass.methods.get("init");
+                var initializer = klass.initializer();
                 if (initializer != null) {
-                    var frame = call(initializer, argCount, origin);
-
-                    // Add a trace level for the class itself.
-                    frame.preTrace = new Trace(
-                        initializer.function.span(),
-                        "In " + klass.callableType() + " " + klass.signature());
+                    // Remember the class, so that unwindStack() can add a
+                    // stack level for it.
+                    call(initializer, argCount, origin, klass);
                 } else if (argCount != 0) {
                     throw error(Args.arityFailureMessage(klass.name() + "()"));
                 }
@@ -1117,8 +2031,113 @@ class VirtualMachine {
         }
     }
 
+    // Calls a native method directly on its receiver, as an alternative
+    // to binding it as a NativeMethod and calling that.  The receiver and
+    // the arguments are on the stack, and are replaced by the result.
+    private void callNativeMethod(
+        JoeValueLambda<Object> method,
+        Object receiver,
+        String name,
+        int argCount
+    ) {
+        var args = argCount == 0
+            ? Args.EMPTY : new Args(values(top - argCount, top));
+        top -= argCount + 1;
+        try {
+            push(method.call(receiver, joe, args));
+        } catch (JoeError ex) {
+            ex.addInfo("In native method " + name + "(...)");
+            throw ex;
+        } catch (Exception ex) {
+            throw new UnexpectedError(null,
+                "Unexpected Java error: " + ex, ex);
+        }
+    }
+
+    private void call(Closure closure, int argCount, Origin origin) {
+        call(closure, argCount, origin, null);
+    }
+
+    // Pushes a call frame for the closure.  When the lean loop is
+    // running, a call from compiled code, or to a function with compiled
+    // code, is run to completion via execute(), leaving its result on
+    // the stack, as though the callee had returned.
+    private void call(
+        Closure closure,
+        int argCount,
+        Origin origin,
+        ClarkClass initClass
+    ) {
+        argCount = checkArgs(closure, argCount);
+
+        if (frameCount >= maxFrames) {
+            throw error("Call stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = newFrames(frames,
+                (int)Math.min(2L*frames.length, maxFrames));
+        }
+
+        var callee = frames[frameCount++];
+        callee.init(closure, origin, top - argCount - 1);
+        callee.initClass = initClass;
+
+        var code = jitCode(closure.function);
+        if (origin == Origin.JOE && jitting && nesting < MAX_NESTING &&
+            (code != null || frame == compiledFrame)
+        ) {
+            callee.origin = Origin.NESTED;
+            frame = callee;
+            push(execute());
+        }
+    }
+
+    // Counts a call to the function, compiling it when it becomes hot,
+    // and returns its compiled code, if any.
+    private JitCompiler.Code jitCode(Function function) {
+        if (function.jitCode == null && jitThreshold >= 0 &&
+            function.jitCalls++ == jitThreshold
+        ) {
+            try {
+                function.jitCode = JitCompiler.compile(function);
+            } catch (JitCompiler.Failure ex) {
+                // The function stays with the interpreter.
+                jitFailures.add(ex);
+                var sink = traceSink;
+                if (sink != null) {
+                    sink.trace("JIT: " + ex.getMessage() + ": " + ex.getCause());
+                }
+            }
+        }
+        return function.jitCode;
+    }
+
+    // Calls the closure in the current call frame, replacing the
+    // current function, for a TAILCALL.  The closure and its arguments
+    // are moved down to the frame's base; the frame keeps its origin,
+    // and counts the tail calls for unwindStack().
+    private void tailCall(Closure closure, int argCount) {
+        argCount = checkArgs(closure, argCount);
+
+        var base = frame.base;
+        var from = top - argCount - 1;
+        closeUpvalues(base);
+        for (var i = 0; i <= argCount; i++) {
+            copySlot(from + i, base + i);
+        }
+        top = base + argCount + 1;
+
+        var tailCalls = frame.tailCalls + 1;
+        frame.init(closure, frame.origin, base);
+        frame.tailCalls = tailCalls;
+        jitCode(closure.function);
+    }
+
+    // Checks the number of arguments passed to the closure, replacing
+    // any variable arguments on the stack with a single list.  Returns
+    // the number of arguments on the stack.
     @SuppressWarnings("ManualArrayToCollectionCopy")
-    private CallFrame call(Closure closure, int argCount, Origin origin) {
+    private int checkArgs(Closure closure, int argCount) {
         if (closure.function.isVarargs) {
             // FIRST, make sure we've got the minimum arguments.
             if (argCount < closure.function.arity) {
@@ -1129,23 +2148,25 @@ class VirtualMachine {
             var args = new ListValue();
             var argsSize = argCount - closure.function.arity;
             for (var i = 0; i < argsSize; i++) {
-                args.add(stack[top - argsSize + i]);
+                args.add(value(top - argsSize + i));
             }
             top -= argsSize;
             push(args);
-            argCount = closure.function.arity + 1;
+            return closure.function.arity + 1;
         } else if (argCount != closure.function.arity) {
             throw error(Args.arityFailureMessage(closure.function.signature()));
         }
+        return argCount;
+    }
 
-        if (frameCount == MAX_FRAMES) {
-            throw error("Call stack overflow.");
+    // Returns a copy of the frames array with the given length, filling
+    // the new slots with fresh CallFrames.
+    private CallFrame[] newFrames(CallFrame[] old, int length) {
+        var result = Arrays.copyOf(old, length);
+        for (var i = old.length; i < length; i++) {
+            result[i] = new CallFrame();
         }
-
-        var frame = new CallFrame(closure, origin);
-        frames[frameCount++] = frame;
-        frame.base = top - argCount - 1;
-        return frame;
+        return result;
     }
 
     private class CallFrame {
@@ -1159,8 +2180,9 @@ class VirtualMachine {
         int base;
 
         // Origin.JAVA if this call frame represents a call to `interpret()` or
-        // `callFromJava()`, and Origin.JOE otherwise.
-        final Origin origin;
+        // `callFromJava()`, Origin.NESTED if execute() is running it to
+        // completion, and Origin.JOE otherwise.
+        Origin origin;
 
         // A stack of pseudo-CallFrame traces, used to add stack levels to
         // the error stack trace within this call frame.  This is used when
@@ -1168,73 +2190,239 @@ class VirtualMachine {
         // to the stack trace.
         Stack<Trace> postTraces = null;
 
-        // Pre-trace: used to add a pseudo-CallFrame just below this
-        // call frame.  The pre-trace will be used to add a stack level to the
-        // error stack trace, but is otherwise ignored.  This is used when
-        // a class's init() method is implicitly invoked on a call to
-        // a `BertClass`, to add the class stack frame.
-        Trace preTrace = null;
+        // The class, if this frame is a class's init() method invoked
+        // implicitly on a call to the class.  When an error is unwound,
+        // the class is added to the error stack trace just below this
+        // call frame; it is otherwise ignored.
+        ClarkClass initClass = null;
+
+        // The number of calls that have been replaced by tail calls in
+        // this frame; unwindStack() notes them in the stack trace.
+        int tailCalls = 0;
 
         //---------------------------------------------------------------------
-        // Constructors
+        // Constructors and Initialization
+
+        CallFrame() {
+            // Nothing to do; see init()
+        }
 
-        CallFrame(Closure closure, Origin origin) {
+        // Initializes the frame for a new call.  CallFrames are reused
+        // from call to call.
+        void init(Closure closure, Origin origin, int base) {
             this.closure = closure;
             this.origin = origin;
             this.ip = 0;
-            this.base = top;
+            this.base = base;
+            this.initClass = null;
+            this.tailCalls = 0;
+            if (postTraces != null) postTraces.clear();
         }
     }
 
     //-------------------------------------------------------------------------
-    // Upvalues
+    // Compiled Code Support
+    //
+    // The JitCompiler translates a function's instructions into calls
+    // to these methods, passing the instructions' operands as constants.
+    // Each implements its instruction as step() does.
+
+    // Sets the frame's ip to the next instruction, as step() would
+    // before executing the instruction.
+    void jitAt(int ip) {
+        frame.ip = ip;
+    }
 
-    private Upval captureUpvalue(int slot) {
-        // FIRST, look for an existing upvalue.
-        Upval prev = null;
-        var upval = openUpvalues;
-        while (upval != null && upval.slot > slot) {
-            prev = upval;
-            upval = upval.next;
-        }
+    // Executes the instruction at ip via step().
+    void jitStep(int ip) {
+        frame.ip = ip;
+        step();
+    }
+
+    // Executes the call instruction at ip via step().  Returns true if
+    // the callee's frame was left for the interpreter, in which case the
+    // compiled code must yield.
+    boolean jitCall(int ip) {
+        var caller = frame;
+        caller.ip = ip;
+        step();
+        return frame != caller;
+    }
+
+    // Executes the RETURN instruction at ip, returning the frame's
+    // result.
+    Object jitReturn(int ip) {
+        frame.ip = ip;
+        return step();
+    }
+
+    void jitConst(int index) {
+        push(frame.closure.function.constants[index]);
+    }
+
+    void jitPush(Object value) {
+        push(value);
+    }
+
+    void jitDup() {
+        pushSlot(top - 1);
+    }
+
+    void jitPop(int n) {
+        top -= n;
+    }
+
+    void jitGloGet(int index) {
+        var value = globals().get(frame.closure.globalSlots[index]);
+        if (value == GlobalEnvironment.UNDEFINED) throw undefinedGlobal();
+        push(value);
+    }
+
+    void jitLocGet(int slot) {
+        pushSlot(frame.base + slot);
+    }
+
+    void jitLocSet(int slot) {
+        copySlot(top - 1, frame.base + slot);
+    }
 
-        if (upval != null && upval.slot == slot) {
-            return upval;
+    void jitLocIncr(int slot, int delta) {
+        var index = frame.base + slot;
+        checkPrePostOperand(delta > 0 ? "++" : "--", index);
+        setNumber(index, number(index) + delta);
+    }
+
+    void jitIncr(int delta) {
+        checkPrePostOperand(delta > 0 ? "++" : "--");
+        setNumber(top - 1, number(top - 1) + delta);
+    }
+
+    void jitAdd() {
+        if (isNumber(top - 2) && isNumber(top - 1)) {
+            jitAddN();
+        } else {
+            var b = pop();
+            var a = pop();
+            if (a instanceof String s) {
+                push(s + joe.stringify(b));
+            } else if (b instanceof String s) {
+                push(joe.stringify(a) + s);
+            } else {
+                throw error("The '+' operator expects two Numbers or at least one String.");
+            }
         }
+    }
 
-        // NEXT, we need a new upvalue.  Create it, and insert it into
-        // the list of open upvalues.
-        var createdUpvalue = new Upval(slot);
-        createdUpvalue.next = upval;
+    void jitAddN() {
+        var b = number(--top);
+        setNumber(top - 1, number(top - 1) + b);
+    }
+
+    // DIV, MUL, or SUB.
+    void jitArith(char opcode) {
+        checkNumericOperands(opcode);
+        var b = number(--top);
+        var a = number(top - 1);
+        setNumber(top - 1, switch (opcode) {
+            case DIV -> a / b;
+            case MUL -> a * b;
+            default -> a - b;
+        });
+    }
+
+    void jitNegate() {
+        checkNumericOperand();
+        setNumber(top - 1, -number(top - 1));
+    }
+
+    void jitNot() {
+        stack[top - 1] = Joe.isFalsey(stack[top - 1]);
+    }
 
-        if (prev == null) {
-            openUpvalues = createdUpvalue;
+    // EQ, NE, LT, LE, GT, or GE.
+    void jitCompare(char cmp) {
+        if (isNumber(top - 2) && isNumber(top - 1)) {
+            jitCompareN(cmp);
         } else {
-            prev.next = createdUpvalue;
+            var b = pop();
+            var a = pop();
+            push(compareValues(cmp, a, b));
         }
+    }
 
-        return createdUpvalue;
+    // The numeric-only comparisons, e.g., LTN, given the comparison
+    // opcode, e.g., LT.
+    void jitCompareN(char cmp) {
+        var b = number(--top);
+        stack[top - 1] = compareNumbers(cmp, number(top - 1), b);
     }
 
-    // Close all upvalues with slot >= last.
-    private void closeUpvalues(int last) {
-        while (openUpvalues != null && openUpvalues.slot >= last) {
-            var upval = openUpvalues;
-            openUpvalues = upval.next;
+    // JIF and JIT: pops the condition.
+    boolean jitPopTruthy() {
+        return Joe.isTruthy(stack[--top]);
+    }
+
+    // JIFKEEP and JITKEEP: leaves the condition on the stack.
+    boolean jitPeekTruthy() {
+        return Joe.isTruthy(stack[top - 1]);
+    }
 
-            // Move the value to upval.closed and clear upval.slot and
-            // upval.next
-            upval.close();
+    // JIFLC: returns the result of the comparison.
+    boolean jitCompareLC(char cmp, int slot, int index) {
+        var a = frame.base + slot;
+        var b = frame.closure.function.constants[index];
+        return isNumber(a) && b instanceof Double d
+            ? compareNumbers(cmp, number(a), d)
+            : compareValues(cmp, value(a), b);
+    }
+
+    // JIFLL: returns the result of the comparison.
+    boolean jitCompareLL(char cmp, int slotA, int slotB) {
+        var a = frame.base + slotA;
+        var b = frame.base + slotB;
+        return isNumber(a) && isNumber(b)
+            ? compareNumbers(cmp, number(a), number(b))
+            : compareValues(cmp, value(a), value(b));
+    }
+
+    //-------------------------------------------------------------------------
+    // Upvalues
+
+    private Upval captureUpvalue(int slot) {
+        // FIRST, look for an existing upvalue.
+        var upval = openUpvalues[slot];
+
+        // NEXT, if there is none, create it.
+        if (upval == null) {
+            upval = new Upval(slot);
+            openUpvalues[slot] = upval;
+            if (slot > openLimit) openLimit = slot;
         }
+
+        return upval;
+    }
+
+    // Close all upvalues with slot >= last.  Open upvalues are always
+    // below the top of the stack, so at most the slots being popped are
+    // examined, and only if some upvalue might be open among them.
+    private void closeUpvalues(int last) {
+        if (openLimit < last) return;
+
+        for (var slot = Math.min(openLimit, top - 1); slot >= last; slot--) {
+            var upval = openUpvalues[slot];
+            if (upval != null) {
+                // Move the value to upval.closed and clear upval.slot.
+                upval.close();
+                openUpvalues[slot] = null;
+            }
+        }
+        openLimit = last - 1;
     }
 
     private class Upval implements Upvalue {
         //-------------------------------------------------------------------------
         // Instance variables
 
-        // The next upval in the open value linked list.
-        Upval next = null;
-
         // A stack slot index, or -1
         private int slot;
 
@@ -1253,7 +2441,7 @@ class VirtualMachine {
         // Methods
 
         public Object get() {
-            return slot >= 0 ? stack[slot] : closed;
+            return slot >= 0 ? value(slot) : closed;
         }
 
         public void set(Object value) {
@@ -1265,9 +2453,8 @@ class VirtualMachine {
         }
 
         public void close() {
-            closed = stack[slot];
+            closed = value(slot);
             slot = -1;
-            next = null;
         }
 
         @Override
@@ -0,0 +1,44 @@
+package com.wjduquette.joe.parser;
+
+import com.wjduquette.joe.SourceBuffer;
+import com.wjduquette.joe.SyntaxError;
+import com.wjduquette.joe.Trace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A script parsed to an AST, ready to be executed by an engine.  Parsing
+ * has no side effects, and the AST is immutable, so a parsed script
+ * can be parsed in any thread and executed by any number of engines.
+ * @param buffer The script's source buffer
+ * @param statements The script's statements
+ */
+public record ParsedScript(SourceBuffer buffer, List<Stmt> statements) {
+    /**
+     * Parses the script.
+     * @param scriptName The script's name, e.g., the file name
+     * @param source The script's source
+     * @return The parsed script
+     * @throws SyntaxError if the script could not be parsed.
+     */
+    public static ParsedScript parse(String scriptName, String source)
+        throws SyntaxError
+    {
+        var buffer = new SourceBuffer(scriptName, source);
+        var traces = new ArrayList<Trace>();
+        var complete = new boolean[] { true };
+        var parser = new Parser(buffer, (trace, incomplete) -> {
+            traces.add(trace);
+            if (incomplete) complete[0] = false;
+        });
+        var statements = parser.parseJoe();
+
+        if (!traces.isEmpty()) {
+            throw new SyntaxError("Syntax error in input, halting.",
+                traces, complete[0]);
+        }
+
+        return new ParsedScript(buffer, List.copyOf(statements));
+    }
+}
@@ -129,7 +129,9 @@ public class TestRunner {
             onConfigure.accept(joe);
         }
 
-        // NEXT, register local packages.
+        // NEXT, register local packages.  They are pre-parsed, so that
+        // their parses are shared by all the test scripts.
+        joe.packageRegistry().setPreParsing(true);
         if (finder != null) joe.registerPackages(finder);
 
         // NEXT, only print script output if the verbose flag is set.
@@ -88,6 +88,22 @@ public interface Tool {
         return toEnum(cls, toOptArg(opt, argq));
     }
 
+    /**
+     * Converts the option's value to an integer.
+     * @param opt The option
+     * @param argq The argument queue
+     * @return The integer
+     * @throws ToolException if the value is missing or not an integer.
+     */
+    default int toInt(String opt, Deque<String> argq) {
+        var arg = toOptArg(opt, argq);
+        try {
+            return Integer.parseInt(arg);
+        } catch (NumberFormatException ex) {
+            throw expected("integer", arg);
+        }
+    }
+
     /**
      * Returns a ToolException for an "unknown option" error.
      * @param opt The option.
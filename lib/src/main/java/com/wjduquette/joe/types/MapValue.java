@@ -16,6 +16,16 @@ public class MapValue extends HashMap<Object,Object> implements JoeMap {
         // Nothing to do.
     }
 
+    /**
+     * Creates an empty map with room for the expected number of
+     * entries without resizing.
+     * @param expectedSize The expected number of entries
+     */
+    public MapValue(int expectedSize) {
+        // HashMap's default load factor is 0.75.
+        super((int)Math.ceil(expectedSize / 0.75));
+    }
+
     /**
      * Creates a new map with the content of the other map.
      * @param other The other map
@@ -0,0 +1,234 @@
+package com.wjduquette.joe.types;
+
+import com.wjduquette.joe.*;
+
+/**
+ * The Joe Range type's proxy.
+ */
+public class RangeType extends ProxyType<RangeValue> {
+    /** The proxy's TYPE constant. */
+    public static final RangeType TYPE = new RangeType();
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    //**
+    // @package joe
+    // @type Range
+    // A `Range` is an immutable sequence of numbers from a *start* value up
+    // to but not including an *end* value, counting by a non-zero *step*.
+    // A range computes its items on demand; it can be used anywhere Joe
+    // expects a read-only collection, and `foreach` can iterate over
+    // it without building a list:
+    //
+    // ```joe
+    // foreach (i : Range(10)) { ... }       // 0, 1, ..., 9
+    // foreach (i : Range(1, 10, 2)) { ... } // 1, 3, 5, 7, 9
+    // foreach (i : Range(5, 0, -1)) { ... } // 5, 4, 3, 2, 1
+    // ```
+    //
+    // The `in` and `ni` operators check membership in constant time.
+    /** Creates the proxy. */
+    public RangeType() {
+        super("Range");
+        proxies(RangeValue.class);
+
+        initializer(this::_init);
+
+        method("contains",    this::_contains);
+        method("end",         this::_end);
+        method("filter",      this::_filter);
+        method("get",         this::_get);
+        method("isEmpty",     this::_isEmpty);
+        method("map",         this::_map);
+        method("size",        this::_size);
+        method("start",       this::_start);
+        method("step",        this::_step);
+        method("toList",      this::_toList);
+        method("toString",    this::_toString);
+    }
+
+    //-------------------------------------------------------------------------
+    // Initializer Implementation
+
+    //**
+    // @init
+    // %args end
+    // %args start, end, [step]
+    // Creates a `Range` from *start*, which defaults to 0, up to but not
+    // including *end*, by *step*, which defaults to 1.  The *step* must
+    // not be zero; if it is negative, the range counts down from *start*
+    // to *end*.  The range is empty if *start* is already at or beyond
+    // *end*.
+    private Object _init(Joe joe, Args args) {
+        args.arityRange(1, 3, "Range(end) or Range(start, end, [step])");
+
+        double start = 0.0;
+        double step = 1.0;
+        double end;
+
+        if (args.size() == 1) {
+            end = joe.toDouble(args.next());
+        } else {
+            start = joe.toDouble(args.next());
+            end = joe.toDouble(args.next());
+            if (args.hasNext()) {
+                var arg = args.next();
+                step = joe.toDouble(arg);
+                if (step == 0.0) {
+                    throw joe.expected("non-zero step", arg);
+                }
+            }
+        }
+
+        try {
+            return new RangeValue(start, end, step);
+        } catch (IllegalArgumentException ex) {
+            throw new JoeError(ex.getMessage());
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Stringify
+
+    @Override
+    public String stringify(Joe joe, Object object) {
+        var range = (RangeValue)object;
+        return "Range(" + joe.stringify(range.start()) + ", " +
+            joe.stringify(range.end()) + ", " +
+            joe.stringify(range.step()) + ")";
+    }
+
+    //-------------------------------------------------------------------------
+    // Method Implementation
+
+    //**
+    // @method contains
+    // %args value
+    // %result Boolean
+    // Returns `true` if the range contains the *value*, and `false`
+    // otherwise.
+    private Object _contains(RangeValue range, Joe joe, Args args) {
+        args.arity(1, "contains(value)");
+
+        return range.contains(args.next());
+    }
+
+    //**
+    // @method end
+    // %result Number
+    // Returns the range's end value, which is not included in the range.
+    private Object _end(RangeValue range, Joe joe, Args args) {
+        args.arity(0, "end()");
+
+        return range.end();
+    }
+
+    //**
+    // @method filter
+    // %args predicate
+    // %result List
+    // Returns a list containing the items in the range for which the
+    // filter *predicate* is true.
+    private Object _filter(RangeValue range, Joe joe, Args args) {
+        args.arity(1, "filter(predicate)");
+        var callable = args.next();
+
+        var result = new ListValue();
+        for (var i = 0; i < range.size(); i++) {
+            var item = range.at(i);
+            if (Joe.isTruthy(joe.call(callable, item))) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    //**
+    // @method get
+    // %args index
+    // %result Number
+    // Returns the item at the given *index*.
+    private Object _get(RangeValue range, Joe joe, Args args) {
+        args.arity(1, "get(index)");
+
+        return range.at(joe.toIndex(args.next(), range.size()));
+    }
+
+    //**
+    // @method isEmpty
+    // %result Boolean
+    // Returns `true` if the range is empty, and `false` otherwise.
+    private Object _isEmpty(RangeValue range, Joe joe, Args args) {
+        args.arity(0, "isEmpty()");
+
+        return range.isEmpty();
+    }
+
+    //**
+    // @method map
+    // %args func
+    // %result List
+    // Returns a list containing the items that result from applying
+    // function *func* to each item in the range.
+    private Object _map(RangeValue range, Joe joe, Args args) {
+        args.arity(1, "map(func)");
+        var callable = args.next();
+
+        var result = new ListValue(range.size());
+        for (var i = 0; i < range.size(); i++) {
+            result.add(joe.call(callable, range.at(i)));
+        }
+        return result;
+    }
+
+    //**
+    // @method size
+    // %result Number
+    // Returns the number of items in the range.
+    private Object _size(RangeValue range, Joe joe, Args args) {
+        args.arity(0, "size()");
+
+        return (double)range.size();
+    }
+
+    //**
+    // @method start
+    // %result Number
+    // Returns the range's start value.
+    private Object _start(RangeValue range, Joe joe, Args args) {
+        args.arity(0, "start()");
+
+        return range.start();
+    }
+
+    //**
+    // @method step
+    // %result Number
+    // Returns the range's step.
+    private Object _step(RangeValue range, Joe joe, Args args) {
+        args.arity(0, "step()");
+
+        return range.step();
+    }
+
+    //**
+    // @method toList
+    // %result List
+    // Returns a list of the range's items.
+    private Object _toList(RangeValue range, Joe joe, Args args) {
+        args.arity(0, "toList()");
+
+        return new ListValue(range);
+    }
+
+    //**
+    // @method toString
+    // %result String
+    // Returns the range's string representation.
+    private Object _toString(RangeValue range, Joe joe, Args args) {
+        args.arity(0, "toString()");
+
+        return stringify(joe, range);
+    }
+}
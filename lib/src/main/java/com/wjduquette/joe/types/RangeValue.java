@@ -0,0 +1,149 @@
+package com.wjduquette.joe.types;
+
+import java.util.AbstractList;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+
+/**
+ * An immutable, lazy sequence of numbers from a start value up to but
+ * not including an end value, by a non-zero step.  A RangeValue is a
+ * read-only Java {@code List<Double>}, so Joe can use it anywhere it
+ * expects a collection; but it computes its items on demand.  Its
+ * iterator is a {@code PrimitiveIterator.OfDouble}, so that the Clark
+ * VM can iterate over it without boxing the items.
+ */
+public final class RangeValue extends AbstractList<Double>
+    implements RandomAccess
+{
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    private final double start;
+    private final double end;
+    private final double step;
+    private final int size;
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    /**
+     * Creates a range.
+     * @param start The first item
+     * @param end The limit, which is not included
+     * @param step The step, which must be non-zero.
+     * @throws IllegalArgumentException if the step is zero or the range
+     * has more than {@code Integer.MAX_VALUE} items.
+     */
+    public RangeValue(double start, double end, double step) {
+        if (step == 0.0 || Double.isNaN(step)) {
+            throw new IllegalArgumentException("Range step is zero.");
+        }
+
+        var count = Math.ceil((end - start) / step);
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range is too large.");
+        }
+
+        this.start = start;
+        this.end = end;
+        this.step = step;
+        this.size = count > 0 ? (int)count : 0;
+    }
+
+    //-------------------------------------------------------------------------
+    // Range API
+
+    /**
+     * Gets the range's start.
+     * @return The start
+     */
+    public double start() {
+        return start;
+    }
+
+    /**
+     * Gets the range's end.
+     * @return The end
+     */
+    public double end() {
+        return end;
+    }
+
+    /**
+     * Gets the range's step.
+     * @return The step
+     */
+    public double step() {
+        return step;
+    }
+
+    /**
+     * Gets the item at the index, unboxed.
+     * @param index The index
+     * @return The item
+     */
+    public double at(int index) {
+        return start + index*step;
+    }
+
+    //-------------------------------------------------------------------------
+    // List API
+
+    @Override
+    public Double get(int index) {
+        return at(Objects.checkIndex(index, size));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object value) {
+        return indexOf(value) != -1;
+    }
+
+    @Override
+    public int indexOf(Object value) {
+        if (value instanceof Double d) {
+            var k = Math.rint((d - start) / step);
+            if (k >= 0 && k < size && at((int)k) == d) {
+                return (int)k;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object value) {
+        return indexOf(value);
+    }
+
+    @Override
+    public PrimitiveIterator.OfDouble iterator() {
+        return new Cursor();
+    }
+
+    //-------------------------------------------------------------------------
+    // Cursor
+
+    private final class Cursor implements PrimitiveIterator.OfDouble {
+        private int next = 0;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public double nextDouble() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            return at(next++);
+        }
+    }
+}
@@ -19,6 +19,16 @@ public class SetValue extends HashSet<Object> implements JoeSet {
         // Nothing to do.
     }
 
+    /**
+     * Creates an empty set with room for the expected number of
+     * items without resizing.
+     * @param expectedSize The expected number of items
+     */
+    public SetValue(int expectedSize) {
+        // HashSet's default load factor is 0.75.
+        super((int)Math.ceil(expectedSize / 0.75));
+    }
+
     /**
      * Creates a new set with the content of the other collection.
      * @param other The other collection
@@ -0,0 +1,20 @@
+package com.wjduquette.joe.walker;
+
+/**
+ * A completion record: the result of executing a statement that
+ * completes abruptly, via `break`, `continue`, or `return`.  A statement
+ * that completes normally returns its value, or null.  Each statement
+ * passes an abrupt completion up to its enclosing statement until it
+ * reaches the loop or function call that handles it.  A `return`
+ * statement leaves its value in the interpreter's `returnValue`.
+ */
+enum Completion {
+    /** A `break` statement */
+    BREAK,
+
+    /** A `continue` statement */
+    CONTINUE,
+
+    /** A `return` statement */
+    RETURN
+}
@@ -1,6 +1,7 @@
 package com.wjduquette.joe.walker;
 
 import com.wjduquette.joe.*;
+import com.wjduquette.joe.parser.ASTPattern;
 import com.wjduquette.joe.parser.Expr;
 import com.wjduquette.joe.parser.Stmt;
 import com.wjduquette.joe.patterns.Matcher;
@@ -15,6 +16,13 @@ import com.wjduquette.joe.util.Bindings;
 import java.util.*;
 
 class Interpreter {
+    //-------------------------------------------------------------------------
+    // Types
+
+    // A resolved local variable's address: the number of scopes up the
+    // chain from the current scope, and the variable's slot in that scope.
+    record Address(int depth, int slot) {}
+
     //-------------------------------------------------------------------------
     // Instance Variables
 
@@ -28,15 +36,29 @@ class Interpreter {
     // compiled by other instances of `Interpreter`.
     final WalkerEnvironment globals = new WalkerEnvironment();
 
-    // The environment for the current scope.
-    private WalkerEnvironment env;
+    // The environment for the current scope.  Compiled nodes access it
+    // directly.
+    WalkerEnvironment env;
+
+    // The value of the most recent `return` statement, passed to the
+    // function call along with Completion.RETURN.
+    Object returnValue;
 
     // The exports environment.
     private final Environment exports = new Environment();
 
     // Information about resolved local variables, provided by the
-    // `Resolver`.
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // `Resolver`: the address of each variable reference, the slot of
+    // each local variable declaration, and the number of slots in each
+    // block, function, and match case scope.  `Expr`, `Stmt`, and `Token`
+    // records compare structurally, so these are identity maps.
+    private final Map<Expr, Address> locals = new IdentityHashMap<>();
+    private final Map<Token, Integer> slots = new IdentityHashMap<>();
+    private final Map<Object, Integer> scopeSizes = new IdentityHashMap<>();
+
+    // The node compiler, or null if scripts are executed by walking
+    // the AST.
+    private NodeCompiler compiler = null;
 
     //-------------------------------------------------------------------------
     // Constructor
@@ -77,15 +99,41 @@ class Interpreter {
         return exports;
     }
 
+    /**
+     * Sets whether the interpreter compiles scripts to trees of nodes
+     * before executing them, rather than walking the AST.
+     * @param flag true or false
+     */
+    public void setCompiling(boolean flag) {
+        compiler = flag ? new NodeCompiler(joe, this) : null;
+    }
+
+    /**
+     * Gets whether the interpreter compiles scripts to trees of nodes.
+     * @return true or false
+     */
+    public boolean isCompiling() {
+        return compiler != null;
+    }
+
     public Object interpret(List<Stmt> statements) throws RuntimeError {
-        Object result = null;
-        for (Stmt statement : statements) {
-            result = execute(statement);
+        Object result;
+
+        if (compiler != null) {
+            result = compiler.compile(statements).run(this);
+        } else {
+            result = null;
+            for (Stmt statement : statements) {
+                result = execute(statement);
+                if (result instanceof Completion) break;
+            }
         }
-        return result;
+
+        // A script can return a value.
+        return result == Completion.RETURN ? returnValue : result;
     }
 
-    private Object execute(Stmt statement) {
+    Object execute(Stmt statement) {
         switch (statement) {
             case Stmt.Assert stmt -> {
                 var condition = evaluate(stmt.condition());
@@ -95,9 +143,12 @@ class Interpreter {
                 }
             }
             case Stmt.Block stmt -> {
-                return executeBlock(stmt.statements(), new WalkerEnvironment(env));
+                return executeBlock(stmt.statements(),
+                    new WalkerEnvironment(env, scopeSize(stmt)));
+            }
+            case Stmt.Break ignored -> {
+                return Completion.BREAK;
             }
-            case Stmt.Break ignored -> throw new Break();
             case Stmt.Class stmt -> {
                 // Valid superclass?
                 JoeClass superclass = null;
@@ -118,7 +169,7 @@ class Interpreter {
                 }
 
                 // The class itself
-                env.setVariable(stmt.name().lexeme(), null);
+                define(stmt.name(), null);
 
                 // Static Methods
                 Map<String, WalkerFunction> staticMethods = new HashMap<>();
@@ -131,8 +182,8 @@ class Interpreter {
 
                 if (stmt.superclass() != null) {
                     // Push a new environment to contain "super"
-                    env = new WalkerEnvironment(env);
-                    env.setVariable("super", superclass);
+                    env = new WalkerEnvironment(env, 1);
+                    env.define(0, superclass);
                 }
 
                 Map<String, WalkerFunction> methods = new HashMap<>();
@@ -152,7 +203,7 @@ class Interpreter {
                 }
 
                 assert env != null;
-                env.assign(stmt.name(), klass);
+                define(stmt.name(), klass);
 
                 if (stmt.isExported()) {
                     exports.setVariable(stmt.name().lexeme(), klass);
@@ -173,7 +224,9 @@ class Interpreter {
                 }
                 return null;
             }
-            case Stmt.Continue ignored -> throw new Continue();
+            case Stmt.Continue ignored -> {
+                return Completion.CONTINUE;
+            }
             case Stmt.Expression stmt -> {
                 return evaluate(stmt.expr());
             }
@@ -185,13 +238,9 @@ class Interpreter {
                 while (stmt.condition() == null
                     || Joe.isTruthy(evaluate(stmt.condition()))
                 ) {
-                    try {
-                        execute(stmt.body());
-                    } catch (Break ex) {
-                        break;
-                    } catch (Continue ex) {
-                        // Nothing else to do
-                    }
+                    var result = execute(stmt.body());
+                    if (result == Completion.BREAK) break;
+                    if (result == Completion.RETURN) return result;
                     if (stmt.updater() != null) {
                         evaluate(stmt.updater());
                     }
@@ -202,14 +251,10 @@ class Interpreter {
                 Collection<?> collection = toCollection(stmt.name(), list);
 
                 for (var item : collection) {
-                    try {
-                        env.setVariable(stmt.name().lexeme(), item);
-                        execute(stmt.body());
-                    } catch (Break ex) {
-                        break;
-                    } catch (Continue ex) {
-                        // Nothing else to do
-                    }
+                    define(stmt.name(), item);
+                    var result = execute(stmt.body());
+                    if (result == Completion.BREAK) break;
+                    if (result == Completion.RETURN) return result;
                 }
             }
             case Stmt.ForEachBind stmt -> {
@@ -223,26 +268,22 @@ class Interpreter {
                 Collection<?> collection = toCollection(stmt.keyword(), list);
 
                 for (var item : collection) {
-                    try {
-                        var bound = Matcher.match(
-                            joe,
-                            stmt.pattern().getPattern(),
-                            item,
-                            constants::get);
-                        if (bound != null) {
-                            bind(bound.asMap());
-                            execute(stmt.body());
-                        }
-                    } catch (Break ex) {
-                        break;
-                    } catch (Continue ex) {
-                        // Nothing else to do
+                    var bound = Matcher.match(
+                        joe,
+                        stmt.pattern().getPattern(),
+                        item,
+                        constants::get);
+                    if (bound != null) {
+                        bind(stmt.pattern(), bound);
+                        var result = execute(stmt.body());
+                        if (result == Completion.BREAK) break;
+                        if (result == Completion.RETURN) return result;
                     }
                 }
             }
             case Stmt.Function stmt -> {
                 var function = new WalkerFunction(this, stmt, env, false);
-                env.setVariable(stmt.name().lexeme(), function);
+                define(stmt.name(), function);
                 if (stmt.isExported()) {
                     exports.setVariable(stmt.name().lexeme(), function);
                 }
@@ -282,14 +323,14 @@ class Interpreter {
 
                     var previous = this.env;
                     try {
-                        this.env = new WalkerEnvironment(previous);
+                        this.env = new WalkerEnvironment(previous, scopeSize(c));
                         var bound = Matcher.match(
                             joe,
                             c.pattern().getPattern(),
                             target,
                             constants::get);
                         if (bound != null) {
-                            bind(bound.asMap());
+                            bind(c.pattern(), bound);
                             var guard = c.guard() != null
                                 ? evaluate(c.guard()) : true;
                             if (Joe.isTruthy(guard)) {
@@ -311,7 +352,7 @@ class Interpreter {
             }
             case Stmt.Record stmt -> {
                 // The type itself
-                env.setVariable(stmt.name().lexeme(), null);
+                define(stmt.name(), null);
 
                 // Static Methods
                 Map<String, WalkerFunction> staticMethods = new HashMap<>();
@@ -336,7 +377,7 @@ class Interpreter {
                     methods);
 
                 assert env != null;
-                env.assign(stmt.name(), type);
+                define(stmt.name(), type);
                 if (stmt.isExported()) {
                     exports.setVariable(stmt.name().lexeme(), type);
                 }
@@ -360,7 +401,8 @@ class Interpreter {
                 Object value = null;
                 if (stmt.value() != null) value = evaluate(stmt.value());
 
-                throw new Return(value);
+                returnValue = value;
+                return Completion.RETURN;
             }
             case Stmt.Switch stmt -> {
                 var value = evaluate(stmt.expr());
@@ -394,7 +436,7 @@ class Interpreter {
             }
             case Stmt.Var stmt -> {
                 Object value = evaluate(stmt.value());
-                env.setVariable(stmt.name().lexeme(), value);
+                define(stmt.name(), value);
             }
             case Stmt.VarPattern stmt -> {
                 var constants = new ArrayList<>();
@@ -409,7 +451,7 @@ class Interpreter {
                 );
 
                 if (bound != null) {
-                    bind(bound.asMap());
+                    bind(stmt.pattern(), bound);
                 } else {
                     throw new RuntimeError(stmt.keyword().span(),
                         "'var' pattern failed to match target value.");
@@ -417,13 +459,9 @@ class Interpreter {
             }
             case Stmt.While stmt -> {
                 while (Joe.isTruthy(evaluate(stmt.condition()))) {
-                    try {
-                        execute(stmt.body());
-                    } catch (Break ex) {
-                        break;
-                    } catch (Continue ex) {
-                        // Nothing special to do.
-                    }
+                    var result = execute(stmt.body());
+                    if (result == Completion.BREAK) break;
+                    if (result == Completion.RETURN) return result;
                 }
             }
         }
@@ -440,6 +478,7 @@ class Interpreter {
 
             for (Stmt statement : statements) {
                 result = execute(statement);
+                if (result instanceof Completion) break;
             }
         } finally {
             this.env = previous;
@@ -448,16 +487,72 @@ class Interpreter {
         return result;
     }
 
+    // Executes the function's body in the given environment, as compiled
+    // nodes if the interpreter is compiling.
+    Object executeBody(Stmt.Function function, WalkerEnvironment environment) {
+        if (compiler == null) {
+            return executeBlock(function.body(), environment);
+        }
+
+        var body = compiler.body(function);
+        WalkerEnvironment previous = this.env;
+        try {
+            this.env = environment;
+            return body.run(this);
+        } finally {
+            this.env = previous;
+        }
+    }
+
+    // Defines the declared variable in the current scope: in its slot,
+    // if the Resolver assigned it one, and by name in the global scope
+    // otherwise.
+    private void define(Token name, Object value) {
+        var slot = slots.get(name);
+        if (slot != null) {
+            env.define(slot, value);
+        } else {
+            env.setVariable(name.lexeme(), value);
+        }
+    }
+
     // Bind the pattern's binding variables to the matching values from
-    // the target.
-    private void bind(Map<String,Object> bound) {
-        for (var e : bound.entrySet()) {
-            env.setVariable(e.getKey(), e.getValue());
+    // the target, or to null if there was no match.
+    private void bind(ASTPattern pattern, Bindings bound) {
+        for (var name : pattern.getVariableTokens()) {
+            define(name, bound != null ? bound.get(name.lexeme()) : null);
         }
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    // Gets the number of slots in the scope belonging to the block,
+    // function, or match case.
+    int scopeSize(Object owner) {
+        var size = scopeSizes.get(owner);
+        return size != null ? size : 0;
+    }
+
+    void resolve(Expr expr, int depth, int slot) {
+        locals.put(expr, new Address(depth, slot));
+    }
+
+    void resolveSlot(Token name, int slot) {
+        slots.put(name, slot);
+    }
+
+    void resolveScope(Object owner, int size) {
+        scopeSizes.put(owner, size);
+    }
+
+    // Gets the resolved address of the local variable reference, or null
+    // if the variable is global.
+    Address address(Expr expr) {
+        return locals.get(expr);
+    }
+
+    // Gets the slot of the declared local variable, or null if the
+    // variable is global.
+    Integer slot(Token name) {
+        return slots.get(name);
     }
 
     //------------------------------------------------------------------------
@@ -469,82 +564,7 @@ class Interpreter {
             case Expr.Binary expr -> {
                 Object left = evaluate(expr.left());
                 Object right = evaluate(expr.right());
-
-                yield switch (expr.op().type()) {
-                    case BANG_EQUAL -> !Joe.isEqual(left, right);
-                    case EQUAL_EQUAL -> Joe.isEqual(left, right);
-                    case GREATER -> {
-                        if (left instanceof Double a && right instanceof Double b) {
-                            yield a > b;
-                        }
-
-                        if (left instanceof String a && right instanceof String b) {
-                            yield a.compareTo(b) > 0;
-                        }
-
-                        throw notSimilar(expr.op());
-                    }
-                    case GREATER_EQUAL -> {
-                        if (left instanceof Double a && right instanceof Double b) {
-                            yield a >= b;
-                        }
-
-                        if (left instanceof String a && right instanceof String b) {
-                            yield a.compareTo(b) >= 0;
-                        }
-
-                        throw notSimilar(expr.op());
-                    }
-                    case IN -> toCollection(expr.op(), right).contains(left);
-                    case LESS -> {
-                        if (left instanceof Double a && right instanceof Double b) {
-                            yield a < b;
-                        }
-
-                        if (left instanceof String a && right instanceof String b) {
-                            yield a.compareTo(b) < 0;
-                        }
-
-                        throw notSimilar(expr.op());
-                    }
-                    case LESS_EQUAL -> {
-                        if (left instanceof Double a && right instanceof Double b) {
-                            yield a <= b;
-                        }
-
-                        if (left instanceof String a && right instanceof String b) {
-                            yield a.compareTo(b) <= 0;
-                        }
-
-                        throw notSimilar(expr.op());
-                    }
-                    case MINUS -> {
-                        checkNumberOperands(expr.op(), left, right);
-                        yield (double)left - (double)right;
-                    }
-                    case NI -> !toCollection(expr.op(), right).contains(left);
-                    case SLASH -> {
-                        checkNumberOperands(expr.op(), left, right);
-                        yield (double)left / (double)right;
-                    }
-                    case STAR -> {
-                        checkNumberOperands(expr.op(), left, right);
-                        yield (double)left * (double)right;
-                    }
-                    case PLUS -> {
-                        if (left instanceof Double a && right instanceof Double b) {
-                           yield a + b;
-                        } else if (left instanceof String || right instanceof String) {
-                            yield joe.stringify(left) + joe.stringify(right);
-                        } else {
-                            throw new RuntimeError(expr.op().span(),
-                                "The '+' operator expects two Numbers or at least one String.");
-                        }
-
-                    }
-                    default -> throw new IllegalStateException(
-                        "Unexpected operator: " + expr.op());
-                };
+                yield binary(expr.op(), left, right);
             }
             // Call a function or method
             case Expr.Call expr -> {
@@ -555,24 +575,7 @@ class Interpreter {
                     args[i] = evaluate(expr.arguments().get(i));
                 }
 
-                if (callee instanceof NativeCallable callable) {
-                    try {
-                        yield callable.call(joe, new Args(args));
-                    } catch (JoeError ex) {
-                        var msg = "In " + callable.callableType() + " " +
-                            callable.signature();
-                        if (callable.isScripted()) {
-                            throw ex.addPendingFrame(expr.paren().span(), msg);
-                        } else {
-                            throw ex.addInfo(expr.paren().span(), msg);
-                        }
-                    } catch (Exception ex) {
-                        throw new UnexpectedError(expr.paren().span(),
-                            "Unexpected Java error: " + ex, ex);
-                    }
-                } else {
-                    throw expected(expr.paren().span(), "callable", callee);
-                }
+                yield call(expr.paren(), callee, args);
             }
             // false
             case Expr.False ignored -> false;
@@ -711,17 +714,8 @@ class Interpreter {
                     constants::get
                 );
 
-                if (bound != null) {
-                    bind(bound.asMap());
-                    yield true;
-                } else {
-                    bound = new Bindings();
-                    for (var name : expr.pattern().getVariableTokens()) {
-                        bound.bind(name.lexeme(), null);
-                    }
-                    bind(bound.asMap());
-                    yield false;
-                }
+                bind(expr.pattern(), bound);
+                yield bound != null;
             }
             // null
             case Expr.Null ignored -> null;
@@ -790,10 +784,10 @@ class Interpreter {
             }
             // Handle `super.<methodName>` in methods
             case Expr.Super expr -> {
-                int distance = locals.get(expr);
-                JoeClass superclass = (JoeClass) env.getAt(
-                    distance, "super");
-                var instance = env.getAt(distance - 1, "this");
+                // "super" and "this" are each in slot 0 of their scopes.
+                int distance = locals.get(expr).depth();
+                JoeClass superclass = (JoeClass) env.getAt(distance, 0);
+                var instance = env.getAt(distance - 1, 0);
                 JoeCallable method =
                     superclass.bind(instance, expr.method().lexeme());
 
@@ -838,7 +832,7 @@ class Interpreter {
             case Expr.VarGet expr -> lookupVariable(expr.name(), expr);
             // ++ and -- with a variable name
             case Expr.VarIncrDecr expr -> {
-                var distance = locals.get(expr);
+                var address = locals.get(expr);
                 Object prior = lookupVariable(expr.name(), expr);
                 checkNumericTarget(expr.op(), prior);
 
@@ -847,8 +841,8 @@ class Interpreter {
                     : (double)prior - 1;
                 var result = expr.isPre() ? assigned : prior;
 
-                if (distance != null) {
-                    env.assignAt(distance, expr.name(), assigned);
+                if (address != null) {
+                    env.assignAt(address.depth(), address.slot(), assigned);
                 } else {
                     env.top().assign(expr.name(), assigned);
                 }
@@ -858,15 +852,15 @@ class Interpreter {
             // =, +=, -=, *=, /=
             case Expr.VarSet expr -> {
                 Object right = evaluate(expr.value());
-                var distance = locals.get(expr);
+                var address = locals.get(expr);
 
                 if (expr.op().type() != TokenType.EQUAL) {
                     Object left = lookupVariable(expr.name(), expr);
                     right = computeExtendedAssignment(left, expr.op(), right);
                 }
 
-                if (distance != null) {
-                    env.assignAt(distance, expr.name(), right);
+                if (address != null) {
+                    env.assignAt(address.depth(), address.slot(), right);
                 } else {
                     env.top().assign(expr.name(), right);
                 }
@@ -878,10 +872,112 @@ class Interpreter {
     //-------------------------------------------------------------------------
     // Evaluation Helpers
 
+    // Computes any binary operation except for && and ||, given the
+    // operand values.
+    Object binary(Token op, Object left, Object right) {
+        return switch (op.type()) {
+            case BANG_EQUAL -> !Joe.isEqual(left, right);
+            case EQUAL_EQUAL -> Joe.isEqual(left, right);
+            case GREATER -> {
+                if (left instanceof Double a && right instanceof Double b) {
+                    yield a > b;
+                }
+
+                if (left instanceof String a && right instanceof String b) {
+                    yield a.compareTo(b) > 0;
+                }
+
+                throw notSimilar(op);
+            }
+            case GREATER_EQUAL -> {
+                if (left instanceof Double a && right instanceof Double b) {
+                    yield a >= b;
+                }
+
+                if (left instanceof String a && right instanceof String b) {
+                    yield a.compareTo(b) >= 0;
+                }
+
+                throw notSimilar(op);
+            }
+            case IN -> toCollection(op, right).contains(left);
+            case LESS -> {
+                if (left instanceof Double a && right instanceof Double b) {
+                    yield a < b;
+                }
+
+                if (left instanceof String a && right instanceof String b) {
+                    yield a.compareTo(b) < 0;
+                }
+
+                throw notSimilar(op);
+            }
+            case LESS_EQUAL -> {
+                if (left instanceof Double a && right instanceof Double b) {
+                    yield a <= b;
+                }
+
+                if (left instanceof String a && right instanceof String b) {
+                    yield a.compareTo(b) <= 0;
+                }
+
+                throw notSimilar(op);
+            }
+            case MINUS -> {
+                checkNumberOperands(op, left, right);
+                yield (double)left - (double)right;
+            }
+            case NI -> !toCollection(op, right).contains(left);
+            case SLASH -> {
+                checkNumberOperands(op, left, right);
+                yield (double)left / (double)right;
+            }
+            case STAR -> {
+                checkNumberOperands(op, left, right);
+                yield (double)left * (double)right;
+            }
+            case PLUS -> {
+                if (left instanceof Double a && right instanceof Double b) {
+                   yield a + b;
+                } else if (left instanceof String || right instanceof String) {
+                    yield joe.stringify(left) + joe.stringify(right);
+                } else {
+                    throw new RuntimeError(op.span(),
+                        "The '+' operator expects two Numbers or at least one String.");
+                }
+
+            }
+            default -> throw new IllegalStateException(
+                "Unexpected operator: " + op);
+        };
+    }
+
+    // Calls the callee with the given arguments.
+    Object call(Token paren, Object callee, Object[] args) {
+        if (callee instanceof NativeCallable callable) {
+            try {
+                return callable.call(joe, new Args(args));
+            } catch (JoeError ex) {
+                var msg = "In " + callable.callableType() + " " +
+                    callable.signature();
+                if (callable.isScripted()) {
+                    throw ex.addPendingFrame(paren.span(), msg);
+                } else {
+                    throw ex.addInfo(paren.span(), msg);
+                }
+            } catch (Exception ex) {
+                throw new UnexpectedError(paren.span(),
+                    "Unexpected Java error: " + ex, ex);
+            }
+        } else {
+            throw expected(paren.span(), "callable", callee);
+        }
+    }
+
     private Object lookupVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return env.getAt(distance, name.lexeme());
+        var address = locals.get(expr);
+        if (address != null) {
+            return env.getAt(address.depth(), address.slot());
         } else {
             return env.top().get(name);
         }
@@ -890,7 +986,7 @@ class Interpreter {
     // Given the value of a variable or property, and one of the extended
     // assignment operators, computes the new value of the variable or
     // property.
-    private Object computeExtendedAssignment(
+    Object computeExtendedAssignment(
         Object left, Token op, Object right
     ) {
         return switch(op.type()) {
@@ -924,7 +1020,7 @@ class Interpreter {
     }
 
     // Gets the argument as a collection, if possible
-    private Collection<?> toCollection(Token token, Object arg) {
+    Collection<?> toCollection(Token token, Object arg) {
         if (arg instanceof Collection<?> c) {
             return c;
         } else {
@@ -942,14 +1038,14 @@ class Interpreter {
     //-------------------------------------------------------------------------
     // Error Checking
 
-    private JoeError expected(SourceBuffer.Span context, String what, Object got) {
+    JoeError expected(SourceBuffer.Span context, String what, Object got) {
         var message = "Expected " + what + ", got: " +
             joe.typedValue(got) + ".";
         return new RuntimeError(context, message);
     }
 
 
-    private void checkNumberOperands(
+    void checkNumberOperands(
         Token operator,
         Object left,
         Object right)
@@ -962,24 +1058,24 @@ class Interpreter {
             "The '" + op + "' operator expects two numeric operands.");
     }
 
-    private RuntimeError notSimilar(Token operator) {
+    RuntimeError notSimilar(Token operator) {
         return new RuntimeError(operator.span(),
             "The '" + operator.lexeme() + "' operator expects two Numbers or two Strings.");
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator.span(), "Operand must be a number.");
     }
 
-    private void checkNumericTarget(Token operator, Object operand) {
+    void checkNumericTarget(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator.span(), "Target of '" +
             operator.lexeme() +
             "' must contain a number.");
     }
 
-    private int checkListIndex(Token bracket, List<?> list, Object index) {
+    int checkListIndex(Token bracket, List<?> list, Object index) {
         if (index instanceof Double d) {
             int i = d.intValue();
             if (i >= 0 && i < list.size()) {
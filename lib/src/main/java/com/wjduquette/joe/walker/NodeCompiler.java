@@ -0,0 +1,881 @@
+package com.wjduquette.joe.walker;
+
+import com.wjduquette.joe.*;
+import com.wjduquette.joe.parser.ASTPattern;
+import com.wjduquette.joe.parser.Expr;
+import com.wjduquette.joe.parser.Stmt;
+import com.wjduquette.joe.patterns.Matcher;
+import com.wjduquette.joe.scanner.Token;
+import com.wjduquette.joe.scanner.TokenType;
+import com.wjduquette.joe.types.ListValue;
+import com.wjduquette.joe.types.MapValue;
+import com.wjduquette.joe.types.SetValue;
+import com.wjduquette.joe.util.Bindings;
+
+import java.util.*;
+
+/**
+ * Compiles a resolved AST into a tree of {@link Node} objects, each of
+ * which executes one statement or evaluates one expression.  The tree is
+ * built once, with the `Resolver`'s variable addresses and scope sizes
+ * looked up in advance, so that executing it does no dispatching on
+ * the type of the AST node.  Binary arithmetic and comparison nodes
+ * specialize themselves on the operand types they see.
+ *
+ * <p>The nodes have the same semantics as the {@link Interpreter}, and
+ * share its helpers and its current environment, so that compiled and
+ * interpreted code can call each other freely.  Class, record type,
+ * and import declarations, which execute once, are interpreted; the
+ * bodies of their methods are compiled on first call, like any other
+ * function body.</p>
+ */
+class NodeCompiler {
+    //-------------------------------------------------------------------------
+    // Types
+
+    /**
+     * A compiled statement or expression.
+     */
+    interface Node {
+        /**
+         * Executes the statement or evaluates the expression in the
+         * interpreter's current environment.
+         * @param in The interpreter
+         * @return The result
+         */
+        Object run(Interpreter in);
+    }
+
+    // Defines a declared variable in the current scope.
+    private interface Definer {
+        void define(Interpreter in, Object value);
+    }
+
+    //-------------------------------------------------------------------------
+    // Constants
+
+    // The result of a `match` case that didn't match.
+    private static final Object NO_MATCH = new Object();
+
+    //-------------------------------------------------------------------------
+    // Instance Variables
+
+    // The Joe interpreter
+    private final Joe joe;
+
+    // The Walker interpreter, which has the Resolver's results.
+    private final Interpreter interpreter;
+
+    // The compiled function bodies
+    private final Map<Stmt.Function, Node> bodies = new IdentityHashMap<>();
+
+    //-------------------------------------------------------------------------
+    // Constructor
+
+    NodeCompiler(Joe joe, Interpreter interpreter) {
+        this.joe = joe;
+        this.interpreter = interpreter;
+    }
+
+    //-------------------------------------------------------------------------
+    // API
+
+    /**
+     * Compiles a resolved script.
+     * @param statements The script's statements
+     * @return The script's node
+     */
+    Node compile(List<Stmt> statements) {
+        return sequence(statements);
+    }
+
+    /**
+     * Gets the function's compiled body, compiling it on first use.
+     * @param function The function
+     * @return The body's node
+     */
+    Node body(Stmt.Function function) {
+        var body = bodies.get(function);
+        if (body == null) {
+            body = sequence(function.body());
+            bodies.put(function, body);
+        }
+        return body;
+    }
+
+    //-------------------------------------------------------------------------
+    // Statements
+
+    // Compiles a list of statements, whose result is the result of the
+    // last, or the first abrupt Completion.
+    private Node sequence(List<Stmt> statements) {
+        var nodes = statements.stream().map(this::stmt).toArray(Node[]::new);
+
+        if (nodes.length == 1) return nodes[0];
+
+        return in -> {
+            Object result = null;
+            for (var node : nodes) {
+                result = node.run(in);
+                if (result instanceof Completion) break;
+            }
+            return result;
+        };
+    }
+
+    private Node stmt(Stmt statement) {
+        return switch (statement) {
+            case Stmt.Assert stmt -> {
+                var keyword = stmt.keyword();
+                var condition = expr(stmt.condition());
+                var message = expr(stmt.message());
+                yield in -> {
+                    if (!Joe.isTruthy(condition.run(in))) {
+                        throw new AssertError(keyword.span(),
+                            joe.stringify(message.run(in)));
+                    }
+                    return null;
+                };
+            }
+            case Stmt.Block stmt -> {
+                var body = sequence(stmt.statements());
+                var size = interpreter.scopeSize(stmt);
+                yield in -> inScope(in, body, size);
+            }
+            case Stmt.Break ignored -> in -> Completion.BREAK;
+            // Class declarations execute once; interpret them.
+            case Stmt.Class stmt -> in -> in.execute(stmt);
+            case Stmt.Continue ignored -> in -> Completion.CONTINUE;
+            case Stmt.Expression stmt -> expr(stmt.expr());
+            case Stmt.For stmt -> {
+                var init = stmt.init() != null ? stmt(stmt.init()) : null;
+                var condition = stmt.condition() != null
+                    ? expr(stmt.condition()) : null;
+                var updater = stmt.updater() != null
+                    ? expr(stmt.updater()) : null;
+                var body = stmt(stmt.body());
+                yield in -> {
+                    if (init != null) init.run(in);
+
+                    while (condition == null
+                        || Joe.isTruthy(condition.run(in))
+                    ) {
+                        var result = body.run(in);
+                        if (result == Completion.BREAK) break;
+                        if (result == Completion.RETURN) return result;
+                        if (updater != null) updater.run(in);
+                    }
+                    return null;
+                };
+            }
+            case Stmt.ForEach stmt -> {
+                var name = stmt.name();
+                var items = expr(stmt.items());
+                var variable = definer(name);
+                var body = stmt(stmt.body());
+                yield in -> {
+                    var collection = in.toCollection(name, items.run(in));
+
+                    for (var item : collection) {
+                        variable.define(in, item);
+                        var result = body.run(in);
+                        if (result == Completion.BREAK) break;
+                        if (result == Completion.RETURN) return result;
+                    }
+                    return null;
+                };
+            }
+            case Stmt.ForEachBind stmt -> {
+                var keyword = stmt.keyword();
+                var pattern = stmt.pattern();
+                var constants = exprs(pattern.getExprs());
+                var items = expr(stmt.items());
+                var binder = binder(pattern);
+                var body = stmt(stmt.body());
+                yield in -> {
+                    var values = evaluate(in, constants);
+                    var collection = in.toCollection(keyword, items.run(in));
+
+                    for (var item : collection) {
+                        var bound = Matcher.match(
+                            joe, pattern.getPattern(), item, values::get);
+                        if (bound != null) {
+                            binder.define(in, bound);
+                            var result = body.run(in);
+                            if (result == Completion.BREAK) break;
+                            if (result == Completion.RETURN) return result;
+                        }
+                    }
+                    return null;
+                };
+            }
+            case Stmt.Function stmt -> {
+                var variable = definer(stmt.name());
+                var name = stmt.name().lexeme();
+                var isExported = stmt.isExported();
+                yield in -> {
+                    var function = new WalkerFunction(in, stmt, in.env, false);
+                    variable.define(in, function);
+                    if (isExported) {
+                        in.getExports().setVariable(name, function);
+                    }
+                    return null;
+                };
+            }
+            case Stmt.If stmt -> {
+                var condition = expr(stmt.condition());
+                var thenBranch = stmt(stmt.thenBranch());
+                var elseBranch = stmt.elseBranch() != null
+                    ? stmt(stmt.elseBranch()) : null;
+                yield in -> {
+                    if (Joe.isTruthy(condition.run(in))) {
+                        return thenBranch.run(in);
+                    } else if (elseBranch != null) {
+                        return elseBranch.run(in);
+                    }
+                    return null;
+                };
+            }
+            // Imports execute once; interpret them.
+            case Stmt.Import stmt -> in -> in.execute(stmt);
+            case Stmt.Match stmt -> {
+                var target = expr(stmt.expr());
+                var cases = stmt.cases().stream()
+                    .map(this::matchCase)
+                    .toArray(MatchCase[]::new);
+                var matchDefault = stmt.matchDefault() != null
+                    ? stmt(stmt.matchDefault()) : null;
+                yield in -> {
+                    var value = target.run(in);
+                    for (var c : cases) {
+                        var result = c.run(in, value);
+                        if (result != NO_MATCH) return result;
+                    }
+
+                    // Default case; always the last
+                    if (matchDefault != null) {
+                        return matchDefault.run(in);
+                    }
+
+                    // No case matched
+                    return null;
+                };
+            }
+            // Record type declarations execute once; interpret them.
+            case Stmt.Record stmt -> in -> in.execute(stmt);
+            case Stmt.Return stmt -> {
+                var value = stmt.value() != null ? expr(stmt.value()) : null;
+                yield in -> {
+                    in.returnValue = value != null ? value.run(in) : null;
+                    return Completion.RETURN;
+                };
+            }
+            case Stmt.Switch stmt -> {
+                var value = expr(stmt.expr());
+                var cases = stmt.cases().stream()
+                    .map(c -> new SwitchCase(
+                        exprs(c.values()), stmt(c.statement())))
+                    .toArray(SwitchCase[]::new);
+                var switchDefault = stmt.switchDefault() != null
+                    ? stmt(stmt.switchDefault().statement()) : null;
+                yield in -> {
+                    var v = value.run(in);
+                    for (var c : cases) {
+                        // A normal case has values.
+                        for (var caseValue : c.values) {
+                            if (Joe.isEqual(v, caseValue.run(in))) {
+                                return c.statement.run(in);
+                            }
+                        }
+                    }
+
+                    // Default case; always the last
+                    if (switchDefault != null) {
+                        return switchDefault.run(in);
+                    }
+
+                    // No case matched
+                    return null;
+                };
+            }
+            case Stmt.Throw stmt -> {
+                var keyword = stmt.keyword();
+                var value = expr(stmt.value());
+                yield in -> {
+                    var v = value.run(in);
+                    if (v instanceof JoeError error) {
+                        throw error.addPendingFrame(keyword.span(),
+                            "Rethrowing existing error.");
+                    } else {
+                        throw new RuntimeError(keyword.span(),
+                            joe.stringify(v));
+                    }
+                };
+            }
+            case Stmt.Var stmt -> {
+                var value = expr(stmt.value());
+                var variable = definer(stmt.name());
+                yield in -> {
+                    variable.define(in, value.run(in));
+                    return null;
+                };
+            }
+            case Stmt.VarPattern stmt -> {
+                var keyword = stmt.keyword();
+                var pattern = stmt.pattern();
+                var constants = exprs(pattern.getExprs());
+                var target = expr(stmt.target());
+                var binder = binder(pattern);
+                yield in -> {
+                    var values = evaluate(in, constants);
+                    var bound = Matcher.match(
+                        joe, pattern.getPattern(), target.run(in), values::get);
+
+                    if (bound != null) {
+                        binder.define(in, bound);
+                    } else {
+                        throw new RuntimeError(keyword.span(),
+                            "'var' pattern failed to match target value.");
+                    }
+                    return null;
+                };
+            }
+            case Stmt.While stmt -> {
+                var condition = expr(stmt.condition());
+                var body = stmt(stmt.body());
+                yield in -> {
+                    while (Joe.isTruthy(condition.run(in))) {
+                        var result = body.run(in);
+                        if (result == Completion.BREAK) break;
+                        if (result == Completion.RETURN) return result;
+                    }
+                    return null;
+                };
+            }
+        };
+    }
+
+    // A compiled `match` case.
+    private final class MatchCase {
+        private final ASTPattern pattern;
+        private final Node[] constants;
+        private final Definer binder;
+        private final Node guard;
+        private final Node statement;
+        private final int size;
+
+        MatchCase(Stmt.MatchCase c) {
+            this.pattern = c.pattern();
+            this.constants = exprs(pattern.getExprs());
+            this.binder = binder(pattern);
+            this.guard = c.guard() != null ? expr(c.guard()) : null;
+            this.statement = stmt(c.statement());
+            this.size = interpreter.scopeSize(c);
+        }
+
+        // Executes the case's statement in the case's scope if the
+        // pattern matches the value and the guard is met, returning
+        // the statement's result, or NO_MATCH.
+        Object run(Interpreter in, Object value) {
+            var values = evaluate(in, constants);
+            var previous = in.env;
+            try {
+                in.env = new WalkerEnvironment(previous, size);
+                var bound = Matcher.match(
+                    joe, pattern.getPattern(), value, values::get);
+                if (bound != null) {
+                    binder.define(in, bound);
+                    var ok = guard != null ? guard.run(in) : true;
+                    if (Joe.isTruthy(ok)) {
+                        return statement.run(in);
+                    }
+                }
+                return NO_MATCH;
+            } finally {
+                in.env = previous;
+            }
+        }
+    }
+
+    private MatchCase matchCase(Stmt.MatchCase c) {
+        return new MatchCase(c);
+    }
+
+    // A compiled `switch` case.
+    private record SwitchCase(Node[] values, Node statement) {}
+
+    // Runs the node in a new scope with the given number of slots.
+    private static Object inScope(Interpreter in, Node node, int size) {
+        var previous = in.env;
+        try {
+            in.env = new WalkerEnvironment(previous, size);
+            return node.run(in);
+        } finally {
+            in.env = previous;
+        }
+    }
+
+    // Gets a definer for the declared variable: by slot, if the Resolver
+    // assigned it one, and by name in the global scope otherwise.
+    private Definer definer(Token name) {
+        var slot = interpreter.slot(name);
+        if (slot != null) {
+            return (in, value) -> in.env.define(slot, value);
+        } else {
+            var lexeme = name.lexeme();
+            return (in, value) -> in.env.setVariable(lexeme, value);
+        }
+    }
+
+    // Gets a definer that binds the pattern's binding variables to their
+    // values in a Bindings, or to null if the Bindings is null.
+    private Definer binder(ASTPattern pattern) {
+        var tokens = pattern.getVariableTokens();
+        var names = tokens.stream().map(Token::lexeme).toArray(String[]::new);
+        var definers = tokens.stream().map(this::definer)
+            .toArray(Definer[]::new);
+        return (in, value) -> {
+            var bound = (Bindings)value;
+            for (var i = 0; i < definers.length; i++) {
+                definers[i].define(in,
+                    bound != null ? bound.get(names[i]) : null);
+            }
+        };
+    }
+
+    //-------------------------------------------------------------------------
+    // Expressions
+
+    private Node[] exprs(List<Expr> exprs) {
+        return exprs.stream().map(this::expr).toArray(Node[]::new);
+    }
+
+    // Evaluates each of the nodes, returning a list of the results.
+    private static List<Object> evaluate(Interpreter in, Node[] nodes) {
+        var values = new ArrayList<>(nodes.length);
+        for (var node : nodes) {
+            values.add(node.run(in));
+        }
+        return values;
+    }
+
+    private Node expr(Expr expression) {
+        return switch (expression) {
+            // Compute any binary operation except for && and ||
+            case Expr.Binary expr -> {
+                var op = expr.op();
+                var left = expr(expr.left());
+                var right = expr(expr.right());
+                yield switch (op.type()) {
+                    case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL,
+                         MINUS, PLUS, SLASH, STAR ->
+                        new NumericBinary(op, left, right);
+                    default -> in -> in.binary(op, left.run(in), right.run(in));
+                };
+            }
+            // Call a function or method
+            case Expr.Call expr -> {
+                var paren = expr.paren();
+                var callee = expr(expr.callee());
+                var arguments = exprs(expr.arguments());
+                yield in -> {
+                    var function = callee.run(in);
+                    var args = new Object[arguments.length];
+                    for (var i = 0; i < arguments.length; i++) {
+                        args[i] = arguments[i].run(in);
+                    }
+                    return in.call(paren, function, args);
+                };
+            }
+            // false
+            case Expr.False ignored -> in -> false;
+            // (expr...)
+            case Expr.Grouping expr -> expr(expr.expr());
+            // expr[index]
+            case Expr.IndexGet expr -> {
+                var bracket = expr.bracket();
+                var collection = expr(expr.collection());
+                var index = expr(expr.index());
+                yield in -> {
+                    var target = collection.run(in);
+                    var i = index.run(in);
+                    if (target instanceof List<?> list) {
+                        return list.get(in.checkListIndex(bracket, list, i));
+                    } else if (target instanceof Map<?,?> map) {
+                        return map.get(i);
+                    } else {
+                        throw new RuntimeError(bracket.span(),
+                            "Expected indexed collection, got: " +
+                            joe.typedValue(target) + ".");
+                    }
+                };
+            }
+            // ++ and -- with an indexed collection
+            case Expr.IndexIncrDecr expr -> {
+                var bracket = expr.bracket();
+                var op = expr.op();
+                var delta = op.type() == TokenType.PLUS_PLUS ? 1 : -1;
+                var isPre = expr.isPre();
+                var collection = expr(expr.collection());
+                var index = expr(expr.index());
+                yield in -> {
+                    var target = collection.run(in);
+                    var i = index.run(in);
+                    Object prior;
+
+                    if (target instanceof JoeList list) {
+                        prior = list.get(in.checkListIndex(bracket, list, i));
+                    } else if (target instanceof JoeMap map) {
+                        prior = map.get(i);
+                    } else {
+                        throw new RuntimeError(bracket.span(),
+                            "Expected indexed collection, got: " +
+                                joe.typedValue(target));
+                    }
+
+                    in.checkNumericTarget(op, prior);
+                    double assigned = (double)prior + delta;
+
+                    if (target instanceof JoeList list) {
+                        list.set(in.checkListIndex(bracket, list, i), assigned);
+                    } else {
+                        ((JoeMap)target).put(i, assigned);
+                    }
+
+                    return isPre ? assigned : prior;
+                };
+            }
+            // expr[index] = value, etc.
+            case Expr.IndexSet expr -> {
+                var bracket = expr.bracket();
+                var op = expr.op();
+                var isAssign = op.type() == TokenType.EQUAL;
+                var collection = expr(expr.collection());
+                var index = expr(expr.index());
+                var value = expr(expr.value());
+                yield in -> {
+                    var target = collection.run(in);
+                    var i = index.run(in);
+                    var right = value.run(in);
+
+                    if (target instanceof JoeList list) {
+                        int n = in.checkListIndex(bracket, list, i);
+                        if (!isAssign) {
+                            right = in.computeExtendedAssignment(
+                                list.get(n), op, right);
+                        }
+                        list.set(n, right);
+                        return right;
+                    } else if (target instanceof JoeMap map) {
+                        if (!isAssign) {
+                            right = in.computeExtendedAssignment(
+                                map.get(i), op, right);
+                        }
+                        map.put(i, right);
+                        return right;
+                    } else {
+                        throw new RuntimeError(bracket.span(),
+                            "Expected indexed collection, got: " +
+                                joe.typedValue(target));
+                    }
+                };
+            }
+            // Return a callable for the given lambda
+            case Expr.Lambda expr -> {
+                var declaration = expr.declaration();
+                yield in -> new WalkerFunction(in, declaration, in.env, false);
+            }
+            // A list literal
+            case Expr.ListLiteral expr -> {
+                var items = exprs(expr.list());
+                yield in -> {
+                    var list = new ListValue(items.length);
+                    for (var item : items) {
+                        list.add(item.run(in));
+                    }
+                    return list;
+                };
+            }
+            // Any literal
+            case Expr.Literal expr -> {
+                var value = expr.value();
+                yield in -> value;
+            }
+            // && and ||
+            case Expr.Logical expr -> {
+                var left = expr(expr.left());
+                var right = expr(expr.right());
+                if (expr.op().type() == TokenType.OR) {
+                    yield in -> {
+                        var value = left.run(in);
+                        return Joe.isTruthy(value) ? value : right.run(in);
+                    };
+                } else {
+                    yield in -> {
+                        var value = left.run(in);
+                        return !Joe.isTruthy(value) ? value : right.run(in);
+                    };
+                }
+            }
+            // A map literal
+            case Expr.MapLiteral expr -> {
+                var entries = exprs(expr.entries());
+                yield in -> {
+                    var map = new MapValue();
+                    for (var i = 0; i < entries.length; i += 2) {
+                        var key = entries[i].run(in);
+                        map.put(key, entries[i + 1].run(in));
+                    }
+                    return map;
+                };
+            }
+            // A pattern match
+            case Expr.Match expr -> {
+                var pattern = expr.pattern();
+                var target = expr(expr.target());
+                var constants = exprs(pattern.getExprs());
+                var binder = binder(pattern);
+                yield in -> {
+                    var value = target.run(in);
+                    var values = evaluate(in, constants);
+                    var bound = Matcher.match(
+                        joe, pattern.getPattern(), value, values::get);
+                    binder.define(in, bound);
+                    return bound != null;
+                };
+            }
+            // null
+            case Expr.Null ignored -> in -> null;
+            // Get an object property.
+            case Expr.PropGet expr -> {
+                var name = expr.name();
+                var object = expr(expr.object());
+                yield in -> {
+                    var value = object.run(in);
+                    if (value == null) {
+                        throw new RuntimeError(name.span(),
+                            "Tried to retrieve '" + name.lexeme() +
+                                "' property from null value.");
+                    }
+                    return joe.asJoeValue(value).get(name.lexeme());
+                };
+            }
+            // ++ and -- with an object property
+            case Expr.PropIncrDecr expr -> {
+                var name = expr.name().lexeme();
+                var op = expr.op();
+                var delta = op.type() == TokenType.PLUS_PLUS ? 1 : -1;
+                var isPre = expr.isPre();
+                var object = expr(expr.object());
+                yield in -> {
+                    var instance = joe.asJoeValue(object.run(in));
+                    var prior = instance.get(name);
+                    in.checkNumericTarget(op, prior);
+                    double assigned = (double)prior + delta;
+                    instance.set(name, assigned);
+                    return isPre ? assigned : prior;
+                };
+            }
+            // Assign a value to an object property using =, +=, -=, *=, /=
+            case Expr.PropSet expr -> {
+                var name = expr.name().lexeme();
+                var op = expr.op();
+                var isAssign = op.type() == TokenType.EQUAL;
+                var object = expr(expr.object());
+                var value = expr(expr.value());
+                yield in -> {
+                    var instance = joe.asJoeValue(object.run(in));
+                    var right = value.run(in);
+                    if (!isAssign) {
+                        right = in.computeExtendedAssignment(
+                            instance.get(name), op, right);
+                    }
+                    instance.set(name, right);
+                    return right;
+                };
+            }
+            // Evaluate the rule set.
+            case Expr.RuleSet expr -> {
+                var keyword = expr.keyword();
+                var ruleset = expr.ruleSet();
+                yield in -> {
+                    if (!ruleset.isStratified()) {
+                        throw new RuntimeError(keyword.span(),
+                            "Nero rule set cannot be stratified.");
+                    }
+                    return ruleset;
+                };
+            }
+            // A set literal
+            case Expr.SetLiteral expr -> {
+                var items = exprs(expr.list());
+                yield in -> {
+                    var set = new SetValue();
+                    for (var item : items) {
+                        set.add(item.run(in));
+                    }
+                    return set;
+                };
+            }
+            // Handle `super.<methodName>` in methods
+            case Expr.Super expr -> {
+                // "super" and "this" are each in slot 0 of their scopes.
+                var method = expr.method();
+                var distance = interpreter.address(expr).depth();
+                yield in -> {
+                    var superclass = (JoeClass)in.env.getAt(distance, 0);
+                    var instance = in.env.getAt(distance - 1, 0);
+                    var bound = superclass.bind(instance, method.lexeme());
+
+                    if (bound == null) {
+                        throw new RuntimeError(method.span(),
+                            "Undefined property '" + method.lexeme() + "'.");
+                    }
+                    return bound;
+                };
+            }
+            // Handle `this.<property>` in methods.
+            case Expr.This expr -> variable(Token.synthetic("this"), expr);
+            // The ternary `? :` operator
+            case Expr.Ternary expr -> {
+                var condition = expr(expr.condition());
+                var trueExpr = expr(expr.trueExpr());
+                var falseExpr = expr(expr.falseExpr());
+                yield in -> Joe.isTruthy(condition.run(in))
+                    ? trueExpr.run(in) : falseExpr.run(in);
+            }
+            // true
+            case Expr.True ignored -> in -> true;
+            // The unary operators
+            case Expr.Unary expr -> {
+                var op = expr.op();
+                var right = expr(expr.right());
+                yield switch (op.type()) {
+                    case BANG -> in -> !Joe.isTruthy(right.run(in));
+                    case MINUS -> in -> {
+                        var value = right.run(in);
+                        in.checkNumberOperand(op, value);
+                        return -(double)value;
+                    };
+                    default -> throw new IllegalStateException(
+                        "Unexpected operator: " + op);
+                };
+            }
+            // Get a variable's value
+            case Expr.VarGet expr -> variable(expr.name(), expr);
+            // ++ and -- with a variable name
+            case Expr.VarIncrDecr expr -> {
+                var op = expr.op();
+                var delta = op.type() == TokenType.PLUS_PLUS ? 1 : -1;
+                var isPre = expr.isPre();
+                var get = variable(expr.name(), expr);
+                var set = assigner(expr.name(), expr);
+                yield in -> {
+                    var prior = get.run(in);
+                    in.checkNumericTarget(op, prior);
+                    double assigned = (double)prior + delta;
+                    set.define(in, assigned);
+                    return isPre ? assigned : prior;
+                };
+            }
+            // Assign a value to a variable, using =, +=, -=, *=, /=
+            case Expr.VarSet expr -> {
+                var op = expr.op();
+                var value = expr(expr.value());
+                var set = assigner(expr.name(), expr);
+                if (op.type() == TokenType.EQUAL) {
+                    yield in -> {
+                        var right = value.run(in);
+                        set.define(in, right);
+                        return right;
+                    };
+                }
+                var get = variable(expr.name(), expr);
+                yield in -> {
+                    var right = value.run(in);
+                    right = in.computeExtendedAssignment(get.run(in), op, right);
+                    set.define(in, right);
+                    return right;
+                };
+            }
+        };
+    }
+
+    // Gets a node that retrieves the variable's value, by its resolved
+    // address if it is local and by name if it is global.
+    private Node variable(Token name, Expr expr) {
+        var address = interpreter.address(expr);
+        if (address == null) {
+            return in -> in.env.top().get(name);
+        }
+
+        var depth = address.depth();
+        var slot = address.slot();
+        return in -> in.env.getAt(depth, slot);
+    }
+
+    // Gets a definer that assigns a value to the variable, by its resolved
+    // address if it is local and by name if it is global.
+    private Definer assigner(Token name, Expr expr) {
+        var address = interpreter.address(expr);
+        if (address == null) {
+            return (in, value) -> in.env.top().assign(name, value);
+        }
+
+        var depth = address.depth();
+        var slot = address.slot();
+        return (in, value) -> in.env.assignAt(depth, slot, value);
+    }
+
+    //-------------------------------------------------------------------------
+    // Specializing Nodes
+
+    /**
+     * A binary operator that usually applies to Numbers.  The node
+     * specializes itself on the operand types it sees: it handles Numbers
+     * inline until the first time it sees any other operand, and then
+     * falls back permanently to the interpreter's general case.
+     */
+    private static final class NumericBinary implements Node {
+        private final Token op;
+        private final TokenType type;
+        private final Node left;
+        private final Node right;
+
+        // Set once the node has seen operands other than Numbers.
+        private boolean generic = false;
+
+        NumericBinary(Token op, Node left, Node right) {
+            this.op = op;
+            this.type = op.type();
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object run(Interpreter in) {
+            var a = left.run(in);
+            var b = right.run(in);
+
+            if (!generic) {
+                if (a instanceof Double x && b instanceof Double y) {
+                    return switch (type) {
+                        case GREATER -> x > y;
+                        case GREATER_EQUAL -> x >= y;
+                        case LESS -> x < y;
+                        case LESS_EQUAL -> x <= y;
+                        case MINUS -> x - y;
+                        case PLUS -> x + y;
+                        case SLASH -> x / y;
+                        case STAR -> x * y;
+                        default -> throw new IllegalStateException(
+                            "Unexpected operator: " + op);
+                    };
+                }
+                generic = true;
+            }
+
+            return in.binary(op, a, b);
+        }
+    }
+}
@@ -8,14 +8,18 @@ import com.wjduquette.joe.parser.Stmt;
 import com.wjduquette.joe.scanner.Token;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.function.Consumer;
 
 /**
  * The resolver is responsible for doing resolving variable names
- * to scopes, and for doing other scope-related checks.
+ * to scopes, and for doing other scope-related checks.  It assigns each
+ * local variable a slot in its scope, and resolves each reference to a
+ * local variable to its scope's depth and the variable's slot.
  */
 class Resolver {
     private enum ClassType {
@@ -25,9 +29,23 @@ class Resolver {
         RECORD               // In a record type
     }
 
+    // A local scope: the slot of each declared variable, in order of
+    // declaration, and the names of the variables defined so far.
+    private static class Scope {
+        final Map<String, Integer> slots = new HashMap<>();
+        final Set<String> defined = new HashSet<>();
+
+        // Declares the variable, returning its slot.
+        int declare(String name) {
+            var slot = slots.size();
+            slots.put(name, slot);
+            return slot;
+        }
+    }
+
     private final Interpreter interpreter;
     private final Consumer<Trace> reporter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.SCRIPT;
     private ClassType currentClass = ClassType.NONE;
 
@@ -57,7 +75,7 @@ class Resolver {
             case Stmt.Block stmt -> {
                 beginScope();
                 resolve(stmt.statements());
-                endScope();
+                endScope(stmt);
             }
             case Stmt.Break stmt -> {
                 if (loopCounter == 0) {
@@ -91,7 +109,10 @@ class Resolver {
                 if (!stmt.staticInit().isEmpty()) {
                     var oldFunction = currentFunction;
                     currentFunction = FunctionType.STATIC_INITIALIZER;
+                    var oldLoops = loopCounter;
+                    loopCounter = 0;
                     resolve(stmt.staticInit());
+                    loopCounter = oldLoops;
                     currentFunction = oldFunction;
                 }
 
@@ -108,12 +129,12 @@ class Resolver {
                     // Create a scope to put "super" in, for access
                     // by all methods defined directly on this class.
                     beginScope();
-                    scopes.peek().put("super", true);
+                    defineSynthetic("super");
                 }
 
                 // Instance methods
                 beginScope();
-                scopes.peek().put("this", true);
+                defineSynthetic("this");
                 for (Stmt.Function method : stmt.methods()) {
                     FunctionType declaration =
                         method.name().lexeme().equals(JoeClass.INIT)
@@ -184,7 +205,7 @@ class Resolver {
                     c.pattern().getVariableTokens().forEach(this::define);
                     if (c.guard() != null) resolve(c.guard());
                     resolve(c.statement());
-                    endScope();
+                    endScope(c);
                 }
                 if (stmt.matchDefault() != null) {
                     resolve(stmt.matchDefault());
@@ -210,13 +231,16 @@ class Resolver {
                 if (!stmt.staticInit().isEmpty()) {
                     var oldFunction = currentFunction;
                     currentFunction = FunctionType.STATIC_INITIALIZER;
+                    var oldLoops = loopCounter;
+                    loopCounter = 0;
                     resolve(stmt.staticInit());
+                    loopCounter = oldLoops;
                     currentFunction = oldFunction;
                 }
 
                 // Instance methods
                 beginScope();
-                scopes.peek().put("this", true);
+                defineSynthetic("this");
                 for (Stmt.Function method : stmt.methods()) {
                     resolveFunction(method, FunctionType.METHOD);
                 }
@@ -365,8 +389,10 @@ class Resolver {
             }
             case Expr.True ignored -> {}
             case Expr.VarGet expr -> {
+                var name = expr.name().lexeme();
                 if (!scopes.isEmpty() &&
-                    scopes.peek().get(expr.name().lexeme()) == Boolean.FALSE) {
+                    scopes.peek().slots.containsKey(name) &&
+                    !scopes.peek().defined.contains(name)) {
                     error(expr.name(),
                         "Can't read local variable in its own initializer.");
                 }
@@ -387,8 +413,9 @@ class Resolver {
 
     private void resolveLocal(Expr expr, Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme())) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+            var slot = scopes.get(i).slots.get(name.lexeme());
+            if (slot != null) {
+                interpreter.resolve(expr, scopes.size() - 1 - i, slot);
                 return;
             }
         }
@@ -397,38 +424,58 @@ class Resolver {
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+
+        // A function body is outside any enclosing loop.
+        var enclosingLoops = loopCounter;
+        loopCounter = 0;
         beginScope();
         for (Token param : function.params()) {
             declare(param);
             define(param);
         }
         resolve(function.body());
-        endScope();
+        endScope(function);
+        loopCounter = enclosingLoops;
         currentFunction = enclosingFunction;
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<>());
+        scopes.push(new Scope());
     }
 
     private void endScope() {
         scopes.pop();
     }
 
+    // Ends the scope belonging to the block, function, or match case,
+    // saving the number of slots the interpreter must allocate for it.
+    private void endScope(Object owner) {
+        interpreter.resolveScope(owner, scopes.pop().slots.size());
+    }
+
     private void declare(Token name) {
         if (scopes.isEmpty()) return;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme())) {
+        Scope scope = scopes.peek();
+        if (scope.slots.containsKey(name.lexeme())) {
             error(name,
                 "Already a variable with this name in this scope.");
+            return;
         }
-        scope.put(name.lexeme(), false);
+        interpreter.resolveSlot(name, scope.declare(name.lexeme()));
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme(), true);
+        scopes.peek().defined.add(name.lexeme());
+    }
+
+    // Declares and defines a variable that isn't declared in the script,
+    // e.g., "this".  It is the first variable in its scope, and so is in
+    // slot 0.
+    private void defineSynthetic(String name) {
+        scopes.peek().declare(name);
+        scopes.peek().defined.add(name);
     }
 
     // Saves the error detail.
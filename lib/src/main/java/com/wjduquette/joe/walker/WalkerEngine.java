@@ -2,6 +2,7 @@ package com.wjduquette.joe.walker;
 
 import com.wjduquette.joe.*;
 import com.wjduquette.joe.parser.ASTDumper;
+import com.wjduquette.joe.parser.ParsedScript;
 import com.wjduquette.joe.parser.Parser;
 import com.wjduquette.joe.parser.Stmt;
 import com.wjduquette.joe.SourceBuffer;
@@ -43,6 +44,28 @@ public class WalkerEngine implements Engine {
         interpreter = new Interpreter(joe);
     }
 
+    //-------------------------------------------------------------------------
+    // Configuration
+
+    /**
+     * Sets whether the engine compiles each script's AST to a tree of
+     * executable nodes before executing it, rather than walking the AST.
+     * Function bodies are compiled on first call.  Defaults to false.
+     * @param flag true or false
+     */
+    public void setCompiling(boolean flag) {
+        interpreter.setCompiling(flag);
+    }
+
+    /**
+     * Gets whether the engine compiles scripts to trees of executable
+     * nodes.
+     * @return true or false
+     */
+    public boolean isCompiling() {
+        return interpreter.isCompiling();
+    }
+
     //-------------------------------------------------------------------------
     // Engine API
 
@@ -68,17 +91,32 @@ public class WalkerEngine implements Engine {
     public Object run(String scriptName, String source) throws SyntaxError, JoeError {
         var buffer = new SourceBuffer(scriptName, source);
         var statements = parseAndResolve(buffer);
+        return execute(buffer, statements);
+    }
+
+    /**
+     * Executes the parsed script, throwing an appropriate error on failure.
+     * @param script The parsed script
+     * @return The script's result
+     * @throws SyntaxError if the script could not be resolved.
+     * @throws JoeError on all runtime errors.
+     */
+    @Override
+    public Object run(ParsedScript script) throws SyntaxError, JoeError {
+        syntaxTraces = new ArrayList<>();
+        var statements = resolve(script.statements());
+        return execute(script.buffer(), statements);
+    }
 
+    private Object execute(SourceBuffer buffer, List<Stmt> statements) {
         // Save the buffer, for later introspection.
-        buffers.put(scriptName, buffer);
+        buffers.put(buffer.filename(), buffer);
 
         try {
             return interpreter.interpret(statements);
         } catch (JoeError ex) {
             ex.addFrame("In <script>");
             throw ex;
-        } catch (Return ex) {
-            return ex.value;
         }
     }
 
@@ -99,8 +137,10 @@ public class WalkerEngine implements Engine {
     }
 
     private List<Stmt> parseAndResolve(SourceBuffer buffer) {
-        var statements = parse(buffer);
+        return resolve(parse(buffer));
+    }
 
+    private List<Stmt> resolve(List<Stmt> statements) {
         Resolver resolver = new Resolver(interpreter, syntaxTraces::add);
         resolver.resolve(statements);
 
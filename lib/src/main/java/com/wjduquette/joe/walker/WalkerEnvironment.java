@@ -6,15 +6,23 @@ import com.wjduquette.joe.scanner.Token;
 
 /**
  * A Walker environment: a Joe engine environment extended to support
- * Walker's local scopes.  This class is intentionally package-private.
+ * Walker's local scopes.  Global variables are stored by name; a local
+ * scope's variables are stored in a fixed-size array of slots assigned
+ * by the `Resolver`.  This class is intentionally package-private.
  */
 class WalkerEnvironment extends Environment {
     //-------------------------------------------------------------------------
     // Instance Variables
 
+    // The global scope has no slots.
+    private static final Object[] NO_SLOTS = new Object[0];
+
     // The enclosing scope, or null for the global scope.
     final WalkerEnvironment enclosing;
 
+    // The local scope's variables, by slot.
+    private final Object[] slots;
+
     //-------------------------------------------------------------------------
     // Constructors
 
@@ -23,15 +31,18 @@ class WalkerEnvironment extends Environment {
      * environment.
      */
     WalkerEnvironment() {
-        enclosing = null;
+        this.enclosing = null;
+        this.slots = NO_SLOTS;
     }
 
     /**
      * Creates a local environment with the given enclosing environment.
      * @param enclosing The enclosing environment.
+     * @param size The number of variable slots in the scope
      */
-    WalkerEnvironment(WalkerEnvironment enclosing) {
+    WalkerEnvironment(WalkerEnvironment enclosing, int size) {
         this.enclosing = enclosing;
+        this.slots = size == 0 ? NO_SLOTS : new Object[size];
     }
 
     //-------------------------------------------------------------------------
@@ -52,67 +63,73 @@ class WalkerEnvironment extends Environment {
     }
 
     /**
-     * Get the variable named by the token, walking up the chain of
-     * environments until it is found.
+     * Get the global variable named by the token.
      * @param name The variable name token
      * @return The value
      * @throws RuntimeError if the variable is not found.
      */
     Object get(Token name) {
-        if (values.containsKey(name.lexeme())) {
-            return values.get(name.lexeme());
+        var value = values.get(name.lexeme());
+        if (value != null || values.containsKey(name.lexeme())) {
+            return value;
+        }
+        if (base.containsKey(name.lexeme())) {
+            return base.get(name.lexeme());
         }
-
-        if (enclosing != null) return enclosing.get(name);
 
         throw new RuntimeError(name.span(),
             "Undefined variable: '" + name.lexeme() + "'.");
     }
 
     /**
-     * Assigns a value to the variable, walking up the chain of
-     * environments until it finds it.
+     * Assigns a value to the global variable named by the token.
      * @param name The variable name token
      * @param value The value
      * @throws RuntimeError if the variable is not found.
      */
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme())) {
+        if (values.containsKey(name.lexeme()) ||
+            base.containsKey(name.lexeme())
+        ) {
             values.put(name.lexeme(), value);
             return;
         }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-
         throw new RuntimeError(name.span(),
             "Undefined variable '" + name.lexeme() + "'.");
     }
 
     /**
-     * Gets the value for the variable, looking in the environment
-     * *distance* steps up the chain.  The `Resolver` computes this distance
-     * to speed up local variable access.
+     * Defines the local variable in the given slot of this scope.
+     * @param slot The slot
+     * @param value The value
+     */
+    void define(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    /**
+     * Gets the value of the local variable in the given slot of the
+     * environment *distance* steps up the chain.  The `Resolver` computes
+     * the distance and slot to speed up local variable access.
      * @param distance The distance
-     * @param name The variable name token
+     * @param slot The slot
      * @return The value
      */
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
     /**
-     * Assigns the value for the variable, looking in the environment
-     * *distance* steps up the chain.  The `Resolver` computes this distance
-     * to speed up local variable access.
+     * Assigns the value of the local variable in the given slot of the
+     * environment *distance* steps up the chain.  The `Resolver` computes
+     * the distance and slot to speed up local variable access.
      * @param distance The distance
-     * @param name The variable name token
+     * @param slot The slot
      * @param value The value
      */
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme(), value);
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 
     /**
@@ -130,4 +147,19 @@ class WalkerEnvironment extends Environment {
 
         return environment;
     }
+
+    //-------------------------------------------------------------------------
+    // Environment API
+
+    @Override
+    public String dump() {
+        if (enclosing == null) return super.dump();
+
+        var buff = new StringBuilder();
+        buff.append(this);
+        for (var i = 0; i < slots.length; i++) {
+            buff.append(String.format("\n  [%d] %s", i, slots[i]));
+        }
+        return buff.toString();
+    }
 }
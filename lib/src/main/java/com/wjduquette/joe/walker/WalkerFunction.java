@@ -22,6 +22,7 @@ final class WalkerFunction implements NativeCallable {
     private final boolean isVarArgs;
     private final String signature;
     private final boolean isLambda;
+    private final int scopeSize;
 
     //-------------------------------------------------------------------------
     // Constructor
@@ -39,6 +40,7 @@ final class WalkerFunction implements NativeCallable {
         this.isVarArgs = isVarArgs(declaration.params());
         this.isLambda = declaration.type() == FunctionType.LAMBDA;
         this.signature = makeSignature();
+        this.scopeSize = interpreter.scopeSize(declaration);
     }
 
     private boolean isVarArgs(List<Token> params) {
@@ -74,8 +76,9 @@ final class WalkerFunction implements NativeCallable {
     }
 
     WalkerFunction bind(Object instance) {
-        WalkerEnvironment environment = new WalkerEnvironment(closure);
-        environment.setVariable("this", instance);
+        // "this" is in slot 0 of its scope.
+        WalkerEnvironment environment = new WalkerEnvironment(closure, 1);
+        environment.define(0, instance);
         return new WalkerFunction(interpreter, declaration, environment,
             isInitializer);
     }
@@ -95,27 +98,24 @@ final class WalkerFunction implements NativeCallable {
             args.arity(expected, signature);
         }
 
-        // NEXT, create the environment for the arguments.
-        WalkerEnvironment environment = new WalkerEnvironment(closure);
+        // NEXT, create the environment for the arguments.  The
+        // parameters are in the first slots, in order.
+        WalkerEnvironment environment =
+            new WalkerEnvironment(closure, scopeSize);
 
         for (int i = 0; i < expected; i++) {
-            environment.setVariable(declaration.params().get(i).lexeme(),
-                args.next());
+            environment.define(i, args.next());
         }
 
         if (isVarArgs) {
             var varArgs = new ListValue(args.remainderAsList());
-            environment.setVariable(Parser.ARGS, varArgs);
+            environment.define(expected, varArgs);
         }
 
-        try {
-            var result = interpreter.executeBlock(declaration.body(), environment);
-            if (isInitializer) return closure.getAt(0, "this");
-            return result;
-        } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
-            return returnValue.value;
-        }
+        var result = interpreter.executeBody(declaration, environment);
+        if (isInitializer) return closure.getAt(0, 0);
+        if (result == Completion.RETURN) return interpreter.returnValue;
+        return result;
     }
 
     @Override
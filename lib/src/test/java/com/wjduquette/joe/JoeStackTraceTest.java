@@ -55,10 +55,20 @@ public class JoeStackTraceTest extends Ted {
               In function a(x) (*test*:2)
               In <script> (*test*:10)
             """;
+        // Clark reuses the caller's frame for a call in tail position.
+        var clarkTrace = """
+            Simulated error!
+              In function c(x) (*test*:8)
+                007 function c(x) {
+                008     throw "Simulated error!";
+                009 }
+              ... 2 tail calls elided ...
+              In <script> (*test*:10)
+            """;
 
         dumpScript(script);
         checkRun(walker, script, trace);
-        checkRun(clark, script, trace);
+        checkRun(clark, script, clarkTrace);
     }
 
     @Test
@@ -87,9 +97,20 @@ public class JoeStackTraceTest extends Ted {
               In function a(x) (*test*:2)
               In <script> (*test*:10)
             """;
+        // Clark reuses the caller's frame for a call in tail position.
+        var clarkTrace = """
+            Simulated Error
+              In lambda \\ (*test*:5)
+                004 function b(x) {
+                005     return c(\\-> {throw "Simulated Error"; });
+                006 }
+              In function c(callable) (*test*:8)
+              ... 2 tail calls elided ...
+              In <script> (*test*:10)
+            """;
         dumpScript(script);
         checkRun(walker, script, trace);
-        checkRun(clark, script, trace);
+        checkRun(clark, script, clarkTrace);
     }
 
     @Test
@@ -368,9 +389,19 @@ public class JoeStackTraceTest extends Ted {
               In function a(x) (*test*:2)
               In <script> (*test*:7)
             """;
+        // Clark reuses the caller's frame for a call in tail position.
+        var clarkTrace = """
+            Expected callable, got: Number '0'.
+              In function b(x) (*test*:5)
+                004 function b(x) {
+                005     return x();
+                006 }
+              ... 1 tail call elided ...
+              In <script> (*test*:7)
+            """;
         dumpScript(script);
         checkRun(walker, script, trace);
-        checkRun(clark, script, trace);
+        checkRun(clark, script, clarkTrace);
     }
 
     private Object _passThrough(Joe joe, Args args) {
@@ -3,6 +3,8 @@ package com.wjduquette.joe;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
+
 import static com.wjduquette.joe.checker.Checker.*;
 
 @SuppressWarnings("ConstantValue")
@@ -99,4 +101,29 @@ public class JoeTest extends Ted {
         check(engine.isComplete(normalError)).eq(true);
         check(engine.isComplete(errorPlusIncomplete)).eq(false);
     }
+
+    @Test
+    public void testSharedLibrary() {
+        test("testSharedLibrary");
+        for (var type : List.of(Joe.CLARK, Joe.WALKER)) {
+            var joe1 = new Joe(type);
+            var joe2 = new Joe(type);
+
+            // Both see the whole library
+            check(joe1.hasVariable("List")).eq(true);
+            check(joe2.getVariableNames().contains("println")).eq(true);
+            check(joe1.getVariableNames())
+                .eq(new Joe(type, null).getVariableNames());
+            check(joe1.run("*test*", "List.of(1, 2).size();")).eq(2.0);
+
+            // Redefining a library variable shadows it in that instance only
+            joe1.run("*test*", "function println(x) { return \"one\"; }");
+            joe1.run("*test*", "String = 5;");
+            check(joe1.run("*test*", "println(1);")).eq("one");
+            check(joe1.getVariable("String")).eq(5.0);
+            joe2.setOutputHandler(text -> {});
+            check(joe2.run("*test*", "println(1);")).eq(null);
+            check(joe2.getVariable("String")).eq(joe2.lookupProxy(String.class));
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package com.wjduquette.joe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.wjduquette.joe.checker.Checker.*;
+
+public class PackageRegistryTest extends Ted {
+    private Path folder;
+
+    @Before public void setup() throws IOException {
+        folder = Files.createTempDirectory("joe-pkg");
+    }
+
+    @After public void teardown() throws IOException {
+        try (var paths = Files.walk(folder)) {
+            for (var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testPreParsing() throws IOException {
+        test("testPreParsing");
+        for (var engine : List.of(Joe.CLARK, Joe.WALKER)) {
+            var joe = new Joe(engine);
+            joe.packageRegistry().setPreParsing(true);
+            joe.registerPackage(scripted("test.pre",
+                "var base = 10;",
+                "export function add(x) { return base + x; }"));
+
+            check(joe.packageRegistry().isLoaded("test.pre")).eq(false);
+            check(joe.run("*test*", "import test.pre.add; add(5);")).eq(15.0);
+        }
+    }
+
+    @Test
+    public void testPreParsing_beforeRegistration() throws IOException {
+        test("testPreParsing_beforeRegistration");
+        var joe = new Joe(Joe.CLARK);
+        var pkg = scripted("test.before",
+            "export function twice(x) { return 2*x; }");
+        joe.registerPackage(pkg);
+        check(pkg.isPreParsed()).eq(false);
+
+        joe.packageRegistry().setPreParsing(true);
+        check(pkg.isPreParsed()).eq(true);
+        check(joe.run("*test*", "import test.before.twice; twice(4);")).eq(8.0);
+    }
+
+    @Test
+    public void testPreParsing_modified() throws IOException {
+        test("testPreParsing_modified");
+        var file = write("mod.joe", "export function f() { return 1; }");
+        check(load(file)).eq(1.0);
+
+        // A new Joe gets the changed script, not the cached parse.
+        Files.writeString(file, "export function f() { return 22; }");
+        Files.setLastModifiedTime(file,
+            FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        check(load(file)).eq(22.0);
+    }
+
+    @Test
+    public void testClearParseCache() throws IOException {
+        test("testClearParseCache");
+        var file = write("clear.joe", "export function f() { return 1; }");
+        var modified = Files.getLastModifiedTime(file);
+        check(load(file)).eq(1.0);
+
+        // Same size and modification time: the cached parse is current.
+        Files.writeString(file, "export function f() { return 2; }");
+        Files.setLastModifiedTime(file, modified);
+        check(load(file)).eq(1.0);
+
+        PackageRegistry.clearParseCache();
+        check(load(file)).eq(2.0);
+    }
+
+    @Test
+    public void testPreParsing_syntaxError() throws IOException {
+        test("testPreParsing_syntaxError");
+        var file = write("bad.joe", "export function f( { return 1; }");
+
+        // The same cached error is reported to every loader.
+        for (var i = 0; i < 2; i++) {
+            try {
+                load(file);
+                fail("Expected error.");
+            } catch (JoeError ex) {
+                check(ex.getMessage()).containsString(
+                    "Could not compile package script '" + file +
+                    "' into package 'test.mod':\n[line 1] error at '{'");
+            }
+        }
+    }
+
+    private Object load(Path file) {
+        var joe = new Joe(Joe.CLARK);
+        joe.packageRegistry().setPreParsing(true);
+        joe.registerPackage(new ScriptedPackage("test.mod", folder,
+            List.of(file)));
+        return joe.run("*test*", "import test.mod.f; f();");
+    }
+
+    private ScriptedPackage scripted(String name, String... lines)
+        throws IOException
+    {
+        var file = write(name + ".joe", String.join("\n", lines));
+        return new ScriptedPackage(name, folder, List.of(file));
+    }
+
+    private Path write(String fileName, String text) throws IOException {
+        var file = folder.resolve(fileName);
+        Files.writeString(file, text);
+        return file;
+    }
+}
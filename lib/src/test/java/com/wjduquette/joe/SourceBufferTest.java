@@ -58,6 +58,27 @@ public class SourceBufferTest extends Ted {
         check(buff.index2line(buff.source().length())).eq(2);
     }
 
+    @Test
+    public void testIndex2line_many() {
+        // Lines of varying lengths, including empty lines.
+        var source = new StringBuilder();
+        for (var i = 1; i <= 100; i++) {
+            source.append("x".repeat(i % 7)).append("\n");
+        }
+        buff = new SourceBuffer("-", source.toString());
+        check(buff.lineCount()).eq(100);
+
+        var index = 0;
+        for (var line = 1; line <= 100; line++) {
+            var len = line % 7;
+            check(buff.index2line(index)).eq(line);
+            check(buff.index2line(index + len)).eq(line);
+            index += len + 1;
+        }
+        check(buff.index2line(-1)).eq(-1);
+        check(buff.index2line(index + 1)).eq(-1);
+    }
+
     @Test
     public void testIndex2Position() {
         buff = new SourceBuffer("-", "abc\ndef");
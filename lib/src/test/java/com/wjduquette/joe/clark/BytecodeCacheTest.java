@@ -0,0 +1,146 @@
+package com.wjduquette.joe.clark;
+
+import com.wjduquette.joe.Joe;
+import com.wjduquette.joe.Ted;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import static com.wjduquette.joe.checker.Checker.check;
+
+public class BytecodeCacheTest extends Ted {
+    private static final String SCRIPT = """
+        var total = 0;
+        function adder(n) { return \\x -> x + n; }
+        class Point {
+            static { var origin = "0,0"; }
+            method init(x, y) { @x = x; @y = y; }
+            method toString() { return "(" + @x + "," + @y + ")"; }
+        }
+        record Pair(left, right) {}
+        var add2 = adder(2);
+        var matched = "no";
+        match ([1, Pair(#a, "b")]) {
+            case [x, Pair(l, r)] -> matched = x + r;
+            default -> matched = "default";
+        }
+        var rules = ruleset {
+            define Parent/p,c;
+            Parent(#walker, #bert);
+            Ancestor(x, y) :- Parent(x, y);
+        };
+        var big = 2 * 10 + 1;
+        foreach (i : [1, 2, 3]) total += add2(i);
+        "" + Point(1, 2) + " " + matched + " " + total + " " + big;
+        """;
+
+    private Joe joe;
+    private Path dir;
+
+    @Before public void setup() throws IOException {
+        this.joe = new Joe(Joe.CLARK);
+        this.dir = Files.createTempDirectory("joec");
+    }
+
+    @After public void teardown() throws IOException {
+        try (var paths = Files.walk(dir)) {
+            for (var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        test("testRoundTrip");
+        var cache = new BytecodeCache(dir);
+        check(cache.load("test.joe", SCRIPT, true)).eq(null);
+
+        var compiled = new Compiler(joe).compile("test.joe", SCRIPT);
+        cache.save(SCRIPT, true, compiled);
+        var loaded = cache.load("test.joe", SCRIPT, true);
+        check(loaded != null).eq(true);
+        checkSame(compiled, loaded);
+
+        // The optimization setting is part of the key.
+        check(cache.load("test.joe", SCRIPT, false)).eq(null);
+    }
+
+    @Test
+    public void testEngine() throws IOException {
+        test("testEngine");
+        var engine = (ClarkEngine)joe.engine();
+        check(engine.getCacheDirectory()).eq(null);
+        engine.setCacheDirectory(dir);
+        check(engine.getCacheDirectory()).eq(dir);
+
+        var expected = "(1,2) 1b 12 21";
+        check(joe.run("test.joe", SCRIPT)).eq(expected);
+        check(countFiles()).eq(1L);
+
+        // A second interpreter loads the cached script.
+        var joe2 = new Joe(Joe.CLARK);
+        ((ClarkEngine)joe2.engine()).setCacheDirectory(dir);
+        check(joe2.run("test.joe", SCRIPT)).eq(expected);
+        check(countFiles()).eq(1L);
+
+        // A corrupt file is ignored and replaced.
+        try (var paths = Files.list(dir)) {
+            Files.writeString(paths.findFirst().orElseThrow(), "garbage");
+        }
+        check(joe2.run("test.joe", SCRIPT)).eq(expected);
+        check(new BytecodeCache(dir).load("test.joe", SCRIPT, true) != null)
+            .eq(true);
+    }
+
+    @Test
+    public void testCorruptLength() throws IOException {
+        test("testCorruptLength");
+        var cache = new BytecodeCache(dir);
+        cache.save(SCRIPT, true, new Compiler(joe).compile("test.joe", SCRIPT));
+
+        // The function's name length follows the magic number and format
+        // version; a huge length is rejected, not allocated.
+        Path file;
+        try (var paths = Files.list(dir)) {
+            file = paths.findFirst().orElseThrow();
+        }
+        var bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putInt(8, Integer.MAX_VALUE - 8);
+        Files.write(file, bytes);
+        check(cache.load("test.joe", SCRIPT, true)).eq(null);
+    }
+
+    //-------------------------------------------------------------------------
+    // Helpers
+
+    private long countFiles() throws IOException {
+        try (var paths = Files.list(dir)) {
+            return paths.count();
+        }
+    }
+
+    // Verifies that the two functions, and the functions they define,
+    // disassemble identically.
+    private void checkSame(Function a, Function b) {
+        var disassembler = new Disassembler(joe);
+        check(disassembler.disassemble(b)).eq(disassembler.disassemble(a));
+        check(b.source().source()).eq(a.source().source());
+        check(b.caches.length).eq(a.caches.length);
+
+        for (var i = 0; i < a.constants.length; i++) {
+            if (a.constants[i] instanceof Function f) {
+                checkSame(f, (Function)b.constants[i]);
+            } else {
+                check(String.valueOf(b.constants[i]))
+                    .eq(String.valueOf(a.constants[i]));
+            }
+        }
+    }
+}
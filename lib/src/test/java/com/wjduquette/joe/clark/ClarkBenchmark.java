@@ -0,0 +1,124 @@
+package com.wjduquette.joe.clark;
+
+import com.wjduquette.joe.Joe;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A simple benchmark harness for the Clark engine.  It is not a unit
+ * test; run it by hand, e.g., before and after a VM change, and compare
+ * the results.  For each benchmark it reports the elapsed time and the
+ * bytes allocated by the current thread per run, after a warm-up.
+ *
+ * <p>Usage: {@code ClarkBenchmark [name...]}</p>
+ */
+public class ClarkBenchmark {
+    private static final int WARMUP_RUNS = 5;
+    private static final int TIMED_RUNS = 10;
+
+    // Each benchmark script defines a `bench()` function; the harness
+    // times calls to it.
+    private static final Map<String, String> BENCHMARKS =
+        new LinkedHashMap<>();
+
+    static {
+        BENCHMARKS.put("numericLoop", """
+            function bench() {
+                var sum = 0;
+                for (var i = 0; i < 1000000; i++) sum += i;
+                return sum;
+            }
+            """);
+        BENCHMARKS.put("arithmetic", """
+            function bench() {
+                var x = 0;
+                var i = 0;
+                while (i < 1000000) {
+                    x = (x * 3 + i) / 2 - 1;
+                    i = i + 1;
+                }
+                return x;
+            }
+            """);
+        BENCHMARKS.put("methodCalls", """
+            class Counter {
+                method init() { @count = 0; }
+                method bump(n) { @count = @count + n; return this; }
+            }
+            function bench() {
+                var c = Counter();
+                for (var i = 0; i < 200000; i++) c.bump(1).bump(2);
+                return c.count;
+            }
+            """);
+        BENCHMARKS.put("fib", """
+            function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }
+            function bench() { return fib(25); }
+            """);
+        BENCHMARKS.put("constructors", """
+            class Point {
+                method init(x, y) { @x = x; @y = y; }
+            }
+            function bench() {
+                var sum = 0;
+                for (var i = 0; i < 100000; i++) sum = sum + Point(i, 1).x;
+                return sum;
+            }
+            """);
+        BENCHMARKS.put("nativeMethods", """
+            function bench() {
+                var list = [];
+                var n = 0;
+                for (var i = 0; i < 100000; i++) {
+                    list.add(i);
+                    n = n + "abc".length() + list.size();
+                }
+                return n;
+            }
+            """);
+    }
+
+    public static void main(String[] args) {
+        var names = args.length > 0 ? args : BENCHMARKS.keySet().toArray(new String[0]);
+
+        System.out.printf("%-16s %12s %16s%n", "Benchmark", "ms/run", "bytes/run");
+        for (var name : names) {
+            var script = BENCHMARKS.get(name);
+            if (script == null) {
+                System.out.println("Unknown benchmark: " + name);
+                continue;
+            }
+            run(name, script);
+        }
+    }
+
+    private static void run(String name, String script) {
+        var joe = new Joe(Joe.CLARK);
+        joe.run(name, script);
+        var bench = joe.getVariable("bench");
+
+        for (var i = 0; i < WARMUP_RUNS; i++) {
+            joe.call(bench);
+        }
+
+        var bytes0 = allocatedBytes();
+        var start = System.nanoTime();
+        for (var i = 0; i < TIMED_RUNS; i++) {
+            joe.call(bench);
+        }
+        var nanos = System.nanoTime() - start;
+        var bytes = allocatedBytes() - bytes0;
+
+        System.out.printf("%-16s %12.2f %16d%n", name,
+            nanos / 1e6 / TIMED_RUNS, bytes / TIMED_RUNS);
+    }
+
+    // Gets the number of bytes allocated by this thread so far.
+    private static long allocatedBytes() {
+        var bean = (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+    }
+}
@@ -4,11 +4,13 @@ import com.wjduquette.joe.*;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
+
 import static com.wjduquette.joe.checker.Checker.check;
 import static com.wjduquette.joe.checker.Checker.fail;
 
 public class ClarkEngineTest extends Ted {
-    private Joe joe;
+    Joe joe;
 
     @Before public void setup() {
         this.joe = new Joe(Joe.CLARK);
@@ -72,6 +74,773 @@ public class ClarkEngineTest extends Ted {
         }
     }
 
+    @Test
+    public void testGlobals_javaAndScript() {
+        test("testGlobals_javaAndScript");
+
+        // Globals set from Java are visible to compiled code, and vice versa.
+        joe.setVariable("x", 2.0);
+        joe.run("*test*", """
+            function bump() { x = x + 1; return x; }
+            var y = bump();
+            """);
+        check(joe.getVariable("x")).eq(3.0);
+        check(joe.getVariable("y")).eq(3.0);
+        check(joe.getVariableNames().contains("bump")).eq(true);
+
+        // A global referenced but never defined is not a variable.
+        check(joe.hasVariable("z")).eq(false);
+        try {
+            joe.run("*test*", "z;");
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage()).eq("Undefined variable: 'z'.");
+        }
+        check(joe.hasVariable("z")).eq(false);
+
+        // Defining it later makes it visible to the existing function.
+        joe.run("*test*", "function getZ() { return z; }");
+        joe.setVariable("z", "later");
+        check(joe.call(joe.getVariable("getZ"))).eq("later");
+    }
+
+    @Test
+    public void testUnboxedNumbers() {
+        test("testUnboxedNumbers");
+
+        // Numeric results are kept unboxed on the stack; verify that they
+        // are boxed correctly wherever they leave it.
+        joe.run("*test*", """
+            function calc(n) {
+                var sum = 0;
+                for (var i = 0; i < n; i++) sum += i*2;
+                return sum;
+            }
+            function capture(n) {
+                var x = n + 1;
+                var get = \\-> x;
+                x = x * 10;
+                return get;
+            }
+            function pair(a, args) { return [a, args]; }
+            function post() { var i = 5 - 1; var j = i++; return [i, j]; }
+            var total = calc(5);
+            var closed = capture(1)();
+            var list = [1 + 2, -(3 - 4), (2 + 3) * (1 + 1)];
+            var varargs = pair(1 - 1, 2 * 2, 3 / 3);
+            var posts = post();
+            var eq = [1 - 1 == 0, 0 - 0 == -0, 2*2 != 4, (1 + 1) < (1 + 2)];
+            var text = "x" + (1 + 1) + (3 - 1);
+            """);
+        check(joe.getVariable("total")).eq(20.0);
+        check(joe.getVariable("closed")).eq(20.0);
+        check(joe.stringify(joe.getVariable("list"))).eq("[3, 1, 10]");
+        check(joe.stringify(joe.getVariable("varargs"))).eq("[0, [4, 1]]");
+        check(joe.stringify(joe.getVariable("posts"))).eq("[5, 4]");
+        check(joe.stringify(joe.getVariable("eq")))
+            .eq("[true, false, false, true]");
+        check(joe.getVariable("text")).eq("x22");
+
+        // Errors are still detected.
+        try {
+            joe.run("*test*", "var s = \"a\"; s - (1 + 1);");
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage())
+                .eq("The '-' operator expects two numeric operands.");
+        }
+    }
+
+    @Test
+    public void testInlineCaches() {
+        test("testInlineCaches");
+
+        // The same PROPGET/PROPSET/INVOKE sites see instances of many
+        // shapes: different classes, different field orders, more shapes
+        // than the cache holds, and a field that shadows a method.
+        joe.run("*test*", """
+            class A {
+                method init(x) { @x = x; }
+                method name() { return "A" + @x; }
+            }
+            class B extends A {
+                method init(x) { @y = 0; super.init(x); }
+                method name() { return "B" + @x; }
+            }
+            class C {
+                method init(x) { @x = x; @name = \\-> "C" + @x; }
+            }
+            class D extends A {
+                method init(x) { super.init(x); @z = 0; }
+            }
+            class E extends B {
+                method name() { return "E" + @x; }
+            }
+            function names(items) {
+                var result = [];
+                foreach (item : items) {
+                    item.x = item.x + 1;
+                    var m = item.name;
+                    result.add(item.name() + m());
+                }
+                return result;
+            }
+            var items = [A(1), B(2), C(3), D(4), E(5)];
+            foreach (i : [0, 1, 2, 3, 4, 5]) {
+                var obj = A(i);
+                for (var j = 0; j < i; j++) obj.x = obj.x + 1;
+                items.add(obj);
+            }
+            var result = names(items);
+            var again = names(items);
+            """);
+        check(joe.stringify(joe.getVariable("result")))
+            .eq("[A2A2, B3B3, C4C4, A5A5, E6E6, A1A1, A3A3, A5A5, A7A7, A9A9, A11A11]");
+        check(joe.stringify(joe.getVariable("again")))
+            .eq("[A3A3, B4B4, C5C5, A6A6, E7E7, A2A2, A4A4, A6A6, A8A8, A10A10, A12A12]");
+
+        // The fields are visible as an ordered map.
+        joe.run("*test*", """
+            var b = B(1);
+            b.z = 2;
+            """);
+        var b = (Instance)joe.getVariable("b");
+        check(b.getFieldNames().toString()).eq("[y, x, z]");
+        check(b.getMatchableFieldMap().toString()).eq("{y=0.0, x=1.0, z=2.0}");
+    }
+
+    @Test
+    public void testMethodDispatch() {
+        test("testMethodDispatch");
+
+        // super calls through a class hierarchy, including inherited
+        // methods and bound super methods.
+        var script = """
+            class A {
+                method hi(x) { return "A" + x; }
+                method toString() { return "a"; }
+            }
+            class B extends A { }
+            class C extends B {
+                method hi(x) { return "C" + super.hi(x); }
+                method text() { return super.toString(); }
+            }
+            class D extends C {
+                method hi(x) { var f = super.hi; return "D" + f(x); }
+            }
+            class F { method hi(x) { return "F" + x; } }
+            function greet(o) { return o.hi(1); }
+            function hello(o) { return o.hello(); }
+            var results = [greet(A()), greet(B()), greet(C()), greet(D()),
+                D().text()];
+            """;
+        check(joe.dump("*test*", script).contains("SUPINVOKE")).eq(true);
+        joe.run("*test*", script);
+        check(joe.stringify(joe.getVariable("results")))
+            .eq("[A1, A1, CA1, DCA1, a]");
+
+        // Adding a method to a class after it's in use invalidates the
+        // cached lookups; replacing a method is seen via its vtable slot.
+        var b = (ClarkClass)joe.getVariable("B");
+        var c = (ClarkClass)joe.getVariable("C");
+        var hello = joe.getVariable("hello");
+        try {
+            joe.call(hello, joe.run("*test*", "B();"));
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage()).eq("Undefined property 'hello'.");
+        }
+
+        b.addMethod("hello", c.method("text"));
+        check(joe.call(hello, joe.run("*test*", "B();"))).eq("a");
+        var f = (ClarkClass)joe.getVariable("F");
+        b.addMethod("hi", f.method("hi"));
+        check(joe.run("*test*", "greet(B());")).eq("F1");
+    }
+
+    @Test
+    public void testInvoke_native() {
+        test("testInvoke_native");
+
+        // INVOKE calls proxied methods directly, caching them by receiver
+        // class; the same site sees several classes.
+        joe.run("*test*", """
+            function empties(items) {
+                var result = [];
+                foreach (item : items) result.add(item.isEmpty());
+                return result;
+            }
+            var list = [];
+            list.add("a");
+            list.add("bc".toUpperCase());
+            var result = empties(["x", list, "", {:}, []]);
+            """);
+        check(joe.stringify(joe.getVariable("list"))).eq("[a, BC]");
+        check(joe.stringify(joe.getVariable("result")))
+            .eq("[false, false, true, true, true]");
+
+        // Errors in native methods get the usual stack trace info.
+        try {
+            joe.run("*test*", "\"abc\".substring();");
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getJoeStackTrace().contains("In native method substring(...)"))
+                .eq(true);
+        }
+    }
+
+    @Test
+    public void testDeepRecursion() {
+        test("testDeepRecursion");
+
+        // The value stack and call frame stack grow as needed.
+        joe.run("*test*", """
+            function depth(n) { return n == 0 ? 0 : 1 + depth(n - 1); }
+            var result = depth(5000);
+            """);
+        check(joe.getVariable("result")).eq(5000.0);
+        check(joe.call(joe.getVariable("depth"), 2000.0)).eq(2000.0);
+    }
+
+    @Test
+    public void testCallDepthLimit() {
+        test("testCallDepthLimit");
+        var engine = (ClarkEngine)joe.engine();
+        engine.setMaxCallDepth(100);
+        check(engine.getMaxCallDepth()).eq(100);
+
+        joe.run("*test*", """
+            function depth(n) { return n == 0 ? 0 : 1 + depth(n - 1); }
+            var result = depth(90);
+            """);
+        check(joe.getVariable("result")).eq(90.0);
+
+        try {
+            joe.run("*test*", "depth(100);");
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage()).eq("Call stack overflow.");
+        }
+
+        // The VM is still usable afterwards.
+        check(joe.call(joe.getVariable("depth"), 10.0)).eq(10.0);
+    }
+
+    @Test
+    public void testTailCalls() {
+        test("testTailCalls");
+        var engine = (ClarkEngine)joe.engine();
+        engine.setMaxCallDepth(100);
+
+        // Tail calls reuse the caller's frame, so recursion in tail
+        // position isn't limited by the call depth.
+        var script = """
+            function loop(n, acc) {
+                if (n == 0) return acc;
+                return loop(n - 1, acc + 1);
+            }
+            function isEven(n) { if (n == 0) return true; return isOdd(n - 1); }
+            function isOdd(n) { if (n == 0) return false; return isEven(n - 1); }
+            function sum(n, acc, args) {
+                if (n == 0) return acc + args.size();
+                return sum(n - 1, acc + n, 1, 2);
+            }
+            class Thing { method init(x) { this.x = x; } }
+            function make(x) { return Thing(x); }
+            var results = [loop(1000, 0), isEven(1001), sum(200, 0), make(5).x];
+            """;
+        check(joe.dump("*test*", script).contains("TAILCALL")).eq(true);
+
+        for (var flag : List.of(true, false)) {
+            engine.setOptimizing(flag);
+            joe.run("*test*", script);
+            check(joe.stringify(joe.getVariable("results")))
+                .eq("[1000, false, 20102, 5]");
+        }
+        check(joe.call(joe.getVariable("loop"), 500.0, 1.0)).eq(501.0);
+
+        // The stack trace notes the elided frames.
+        try {
+            joe.run("*test*", """
+                function boom(n) {
+                    if (n == 0) throw "Boom!";
+                    return boom(n - 1);
+                }
+                boom(3);
+                """);
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage()).eq("Boom!");
+            check(ex.getJoeStackTrace().contains("3 tail calls elided"))
+                .eq(true);
+        }
+    }
+
+    @Test
+    public void testStackSizeLimit() {
+        test("testStackSizeLimit");
+        var engine = (ClarkEngine)joe.engine();
+        engine.setMaxStackSize(1000);
+        check(engine.getMaxStackSize()).eq(1000);
+
+        try {
+            joe.run("*test*", """
+                function depth(n) { return n == 0 ? 0 : 1 + depth(n - 1); }
+                depth(5000);
+                """);
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage()).eq("Value stack overflow.");
+        }
+    }
+
+    @Test
+    public void testSuperinstructions() {
+        test("testSuperinstructions");
+
+        // The peephole pass fuses common sequences; verify that the
+        // fused code behaves like the original.
+        var script = """
+            function count(n) {
+                var up = 0;
+                var down = 0;
+                for (var i = 0; i < n; i++) { up++; --down; }
+                var j = n;
+                while (j > 0) j--;
+                return [up, down, j];
+            }
+            function compare(a, b) {
+                var result = [];
+                if (a < b) result.add("lt");
+                if (a == b) result.add("eq");
+                if (a != 1) result.add("ne");
+                return result;
+            }
+            function before(a) { if (a <= "m") return true; return false; }
+            class Pair { method init(a, b) { @a = a; @b = b; } }
+            function pair(a, b) { return [a, b]; }
+            var counts = count(5);
+            var nums = compare(1, 2);
+            var strs = compare("a", "b");
+            var bs = [before("a"), before("z")];
+            var calls = [pair(1, true), Pair(null, "x").b, count(0)];
+            """;
+        var dump = joe.dump("*test*", script);
+        check(dump.contains("LOCINCR")).eq(true);
+        check(dump.contains("LOCDECR")).eq(true);
+        check(dump.contains("JIFLC")).eq(true);
+        check(dump.contains("JIFLL")).eq(true);
+        check(dump.contains("GLOCALL")).eq(true);
+
+        joe.run("*test*", script);
+        check(joe.stringify(joe.getVariable("counts"))).eq("[5, -5, 0]");
+        check(joe.stringify(joe.getVariable("nums"))).eq("[lt]");
+        check(joe.stringify(joe.getVariable("strs"))).eq("[lt, ne]");
+        check(joe.stringify(joe.getVariable("bs"))).eq("[true, false]");
+        check(joe.stringify(joe.getVariable("calls")))
+            .eq("[[1, true], x, [0, 0, 0]]");
+
+        // Errors are still detected.
+        try {
+            joe.run("*test*", "function f() { var s = \"a\"; s++; } f();");
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage()).eq("Target of '++' must contain a number.");
+        }
+        try {
+            joe.run("*test*", "compare(1, \"b\");");
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage())
+                .eq("The '<' operator expects two Numbers or two Strings.");
+        }
+        try {
+            joe.run("*test*", "function g() { return nonesuch(1); } g();");
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage()).eq("Undefined variable: 'nonesuch'.");
+        }
+    }
+
+    @Test
+    public void testOptimizer() {
+        test("testOptimizer");
+
+        // Jumps to jumps, dead code, and reloads; the results must be
+        // the same with and without the optimizer.
+        var script = """
+            function classify(items) {
+                var result = [];
+                foreach (item : items) {
+                    if (item < 0) {
+                        continue;
+                    } else if (item == 0) {
+                        result.add("zero");
+                    } else {
+                        if (item > 100) break;
+                        result.add(item > 2 ? "big" : "small");
+                    }
+                }
+                return result;
+                result.add("dead");
+            }
+            function find(items, x) {
+                var i = 0;
+                while (true) {
+                    if (i >= items.size()) return -1;
+                    if (items[i] == x) return i;
+                    i = i + 1;
+                }
+            }
+            function reload(a) { var b; b = a; return b + 1; }
+            var classes = classify([1, -1, 0, 2, 200, 3]);
+            var found = [find([5, 6, 7], 7), find([], 1)];
+            var reloaded = reload(2);
+            """;
+        var engine = (ClarkEngine)joe.engine();
+        check(engine.isOptimizing()).eq(true);
+        check(joe.dump("*test*", script).contains("Optimized size:")).eq(true);
+
+        for (var flag : List.of(true, false)) {
+            engine.setOptimizing(flag);
+            joe.run("*test*", script);
+            check(joe.stringify(joe.getVariable("classes")))
+                .eq("[small, zero, small]");
+            check(joe.stringify(joe.getVariable("found"))).eq("[2, -1]");
+            check(joe.getVariable("reloaded")).eq(3.0);
+        }
+        check(joe.dump("*test*", script).contains("Optimized size:")).eq(false);
+    }
+
+    @Test
+    public void testConstantFolding() {
+        test("testConstantFolding");
+
+        // Folded expressions, dead branches, and propagated globals; the
+        // results must be the same with and without folding.
+        var script = """
+            var DEBUG = false;
+            var NAME = "joe";
+            var LIMIT = 2 * 10 + 1;
+            var changed = 1;
+            var greeting = "Hello, " + NAME + "! " + LIMIT;
+            var pick = DEBUG ? 1 : "two";
+            var both = DEBUG && unknown();
+            var either = !DEBUG || unknown();
+            var cmp = ["a" < "b", 1 >= 2, -LIMIT, 1 == 1.0, null != false];
+            var log = [];
+            if (DEBUG) log.add("debug");
+            if (!DEBUG && LIMIT > 20) log.add("limit"); else log.add("no");
+            function getName() { return NAME; }
+            function change() { changed = 2; }
+            change();
+            var after = changed;
+            """;
+        var engine = (ClarkEngine)joe.engine();
+        var dump = joe.dump("*test*", script);
+        check(dump.contains("'Hello, joe! 21'")).eq(true);
+        check(dump.contains("'limit'")).eq(true);
+        check(dump.contains("JIF")).eq(false);
+        check(dump.contains("JITKEEP")).eq(false);
+
+        for (var flag : List.of(true, false)) {
+            engine.setOptimizing(flag);
+            joe.run("*test*", script);
+            check(joe.getVariable("greeting")).eq("Hello, joe! 21");
+            check(joe.stringify(joe.getVariable("log"))).eq("[limit]");
+            check(joe.getVariable("pick")).eq("two");
+            check(joe.getVariable("both")).eq(false);
+            check(joe.getVariable("either")).eq(true);
+            check(joe.stringify(joe.getVariable("cmp")))
+                .eq("[true, false, -21, true, true]");
+            check(joe.getVariable("after")).eq(2.0);
+        }
+
+        // Folding doesn't hide errors.
+        engine.setOptimizing(true);
+        check(joe.dump("*test*", "var x = 1 + true;").contains("ADD"))
+            .eq(true);
+    }
+
+    @Test
+    public void testConstantFolding_otherScripts() {
+        test("testConstantFolding_otherScripts");
+
+        // Code from another script can assign a global between its
+        // declaration and its use; a call or import ends propagation,
+        // as does a loop containing one.
+        var engine = (ClarkEngine)joe.engine();
+        for (var flag : List.of(true, false)) {
+            engine.setOptimizing(flag);
+            joe.run("a.joe", """
+                function setX() { x = 5; }
+                function setY() { y = 7; }
+                """);
+            joe.run("b.joe", """
+                var x = 1;
+                setX();
+                var afterCall = x;
+                var y = 2;
+                var inLoop = [];
+                for (var i = 0; i < 2; i++) {
+                    inLoop.add(y);
+                    setY();
+                }
+                """);
+            check(joe.getVariable("afterCall")).eq(5.0);
+            check(joe.stringify(joe.getVariable("inLoop"))).eq("[2, 7]");
+        }
+    }
+
+    @Test
+    public void testCollectionLiterals() {
+        test("testCollectionLiterals");
+        var engine = (ClarkEngine)joe.engine();
+
+        // Literals build their collections in one instruction; constant
+        // literals copy a template, and each copy is a new collection.
+        var script = """
+            function lists(x) { return [[1, "a", #b, null], [x, x + 1], []]; }
+            function maps(x) { return [{#a: 1, #b: 2, #a: 3}, {#x: x}, {:}]; }
+            function sets(x) { return [{1, 2, 2}, {x, x}, {}]; }
+            var a = lists(5);
+            a[0].add(9);
+            var results = [a, lists(5), maps(5), sets(5)];
+            """;
+        var dump = joe.dump("*test*", script);
+        for (var op : List.of("TEMPLATE", "LISTOF", "MAPOF", "SETOF")) {
+            check(dump.contains(op)).eq(true);
+        }
+
+        for (var flag : List.of(true, false)) {
+            engine.setOptimizing(flag);
+            joe.run("*test*", script);
+            check(joe.stringify(joe.getVariable("results"))).eq(
+                "[[[1, a, #b, null, 9], [5, 6], []], " +
+                "[[1, a, #b, null], [5, 6], []], " +
+                "[{#a: 3, #b: 2}, {#x: 5}, {:}], " +
+                "[{1, 2}, {5}, {}]]");
+        }
+    }
+
+    @Test
+    public void testJitThreshold() {
+        test("testJitThreshold");
+        var engine = (ClarkEngine)joe.engine();
+
+        // A function is compiled on the call after the threshold, and
+        // its compiled code gives the interpreter's results.
+        engine.setJitThreshold(2);
+        joe.run("*test*", """
+            function sq(x) { return x*x; }
+            var a = sq(3) + sq(4);
+            """);
+        var sq = ((Closure)joe.getVariable("sq")).function;
+        check(sq.jitCode == null).eq(true);
+
+        joe.run("*test*", "var b = sq(5) + sq(\"x\" == \"x\" ? 6 : 0);");
+        check(sq.jitCode != null).eq(true);
+        check(joe.getVariable("a")).eq(25.0);
+        check(joe.getVariable("b")).eq(61.0);
+
+        // -1 disables compilation.
+        engine.setJitThreshold(-1);
+        joe.run("*test*", """
+            function cube(x) { return x*x*x; }
+            for (var i = 0; i < 10; i++) cube(i);
+            """);
+        var cube = ((Closure)joe.getVariable("cube")).function;
+        check(cube.jitCode == null).eq(true);
+    }
+
+    @Test
+    public void testStringConcat() {
+        test("testStringConcat");
+        var engine = (ClarkEngine)joe.engine();
+
+        // Chains of `+` with a string compile to CONCAT, which must
+        // give the same results as a chain of ADDs.
+        var script = """
+            class P { method toString() { return "P" + 1 + "!"; } }
+            function chains(x, y) {
+                var s = "";
+                for (var i = 0; i < 3; i++) s += "<" + i + ">";
+                return [x + 2 + "a" + y + 3, "a" + "b" + x + y,
+                    "[" + P() + "]" + P(), s];
+            }
+            var results = chains(1, "b");
+            """;
+        check(joe.dump("*test*", script).contains("CONCAT")).eq(true);
+
+        for (var flag : List.of(true, false)) {
+            engine.setOptimizing(flag);
+            joe.run("*test*", script);
+            check(joe.stringify(joe.getVariable("results")))
+                .eq("[3ab3, ab1b, [P1!]P1!, <0><1><2>]");
+        }
+
+        try {
+            joe.run("*test*", "var bad = true + 1 + \"x\";");
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage())
+                .eq("The '+' operator expects two Numbers or at least one String.");
+        }
+    }
+
+    @Test
+    public void testClosureCaptures() {
+        test("testClosureCaptures");
+
+        // Captures by value and by reference, and shared closures; the
+        // results must be the same with and without optimization.
+        var script = """
+            function counter() { var n = 0; return \\-> ++n; }
+            function nested(a) { var b = a*2; return \\-> \\-> a + b; }
+            function later() { var x = 1; var f = \\-> x; x = 2; return f(); }
+            function loop() {
+                var fs = [];
+                foreach (i : [1, 2, 3]) { var j = i; fs.add(\\-> i + j*10); }
+                return fs.map(\\f -> f());
+            }
+            function lambdas() {
+                var fs = [];
+                foreach (i : [1, 2]) fs.add(\\y -> y);
+                return fs;
+            }
+            var c = counter();
+            c();
+            var results = [c(), nested(3)()(), later(), loop()];
+            """;
+        var engine = (ClarkEngine)joe.engine();
+        var dump = joe.dump("*test*", script);
+        check(dump.contains("CAPGET")).eq(true);
+        check(dump.contains("value 2")).eq(true);
+
+        for (var flag : List.of(true, false)) {
+            engine.setOptimizing(flag);
+            joe.run("*test*", script);
+            check(joe.stringify(joe.getVariable("results")))
+                .eq("[2, 9, 2, [13, 23, 33]]");
+        }
+
+        // A lambda that captures nothing is shared.
+        engine.setOptimizing(true);
+        joe.run("*test*", "var fs = lambdas();");
+        var fs = (List<?>)joe.getVariable("fs");
+        check(fs.get(0) == fs.get(1)).eq(true);
+    }
+
+    @Test
+    public void testClosureCaptures_patterns() {
+        test("testClosureCaptures_patterns");
+
+        // Variables bound by a pattern are rebound on each match, and
+        // must be captured by reference.
+        var script = """
+            function whileMatch() {
+                var items = [[1], [2], [3]];
+                var i = 0;
+                var g;
+                while (i < 3 && items[i] ~ [a]) {
+                    if (g == null) g = \\-> a;
+                    i++;
+                }
+                return g();
+            }
+            var result = whileMatch();
+            """;
+        var engine = (ClarkEngine)joe.engine();
+
+        for (var flag : List.of(true, false)) {
+            engine.setOptimizing(flag);
+            joe.run("*test*", script);
+            check(joe.getVariable("result")).eq(3.0);
+        }
+    }
+
+    @Test
+    public void testTraceSink() {
+        test("testTraceSink");
+        var engine = (ClarkEngine)joe.engine();
+        joe.run("*test*", "function twice(x) { return 2*x; }");
+        var twice = joe.getVariable("twice");
+
+        // Trace a single call.
+        var buffer = new TraceBuffer(3);
+        check(engine.getTraceSink()).eq(null);
+        engine.setTraceSink(buffer);
+        check(joe.call(twice, 3.0)).eq(6.0);
+        engine.setTraceSink(null);
+
+        var lines = buffer.lines();
+        lines.forEach(this::println);
+        check(lines.size()).eq(3);
+        check(lines.get(1).contains("MUL")).eq(true);
+        check(lines.get(1).endsWith("► 6.0 ")).eq(true);
+        check(lines.get(2).contains("RETURN")).eq(true);
+
+        // No tracing when the sink is cleared.
+        buffer.clear();
+        check(joe.call(twice, 4.0)).eq(8.0);
+        check(buffer.lines().isEmpty()).eq(true);
+    }
+
+    @Test
+    public void testProfiler() {
+        test("testProfiler");
+        var engine = (ClarkEngine)joe.engine();
+        var profiler = new Profiler();
+        check(engine.getProfiler()).eq(null);
+        engine.setProfiler(profiler);
+        joe.run("*test*", """
+            class Thing { method init(n) { @n = n; } }
+            function fib(n) { return n <= 1 ? n : fib(n - 1) + fib(n - 2); }
+            function make(n) { return [Thing(n), "#" + n]; }
+            fib(10);
+            make(1);
+            make(2);
+            """);
+        engine.setProfiler(null);
+        println(profiler.report(10));
+
+        var fib = profiler.functions().stream()
+            .filter(f -> f.name().startsWith("fib(n)"))
+            .findFirst().orElseThrow();
+        check(fib.calls()).eq(177L);
+        check(fib.inclusiveNanos() >= fib.exclusiveNanos()).eq(true);
+        check(profiler.opcodeCounts().get("RETURN")).eq(177L + 2 + 2 + 1);
+
+        var sites = profiler.allocationSites();
+        check(sites.get("LISTOF at *test*:3")).eq(2L);
+        check(sites.get("GLOCALL at *test*:3")).eq(2L);
+        check(sites.get("ADD at *test*:3")).eq(2L);
+        check(sites.containsKey("ADD at *test*:2")).eq(false);
+
+        var stacks = profiler.collapsedStacks();
+        println(stacks);
+        check(stacks.lines().allMatch(s -> s.matches("[^ ].* \\d+"))).eq(true);
+
+        // An error unwinds the profile's call stack.
+        engine.setProfiler(profiler);
+        try {
+            joe.run("*test*", """
+                function boom() { throw "boom"; }
+                function outer() { boom(); }
+                outer();
+                """);
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage()).eq("boom");
+        }
+        engine.setProfiler(null);
+        check(profiler.depth()).eq(0);
+
+        profiler.reset();
+        check(profiler.functions().isEmpty()).eq(true);
+        check(profiler.opcodeCounts().isEmpty()).eq(true);
+    }
+
     //-------------------------------------------------------------------------
     // Helpers
 
@@ -0,0 +1,25 @@
+package com.wjduquette.joe.clark;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.List;
+
+import static com.wjduquette.joe.checker.Checker.check;
+
+/**
+ * Runs the {@link ClarkEngineTest} tests with every function compiled
+ * to JVM byte-code before its first call.
+ */
+public class ClarkJitTest extends ClarkEngineTest {
+    @Before @Override public void setup() {
+        super.setup();
+        ((ClarkEngine)joe.engine()).setJitThreshold(0);
+    }
+
+    @After public void checkTranslations() {
+        // A function whose translation fails falls back to the
+        // interpreter; make sure none did.
+        check(((ClarkEngine)joe.engine()).getJitFailures()).eq(List.of());
+    }
+}
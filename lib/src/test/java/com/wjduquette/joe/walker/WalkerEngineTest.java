@@ -8,7 +8,7 @@ import static com.wjduquette.joe.checker.Checker.check;
 import static com.wjduquette.joe.checker.Checker.fail;
 
 public class WalkerEngineTest extends Ted {
-    private Joe joe;
+    Joe joe;
 
     @Before public void setup() {
         this.joe = new Joe(Joe.WALKER);
@@ -72,9 +72,140 @@ public class WalkerEngineTest extends Ted {
         }
     }
 
+    @Test
+    public void testBinarySpecialization() {
+        test("testBinarySpecialization");
+
+        // Verify that "+" and "<" give the right results when a site that
+        // has seen only numbers sees strings, and vice versa.
+        joe.run("*test*", """
+            function add(a, b) { return a + b; }
+            function less(a, b) { return a < b; }
+            """);
+        var add = joe.getVariable("add");
+        var less = joe.getVariable("less");
+
+        check(joe.call(add, 1.0, 2.0)).eq(3.0);
+        check(joe.call(add, "a", 2.0)).eq("a2");
+        check(joe.call(add, 1.0, 2.0)).eq(3.0);
+        check(joe.call(less, 1.0, 2.0)).eq(true);
+        check(joe.call(less, "b", "a")).eq(false);
+
+        try {
+            joe.call(less, 1.0, "a");
+            fail("Expected error.");
+        } catch (JoeError ex) {
+            check(ex.getMessage())
+                .eq("The '<' operator expects two Numbers or two Strings.");
+        }
+    }
+
+    @Test
+    public void testLocalSlots() {
+        test("testLocalSlots");
+
+        // Verify that locals in nested scopes, closures, patterns, and
+        // methods resolve to the right slots.
+        var result = joe.run("*test*", """
+            function outer(n) {
+                var total = 0;
+                var [a, b] = [n, 2*n];
+                class Base { method f(x) { return x + a; } }
+                class Sub extends Base {
+                    method f(x) { return super.f(x) + b; }
+                }
+                foreach (i : [1, 2, 3]) {
+                    var j = i*10;
+                    total += j;
+                }
+                if ([1, n] ~ [1, c]) { total += c; }
+                var add = \\x -> x + total;
+                return [add(1), Sub().f(100)];
+            }
+            outer(3);
+            """);
+        check(joe.stringify(result)).eq("[64, 109]");
+    }
+
+    @Test
+    public void testBreakInNestedFunction() {
+        test("testBreakInNestedFunction");
+
+        // A function or static initializer nested in a loop is not itself
+        // in the loop.
+        checkSyntaxError("""
+            while (true) { function f() { break; } }
+            """, "'break' used outside of loop.");
+        checkSyntaxError("""
+            foreach (x : [1]) { var f = \\-> { continue; }; }
+            """, "'continue' used outside of loop.");
+        checkSyntaxError("""
+            for (var i = 0; i < 1; i++) {
+                class Thing { static { break; } }
+            }
+            """, "'break' used outside of loop.");
+    }
+
+    @Test
+    public void testReturnFromNestedLoops() {
+        test("testReturnFromNestedLoops");
+
+        // A return completes every loop and match it is nested in.
+        var result = joe.run("*test*", """
+            function find(target) {
+                for (var i = 0; i < 3; i++) {
+                    var j = 0;
+                    while (j < 3) {
+                        foreach (k : [0, 1, 2]) {
+                            match ([i, j, k]) {
+                                case [a, b, c] if a + b + c == target ->
+                                    return [a, b, c];
+                                default -> {}
+                            }
+                        }
+                        j++;
+                    }
+                }
+                return "none";
+            }
+            [find(4), find(99)];
+            """);
+        check(joe.stringify(result)).eq("[[0, 2, 2], none]");
+    }
+
+    @Test
+    public void testFallOffEnd() {
+        test("testFallOffEnd");
+
+        // A function without a return, or whose loop breaks before it
+        // reaches one, returns null.
+        var result = joe.run("*test*", """
+            function empty() {}
+            function loops() {
+                var n = 0;
+                while (true) {
+                    n++;
+                    if (n > 2) break;
+                    continue;
+                }
+            }
+            [empty(), loops(), \\-> { var x = 1; }()];
+            """);
+        check(joe.stringify(result)).eq("[null, null, null]");
+    }
+
     //-------------------------------------------------------------------------
     // Helpers
 
+    private void checkSyntaxError(String script, String message) {
+        try {
+            joe.run("*test*", script);
+            fail("Expected error.");
+        } catch (SyntaxError ex) {
+            check(ex.getErrorReport()).containsString(message);
+        }
+    }
+
     private Object _unexpected(Joe joe, Args args) {
         args.arity(1, "unexpected(message)");
         throw new UnsupportedOperationException(joe.stringify(args.next()));
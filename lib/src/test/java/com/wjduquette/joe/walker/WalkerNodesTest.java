@@ -0,0 +1,14 @@
+package com.wjduquette.joe.walker;
+
+import org.junit.Before;
+
+/**
+ * Runs the {@link WalkerEngineTest} tests with the engine compiling
+ * scripts to trees of nodes.
+ */
+public class WalkerNodesTest extends WalkerEngineTest {
+    @Before @Override public void setup() {
+        super.setup();
+        ((WalkerEngine)joe.engine()).setCompiling(true);
+    }
+}